@@ -0,0 +1,64 @@
+package com.ale.nicecameraexample;
+
+import android.hardware.Camera;
+import android.hardware.Camera.PictureCallback;
+
+/**
+ * The real {@link Camera}, as seen by a {@link CameraLifecycle}.<br />
+ * Everything that doesn't change the state of the camera (parameters, callbacks,
+ * orientation...) can be done directly on {@link #getCamera()}.
+ */
+public class AndroidCameraDevice implements CameraLifecycle.Device {
+
+	private final Camera camera;
+	private final int cameraID;
+	private final PictureCallback pictureCallback;
+	private final Runnable beforeRelease;
+
+	/**
+	 * @param camera an open camera
+	 * @param cameraID its ID
+	 * @param pictureCallback who receives the pictures
+	 * @param beforeRelease run just before the camera is released (after the preview
+	 * has been stopped), to stop anything that uses it, or null
+	 */
+	public AndroidCameraDevice(Camera camera, int cameraID, PictureCallback pictureCallback, Runnable beforeRelease) {
+		this.camera = camera;
+		this.cameraID = cameraID;
+		this.pictureCallback = pictureCallback;
+		this.beforeRelease = beforeRelease;
+	}
+
+	@Override
+	public void startPreview() {
+		this.camera.startPreview();
+	}
+
+	@Override
+	public void stopPreview() {
+		this.camera.stopPreview();
+	}
+
+	@Override
+	public void takePicture() {
+		this.camera.takePicture(null, null, this.pictureCallback);
+	}
+
+	@Override
+	public void release() {
+		if (this.beforeRelease != null) {
+			this.beforeRelease.run();
+		}
+
+		this.camera.setPreviewCallback(null);
+		this.camera.release();
+	}
+
+	public Camera getCamera() {
+		return this.camera;
+	}
+
+	public int getCameraID() {
+		return this.cameraID;
+	}
+}
@@ -0,0 +1,165 @@
+package com.ale.nicecameraexample;
+
+import android.graphics.Bitmap;
+
+/**
+ * Keeps the bitmaps that are not needed anymore, so that the next picture of the
+ * same size can be decoded (or drawn) into one of them instead of allocating a new one.
+ * A full-size picture takes megabytes: allocating two of them for every shot
+ * (the decoded one and the rotated one) and throwing them away soon fills the
+ * memory with garbage, and the collector pauses the app to clean it up.<br />
+ * Bitmaps are looked up by size and {@link Bitmap.Config}. The pool never keeps more
+ * than its budget (in bytes): when it's full, the least recently released bitmaps
+ * are recycled. It's thread-safe.<br />
+ * The number of hits (bitmaps reused) and misses (bitmaps that had to be allocated)
+ * tells how much it's worth: see {@link #getHitRate()} and {@link #getAllocatedBytes()}.
+ * The pooling itself is done by a {@link SizedPool}, which can be measured without a device.
+ */
+public class BitmapPool {
+
+	private static final SizedPool.Allocator<Bitmap> ALLOCATOR = new SizedPool.Allocator<Bitmap>() {
+		@Override
+		public Bitmap allocate(int width, int height, int format) {
+			return Bitmap.createBitmap(width, height, Bitmap.Config.values()[format]);
+		}
+
+		@Override
+		public int getWidth(Bitmap bitmap) {
+			return bitmap.getWidth();
+		}
+
+		@Override
+		public int getHeight(Bitmap bitmap) {
+			return bitmap.getHeight();
+		}
+
+		@Override
+		public int getFormat(Bitmap bitmap) {
+			// the config of some bitmaps is not known
+			Bitmap.Config config = bitmap.getConfig();
+			return (config == null) ? -1 : config.ordinal();
+		}
+
+		@Override
+		public int sizeOf(Bitmap bitmap) {
+			// getByteCount() is not available before API 12
+			return bitmap.getRowBytes() * bitmap.getHeight();
+		}
+
+		@Override
+		public boolean isReusable(Bitmap bitmap) {
+			return bitmap.isMutable() && !bitmap.isRecycled();
+		}
+
+		@Override
+		public void discard(Bitmap bitmap) {
+			bitmap.recycle();
+		}
+	};
+
+	private final SizedPool<Bitmap> pool;
+
+	/**
+	 * @param maxBytes how much memory the bitmaps in the pool can take, at most
+	 */
+	public BitmapPool(long maxBytes) {
+		this.pool = new SizedPool<Bitmap>(ALLOCATOR, maxBytes);
+	}
+
+	/**
+	 * Takes a bitmap from the pool or, if there's none of the given size, allocates a new one.
+	 * Its content is undefined.
+	 * @return a mutable bitmap, that can be given back with {@link #release(Bitmap)}
+	 */
+	public Bitmap acquire(int width, int height, Bitmap.Config config) {
+		return this.pool.acquire(width, height, config.ordinal());
+	}
+
+	/**
+	 * Takes a bitmap from the pool, if there's one of the given size. It's counted as a
+	 * hit or a miss: in the second case the caller should allocate the bitmap by itself,
+	 * and tell it to the pool with {@link #onAllocated(Bitmap)}.
+	 * @return a mutable bitmap, or null
+	 */
+	public Bitmap poll(int width, int height, Bitmap.Config config) {
+		return this.pool.poll(width, height, config.ordinal());
+	}
+
+	/**
+	 * Counts a bitmap that has been allocated because {@link #poll(int, int, Bitmap.Config)} returned null.
+	 */
+	public void onAllocated(Bitmap bitmap) {
+		this.pool.onAllocated(bitmap);
+	}
+
+	/**
+	 * Gives a bitmap back to the pool. If it's bigger than the whole budget,
+	 * or it can't be reused, it's recycled.
+	 * @param bitmap a bitmap that is not used anymore, or null
+	 */
+	public void release(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return;
+		}
+		this.pool.release(bitmap);
+	}
+
+	/**
+	 * Recycles all the bitmaps in the pool.
+	 */
+	public void clear() {
+		this.pool.clear();
+	}
+
+	/**
+	 * @return how many bytes the bitmaps in the pool take
+	 */
+	public long getSize() {
+		return this.pool.getSize();
+	}
+
+	public long getMaxSize() {
+		return this.pool.getMaxSize();
+	}
+
+	public long getHitCount() {
+		return this.pool.getHitCount();
+	}
+
+	public long getMissCount() {
+		return this.pool.getMissCount();
+	}
+
+	/**
+	 * @return how many bitmaps have been recycled to stay within the budget
+	 */
+	public long getEvictionCount() {
+		return this.pool.getEvictionCount();
+	}
+
+	/**
+	 * @return the fraction of requests served by the pool, between 0 and 1
+	 */
+	public double getHitRate() {
+		return this.pool.getHitRate();
+	}
+
+	/**
+	 * @return how many bytes have been allocated because the pool had no bitmap to give
+	 */
+	public long getAllocatedBytes() {
+		return this.pool.getAllocatedBytes();
+	}
+
+	/**
+	 * @return how many bytes have been reused instead of being allocated
+	 */
+	public long getReusedBytes() {
+		return this.pool.getReusedBytes();
+	}
+
+	@Override
+	public String toString() {
+		return "BitmapPool: " + this.pool;
+	}
+}
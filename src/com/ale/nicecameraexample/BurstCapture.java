@@ -0,0 +1,382 @@
+package com.ale.nicecameraexample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Saves a burst of consecutive preview frames, as fast as the device allows.<br />
+ * Asking the camera for a picture stops the preview, and it must be restarted
+ * after every shot: a few pictures per second at best. Here the frames come from
+ * the preview, which never stops, and go through three stages that work in parallel:
+ * <ol>
+ * <li>capture: the frame is copied into one of the slots allocated once and for all
+ * (on the thread that calls {@link #onFrame(byte[], long)})</li>
+ * <li>encode: the copy is encoded to JPEG (on the "BurstEncoder" thread)</li>
+ * <li>write: the JPEG is saved (on the "BurstWriter" thread)</li>
+ * </ol>
+ * so frame i is being written while frame i+1 is encoded and frame i+2 is captured.<br />
+ * A slot is busy until its frame has been written, so the slots limit the memory
+ * used by the burst. When the encoder or the writer fall behind there's no free slot
+ * and the new frames are skipped: the burst gets slower, but memory doesn't grow.
+ * At the end, a {@link Result} tells the sustained frame rate, how many frames have
+ * been skipped and how much memory has been used at most.<br />
+ * A burst can be cut short with {@link #cancel()}, for example when the preview stops:
+ * the frames already captured are saved, the others are counted as skipped.
+ */
+public class BurstCapture {
+
+	/**
+	 * How a burst went.
+	 */
+	public static class Result {
+		/** frames requested, captured (copied into a slot), skipped for lack of a free slot, written, failed */
+		public int requested, captured, skipped, written, failed;
+		/** from the first captured frame to the last written one, in milliseconds */
+		public long elapsedMs;
+		/** frames written per second */
+		public double writtenFps;
+		/** the slots, plus the biggest amount of encoded pictures waiting to be written, in bytes */
+		public long memoryCeilingBytes;
+		/** the first error, or null */
+		public Exception error;
+		/** true if the burst has been stopped by {@link BurstCapture#cancel()} */
+		public boolean cancelled;
+
+		@Override
+		public String toString() {
+			return written + "/" + requested + " frames written in " + elapsedMs + " ms (" + Math.round(writtenFps * 10) / 10.0 + " fps), "
+				+ skipped + " skipped, " + failed + " failed, memory ceiling " + memoryCeilingBytes / 1024 + " KB" + (cancelled ? ", cancelled" : "");
+		}
+	}
+
+	/**
+	 * Receives the result of a burst. It's called on the writer's thread.
+	 */
+	public interface BurstListener {
+		void onBurstFinished(Result result);
+	}
+
+	/**
+	 * A burst in progress. The capture counters are written only by the thread that
+	 * delivers the frames, the others by the encoder and the writer: they're all
+	 * read and written under the lock of the object.
+	 */
+	private static class Burst {
+		final Result result = new Result();
+		final int rotationDegrees;
+		final BurstListener listener;
+		long startNanos = 0;
+		int completed = 0;
+		long pendingBytes = 0;
+		long peakPendingBytes = 0;
+
+		Burst(int frameCount, int rotationDegrees, BurstListener listener) {
+			this.result.requested = frameCount;
+			this.rotationDegrees = rotationDegrees;
+			this.listener = listener;
+		}
+
+		synchronized boolean isCaptureDone() {
+			return this.result.cancelled || this.result.captured == this.result.requested;
+		}
+
+		synchronized boolean isFinished() {
+			return isCaptureDone() && this.completed == this.result.captured;
+		}
+	}
+
+	private static final int JPEG_QUALITY = 90;
+
+	private final int width;
+	private final int height;
+	private final int frameSize;
+	private final int slotCount;
+	private final ArrayBlockingQueue<byte[]> freeSlots;
+	private final JpegEncoder encoder;
+	private final PictureStore store;
+	private final ExecutorService encoderExecutor;
+	private final ExecutorService writerExecutor;
+
+	// used only by the encoder's thread
+	private final ByteArrayOutputStream encodeBuffer;
+
+	private volatile Burst current;
+
+	/**
+	 * Allocates the slots and starts the threads.
+	 * @param slotCount how many frames can be in the pipeline at the same time (at least 2,
+	 * to overlap the stages: 3 or more is better)
+	 * @param width frame width
+	 * @param height frame height
+	 * @param encoder encodes the frames
+	 * @param store where the pictures are saved. It's flushed at the end of every burst.
+	 */
+	public BurstCapture(int slotCount, int width, int height, JpegEncoder encoder, PictureStore store) {
+		if (slotCount < 2) {
+			throw new IllegalArgumentException("at least two slots are required, got " + slotCount);
+		}
+
+		this.width = width;
+		this.height = height;
+		this.frameSize = width * height * 3 / 2;
+		this.slotCount = slotCount;
+		this.encoder = encoder;
+		this.store = store;
+		this.encodeBuffer = new ByteArrayOutputStream(this.frameSize / 4);
+
+		this.freeSlots = new ArrayBlockingQueue<byte[]>(slotCount);
+		for (int i = 0; i < slotCount; i++) {
+			this.freeSlots.add(new byte[this.frameSize]);
+		}
+
+		this.encoderExecutor = Executors.newSingleThreadExecutor(namedThreads("BurstEncoder"));
+		this.writerExecutor = Executors.newSingleThreadExecutor(namedThreads("BurstWriter"));
+	}
+
+	/**
+	 * Starts a burst: the next frames given to {@link #onFrame(byte[], long)} are saved.
+	 * @param frameCount how many frames to save
+	 * @param rotationDegrees how much (clockwise) the frames must be rotated to be upright
+	 * @param listener who receives the result, or null
+	 * @return false if a burst is already in progress
+	 */
+	public synchronized boolean start(int frameCount, int rotationDegrees, BurstListener listener) {
+		if (frameCount < 1) {
+			throw new IllegalArgumentException("at least one frame is required, got " + frameCount);
+		}
+		if (this.current != null) {
+			return false;
+		}
+
+		this.current = new Burst(frameCount, rotationDegrees, listener);
+		return true;
+	}
+
+	/**
+	 * To be called for every preview frame. It returns immediately if no burst is in
+	 * progress, otherwise it copies the frame (if there's a free slot) and returns.
+	 * Must be always called by the same thread.
+	 * @param nv21 the frame, at least width * height * 3 / 2 bytes
+	 * @param timestampNanos when it has been delivered
+	 */
+	public void onFrame(byte[] nv21, long timestampNanos) {
+		Burst burst = this.current;
+		if (burst == null || burst.isCaptureDone()) {
+			return;
+		}
+
+		byte[] slot = this.freeSlots.poll();
+		synchronized (burst) {
+			if (burst.isCaptureDone()) {
+				// cancelled in the meantime
+				releaseSlot(slot);
+				return;
+			}
+			if (burst.startNanos == 0) {
+				burst.startNanos = timestampNanos;
+			}
+			if (slot == null) {
+				// the encoder or the writer are behind
+				burst.result.skipped++;
+				return;
+			}
+		}
+
+		System.arraycopy(nv21, 0, slot, 0, this.frameSize);
+		synchronized (burst) {
+			if (burst.isCaptureDone()) {
+				// cancelled while copying: this frame is one of the skipped ones
+				releaseSlot(slot);
+				return;
+			}
+			burst.result.captured++;
+		}
+		encode(burst, slot);
+	}
+
+	/**
+	 * Stops the burst in progress, if any: no more frames are captured, the ones
+	 * already captured are saved, and then the listener receives the result with
+	 * the missing frames counted as skipped. It can be called from any thread.
+	 */
+	public void cancel() {
+		Burst burst = this.current;
+		if (burst == null) {
+			return;
+		}
+
+		synchronized (burst) {
+			if (burst.isCaptureDone()) {
+				// it's going to finish by itself
+				return;
+			}
+			burst.result.cancelled = true;
+			burst.result.skipped += burst.result.requested - burst.result.captured;
+			if (!burst.isFinished()) {
+				// the last frame in the pipeline completes it
+				return;
+			}
+		}
+		scheduleFinish(burst);
+	}
+
+	/**
+	 * @return true if a burst is in progress
+	 */
+	public boolean isRunning() {
+		return this.current != null;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	public int getSlotCount() {
+		return this.slotCount;
+	}
+
+	/**
+	 * @return the memory taken by the slots, in bytes
+	 */
+	public long getSlotBytes() {
+		return (long) this.slotCount * this.frameSize;
+	}
+
+	/**
+	 * Stops the threads. The frames already captured are saved anyway, but the
+	 * burst they belong to may never finish.
+	 */
+	public void shutdown() {
+		this.encoderExecutor.shutdown();
+		this.writerExecutor.shutdown();
+	}
+
+	private void encode(final Burst burst, final byte[] slot) {
+		this.encoderExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				byte[] jpeg;
+				try {
+					encodeBuffer.reset();
+					encoder.encode(slot, width, height, JPEG_QUALITY, encodeBuffer);
+					jpeg = ExifOrientation.setOrientation(encodeBuffer.toByteArray(), burst.rotationDegrees);
+				}
+				catch (Exception e) {
+					onFrameDone(burst, slot, -1, e);
+					return;
+				}
+
+				synchronized (burst) {
+					burst.pendingBytes += jpeg.length;
+					burst.peakPendingBytes = Math.max(burst.peakPendingBytes, burst.pendingBytes);
+				}
+				write(burst, slot, jpeg);
+			}
+		});
+	}
+
+	private void write(final Burst burst, final byte[] slot, final byte[] jpeg) {
+		this.writerExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Exception error = null;
+				try {
+					store.save(jpeg, 0, jpeg.length, burst.rotationDegrees);
+				}
+				catch (IOException e) {
+					error = e;
+				}
+				onFrameDone(burst, slot, jpeg.length, error);
+			}
+		});
+	}
+
+	/**
+	 * The slot is free again, and the burst may be finished.
+	 * @param jpegLength the size of the encoded picture, or -1 if it couldn't be encoded
+	 * @param error what went wrong, or null
+	 */
+	private void onFrameDone(Burst burst, byte[] slot, int jpegLength, Exception error) {
+		this.freeSlots.add(slot);
+
+		synchronized (burst) {
+			burst.completed++;
+			if (jpegLength >= 0) {
+				burst.pendingBytes -= jpegLength;
+			}
+			if (error == null) {
+				burst.result.written++;
+			}
+			else {
+				burst.result.failed++;
+				if (burst.result.error == null) {
+					burst.result.error = error;
+				}
+			}
+
+			if (!burst.isFinished()) {
+				return;
+			}
+		}
+
+		// the last frame may have been written by either thread: the writer completes the burst
+		scheduleFinish(burst);
+	}
+
+	private void releaseSlot(byte[] slot) {
+		if (slot != null) {
+			this.freeSlots.add(slot);
+		}
+	}
+
+	private void scheduleFinish(final Burst burst) {
+		this.writerExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				finish(burst);
+			}
+		});
+	}
+
+	private void finish(Burst burst) {
+		try {
+			this.store.flush();
+		}
+		catch (IOException e) {
+			if (burst.result.error == null) {
+				burst.result.error = e;
+			}
+		}
+
+		Result result = burst.result;
+		// a burst cancelled before its first frame took no time
+		long elapsedNanos = (burst.startNanos == 0) ? 0 : System.nanoTime() - burst.startNanos;
+		result.elapsedMs = elapsedNanos / 1000000;
+		result.writtenFps = (elapsedNanos > 0) ? result.written * 1e9 / elapsedNanos : 0;
+		result.memoryCeilingBytes = getSlotBytes() + burst.peakPendingBytes;
+
+		synchronized (this) {
+			this.current = null;
+		}
+		if (burst.listener != null) {
+			burst.listener.onBurstFinished(result);
+		}
+	}
+
+	private static ThreadFactory namedThreads(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, name);
+			}
+		};
+	}
+}
@@ -0,0 +1,265 @@
+package com.ale.nicecameraexample;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers what every camera of the device supports (preview and picture sizes)
+ * and which sizes have been chosen, in a small file, so that the next startups
+ * don't need to enumerate them again: on many devices
+ * {@link android.hardware.Camera#getParameters()} parses a long string at every call,
+ * and it's one of the slowest steps of the camera setup.<br />
+ * The entries are valid only for the build of the system that wrote them (see
+ * {@link android.os.Build#FINGERPRINT}): after a system update they are thrown away,
+ * because the camera drivers may have changed.<br />
+ * The file is read by {@link #load()} and written by {@link #save()}: both can be
+ * called on a background thread, so that the UI thread only works in memory
+ * (see {@link CameraOpener}).<br />
+ * This class doesn't depend on Android. All the methods are thread-safe.
+ */
+public class CameraCapabilityCache {
+
+	private static final int MAGIC = 0x4e434343; // "NCCC"
+	private static final int VERSION = 1;
+
+	/**
+	 * What is known about a camera. Sizes are stored as (width, height) pairs
+	 * in flat arrays: {w0, h0, w1, h1, ...}.
+	 */
+	public static class Entry {
+		public final int[] previewSizes;
+		public final int[] pictureSizes;
+
+		/** the chosen sizes... */
+		public final int previewWidth;
+		public final int previewHeight;
+		public final int pictureWidth;
+		public final int pictureHeight;
+
+		/** ...and the limits they have been chosen with */
+		public final int previewMaxWidth;
+		public final int pictureMaxWidth;
+
+		public Entry(int[] previewSizes, int[] pictureSizes,
+			int previewWidth, int previewHeight, int pictureWidth, int pictureHeight,
+			int previewMaxWidth, int pictureMaxWidth) {
+
+			this.previewSizes = previewSizes;
+			this.pictureSizes = pictureSizes;
+			this.previewWidth = previewWidth;
+			this.previewHeight = previewHeight;
+			this.pictureWidth = pictureWidth;
+			this.pictureHeight = pictureHeight;
+			this.previewMaxWidth = previewMaxWidth;
+			this.pictureMaxWidth = pictureMaxWidth;
+		}
+
+		/**
+		 * @return true if the chosen sizes are still good for the given limits
+		 */
+		public boolean isChosenWith(int previewMaxWidth, int pictureMaxWidth) {
+			return this.previewMaxWidth == previewMaxWidth && this.pictureMaxWidth == pictureMaxWidth;
+		}
+	}
+
+	private final File file;
+	private final String buildFingerprint;
+	private final Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+	private boolean loaded = false;
+
+	/**
+	 * Held while the file is written (before the lock on 'this', never after it),
+	 * so that two saves don't mix their temporary files.
+	 */
+	private final Object fileLock = new Object();
+
+	/**
+	 * @param file where the entries are stored
+	 * @param buildFingerprint the identifier of the system build, usually {@link android.os.Build#FINGERPRINT}
+	 */
+	public CameraCapabilityCache(File file, String buildFingerprint) {
+		this.file = file;
+		this.buildFingerprint = (buildFingerprint == null) ? "" : buildFingerprint;
+	}
+
+	/**
+	 * @param cameraId the id of the camera, as given to {@link android.hardware.Camera#open(int)}
+	 * @return what is known about the camera, or null if it has never been stored
+	 * (or it has been stored by another system build). The file is read now if
+	 * {@link #load()} hasn't been called yet.
+	 */
+	public synchronized Entry get(int cameraId) {
+		load();
+		return this.entries.get(cameraId);
+	}
+
+	/**
+	 * Stores the capabilities of a camera, and writes the file again.
+	 * @param cameraId the id of the camera
+	 * @param entry what is known about it
+	 * @throws IOException if the file can't be written. The entry is kept in memory anyway.
+	 */
+	public void put(int cameraId, Entry entry) throws IOException {
+		update(cameraId, entry);
+		save();
+	}
+
+	/**
+	 * Stores the capabilities of a camera in memory only: the file is written
+	 * by the next {@link #save()}.
+	 * @param cameraId the id of the camera
+	 * @param entry what is known about it
+	 */
+	public synchronized void update(int cameraId, Entry entry) {
+		load();
+		this.entries.put(cameraId, entry);
+	}
+
+	/**
+	 * Forgets every entry, and deletes the file.
+	 */
+	public void clear() {
+		synchronized (this.fileLock) {
+			synchronized (this) {
+				this.entries.clear();
+				this.loaded = true;
+				this.file.delete();
+			}
+		}
+	}
+
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Reads the file, if it hasn't been read yet. A missing, corrupted or
+	 * outdated file just means an empty cache.
+	 */
+	public synchronized void load() {
+		if (this.loaded) {
+			return;
+		}
+		this.loaded = true;
+
+		if (!this.file.exists()) {
+			return;
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !this.buildFingerprint.equals(in.readUTF())) {
+				return;
+			}
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				int cameraId = in.readInt();
+				int[] previewSizes = readSizes(in);
+				int[] pictureSizes = readSizes(in);
+				Entry entry = new Entry(previewSizes, pictureSizes,
+					in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+					in.readInt(), in.readInt());
+				this.entries.put(cameraId, entry);
+			}
+		}
+		catch (IOException e) {
+			// half-read entries are not trusted
+			this.entries.clear();
+		}
+		finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Writes every entry in a temporary file, that then replaces the old one,
+	 * so that a crash in the middle never leaves a half-written cache. The entries
+	 * can be read and updated in the meantime: the ones stored before the call are written.
+	 * @throws IOException if the file can't be written
+	 */
+	public void save() throws IOException {
+		synchronized (this.fileLock) {
+			Map<Integer, Entry> entries;
+			synchronized (this) {
+				load();
+				entries = new HashMap<Integer, Entry>(this.entries);
+			}
+			write(entries);
+		}
+	}
+
+	private void write(Map<Integer, Entry> entries) throws IOException {
+		File temp = new File(this.file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(this.buildFingerprint);
+			out.writeInt(entries.size());
+
+			for (Map.Entry<Integer, Entry> e : entries.entrySet()) {
+				Entry entry = e.getValue();
+				out.writeInt(e.getKey());
+				writeSizes(out, entry.previewSizes);
+				writeSizes(out, entry.pictureSizes);
+				out.writeInt(entry.previewWidth);
+				out.writeInt(entry.previewHeight);
+				out.writeInt(entry.pictureWidth);
+				out.writeInt(entry.pictureHeight);
+				out.writeInt(entry.previewMaxWidth);
+				out.writeInt(entry.pictureMaxWidth);
+			}
+		}
+		finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(this.file)) {
+			// some file systems don't replace an existing file
+			this.file.delete();
+			if (!temp.renameTo(this.file)) {
+				throw new IOException("can't write " + this.file);
+			}
+		}
+	}
+
+	private static int[] readSizes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > 1024) {
+			throw new IOException("invalid size list");
+		}
+
+		int[] sizes = new int[length];
+		for (int i = 0; i < length; i++) {
+			sizes[i] = in.readInt();
+		}
+		return sizes;
+	}
+
+	private static void writeSizes(DataOutputStream out, int[] sizes) throws IOException {
+		out.writeInt(sizes.length);
+		for (int size : sizes) {
+			out.writeInt(size);
+		}
+	}
+
+	private static void closeQuietly(DataInputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.ale.nicecameraexample;
+
+import android.hardware.Camera;
+import android.hardware.Camera.PreviewCallback;
+
+/**
+ * The preview of a real {@link Camera}, as a {@link FrameSource}. The frames are
+ * delivered on the thread the camera has been opened with (usually the UI thread).
+ */
+public class CameraFrameSource implements FrameSource {
+
+	private final Camera camera;
+	private final int width;
+	private final int height;
+
+	/**
+	 * @param camera an open camera, already set up with the NV21 preview format
+	 * @param width preview width
+	 * @param height preview height
+	 */
+	public CameraFrameSource(Camera camera, int width, int height) {
+		this.camera = camera;
+		this.width = width;
+		this.height = height;
+	}
+
+	@Override
+	public void addCallbackBuffer(byte[] buffer) {
+		this.camera.addCallbackBuffer(buffer);
+	}
+
+	@Override
+	public void setFrameCallback(final FrameCallback callback) {
+		if (callback == null) {
+			this.camera.setPreviewCallbackWithBuffer(null);
+			return;
+		}
+
+		this.camera.setPreviewCallbackWithBuffer(new PreviewCallback() {
+			@Override
+			public void onPreviewFrame(byte[] data, Camera cam) {
+				callback.onFrame(data);
+			}
+		});
+	}
+
+	@Override
+	public int getFrameWidth() {
+		return this.width;
+	}
+
+	@Override
+	public int getFrameHeight() {
+		return this.height;
+	}
+
+	public Camera getCamera() {
+		return this.camera;
+	}
+}
@@ -0,0 +1,298 @@
+package com.ale.nicecameraexample;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of what the camera is doing, so that nobody starts a preview on a
+ * camera that is being released, or hands a frame to the app after the camera is gone.<br />
+ * The camera goes through these states:
+ * <pre>
+ * CLOSED -&gt; OPENING -&gt; OPENED &lt;-&gt; PREVIEWING &lt;-&gt; CAPTURING
+ *                              \-------------\-------------\--&gt; RELEASING -&gt; CLOSED
+ * </pre>
+ * Every transition is a single atomic compare-and-set: no method ever blocks, and
+ * a request that doesn't make sense in the current state (for example a picture
+ * while the preview is stopped) just returns false.<br />
+ * Calls to the {@link Device} never overlap: while one of them is running the camera
+ * is "busy", and the other transitions are refused. The only exception is
+ * {@link #release()}: when the camera is busy it's postponed, and done by the
+ * thread that completes the running call, as soon as it completes it.<br />
+ * The camera is seen through the {@link Device} interface, so the whole thing can be
+ * driven by a fake camera on a plain JVM.
+ *
+ * @param <D> the kind of camera
+ */
+public class CameraLifecycle<D extends CameraLifecycle.Device> {
+
+	public enum State {
+		CLOSED, OPENING, OPENED, PREVIEWING, CAPTURING, RELEASING
+	}
+
+	/**
+	 * The operations of a camera that change its state. They're always called by
+	 * {@link CameraLifecycle}, one at a time.
+	 */
+	public interface Device {
+		void startPreview();
+		void stopPreview();
+		/**
+		 * Asks for a picture. When it's ready, {@link CameraLifecycle#onPictureTaken()} must be called.
+		 */
+		void takePicture();
+		void release();
+	}
+
+	private static final State[] STATES = State.values();
+
+	/**
+	 * The state (the lowest bits, see {@link State#ordinal()}) and the flags below, in a single word.
+	 */
+	private static final int STATE_MASK = 0x7;
+	/** a call to the device is running */
+	private static final int BUSY = 0x8;
+	/** release() has been called while busy */
+	private static final int RELEASE_PENDING = 0x10;
+
+	private final AtomicInteger word = new AtomicInteger(State.CLOSED.ordinal());
+	private volatile D device;
+
+	/**
+	 * CLOSED -&gt; OPENING. The camera stays busy until {@link #onOpened(Device)} or {@link #onOpenFailed()}.
+	 * @return false if the camera is not closed (it's already open, or being opened or released)
+	 */
+	public boolean beginOpening() {
+		return begin(State.CLOSED, State.OPENING);
+	}
+
+	/**
+	 * OPENING -&gt; OPENED.
+	 * @param device the camera that has just been opened
+	 * @return false if {@link #release()} has been called in the meantime: in this case the
+	 * device has been released, and the state is CLOSED again
+	 */
+	public boolean onOpened(D device) {
+		if (state() != State.OPENING) {
+			throw new IllegalStateException("the camera is not being opened");
+		}
+
+		this.device = device;
+		return end(State.OPENED);
+	}
+
+	/**
+	 * OPENING -&gt; CLOSED.
+	 */
+	public void onOpenFailed() {
+		if (state() != State.OPENING) {
+			throw new IllegalStateException("the camera is not being opened");
+		}
+
+		end(State.CLOSED);
+	}
+
+	/**
+	 * OPENED -&gt; PREVIEWING.
+	 * @return false if the camera is not open (or busy), or if it refused to start the preview
+	 * @throws RuntimeException thrown by the device. The state goes back to OPENED.
+	 */
+	public boolean startPreview() {
+		if (!begin(State.OPENED, State.PREVIEWING)) {
+			return false;
+		}
+
+		long traceStart = Tracer.begin();
+		boolean started = false;
+		try {
+			this.device.startPreview();
+			started = true;
+		}
+		finally {
+			end(started ? State.PREVIEWING : State.OPENED);
+			Tracer.end("startPreview", traceStart);
+		}
+		return true;
+	}
+
+	/**
+	 * PREVIEWING -&gt; OPENED.
+	 * @return false if the preview is not running (or the camera is busy)
+	 */
+	public boolean stopPreview() {
+		if (!begin(State.PREVIEWING, State.OPENED)) {
+			return false;
+		}
+
+		long traceStart = Tracer.begin();
+		try {
+			this.device.stopPreview();
+		}
+		finally {
+			end(State.OPENED);
+			Tracer.end("stopPreview", traceStart);
+		}
+		return true;
+	}
+
+	/**
+	 * PREVIEWING -&gt; CAPTURING. The camera stops the preview by itself while taking the picture.
+	 * @return false if the preview is not running (or the camera is busy)
+	 * @throws RuntimeException thrown by the device. The state goes back to PREVIEWING.
+	 */
+	public boolean takePicture() {
+		if (!begin(State.PREVIEWING, State.CAPTURING)) {
+			return false;
+		}
+
+		long traceStart = Tracer.begin();
+		boolean taken = false;
+		try {
+			this.device.takePicture();
+			taken = true;
+		}
+		finally {
+			end(taken ? State.CAPTURING : State.PREVIEWING);
+			Tracer.end("takePicture", traceStart);
+		}
+		return true;
+	}
+
+	/**
+	 * CAPTURING -&gt; OPENED. To be called when the picture is ready.
+	 * @return false if no picture was being taken (for example because the camera has been released)
+	 */
+	public boolean onPictureTaken() {
+		for (;;) {
+			int w = this.word.get();
+			if (w != State.CAPTURING.ordinal()) {
+				return false;
+			}
+			if (this.word.compareAndSet(w, State.OPENED.ordinal())) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Any state -&gt; RELEASING -&gt; CLOSED: stops the preview, if it's running, and
+	 * releases the camera. If the camera is busy (or being opened), the release is
+	 * done as soon as the running call completes, by the thread that made it.
+	 * @return false if the camera was already closed or being released
+	 */
+	public boolean release() {
+		for (;;) {
+			int w = this.word.get();
+			State state = STATES[w & STATE_MASK];
+
+			if (state == State.CLOSED || state == State.RELEASING || (w & RELEASE_PENDING) != 0) {
+				return false;
+			}
+
+			if ((w & BUSY) != 0) {
+				// somebody else is using the device: that thread will release it
+				if (this.word.compareAndSet(w, w | RELEASE_PENDING)) {
+					return true;
+				}
+			}
+			else if (this.word.compareAndSet(w, State.RELEASING.ordinal() | BUSY)) {
+				doRelease(state);
+				return true;
+			}
+		}
+	}
+
+	public State getState() {
+		return state();
+	}
+
+	/**
+	 * @return true if the preview frames can be used: the preview is running and the
+	 * camera is not going to be released
+	 */
+	public boolean isPreviewing() {
+		int w = this.word.get();
+		return (w & RELEASE_PENDING) == 0 && (w & STATE_MASK) == State.PREVIEWING.ordinal();
+	}
+
+	/**
+	 * @return true if the camera can be used (it's open, and not going to be released)
+	 */
+	public boolean isOpen() {
+		int w = this.word.get();
+		int state = w & STATE_MASK;
+		return (w & RELEASE_PENDING) == 0 && state >= State.OPENED.ordinal() && state <= State.CAPTURING.ordinal();
+	}
+
+	/**
+	 * @return the current camera, or null if it's closed. Its state-changing methods must
+	 * not be called directly: use the ones of this class.
+	 */
+	public D getDevice() {
+		return this.device;
+	}
+
+	private State state() {
+		return STATES[this.word.get() & STATE_MASK];
+	}
+
+	/**
+	 * Moves from a state to another, marking the camera as busy.
+	 * @return false if the camera is not in the "from" state, or it's already busy
+	 */
+	private boolean begin(State from, State to) {
+		for (;;) {
+			int w = this.word.get();
+			if (w != from.ordinal()) {
+				return false;
+			}
+			if (this.word.compareAndSet(w, to.ordinal() | BUSY)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Marks the camera as not busy anymore, in the given state, unless a release
+	 * has been asked in the meantime: in this case it's done now.
+	 * @return false if the camera has been released
+	 */
+	private boolean end(State state) {
+		for (;;) {
+			int w = this.word.get();
+			if ((w & RELEASE_PENDING) != 0) {
+				// nobody else can change the word while it's busy
+				this.word.set(State.RELEASING.ordinal() | BUSY);
+				doRelease(state);
+				return false;
+			}
+			if (this.word.compareAndSet(w, state.ordinal())) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @param from the state the camera was in
+	 */
+	private void doRelease(State from) {
+		D device = this.device;
+		long traceStart = Tracer.begin();
+		try {
+			if (device != null) {
+				if (from == State.PREVIEWING || from == State.CAPTURING) {
+					try {
+						device.stopPreview();
+					}
+					catch (RuntimeException e) {
+						// the preview may have stopped by itself, the camera must be released anyway
+					}
+				}
+				device.release();
+			}
+		}
+		finally {
+			this.device = null;
+			this.word.set(State.CLOSED.ordinal());
+			Tracer.end("Camera.release", traceStart);
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package com.ale.nicecameraexample;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import android.hardware.Camera;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Opens the hardware camera on a background thread. {@link Camera#open()} can take
+ * hundreds of milliseconds, and calling it on the UI thread freezes the app in
+ * the meantime (while, for example, the layout could be inflated).<br />
+ * {@link #open(int, Callback)} returns immediately: the result can be waited for
+ * with the returned {@link Future}, or received on the UI thread by a {@link Callback}.
+ * Requests are served one at a time, in order.<br />
+ * The same thread reads the {@link CameraCapabilityCache} while the camera opens, and
+ * writes it when it changes (see {@link #saveCapabilities(int, CameraCapabilityCache.Entry)}),
+ * so that its file is never touched by the UI thread.<br />
+ * [IMPORTANT!] the camera delivers its callbacks (preview frames, pictures...) on the
+ * looper of the thread that opened it, or on the main one if that thread has no looper.
+ * The opener's thread has no looper, so nothing changes for the rest of the app.
+ */
+public class CameraOpener {
+
+	/**
+	 * An opened camera.
+	 */
+	public static class OpenedCamera {
+		public final Camera camera;
+		public final int cameraID;
+		/** how long {@link Camera#open()} took */
+		public final long openMillis;
+
+		private OpenedCamera(Camera camera, int cameraID, long openMillis) {
+			this.camera = camera;
+			this.cameraID = cameraID;
+			this.openMillis = openMillis;
+		}
+	}
+
+	/**
+	 * Receives the result of {@link CameraOpener#open(int, Callback)}. It's always called on the UI thread.
+	 */
+	public interface Callback {
+		void onCameraOpened(OpenedCamera opened);
+		void onCameraOpenFailed(RuntimeException e);
+	}
+
+	private final ExecutorService executor;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final CameraCapabilityCache capabilityCache;
+
+	/**
+	 * @param capabilityCache what the cameras support, read in background when a camera is opened
+	 */
+	public CameraOpener(CameraCapabilityCache capabilityCache) {
+		this.capabilityCache = capabilityCache;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "CameraOpener");
+			}
+		});
+	}
+
+	/**
+	 * Starts opening a camera.
+	 * @param cameraID the camera to open, or -1 to open the first back-facing one
+	 * @param callback who receives the result, or null
+	 * @return the future result. Its get() throws an ExecutionException if the camera can't be opened.
+	 */
+	public Future<OpenedCamera> open(final int cameraID, final Callback callback) {
+		return this.executor.submit(new Callable<OpenedCamera>() {
+			@Override
+			public OpenedCamera call() {
+				final OpenedCamera opened;
+				try {
+					opened = openCamera(cameraID);
+				}
+				catch (final RuntimeException e) {
+					if (callback != null) {
+						mainHandler.post(new Runnable() {
+							@Override
+							public void run() {
+								callback.onCameraOpenFailed(e);
+							}
+						});
+					}
+					throw e;
+				}
+
+				// the camera setup needs the cache right after: it's read here, 
+				// and the UI thread finds it in memory
+				long loadStart = Tracer.begin();
+				capabilityCache.load();
+				Tracer.end("CapabilityCache.load", loadStart);
+
+				if (callback != null) {
+					mainHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							callback.onCameraOpened(opened);
+						}
+					});
+				}
+				return opened;
+			}
+		});
+	}
+
+	/**
+	 * @return what the cameras support. It's already in memory when a camera has been opened.
+	 */
+	public CameraCapabilityCache getCapabilityCache() {
+		return this.capabilityCache;
+	}
+
+	/**
+	 * Stores the capabilities of a camera: they're in the cache right away, 
+	 * and the file is written later, on the opener's thread.
+	 * @param cameraID the id of the camera
+	 * @param entry what is known about it
+	 */
+	public void saveCapabilities(int cameraID, CameraCapabilityCache.Entry entry) {
+		this.capabilityCache.update(cameraID, entry);
+
+		try {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					long start = Tracer.begin();
+					try {
+						capabilityCache.save();
+					} catch (IOException e) {
+						Log.e(MainActivity.LOG_TAG, "saveCapabilities(): can't save the camera capabilities.", e);
+					}
+					Tracer.end("CapabilityCache.save", start);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			// shut down: they'll be found again at the next startup
+			Log.w(MainActivity.LOG_TAG, "saveCapabilities(): the opener is shut down, capabilities not saved");
+		}
+	}
+
+	/**
+	 * Stops the background thread. Requests already started are completed.
+	 */
+	public void shutdown() {
+		this.executor.shutdown();
+	}
+
+	/**
+	 * [IMPORTANT!] This is where the instance of the hardware camera is requested.
+	 * It runs on the opener's thread.
+	 * @throws RuntimeException if no camera can be opened
+	 */
+	private static OpenedCamera openCamera(int cameraID) {
+		long start = System.nanoTime();
+		Camera camera = null;
+
+		// warning here! starting from API 9, we can retrieve one from the multiple
+		// hardware cameras (ex. front/back)
+		if (Build.VERSION.SDK_INT >= 9) {
+
+			if (cameraID < 0) {
+				// at this point, it's the first time we request for a camera
+				Camera.CameraInfo camInfo = new Camera.CameraInfo();
+				for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+					Camera.getCameraInfo(i, camInfo);
+
+					if (camInfo.facing == Camera.CameraInfo.CAMERA_FACING_BACK) {
+						// in this example we'll request specifically the back camera
+						try {
+							camera = Camera.open(i);
+							cameraID = i; // assign to cameraID this camera's ID (O RLY?)
+							break;
+						}
+						catch (RuntimeException e){
+							// something bad happened! this camera could be locked by other apps
+							Log.e(MainActivity.LOG_TAG, "openCamera(): trying to open camera #" + i + " but it's locked", e);
+						}
+					}
+				}
+			}
+			else {
+				// at this point, a previous camera was set, we try to re-instantiate it
+				try {
+					camera = Camera.open(cameraID);
+				}
+				catch (RuntimeException e){
+					Log.e(MainActivity.LOG_TAG, "openCamera(): trying to re-open camera #" + cameraID + " but it's locked", e);
+				}
+			}
+		}
+
+		// we could reach this point in two cases:
+		// - the API is lower than 9
+		// - previous code block failed
+		// hence, we try the classic method, that doesn't ask for a particular camera.
+		// If it fails too, the camera is definitely locked by the system: the exception goes to the caller.
+		if (camera == null) {
+			camera = Camera.open();
+			cameraID = 0;
+		}
+
+		if (camera == null) {
+			// open() returns null on devices without a back-facing camera
+			throw new RuntimeException("this device has no back-facing camera");
+		}
+
+		long end = System.nanoTime();
+		Tracer.complete("Camera.open", start, end);
+		long openMillis = (end - start) / 1000000;
+		Log.i(MainActivity.LOG_TAG, "openCamera(): opened camera #" + cameraID + " in " + openMillis + " ms");
+		return new OpenedCamera(camera, cameraID, openMillis);
+	}
+}
@@ -1,20 +1,19 @@
 package com.ale.nicecameraexample;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Locale;
 
 import android.app.Activity;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.content.res.Configuration;
 import android.graphics.ImageFormat;
-import android.graphics.Matrix;
 import android.hardware.Camera;
 import android.hardware.Camera.PictureCallback;
-import android.hardware.Camera.PreviewCallback;
 import android.hardware.Camera.Size;
 import android.os.Build;
-import android.provider.MediaStore;
+import android.os.Environment;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
@@ -60,24 +59,293 @@ public class CameraPreview
 	 */
 	private final int PICTURE_MAX_WIDTH = 1280;
 	
+	/**
+	 * How many preview buffers are given to the camera at the same time.
+	 * With only one buffer, every frame that arrives while the previous 
+	 * one is being processed is lost.
+	 */
+	private final int PREVIEW_BUFFER_COUNT = 3;
+	
 	/**
 	 * In this example we look at camera preview buffer functionality too.<br />
-	 * This is the array that will be filled everytime a single preview frame is 
+	 * This is the set of arrays that will be filled everytime a single preview frame is 
 	 * ready to be processed (for example when we want to show to the user 
 	 * a transformed preview instead of the original one, or when we want to 
 	 * make some image analysis in real-time without taking full-sized pictures).
+	 * See {@link PreviewBufferPool} for the details about how they rotate.
+	 */
+	private PreviewBufferPool previewBuffers;
+	
+	/**
+	 * The camera as seen by the {@link #previewBuffers}, set by {@link #setCameraCallback(Camera)}.
+	 */
+	private FrameSource frameSource;
+	
+	/**
+	 * The frames are not processed in the camera callback (that runs on the UI thread
+	 * in this example), but on the worker thread of this pipeline. See {@link FramePipeline}.
+	 */
+	private FramePipeline framePipeline;
+	
+	/**
+	 * The pipeline hands every frame to all the analyzers registered here, that work 
+	 * in parallel on their own threads. See {@link #addFrameAnalyzer(String, FramePipeline.FrameConsumer, int)}.
+	 */
+	private final FrameFanout frameFanout = new FrameFanout();
+	private FrameFanout.Analyzer zslAnalyzer;
+	
+	/**
+	 * Size of the preview frames, as accepted by the camera in {@link #setupCamera()}.
+	 */
+	private int previewWidth;
+	private int previewHeight;
+	
+	/**
+	 * The converter that turns every NV21 preview frame into ARGB pixels, 
+	 * and the array that receives them. Both are created once in {@link #setupCamera()} 
+	 * and reused frame after frame, so {@link #processFrame(byte[], long)} 
+	 * doesn't allocate anything.
+	 */
+	private YuvConverter yuvConverter;
+	private int[] rgbFrame;
+	
+	/**
+	 * The preview frames are always landscape-oriented: before being analyzed they 
+	 * are rotated (and mirrored, for the front camera) into this buffer, so that 
+	 * the analysis code sees what the user sees. The rotation is computed in 
+	 * {@link #updateCameraDisplayOrientation()}, see {@link Nv21Transform}.
+	 */
+	private byte[] uprightFrame;
+	private volatile int frameRotation = 0;
+	private volatile boolean frameMirror = false;
+	
+	/**
+	 * Brightness, exposure and focus statistics of every frame, computed 
+	 * straight from its luma plane. See {@link LumaAnalyzer}.
+	 */
+	private LumaAnalyzer lumaAnalyzer;
+	private final LumaAnalyzer.Stats lumaStats = new LumaAnalyzer.Stats();
+	
+	/**
+	 * Only one pixel every LUMA_ANALYSIS_STEP is read by the {@link #lumaAnalyzer}: 
+	 * that's more than enough for exposure and focus, and much faster.
+	 */
+	private final int LUMA_ANALYSIS_STEP = 2;
+	
+	/**
+	 * A small copy of every upright frame, ANALYSIS_WIDTH x ANALYSIS_HEIGHT 
+	 * (swapped in portrait), computed once per frame: detectors that don't 
+	 * need the full resolution should read this one. See {@link Nv21Scaler}.
+	 */
+	private final int ANALYSIS_WIDTH = 160;
+	private final int ANALYSIS_HEIGHT = 120;
+	private final Nv21Scaler analysisScaler = new Nv21Scaler(ANALYSIS_WIDTH, ANALYSIS_HEIGHT, Nv21Scaler.Filter.BOX, false);
+	private byte[] analysisFrame;
+	
+	/**
+	 * Compares every {@link #analysisFrame} with the previous ones. When 
+	 * processOnlyOnChange is set, the expensive part of {@link #processFrame(byte[], long)} 
+	 * is skipped for the frames where nothing moved. See {@link MotionDetector}.
+	 */
+	private final int MOTION_BLOCK_SIZE = 8;
+	private MotionDetector motionDetector;
+	private volatile boolean processOnlyOnChange = false;
+	private long staticFrameCount = 0;
+	
+	/**
+	 * When skipDuplicateFrames or skipDuplicateCaptures is set, every preview frame gets 
+	 * a {@link PerceptualHash}, reading one pixel every FRAME_HASH_STEP. With skipDuplicateFrames, 
+	 * a frame that matches one of the last FRAME_HASH_CACHE_SIZE ones (no more than 
+	 * FRAME_DUPLICATE_DISTANCE bits apart) is not analyzed at all. The time spent hashing 
+	 * and looking up the cache is recorded in frameHashHistogram.
+	 */
+	private final int FRAME_HASH_STEP = 4;
+	private final int FRAME_HASH_CACHE_SIZE = 16;
+	private final int FRAME_DUPLICATE_DISTANCE = 3;
+	private final PerceptualHash frameHasher = new PerceptualHash();
+	private final HashCache frameHashes = new HashCache(FRAME_HASH_CACHE_SIZE, FRAME_DUPLICATE_DISTANCE);
+	private final LatencyHistogram frameHashHistogram = new LatencyHistogram();
+	private volatile boolean skipDuplicateFrames = false;
+	private long duplicateFrameCount = 0;
+	private volatile long lastFrameHash;
+	private volatile boolean frameHashed = false;
+	
+	/**
+	 * With skipDuplicateCaptures, a picture is not saved if the preview was showing the same 
+	 * scene (no more than CAPTURE_DUPLICATE_DISTANCE bits apart) when one of the last 
+	 * CAPTURE_HASH_CACHE_SIZE saved pictures was requested. See {@link #onPictureRequested()}.
+	 */
+	private final int CAPTURE_HASH_CACHE_SIZE = 32;
+	private final int CAPTURE_DUPLICATE_DISTANCE = 6;
+	private final HashCache captureHashes = new HashCache(CAPTURE_HASH_CACHE_SIZE, CAPTURE_DUPLICATE_DISTANCE);
+	private volatile boolean skipDuplicateCaptures = false;
+	private long pictureRequestHash;
+	private boolean pictureRequestHashed = false;
+	
+	/**
+	 * The integral image and the luma pyramid of the upright frame, shared by all the 
+	 * detectors. They're built by processFrame() only if there's some detector: 
+	 * see {@link #addLumaDetector(LumaPyramid.Consumer)}.
+	 */
+	private final int PYRAMID_LEVEL_COUNT = 4;
+	private LumaPyramid lumaPyramid;
+	
+	/**
+	 * The threads shared by the {@link #yuvConverter} and the {@link #lumaPyramid}, created 
+	 * in {@link #setupCamera()}: they're kept when the preview size changes, only the 
+	 * arrays are allocated again.
+	 */
+	private ParallelStripes frameStripes;
+	private volatile LumaPyramid.Consumer[] lumaDetectors = new LumaPyramid.Consumer[0];
+	
+	/**
+	 * How many pictures can wait to be saved while the user keeps shooting.
+	 */
+	private final int CAPTURE_QUEUE_SIZE = 2;
+	
+	/**
+	 * How much memory the bitmaps reused by the capture pipeline can take: a decoded 
+	 * picture and its rotated copy, at the maximum picture size.
+	 * See {@link CapturePipeline#setBitmapPool(BitmapPool)}.
+	 */
+	private final long CAPTURE_BITMAP_POOL_BYTES = 2L * PICTURE_MAX_WIDTH * (PICTURE_MAX_WIDTH * 3 / 4) * 4;
+	
+	/**
+	 * How many recent preview frames are kept for the "zero shutter lag" capture,
+	 * and how far back (in milliseconds) we look for the sharpest one.
+	 * See {@link #takeZeroShutterLagPicture(long, boolean)}.
+	 */
+	private final int ZSL_FRAME_COUNT = 4;
+	private final long ZSL_SHARPEST_WINDOW_MS = 300;
+	
+	/**
+	 * How many preview frames a burst can hold at the same time (being copied, 
+	 * encoded or written). See {@link #takeBurst(int)}.
+	 */
+	private final int BURST_SLOT_COUNT = 4;
+	
+	/**
+	 * Bursts are saved by this object, created for the current preview size, 
+	 * in a store of their own.
+	 */
+	private volatile BurstCapture burstCapture;
+	private FrameFanout.Analyzer burstAnalyzer;
+	private PictureStore burstStore;
+	
+	/**
+	 * Stills of the live view are encoded from the preview frames by the snapshotEncoder, 
+	 * see {@link #takeSnapshot()} and {@link #setSnapshotInterval(long)}. SNAPSHOT_COPY_COUNT 
+	 * frames can wait to be encoded, and there's at least SNAPSHOT_MIN_INTERVAL_MS between 
+	 * two snapshots. They're saved in a store of their own.
+	 */
+	private final int SNAPSHOT_COPY_COUNT = 2;
+	private final long SNAPSHOT_MIN_INTERVAL_MS = 200;
+	private volatile SnapshotEncoder snapshotEncoder;
+	private FrameFanout.Analyzer snapshotAnalyzer;
+	private PictureStore snapshotStore;
+	private volatile boolean snapshotRequested = false;
+	private volatile boolean periodicSnapshots = false;
+	
+	/**
+	 * The rotation written in the snapshots: it follows the device while a time-lapse 
+	 * is running, see {@link #onConfigurationChanged(Configuration)}.
+	 */
+	private volatile int snapshotRotation = 0;
+	
+	/**
+	 * When "zero shutter lag" is enabled, the last preview frames are copied here.
+	 */
+	private boolean zeroShutterLag = false;
+	private FrameRing zslRing;
+	
+	/**
+	 * How much disk the "dashcam" can use: how many frames it keeps depends on the 
+	 * preview size (64 MB are about 140 frames at 640x480, almost 5 seconds at 30 fps). 
+	 * See {@link #setFrameRecording(File)}.
 	 */
-	private byte[] previewBuffer;
+	private final long RECORDING_BYTE_BUDGET = 64L * 1024 * 1024;
 	
 	/**
-	 * The "holder" is the underlying surface.
+	 * When the "dashcam" is enabled, every preview frame is recorded here. 
+	 * 'recordingWidth' and 'recordingHeight' are the size of the frames to record, set by 
+	 * {@link #setupCamera()}: the recorder is (re)created for them by the thread of the 
+	 * 'recordingAnalyzer', which is the only one that uses it, so that the file is 
+	 * never created on the UI thread (see {@link #recordFrame(byte[], long)}).
+	 * 'recorderFileLock' keeps a recorder from being created while the last one is still being closed.
+	 */
+	private volatile File recordingFile;
+	private volatile int recordingWidth = 0;
+	private volatile int recordingHeight = 0;
+	private FrameRecorder frameRecorder;
+	private FrameFanout.Analyzer recordingAnalyzer;
+	private final Object recorderFileLock = new Object();
+	
+	/**
+	 * The "holder" is the underlying surface. The camera can be set up only when 
+	 * the surface exists, see {@link #rebindCamera(long)}.
 	 */
 	private SurfaceHolder surfaceHolder;
+	private boolean surfaceReady = false;
+	
+	/**
+	 * When the camera has been requested (as {@link System#nanoTime()}), or 0 if 
+	 * the time to the first preview frame has already been logged.
+	 */
+	private volatile long cameraRequestNanos = 0;
+	
+	/**
+	 * The camera, and what it's doing. Every operation that changes its state 
+	 * (preview, picture...) goes through here, see {@link CameraLifecycle}.
+	 */
+	private final CameraLifecycle<AndroidCameraDevice> cameraLifecycle;
+	
+	/**
+	 * Pictures are saved in background by this object, see {@link #onPictureTaken(byte[], Camera)}.
+	 */
+	private CapturePipeline capturePipeline;
+	
+	/**
+	 * The sizes supported by every camera, and the ones we chose, are remembered 
+	 * across startups in the cache of this opener: see {@link #setupCamera()}.
+	 */
+	private final CameraOpener cameraOpener;
+	
+	/**
+	 * When the preview is adaptive, its size and frame rate are chosen (up to 
+	 * ADAPTIVE_PREVIEW_MAX_WIDTH) by the governor, according to how fast the 
+	 * frames are processed. See {@link #setAdaptivePreview(boolean)}.
+	 */
+	private final int ADAPTIVE_PREVIEW_MAX_WIDTH = 1280;
+	private boolean adaptivePreview = false;
+	private volatile PreviewGovernor previewGovernor;
+	private int governorCameraID = -1;
+	
+	/**
+	 * A change of level chosen by the governor is applied by this runnable, on the UI thread, 
+	 * with the parameters of the last {@link #setupCamera()}: see {@link #applyPreviewLevel()}. 
+	 * While a burst is running the change waits, and it's tried again after LEVEL_CHANGE_RETRY_MILLIS.
+	 */
+	private final long LEVEL_CHANGE_RETRY_MILLIS = 500;
+	private Camera.Parameters cameraParameters;
+	private final Runnable levelChange = new Runnable() {
+		@Override
+		public void run() {
+			applyPreviewLevel();
+		}
+	};
+	
+	/**
+	 * Our own analysis, see {@link #processFrame(byte[], long)}.
+	 */
+	private final FrameFanout.Analyzer previewAnalyzer;
 	
 	@SuppressWarnings("deprecation")
-	public CameraPreview(Context context, Camera cam, int camID) {
+	public CameraPreview(Context context, CameraLifecycle<AndroidCameraDevice> cameraLifecycle, CameraOpener cameraOpener) {
 		super(context);
 		
+		this.cameraLifecycle = cameraLifecycle;
+		this.cameraOpener = cameraOpener;
+		
 		surfaceHolder = this.getHolder();
 		surfaceHolder.addCallback(this);
 		
@@ -85,18 +353,112 @@ public class CameraPreview
 		if (Build.VERSION.SDK_INT < 11) {
 			surfaceHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
 		}
+		
+		// the JPEG bytes produced by the camera are written as they are in the public 
+		// Pictures directory, and then added to the media library
+		File picturesDir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), "NiceCameraExample");
+		PictureStore store = new MediaScannerPictureStore(context, new FilePictureStore(picturesDir, "IMG_", 1));
+		
+		// a store can't be used by two threads at the same time: the bursts have their own. 
+		// Their pictures are forced to the storage in batches, instead of one by one
+		burstStore = new MediaScannerPictureStore(context, new FilePictureStore(picturesDir, "BURST_", BURST_SLOT_COUNT));
+		snapshotStore = new MediaScannerPictureStore(context, new FilePictureStore(picturesDir, "SNAP_", 1));
+		
+		capturePipeline = new CapturePipeline(store, CAPTURE_QUEUE_SIZE, new CapturePipeline.CaptureListener() {
+			@Override
+			public void onCaptureSaved(String location, long[] stageMicros) {
+				Log.i(MainActivity.LOG_TAG, "onCaptureSaved(): picture saved to " + location + " in " 
+					+ stageMicros[CapturePipeline.Stage.TOTAL.ordinal()] / 1000 + " ms (decode " 
+					+ stageMicros[CapturePipeline.Stage.DECODE.ordinal()] / 1000 + " ms, rotate " 
+					+ stageMicros[CapturePipeline.Stage.ROTATE.ordinal()] / 1000 + " ms, encode " 
+					+ stageMicros[CapturePipeline.Stage.ENCODE.ordinal()] / 1000 + " ms, write " 
+					+ stageMicros[CapturePipeline.Stage.WRITE.ordinal()] / 1000 + " ms)");
+				
+				BitmapPool pool = capturePipeline.getBitmapPool();
+				if (pool != null && !capturePipeline.isLosslessRotation()) {
+					Log.d(MainActivity.LOG_TAG, "onCaptureSaved(): " + pool);
+				}
+				
+				// show a message
+				Toast toast = Toast.makeText(getContext(), "Picture saved to the media library", Toast.LENGTH_LONG);
+				toast.show();
+			}
+			
+			@Override
+			public void onCaptureFailed(Exception e) {
+				Log.e(MainActivity.LOG_TAG, "onCaptureFailed(): the picture can't be saved", e);
+			}
+		});
+		capturePipeline.setBitmapPool(new BitmapPool(CAPTURE_BITMAP_POOL_BYTES));
+		frameHasher.setStep(FRAME_HASH_STEP);
+		
+		// our own analysis runs on every frame
+		previewAnalyzer = frameFanout.addAnalyzer("Preview", new FramePipeline.FrameConsumer() {
+			@Override
+			public void onFrame(byte[] frame, long timestampNanos) {
+				long start = System.nanoTime();
+				processFrame(frame, timestampNanos);
+				Tracer.end("processFrame", start);
+				governPreview(start);
+			}
+		}, 1);
+	}
+	
+	/**
+	 * Releases the resources that live as long as this object. To be called
+	 * when the parent Activity is destroyed. Pictures that are still being saved 
+	 * are not lost.
+	 */
+	public void release() {
+		this.capturePipeline.shutdown();
+		setFrameRecording(null);
+		
+		if (this.burstCapture != null) {
+			this.burstCapture.shutdown();
+		}
+		if (this.snapshotEncoder != null) {
+			this.snapshotEncoder.shutdown();
+		}
 	}
 	
 	/**
 	 * Called when the surface is created for the first time. It sets all the 
-	 * required {@link #camera}'s parameters and starts the preview stream.
+	 * required parameters of the camera (see {@link #cameraLifecycle}) and starts the preview stream.
 	 * @param holder
 	 */
 	@Override
 	public void surfaceCreated(SurfaceHolder holder) {
+		this.surfaceReady = true;
+		
+		if (!this.cameraLifecycle.isOpen()) {
+			// the camera is still being opened: rebindCamera() will do the job
+			Log.i(MainActivity.LOG_TAG, "surfaceCreated(): waiting for the camera");
+			return;
+		}
+		
 		setupCamera();
 		startCameraPreview(holder);
 	}
+	
+	/**
+	 * To be called (on the UI thread) when the parent Activity gets a new camera, 
+	 * for example when it's resumed. If the surface already exists the camera is set 
+	 * up and the preview restarted right away, otherwise that's done as usual 
+	 * when the surface is created. There's no need to create a new {@link CameraPreview}.
+	 * @param requestNanos when the camera has been requested, as {@link System#nanoTime()}: 
+	 * the time between that moment and the first preview frame is logged
+	 */
+	public void rebindCamera(long requestNanos) {
+		this.cameraRequestNanos = requestNanos;
+		
+		if (!this.surfaceReady) {
+			return;
+		}
+		
+		setupCamera();
+		updateCameraDisplayOrientation();
+		startCameraPreview(this.surfaceHolder);
+	}
 
 	/**
 	 * [IMPORTANT!] A SurfaceChanged event means that the parent graphic has changed its layout 
@@ -126,12 +488,29 @@ public class CameraPreview
 	}
 
 	/**
-	 * surfaceDestroyed does nothing, because Camera release is 
-	 * performed in the parent Activity  
+	 * surfaceDestroyed doesn't release the Camera, because that's
+	 * performed in the parent Activity. It only stops the threads
+	 * used to process the preview frames.
 	 * @param holder
 	 */
 	@Override
-	public void surfaceDestroyed(SurfaceHolder holder) { }
+	public void surfaceDestroyed(SurfaceHolder holder) {
+		this.surfaceReady = false;
+		stopFrameProcessing();
+		
+		if (this.yuvConverter != null) {
+			this.yuvConverter.release();
+			this.yuvConverter = null;
+		}
+		if (this.lumaPyramid != null) {
+			this.lumaPyramid.release();
+			this.lumaPyramid = null;
+		}
+		if (this.frameStripes != null) {
+			this.frameStripes.release();
+			this.frameStripes = null;
+		}
+	}
 	
 	/**
 	 * [IMPORTANT!] Probably the most important method here. Lots of users experience bad 
@@ -158,34 +537,70 @@ public class CameraPreview
 		}
 
 		setMeasuredDimension(width, height);
-		Log.i(MainActivity.LOG_TAG, "onMeasure(): set surface dimension to " + width + "x" + height);
+		
+		// onMeasure() runs at every layout pass: the message is built only if someone reads it
+		if (Log.isLoggable(MainActivity.LOG_TAG, Log.DEBUG)) {
+			Log.d(MainActivity.LOG_TAG, "onMeasure(): set surface dimension to " + width + "x" + height);
+		}
 	}
 	
 	/**
 	 * It sets all the required parameters for the Camera object, like preview
 	 * and picture size, format, flash modes and so on.
-	 * In this particular example it initializes the {@link #previewBuffer} too.
+	 * In this particular example it initializes the {@link #previewBuffers} too.
 	 */
 	private void setupCamera() {
 		
-		// Get the camera object directly from the parent activity
+		// Get the camera object from the lifecycle
 		// This is safe and doesn't throw NullPointerException or "camera has been released"
-		// when resuming from a paused state, because it always takes the latest camera instance
-		MainActivity parent = (MainActivity)this.getContext();
-		Camera camera = parent.getCamera();
+		// when resuming from a paused state, because it always holds the latest camera instance
+		AndroidCameraDevice device = this.cameraLifecycle.getDevice();
 		
-		if (camera == null) {
+		if (device == null) {
 			Log.e(MainActivity.LOG_TAG, "setupCamera(): warning, camera is null");
     		return;
 		}
+		Camera camera = device.getCamera();
 		
+		// getParameters() is slow on many devices: it's called only once, 
+		// and the same snapshot is used for everything
+		long setupStart = System.nanoTime();
 		Camera.Parameters parameters = camera.getParameters();
+		
+		// the supported sizes never change for a given camera and system build: 
+		// they're enumerated only the first time, then they come from the cache 
+		// (already read by the opener, and written by it too)
+		int cameraID = device.getCameraID();
+		CameraCapabilityCache.Entry capabilities = this.cameraOpener.getCapabilityCache().get(cameraID);
+		boolean warmStart = (capabilities != null && capabilities.isChosenWith(PREVIEW_MAX_WIDTH, PICTURE_MAX_WIDTH));
+		
+		if (!warmStart) {
+			List<Size> previewSizes = parameters.getSupportedPreviewSizes();
+			List<Size> pictureSizes = parameters.getSupportedPictureSizes();
+			Size bestPreviewSize = getBestSize(previewSizes, PREVIEW_MAX_WIDTH);
+			Size bestPictureSize = getBestSize(pictureSizes, PICTURE_MAX_WIDTH);
+			
+			capabilities = new CameraCapabilityCache.Entry(toSizeArray(previewSizes), toSizeArray(pictureSizes), 
+				bestPreviewSize.width, bestPreviewSize.height, bestPictureSize.width, bestPictureSize.height, 
+				PREVIEW_MAX_WIDTH, PICTURE_MAX_WIDTH);
+			this.cameraOpener.saveCapabilities(cameraID, capabilities);
+		}
 
-		Size bestPreviewSize = getBestSize(parameters.getSupportedPreviewSizes(), PREVIEW_MAX_WIDTH);
-		Size bestPictureSize = getBestSize(parameters.getSupportedPictureSizes(), PICTURE_MAX_WIDTH);
-
-		parameters.setPreviewSize(bestPreviewSize.width, bestPreviewSize.height);
-		parameters.setPictureSize(bestPictureSize.width, bestPictureSize.height);
+		int prevWidth = capabilities.previewWidth;
+		int prevHeight = capabilities.previewHeight;
+		
+		// the governor may have chosen a different size, and a frame rate too
+		PreviewGovernor.Level level = setupPreviewGovernor(parameters, capabilities, cameraID);
+		if (level != null) {
+			prevWidth = level.width;
+			prevHeight = level.height;
+			if (level.maxFps > 0) {
+				parameters.setPreviewFpsRange(level.minFps, level.maxFps);
+			}
+		}
+		
+		parameters.setPreviewSize(prevWidth, prevHeight);
+		parameters.setPictureSize(capabilities.pictureWidth, capabilities.pictureHeight);
 
 		parameters.setPreviewFormat(ImageFormat.NV21); // NV21 is the most supported format for preview frames
 		parameters.setPictureFormat(ImageFormat.JPEG); // JPEG for full resolution images
@@ -200,52 +615,213 @@ public class CameraPreview
 		}
 		
 		camera.setParameters(parameters); // save everything
+		this.cameraParameters = parameters; // and remember it, for the adaptive preview
 		
 		// print saved parameters
-		int prevWidth = camera.getParameters().getPreviewSize().width;
-		int prevHeight = camera.getParameters().getPreviewSize().height;
-		int picWidth = camera.getParameters().getPictureSize().width;
-		int picHeight = camera.getParameters().getPictureSize().height;
+		int picWidth = capabilities.pictureWidth;
+		int picHeight = capabilities.pictureHeight;
 
 		Log.d(MainActivity.LOG_TAG, "setupCamera(): settings applied:\n\t"
-			+ "preview size: " + prevWidth + "x" + prevHeight + "\n\t"
+			+ "preview size: " + prevWidth + "x" + prevHeight + (level != null ? " (adaptive: " + level + ")" : "") + "\n\t"
 			+ "picture size: " + picWidth + "x" + picHeight
 		);
+		Log.i(MainActivity.LOG_TAG, "setupCamera(): " + (warmStart ? "warm" : "cold") + " start, parameters applied in " 
+			+ (System.nanoTime() - setupStart) / 1000 + " us");
+		
+		// no frames must be processed while the buffers are replaced
+		stopFrameProcessing();
+		
+		// the hashes of the previous camera (or of before the pause) say nothing about 
+		// this one: a picture must not be skipped because of them
+		this.frameHashed = false;
+		this.lastFrameHash = 0;
+		this.frameHashes.clear();
+		
+		// the RGB conversion of every frame (and the pyramid of the detectors) is split 
+		// among all the available cores: the threads are started only once
+		if (this.frameStripes == null) {
+			this.frameStripes = new ParallelStripes(Runtime.getRuntime().availableProcessors(), "FrameStripes");
+		}
+		if (this.yuvConverter == null) {
+			this.yuvConverter = new YuvConverter(this.frameStripes);
+		}
+		setupFrameProcessing(camera, prevWidth, prevHeight);
+		Tracer.end("setupCamera", setupStart);
+	}
+	
+	/**
+	 * Prepares everything the preview frames go through for the given preview size, and 
+	 * starts processing them: the {@link #previewBuffers} and the other arrays are kept 
+	 * if they're big enough, so that a change of the preview size (see 
+	 * {@link #applyPreviewLevel()}) doesn't allocate the memory again. The frame 
+	 * processing must be stopped.
+	 */
+	private void setupFrameProcessing(Camera camera, int prevWidth, int prevHeight) {
+		// the RGB version of every frame is stored here
+		this.previewWidth = prevWidth;
+		this.previewHeight = prevHeight;
+		if (this.rgbFrame == null || this.rgbFrame.length < prevWidth * prevHeight) {
+			this.rgbFrame = new int[prevWidth * prevHeight];
+		}
+		this.lumaAnalyzer = new LumaAnalyzer(prevWidth, prevHeight);
+		this.lumaAnalyzer.setStep(LUMA_ANALYSIS_STEP);
 		
-		// here: previewBuffer initialization. It will host every frame that comes out
-		// from the preview, so it must be big enough.
-		// After that, it's linked to the camera with the setCameraCallback() method.
+		// here: previewBuffers initialization. They will host every frame that comes out
+		// from the preview, so each one must be big enough (a bigger one is fine too).
+		// After that, they're linked to the camera with the setCameraCallback() method.
 		try {
-			this.previewBuffer = new byte[prevWidth * prevHeight * ImageFormat.getBitsPerPixel(camera.getParameters().getPreviewFormat()) / 8];
-			setCameraCallback();
+			int bufferSize = prevWidth * prevHeight * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+			if (this.previewBuffers == null || this.previewBuffers.getBufferSize() < bufferSize) {
+				this.previewBuffers = new PreviewBufferPool(PREVIEW_BUFFER_COUNT, bufferSize, PreviewBufferPool.Policy.LATEST_WINS);
+				this.uprightFrame = new byte[bufferSize];
+			}
+			FrameRing ring = this.zslRing;
+			if (!this.zeroShutterLag) {
+				this.zslRing = null;
+			}
+			else if (ring == null || ring.getWidth() != prevWidth || ring.getHeight() != prevHeight) {
+				this.zslRing = new FrameRing(ZSL_FRAME_COUNT, prevWidth, prevHeight, bufferSize);
+			}
+			setupFrameRecorder(prevWidth, prevHeight);
+			this.frameFanout.setPool(this.previewBuffers);
+			this.framePipeline = new FramePipeline(this.previewBuffers, this.frameFanout);
+			setCameraCallback(camera);
+			this.frameFanout.start();
+			this.framePipeline.start();
 		} catch (IOException e) {
-			Log.e(MainActivity.LOG_TAG, "setupCamera(): error setting camera callback.", e);
+			Log.e(MainActivity.LOG_TAG, "setupFrameProcessing(): error setting camera callback.", e);
 		}
 	}
 
 	/**
-	 * [IMPORTANT!] Sets the {@link #previewBuffer} to be the default buffer where the 
+	 * [IMPORTANT!] Sets the {@link #previewBuffers} to be the default buffers where the 
 	 * preview frames will be copied. Also sets the callback function 
 	 * when a frame is ready.
+	 * The camera is seen as a {@link FrameSource}: the rest of the frame path doesn't 
+	 * depend on it, and can be fed by other sources as well.
+	 * @param camera the camera that has just been set up
 	 * @throws IOException
 	 */
-	private void setCameraCallback() throws IOException {
-		MainActivity parent = (MainActivity)this.getContext();
-		Camera camera = parent.getCamera();
+	private void setCameraCallback(Camera camera) throws IOException {
+		FrameSource source = new CameraFrameSource(camera, this.previewWidth, this.previewHeight);
+		this.frameSource = source;
+		
+		// every buffer is given to the camera with addCallbackBuffer()
+		this.previewBuffers.attach(source);
 		
-		camera.addCallbackBuffer(this.previewBuffer);
-		camera.setPreviewCallbackWithBuffer(new PreviewCallback() {
+		source.setFrameCallback(new FrameSource.FrameCallback() {
 			@Override
-			public void onPreviewFrame(byte[] data, Camera cam) {
-				processFrame(previewBuffer, cam);
+			public void onFrame(byte[] data) {
+				long traceStart = Tracer.begin();
 				
-				// [IMPORTANT!] remember to reset the CallbackBuffer at the end of every onPreviewFrame event.
-				// Seems weird, but it works
-				cam.addCallbackBuffer(previewBuffer);
+				// nothing heavy here, we are on the UI thread: the frame is just handed 
+				// to the pipeline that will process it on its own thread.
+				// [IMPORTANT!] remember to reset the CallbackBuffer at the end of every frame's processing.
+				// Seems weird, but it works. The pool calls addCallbackBuffer() for us when the 
+				// pipeline releases the buffer.
+				// frames that arrive after stopFrameProcessing(), or while the camera 
+				// is being released, are just ignored
+				if (framePipeline != null && cameraLifecycle.isOpen()) {
+					framePipeline.submit(data);
+				}
+				
+				long requestNanos = cameraRequestNanos;
+				if (requestNanos != 0) {
+					cameraRequestNanos = 0;
+					Tracer.instant("firstFrame");
+					Log.i(MainActivity.LOG_TAG, "onPreviewFrame(): time to first frame is " 
+						+ (System.nanoTime() - requestNanos) / 1000000 + " ms");
+				}
+				Tracer.end("onPreviewFrame", traceStart);
 			}
 		});
 	}
 	
+	/**
+	 * Reads how the preview frame path is performing (fps, processing times, 
+	 * lost frames...). It can be called from any thread.
+	 * @param out where to write the values, or null to create a new {@link FrameMetrics.Snapshot}
+	 * @return the filled snapshot, or null if the preview is not running
+	 */
+	public FrameMetrics.Snapshot getFrameMetrics(FrameMetrics.Snapshot out) {
+		FramePipeline pipeline = this.framePipeline;
+		return (pipeline == null) ? null : pipeline.getMetrics(out);
+	}
+	
+	/**
+	 * Adds an analyzer that receives the preview frames on its own thread, in parallel 
+	 * with the other ones. It's kept until it's removed, even if the camera is set up again.
+	 * @param name a name, used in the logs
+	 * @param analyzer the code that analyzes the frames. The frames are NV21, landscape-oriented 
+	 * and must not be used after {@link FramePipeline.FrameConsumer#onFrame(byte[], long)} returns.
+	 * @param frameInterval the analyzer gets one frame every this many (1 for every frame)
+	 * @return the handle to read the analyzer's statistics or to remove it
+	 */
+	public FrameFanout.Analyzer addFrameAnalyzer(String name, FramePipeline.FrameConsumer analyzer, int frameInterval) {
+		return this.frameFanout.addAnalyzer(name, analyzer, frameInterval);
+	}
+	
+	/**
+	 * @param analyzer a handle returned by {@link #addFrameAnalyzer(String, FramePipeline.FrameConsumer, int)}
+	 */
+	public void removeFrameAnalyzer(FrameFanout.Analyzer analyzer) {
+		this.frameFanout.removeAnalyzer(analyzer);
+	}
+	
+	/**
+	 * Stops the threads that process the preview frames and takes the buffers back 
+	 * from the camera. It MUST be called before the camera is released, because 
+	 * a buffer can't be given to a released camera. A running burst is cancelled 
+	 * (see {@link BurstCapture#cancel()}).
+	 */
+	public void stopFrameProcessing() {
+		if (this.framePipeline != null) {
+			this.framePipeline.stop();
+			Log.i(MainActivity.LOG_TAG, "stopFrameProcessing(): " + this.framePipeline.getMetrics(null));
+			this.framePipeline = null;
+		}
+		
+		// the analyzers give back the frames they were holding
+		this.frameFanout.stop();
+		for (FrameFanout.Analyzer analyzer : this.frameFanout.getAnalyzers()) {
+			Log.i(MainActivity.LOG_TAG, "stopFrameProcessing(): " + analyzer);
+		}
+		// no more frames for the burst: it ends with the ones it already has
+		// (the next frames may even be of another size)
+		if (this.burstCapture != null) {
+			this.burstCapture.cancel();
+		}
+		if (this.processOnlyOnChange) {
+			Log.i(MainActivity.LOG_TAG, "stopFrameProcessing(): " + this.staticFrameCount + " static frames skipped");
+		}
+		if (this.frameHashHistogram.getCount() > 0) {
+			Log.i(MainActivity.LOG_TAG, "stopFrameProcessing(): " + this.duplicateFrameCount + " duplicate frames skipped, hash and lookup p50 " 
+				+ this.frameHashHistogram.getPercentileMicros(50) + " us, p99 " + this.frameHashHistogram.getPercentileMicros(99) 
+				+ " us (" + this.frameHashes + ")");
+		}
+		this.frameHashed = false;
+		if (this.lumaPyramid != null) {
+			Log.i(MainActivity.LOG_TAG, "stopFrameProcessing(): " + this.lumaPyramid);
+		}
+		if (this.snapshotEncoder != null) {
+			Log.i(MainActivity.LOG_TAG, "stopFrameProcessing(): " + this.snapshotEncoder);
+		}
+		
+		// the camera forgets the buffers it was holding: the pool can give them again 
+		// (or give new ones, of another size) without the same buffer being queued twice
+		if (this.frameSource != null) {
+			try {
+				this.frameSource.setFrameCallback(null);
+			} catch (RuntimeException e) {
+				Log.e(MainActivity.LOG_TAG, "stopFrameProcessing(): error removing the preview callback", e);
+			}
+			this.frameSource = null;
+		}
+		if (this.previewBuffers != null) {
+			this.previewBuffers.detach();
+		}
+	}
+	
     /**
      * [IMPORTANT!] This is a convenient function to determine what's the proper
      * preview/picture size to be assigned to the camera, by looking at 
@@ -277,18 +853,158 @@ public class CameraPreview
     	return bestSize;
 	}
 	
+	/**
+	 * @param sizes a list of sizes
+	 * @return the same sizes, as (width, height) pairs in a flat array
+	 */
+	private static int[] toSizeArray(List<Size> sizes) {
+		int[] array = new int[sizes.size() * 2];
+		for (int i = 0; i < sizes.size(); i++) {
+			array[2 * i] = sizes.get(i).width;
+			array[2 * i + 1] = sizes.get(i).height;
+		}
+		return array;
+	}
+	
+	/**
+	 * Creates the {@link #previewGovernor} for the given camera, if needed, and tells it 
+	 * that the preview is being restarted.
+	 * @return the preview configuration chosen by the governor, or null if the preview is not adaptive
+	 */
+	private PreviewGovernor.Level setupPreviewGovernor(Camera.Parameters parameters, CameraCapabilityCache.Entry capabilities, int cameraID) {
+		if (!this.adaptivePreview) {
+			this.previewGovernor = null;
+			return null;
+		}
+		
+		PreviewGovernor governor = this.previewGovernor;
+		if (governor == null || this.governorCameraID != cameraID) {
+			// the frame rate can be chosen only starting from API 9
+			int[] fpsRanges = null;
+			if (Build.VERSION.SDK_INT >= 9) {
+				List<int[]> ranges = parameters.getSupportedPreviewFpsRange();
+				if (ranges != null) {
+					fpsRanges = new int[ranges.size() * 2];
+					for (int i = 0; i < ranges.size(); i++) {
+						fpsRanges[2 * i] = ranges.get(i)[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+						fpsRanges[2 * i + 1] = ranges.get(i)[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+					}
+				}
+			}
+			
+			PreviewGovernor.Level[] ladder = PreviewGovernor.buildLadder(capabilities.previewSizes, fpsRanges, 
+				ASPECT_RATIO_W, ASPECT_RATIO_H, ADAPTIVE_PREVIEW_MAX_WIDTH);
+			if (ladder.length == 0) {
+				Log.e(MainActivity.LOG_TAG, "setupPreviewGovernor(): no " + ASPECT_RATIO_W + ":" + ASPECT_RATIO_H + " preview size, the preview can't be adaptive");
+				this.previewGovernor = null;
+				return null;
+			}
+			
+			// we start from the size getBestSize() would choose
+			governor = new PreviewGovernor(ladder, PreviewGovernor.findLevel(ladder, capabilities.previewWidth, capabilities.previewHeight));
+			this.previewGovernor = governor;
+			this.governorCameraID = cameraID;
+		}
+		
+		governor.restart(System.nanoTime());
+		return governor.getLevel();
+	}
+	
+	/**
+	 * Tells the {@link #previewGovernor} how long a frame took, and restarts the preview 
+	 * if it decides to change its configuration. Runs on the thread of {@link #previewAnalyzer}.
+	 * @param startNanos when the processing of the frame started
+	 */
+	private void governPreview(long startNanos) {
+		PreviewGovernor governor = this.previewGovernor;
+		if (governor == null) {
+			return;
+		}
+		
+		long now = System.nanoTime();
+		governor.onFrameProcessed((now - startNanos) / 1000);
+		
+		// the frames lost before reaching us count as much as the ones we dropped: 
+		// the ones replaced in the pool, and the ones the camera couldn't deliver at all
+		PreviewBufferPool pool = this.previewBuffers;
+		long lost = this.previewAnalyzer.getDroppedCount() + pool.getDroppedCount() + pool.getStarvedCount();
+		if (governor.evaluate(now, this.previewAnalyzer.getProcessedCount() + lost, lost) < 0) {
+			return;
+		}
+		
+		Log.i(MainActivity.LOG_TAG, String.format(Locale.US, "governPreview(): load %.2f, %.1f%% dropped, switching to %s", 
+			governor.getLastLoad(), governor.getLastDropRate() * 100, governor.getLevel()));
+		
+		// the camera is driven by the UI thread
+		removeCallbacks(this.levelChange);
+		post(this.levelChange);
+	}
+	
+	/**
+	 * Restarts the preview with the level chosen by the {@link #previewGovernor}. It's 
+	 * lighter than {@link #setupCamera()}: the parameters of the camera aren't read again 
+	 * (the ones of the last setup are changed), and the buffers and the threads are kept 
+	 * if possible (see {@link #setupFrameProcessing(Camera, int, int)}).<br />
+	 * A running burst needs every frame at the same size: the change waits for it to complete.
+	 */
+	private void applyPreviewLevel() {
+		PreviewGovernor governor = this.previewGovernor;
+		AndroidCameraDevice device = this.cameraLifecycle.getDevice();
+		Camera.Parameters parameters = this.cameraParameters;
+		if (governor == null || device == null || parameters == null || !this.surfaceReady || !this.cameraLifecycle.isPreviewing()) {
+			// the camera will be set up again anyway
+			return;
+		}
+		
+		BurstCapture burst = this.burstCapture;
+		if (burst != null && burst.isRunning()) {
+			postDelayed(this.levelChange, LEVEL_CHANGE_RETRY_MILLIS);
+			return;
+		}
+		
+		long start = Tracer.begin();
+		PreviewGovernor.Level level = governor.getLevel();
+		parameters.setPreviewSize(level.width, level.height);
+		if (level.maxFps > 0) {
+			parameters.setPreviewFpsRange(level.minFps, level.maxFps);
+		}
+		
+		stopCameraPreview();
+		stopFrameProcessing();
+		try {
+			device.getCamera().setParameters(parameters);
+		}
+		catch (RuntimeException e) {
+			// the preview goes on as it was
+			Log.e(MainActivity.LOG_TAG, "applyPreviewLevel(): the camera refused " + level, e);
+			parameters.setPreviewSize(this.previewWidth, this.previewHeight);
+		}
+		
+		Camera.Size size = parameters.getPreviewSize();
+		setupFrameProcessing(device.getCamera(), size.width, size.height);
+		startCameraPreview(this.surfaceHolder);
+		governor.restart(System.nanoTime());
+		Tracer.end("applyPreviewLevel", start);
+	}
+	
 	/**
 	 * In addition to calling {@link Camera#startPreview()}, it also 
 	 * updates the preview display that could be changed in some situations
 	 * @param holder the current {@link SurfaceHolder}
 	 */
-	private synchronized void startCameraPreview(SurfaceHolder holder) {
-		MainActivity parent = (MainActivity)this.getContext();
-		Camera camera = parent.getCamera();
+	private void startCameraPreview(SurfaceHolder holder) {
+		AndroidCameraDevice device = this.cameraLifecycle.getDevice();
+		
+		if (device == null) {
+			Log.e(MainActivity.LOG_TAG, "startCameraPreview(): warning, camera is null");
+			return;
+		}
 		
 		try {
-			camera.setPreviewDisplay(holder);
-			camera.startPreview();
+			device.getCamera().setPreviewDisplay(holder);
+			if (!this.cameraLifecycle.startPreview()) {
+				Log.i(MainActivity.LOG_TAG, "startCameraPreview(): the camera is " + this.cameraLifecycle.getState() + ", nothing to do");
+			}
 		} catch (Exception e){
 			Log.e(MainActivity.LOG_TAG, "startCameraPreview(): error starting camera preview", e);
 		}
@@ -298,31 +1014,32 @@ public class CameraPreview
 	 * It "simply" calls {@link Camera#stopPreview()} and checks
 	 * for errors
 	 */
-	private synchronized void stopCameraPreview() {
-		MainActivity parent = (MainActivity)this.getContext();
-		Camera camera = parent.getCamera();
-		
+	private void stopCameraPreview() {
 		try {
-			camera.stopPreview();
+			if (!this.cameraLifecycle.stopPreview()) {
+				Log.i(MainActivity.LOG_TAG, "stopCameraPreview(): tried to stop a non-running preview, this is not an error");
+			}
 		} catch (Exception e){
-			// ignored: tried to stop a non-existent preview
-			Log.i(MainActivity.LOG_TAG, "stopCameraPreview(): tried to stop a non-running preview, this is not an error");
+			Log.e(MainActivity.LOG_TAG, "stopCameraPreview(): error stopping camera preview", e);
 		}
 	}
 	
 	/**
 	 * Gets the current screen rotation in order to understand how much 
-	 * the surface needs to be rotated
+	 * the surface needs to be rotated. The same information is used to make
+	 * the preview frames upright before {@link #processFrame(byte[], long)}, and 
+	 * to rotate the snapshots.
 	 */
 	private void updateCameraDisplayOrientation() {
-		MainActivity parent = (MainActivity)this.getContext();
-		Camera camera = parent.getCamera();
-		int cameraID = parent.getCameraID();
+		this.snapshotRotation = getPictureRotation();
+		AndroidCameraDevice device = this.cameraLifecycle.getDevice();
 		
-		if (camera == null) {
+		if (device == null) {
 			Log.e(MainActivity.LOG_TAG, "updateCameraDisplayOrientation(): warning, camera is null");
     		return;
 		}
+		Camera camera = device.getCamera();
+		int cameraID = device.getCameraID();
     	
 		int result = 0;
 		Activity parentActivity = (Activity)this.getContext();
@@ -344,11 +1061,19 @@ public class CameraPreview
 		
 			if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
 				result = (info.orientation + degrees) % 360;
+				
+				// the frames are not mirrored, the display is: frames must be rotated 
+				// the same way, and then mirrored to look like the preview
+				this.frameRotation = result;
+				this.frameMirror = true;
+				
 				result = (360 - result) % 360;  // compensate the mirror
 			} 
 			else {  
 				// back-facing
 				result = (info.orientation - degrees + 360) % 360;
+				this.frameRotation = result;
+				this.frameMirror = false;
 			}
 		}
 		else {
@@ -356,58 +1081,614 @@ public class CameraPreview
 			// and doesn't produce an upside-down preview.
 			// ... but there is a small amount of devices that don't like it!
 			result = Math.abs(degrees - 90);
+			this.frameRotation = result;
+			this.frameMirror = false;
 		}
 		
 		camera.setDisplayOrientation(result); // save settings
 	}
     
-	@Override
-	public void onPictureTaken(byte[] raw, Camera cam) {
-		Log.i(MainActivity.LOG_TAG, "onPictureTaken(): raw image is " + raw.length + " bytes long");
+	/**
+	 * When enabled, the frames where nothing has changed (according to a cheap 
+	 * {@link MotionDetector}) are not analyzed nor converted to RGB. 
+	 * @param enabled true to process only the frames that differ from the previous ones
+	 */
+	public void setProcessOnlyOnChange(boolean enabled) {
+		this.processOnlyOnChange = enabled;
+	}
+	
+	public boolean isProcessOnlyOnChange() {
+		return this.processOnlyOnChange;
+	}
+	
+	/**
+	 * When enabled, the frames that look the same as one of the last ones (according to 
+	 * their {@link PerceptualHash}) are not analyzed nor converted to RGB. Unlike 
+	 * {@link #setProcessOnlyOnChange(boolean)}, a scene that goes back to a state seen 
+	 * a moment ago is skipped too. The other frame analyzers still receive every frame.
+	 * @param enabled true to skip the near duplicates of the recent frames
+	 */
+	public void setSkipDuplicateFrames(boolean enabled) {
+		this.skipDuplicateFrames = enabled;
+	}
+	
+	public boolean isSkipDuplicateFrames() {
+		return this.skipDuplicateFrames;
+	}
+	
+	/**
+	 * When enabled, {@link #onPictureTaken(byte[], Camera)} doesn't save a picture of 
+	 * the same scene as one of the last pictures saved. The scene is the preview frame 
+	 * at the moment of the request: remember to call {@link #onPictureRequested()}.
+	 * @param enabled true to skip the near duplicates of the last pictures
+	 */
+	public void setSkipDuplicateCaptures(boolean enabled) {
+		this.skipDuplicateCaptures = enabled;
+	}
+	
+	public boolean isSkipDuplicateCaptures() {
+		return this.skipDuplicateCaptures;
+	}
+	
+	/**
+	 * To be called on the UI thread when a full-size picture is requested, right 
+	 * before {@link CameraLifecycle#takePicture()}: it remembers the hash of the 
+	 * preview frame of that moment, see {@link #setSkipDuplicateCaptures(boolean)}.
+	 */
+	public void onPictureRequested() {
+		this.pictureRequestHashed = this.frameHashed;
+		this.pictureRequestHash = this.lastFrameHash;
+	}
+	
+	/**
+	 * Adds a detector that works on the integral image and the luma pyramid of every 
+	 * (upright) frame that is processed. It's called on the thread of the "Preview" analyzer.
+	 * @param detector the detector
+	 */
+	public synchronized void addLumaDetector(LumaPyramid.Consumer detector) {
+		LumaPyramid.Consumer[] current = this.lumaDetectors;
+		LumaPyramid.Consumer[] updated = new LumaPyramid.Consumer[current.length + 1];
+		System.arraycopy(current, 0, updated, 0, current.length);
+		updated[current.length] = detector;
+		this.lumaDetectors = updated;
+	}
+	
+	public synchronized void removeLumaDetector(LumaPyramid.Consumer detector) {
+		LumaPyramid.Consumer[] current = this.lumaDetectors;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == detector) {
+				LumaPyramid.Consumer[] updated = new LumaPyramid.Consumer[current.length - 1];
+				System.arraycopy(current, 0, updated, 0, i);
+				System.arraycopy(current, i + 1, updated, i, updated.length - i);
+				this.lumaDetectors = updated;
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Enables or disables the adaptive preview: its size and frame rate go up or down 
+	 * according to how fast the frames are processed (see {@link PreviewGovernor}), 
+	 * instead of being the ones chosen by {@link #getBestSize(List, int)}.
+	 * It takes effect the next time the camera is set up.
+	 * @param enabled true to let the preview adapt
+	 */
+	public void setAdaptivePreview(boolean enabled) {
+		this.adaptivePreview = enabled;
+	}
+	
+	public boolean isAdaptivePreview() {
+		return this.adaptivePreview;
+	}
+	
+	/**
+	 * Enables or disables the "zero shutter lag" mode, where the last preview frames are 
+	 * always kept in memory so that {@link #takeZeroShutterLagPicture(long, boolean)} can be used.
+	 * It takes effect the next time the camera is set up.
+	 * @param enabled true to keep the recent frames
+	 */
+	public void setZeroShutterLag(boolean enabled) {
+		this.zeroShutterLag = enabled;
+		
+		// the recent frames are copied by an analyzer of their own, 
+		// so that the copy doesn't slow down processFrame()
+		if (enabled && this.zslAnalyzer == null) {
+			this.zslAnalyzer = this.frameFanout.addAnalyzer("ZeroShutterLag", new FramePipeline.FrameConsumer() {
+				@Override
+				public void onFrame(byte[] frame, long timestampNanos) {
+					FrameRing ring = zslRing;
+					if (ring != null) {
+						ring.add(frame, timestampNanos);
+					}
+				}
+			}, 1);
+		}
+		else if (!enabled && this.zslAnalyzer != null) {
+			this.frameFanout.removeAnalyzer(this.zslAnalyzer);
+			this.zslAnalyzer = null;
+		}
+	}
+	
+	public boolean isZeroShutterLag() {
+		return this.zeroShutterLag;
+	}
+	
+	/**
+	 * Enables or disables the "dashcam" mode, where every preview frame is recorded in a 
+	 * file that always holds the last ones (see {@link FrameRecorder}). The frames can be 
+	 * read, or exported, with a {@link FrameRecordingReader}.
+	 * It takes effect the next time the camera is set up: the recording goes on, 
+	 * unless the file or the preview size have changed.
+	 * @param file where the frames are recorded, or null to stop recording
+	 */
+	public void setFrameRecording(File file) {
+		this.recordingFile = file;
+		
+		// as for the zero shutter lag, the copy is done by an analyzer of its own
+		if (file != null && this.recordingAnalyzer == null) {
+			this.recordingAnalyzer = this.frameFanout.addAnalyzer("Recorder", new FramePipeline.FrameConsumer() {
+				@Override
+				public void onFrame(byte[] frame, long timestampNanos) {
+					recordFrame(frame, timestampNanos);
+				}
+			}, 1);
+		}
+		else if (file == null && this.recordingAnalyzer != null) {
+			// the analyzer's thread is over when removeAnalyzer() returns: the recorder is ours now
+			this.frameFanout.removeAnalyzer(this.recordingAnalyzer);
+			this.recordingAnalyzer = null;
+			closeFrameRecorder(true);
+		}
+	}
+	
+	public File getFrameRecording() {
+		return this.recordingFile;
+	}
+	
+	/**
+	 * Sets the size of the frames to record: the {@link #frameRecorder} is created for 
+	 * it, if needed, when the first frame arrives.
+	 */
+	private void setupFrameRecorder(int width, int height) {
+		this.recordingWidth = width;
+		this.recordingHeight = height;
+	}
+	
+	/**
+	 * Called by the thread of the recording analyzer for every frame. The first time, 
+	 * and every time the file or the preview size change, it creates the recorder: 
+	 * how many frames it keeps depends on {@link #RECORDING_BYTE_BUDGET}.
+	 */
+	private void recordFrame(byte[] frame, long timestampNanos) {
+		File file = this.recordingFile;
+		int width = this.recordingWidth;
+		int height = this.recordingHeight;
 		
-		stopCameraPreview(); // better do that because we don't need a preview right now
+		FrameRecorder recorder = this.frameRecorder;
+		if (recorder == null || !recorder.getFile().equals(file) 
+				|| recorder.getWidth() != width || recorder.getHeight() != height) {
+			
+			// the old recorder is closed right here: the new one may use the same file
+			closeFrameRecorder(false);
+			if (file == null || width == 0) {
+				return;
+			}
+			
+			long openStart = Tracer.begin();
+			int slotCount = FrameRecorder.slotCountFor(RECORDING_BYTE_BUDGET, width, height);
+			try {
+				synchronized (this.recorderFileLock) {
+					recorder = new FrameRecorder(file, width, height, slotCount);
+				}
+				this.frameRecorder = recorder;
+				Log.i(MainActivity.LOG_TAG, "recordFrame(): recording the last " + slotCount + " frames of " + width + "x" + height + " on " + file);
+			}
+			catch (IOException e) {
+				// don't try again until the next setup
+				Log.e(MainActivity.LOG_TAG, "recordFrame(): can't record on " + file, e);
+				this.recordingWidth = 0;
+				return;
+			}
+			finally {
+				Tracer.end("FrameRecorder.open", openStart);
+			}
+		}
 		
-		// create a Bitmap from the raw data
-		Bitmap picture = BitmapFactory.decodeByteArray(raw, 0, raw.length);
+		recorder.record(frame, timestampNanos);
+	}
+	
+	/**
+	 * Closes the {@link #frameRecorder}. Closing flushes the whole file, so the UI 
+	 * thread leaves the job to a thread of its own.
+	 * @param inBackground true to close it on another thread
+	 */
+	private void closeFrameRecorder(boolean inBackground) {
+		final FrameRecorder recorder = this.frameRecorder;
+		this.frameRecorder = null;
+		if (recorder == null) {
+			return;
+		}
 		
-		// [IMPORTANT!] the image contained in the raw array is ALWAYS landscape-oriented.
-		// We detect if the user took the picture in portrait mode and rotate it accordingly.
+		Runnable close = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (recorderFileLock) {
+					try {
+						recorder.close();
+						Log.i(MainActivity.LOG_TAG, "closeFrameRecorder(): " + recorder.getWriteCount() + " frames recorded");
+					}
+					catch (IOException e) {
+						Log.e(MainActivity.LOG_TAG, "closeFrameRecorder(): error closing the recording", e);
+					}
+				}
+			}
+		};
+		
+		if (inBackground) {
+			new Thread(close, "FrameRecorder.close").start();
+		}
+		else {
+			close.run();
+		}
+	}
+	
+	/**
+	 * Saves a picture made of one of the last preview frames, without stopping the preview 
+	 * and without waiting for the sensor: the moment the user tapped is already in memory.
+	 * The frame is encoded and saved in background by the {@link #capturePipeline}.
+	 * @param tapNanos when the user asked for the picture, as {@link System#nanoTime()}
+	 * @param sharpest true to pick the sharpest of the frames just before the tap, 
+	 * false to pick the one that is the closest to the tap
+	 * @return false if there's no frame available or the capture queue is full
+	 */
+	public boolean takeZeroShutterLagPicture(long tapNanos, boolean sharpest) {
+		final FrameRing ring = this.zslRing;
+		if (ring == null) {
+			Log.e(MainActivity.LOG_TAG, "takeZeroShutterLagPicture(): zero shutter lag is not enabled");
+			return false;
+		}
+		
+		final int slot = sharpest 
+			? ring.acquireSharpest(tapNanos - ZSL_SHARPEST_WINDOW_MS * 1000000L, tapNanos)
+			: ring.acquireClosest(tapNanos);
+		if (slot < 0) {
+			Log.e(MainActivity.LOG_TAG, "takeZeroShutterLagPicture(): no preview frames yet");
+			return false;
+		}
+		
+		// the slot is held until the frame has been encoded
+		boolean accepted = this.capturePipeline.submitPreviewFrame(ring.getFrame(slot), ring.getWidth(), ring.getHeight(), 
+			getPictureRotation(), new Runnable() {
+				@Override
+				public void run() {
+					ring.release(slot);
+				}
+			});
+		
+		if (!accepted) {
+			Toast toast = Toast.makeText(getContext(), "Still saving the previous pictures, please wait", Toast.LENGTH_SHORT);
+			toast.show();
+		}
+		return accepted;
+	}
+	
+	/**
+	 * Saves the next preview frames, one after the other, without stopping the preview. 
+	 * Frames are skipped if they can't be saved fast enough. See {@link BurstCapture}.
+	 * @param frameCount how many frames to save
+	 * @return false if the preview is not running, or a burst is already in progress
+	 */
+	public boolean takeBurst(int frameCount) {
+		int width = this.previewWidth;
+		int height = this.previewHeight;
+		if (width == 0 || !this.cameraLifecycle.isPreviewing()) {
+			Log.e(MainActivity.LOG_TAG, "takeBurst(): the preview is not running");
+			return false;
+		}
+		
+		BurstCapture burst = this.burstCapture;
+		if (burst != null && burst.isRunning()) {
+			Toast toast = Toast.makeText(getContext(), "Still saving the previous burst, please wait", Toast.LENGTH_SHORT);
+			toast.show();
+			return false;
+		}
+		
+		// the slots are allocated once for every preview size
+		if (burst == null || burst.getWidth() != width || burst.getHeight() != height) {
+			if (burst != null) {
+				burst.shutdown();
+			}
+			burst = new BurstCapture(BURST_SLOT_COUNT, width, height, new YuvImageJpegEncoder(), this.burstStore);
+			this.burstCapture = burst;
+		}
+		
+		// the frames are copied by an analyzer of their own, as for the zero shutter lag
+		if (this.burstAnalyzer == null) {
+			this.burstAnalyzer = this.frameFanout.addAnalyzer("Burst", new FramePipeline.FrameConsumer() {
+				@Override
+				public void onFrame(byte[] frame, long timestampNanos) {
+					BurstCapture burst = burstCapture;
+					if (burst != null && burst.getWidth() == previewWidth && burst.getHeight() == previewHeight) {
+						burst.onFrame(frame, timestampNanos);
+					}
+				}
+			}, 1);
+		}
+		
+		return burst.start(frameCount, getPictureRotation(), new BurstCapture.BurstListener() {
+			@Override
+			public void onBurstFinished(final BurstCapture.Result result) {
+				Log.i(MainActivity.LOG_TAG, "onBurstFinished(): " + result);
+				if (result.error != null) {
+					Log.e(MainActivity.LOG_TAG, "onBurstFinished(): some frames can't be saved", result.error);
+				}
+				
+				post(new Runnable() {
+					@Override
+					public void run() {
+						Toast toast = Toast.makeText(getContext(), result.written + " pictures saved to the media library", Toast.LENGTH_LONG);
+						toast.show();
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Saves the next preview frame as a picture, without stopping the preview: it's 
+	 * much faster than {@link CameraLifecycle#takePicture()}, but the picture has 
+	 * the resolution of the preview. It's encoded in background by a {@link SnapshotEncoder}.
+	 * @return false if the preview is not running
+	 */
+	public boolean takeSnapshot() {
+		if (this.previewWidth == 0 || !this.cameraLifecycle.isPreviewing()) {
+			Log.e(MainActivity.LOG_TAG, "takeSnapshot(): the preview is not running");
+			return false;
+		}
+		
+		this.snapshotRotation = getPictureRotation();
+		setupSnapshotEncoder();
+		this.snapshotRequested = true;
+		return true;
+	}
+	
+	/**
+	 * Saves a snapshot of the preview every 'millis' milliseconds (a time-lapse), 
+	 * until it's called again with 0. See {@link #takeSnapshot()}.
+	 * @param millis the interval between two snapshots, or 0 to stop
+	 */
+	public void setSnapshotInterval(long millis) {
+		if (millis <= 0) {
+			this.periodicSnapshots = false;
+			if (this.snapshotEncoder != null) {
+				this.snapshotEncoder.setMinInterval(SNAPSHOT_MIN_INTERVAL_MS);
+			}
+			return;
+		}
+		
+		this.snapshotRotation = getPictureRotation();
+		setupSnapshotEncoder();
+		// every frame is offered to the encoder, that takes one every 'millis'
+		this.snapshotEncoder.setMinInterval(Math.max(millis, SNAPSHOT_MIN_INTERVAL_MS));
+		this.periodicSnapshots = true;
+	}
+	
+	public boolean isTakingPeriodicSnapshots() {
+		return this.periodicSnapshots;
+	}
+	
+	/**
+	 * Creates the {@link #snapshotEncoder} and the analyzer that feeds it, if needed.
+	 */
+	private void setupSnapshotEncoder() {
+		if (this.snapshotEncoder == null) {
+			SnapshotEncoder encoder = new SnapshotEncoder(SNAPSHOT_COPY_COUNT, new YuvImageJpegEncoder(), 
+				new SnapshotEncoder.SnapshotListener() {
+					@Override
+					public void onSnapshot(byte[] jpeg, int length, int rotationDegrees, long frameNanos) {
+						// the store writes the bytes before returning, so the buffer can be reused
+						try {
+							String location = snapshotStore.save(jpeg, 0, length, rotationDegrees);
+							Log.i(MainActivity.LOG_TAG, "onSnapshot(): " + length / 1024 + " KB saved to " + location);
+						}
+						catch (IOException e) {
+							Log.e(MainActivity.LOG_TAG, "onSnapshot(): the snapshot can't be saved", e);
+						}
+					}
+					
+					@Override
+					public void onSnapshotFailed(Exception e) {
+						Log.e(MainActivity.LOG_TAG, "onSnapshotFailed(): the frame can't be encoded", e);
+					}
+				});
+			encoder.setMinInterval(SNAPSHOT_MIN_INTERVAL_MS);
+			this.snapshotEncoder = encoder;
+		}
+		
+		// the frames are copied by an analyzer of their own, as for the bursts
+		if (this.snapshotAnalyzer == null) {
+			this.snapshotAnalyzer = this.frameFanout.addAnalyzer("Snapshot", new FramePipeline.FrameConsumer() {
+				@Override
+				public void onFrame(byte[] frame, long timestampNanos) {
+					SnapshotEncoder encoder = snapshotEncoder;
+					if (encoder == null || (!snapshotRequested && !periodicSnapshots)) {
+						return;
+					}
+					if (encoder.submit(frame, previewWidth, previewHeight, snapshotRotation, timestampNanos)) {
+						snapshotRequested = false;
+					}
+				}
+			}, 1);
+		}
+	}
+	
+	/**
+	 * Called when the device is rotated, if the Activity handles the orientation changes 
+	 * by itself (otherwise the whole preview is created again): the snapshots that are 
+	 * taken from now on get the new rotation.
+	 */
+	@Override
+	protected void onConfigurationChanged(Configuration newConfig) {
+		super.onConfigurationChanged(newConfig);
+		this.snapshotRotation = getPictureRotation();
+	}
+	
+	/**
+	 * [IMPORTANT!] the image produced by the camera (both pictures and preview frames) 
+	 * is ALWAYS landscape-oriented. We detect if the user is holding the phone in portrait 
+	 * mode, so that the picture can be rotated accordingly.
+	 * @return the clockwise rotation, in degrees, that makes the picture upright
+	 */
+	private int getPictureRotation() {
 		Activity parentActivity = (Activity)this.getContext();
 		int rotation = parentActivity.getWindowManager().getDefaultDisplay().getRotation();
 		if (rotation == Surface.ROTATION_0 || rotation == Surface.ROTATION_180) {
-			Matrix matrix = new Matrix();
-			matrix.postRotate(90);
-			// create a rotated version and replace the original bitmap
-			picture = Bitmap.createBitmap(picture, 0, 0, picture.getWidth(), picture.getHeight(), matrix, true);
+			return 90;
 		}
+		return 0;
+	}
+	
+	/**
+	 * Called when a full-size picture is ready. Everything that takes time 
+	 * (decoding, rotating and saving the picture) is left to the {@link #capturePipeline}, 
+	 * so here we can restart the preview immediately.
+	 * @param raw the picture, JPEG encoded
+	 * @param cam the camera that took the picture
+	 */
+	@Override
+	public void onPictureTaken(byte[] raw, Camera cam) {
+		Log.i(MainActivity.LOG_TAG, "onPictureTaken(): raw image is " + raw.length + " bytes long");
 		
-		// save to media library
-		MediaStore.Images.Media.insertImage(parentActivity.getContentResolver(), picture, "NiceCameraExample", "NiceCameraExample test");
-		
-		// show a message
-		Toast toast = Toast.makeText(parentActivity, "Picture saved to the media library", Toast.LENGTH_LONG);
-		toast.show();
+		// the same scene as a picture already saved is not saved again
+		boolean hashed = this.skipDuplicateCaptures && this.pictureRequestHashed;
+		this.pictureRequestHashed = false;
+		if (hashed && this.captureHashes.contains(this.pictureRequestHash)) {
+			Log.i(MainActivity.LOG_TAG, "onPictureTaken(): same scene as a previous picture, not saved (" + this.captureHashes + ")");
+			Toast toast = Toast.makeText(getContext(), "Same picture as before, not saved", Toast.LENGTH_SHORT);
+			toast.show();
+		}
+		// [IMPORTANT!] the image contained in the raw array is ALWAYS landscape-oriented.
+		// We detect if the user took the picture in portrait mode and rotate it accordingly.
+		else if (!this.capturePipeline.submit(raw, getPictureRotation())) {
+			Toast toast = Toast.makeText(getContext(), "Still saving the previous pictures, please wait", Toast.LENGTH_SHORT);
+			toast.show();
+		}
+		else if (hashed) {
+			this.captureHashes.add(this.pictureRequestHash);
+		}
 		
 		// [IMPORTANT!] after the onPictureTaken event, the preview stream automatically stops.
 		// You could navigate to another Activity, but in this example we just reset the
-		// camera preview and continue
-		startCameraPreview(this.surfaceHolder);
+		// camera preview and continue, while the picture is saved in background.
+		// If the camera has been released in the meantime, there's nothing to restart
+		if (this.cameraLifecycle.onPictureTaken()) {
+			startCameraPreview(this.surfaceHolder);
+		}
 	}
 	
 	/**
 	 * [IMPORTANT!] It's the callback that's fired when a preview frame is ready. Here
-	 * we can do some real-time analysis of the preview's contents.
+	 * we can do some real-time analysis of the preview's contents. It runs on the 
+	 * thread of its {@link FrameFanout} analyzer, so it can take its time without freezing 
+	 * the UI, and it must not touch the camera.
 	 * Just remember that the buffer array is a list of pixels represented in 
-	 * Y'UV420sp (NV21) format, so you could have to convert it to RGB before.
+	 * Y'UV420sp (NV21) format, so you could have to convert it to RGB before:
+	 * here it's done by {@link YuvConverter}, and the result is stored in {@link #rgbFrame}.
 	 * Also, as in {@link #onPictureTaken(byte[], Camera)}, the raw image is always 
-	 * landscape-oriented, even if the phone was in portrait mode.
+	 * landscape-oriented, even if the phone was in portrait mode: that's why 
+	 * it's rotated into {@link #uprightFrame} before any analysis.
 	 * 
 	 * @param raw the preview buffer
-	 * @param cam the camera that filled the buffer
+	 * @param timestampNanos when the frame has been delivered, as {@link System#nanoTime()}
 	 * @see <a href="http://en.wikipedia.org/wiki/YUV#Y.27UV420sp_.28NV21.29_to_ARGB8888_conversion">YUV Conversion - Wikipedia</a>
 	 */
-	private void processFrame(byte[] raw, Camera cam) {
-		// TODO: insert a good YUV->RGB conversion algorithm?
+	private void processFrame(byte[] raw, long timestampNanos) {
+		if (this.yuvConverter == null) {
+			return;
+		}
+		
+		// the hash is computed on the frame as it comes from the camera: 
+		// the rotation doesn't matter to recognize the same scene
+		if (this.skipDuplicateFrames || this.skipDuplicateCaptures) {
+			long hashStart = System.nanoTime();
+			long hash = this.frameHasher.dHash(raw, this.previewWidth, this.previewHeight);
+			boolean duplicate = this.skipDuplicateFrames && !this.frameHashes.add(hash);
+			this.frameHashHistogram.recordNanos(System.nanoTime() - hashStart);
+			
+			this.lastFrameHash = hash;
+			this.frameHashed = true;
+			if (duplicate) {
+				// nothing new to see here
+				this.duplicateFrameCount++;
+				return;
+			}
+		}
+		
+		byte[] frame = raw;
+		int width = this.previewWidth;
+		int height = this.previewHeight;
+		
+		int rotation = this.frameRotation;
+		boolean mirror = this.frameMirror;
+		if (rotation != 0 || mirror) {
+			Nv21Transform.transform(raw, width, height, rotation, mirror, this.uprightFrame);
+			frame = this.uprightFrame;
+			width = Nv21Transform.getRotatedWidth(this.previewWidth, this.previewHeight, rotation);
+			height = Nv21Transform.getRotatedHeight(this.previewWidth, this.previewHeight, rotation);
+		}
+		
+		// the scaled frame keeps the orientation of the upright one
+		if (width >= height) {
+			this.analysisScaler.setOutputSize(ANALYSIS_WIDTH, ANALYSIS_HEIGHT);
+		}
+		else {
+			this.analysisScaler.setOutputSize(ANALYSIS_HEIGHT, ANALYSIS_WIDTH);
+		}
+		this.analysisFrame = this.analysisScaler.scale(frame, width, height);
+		
+		if (this.motionDetector == null || this.motionDetector.getWidth() != this.analysisScaler.getOutputWidth()) {
+			// first frame, or the orientation has changed since the last frame
+			this.motionDetector = new MotionDetector(this.analysisScaler.getOutputWidth(), 
+				this.analysisScaler.getOutputHeight(), MOTION_BLOCK_SIZE);
+		}
+		
+		// the small frame is enough to know if something has moved
+		boolean changed = this.motionDetector.update(this.analysisFrame);
+		if (!changed && this.processOnlyOnChange) {
+			this.staticFrameCount++;
+			return;
+		}
+		
+		if (this.lumaAnalyzer.getWidth() != width) {
+			// the orientation has changed since the last frame
+			this.lumaAnalyzer = new LumaAnalyzer(width, height);
+			this.lumaAnalyzer.setStep(LUMA_ANALYSIS_STEP);
+		}
+		
+		// a lot of analysis doesn't need colors at all: the luma plane is enough
+		this.lumaAnalyzer.analyze(frame, this.lumaStats);
+		
+		// the detectors share the same integral image and pyramid, built only once
+		LumaPyramid.Consumer[] detectors = this.lumaDetectors;
+		if (detectors.length > 0) {
+			if (this.lumaPyramid == null || this.lumaPyramid.getWidth() != width || this.lumaPyramid.getHeight() != height) {
+				if (this.lumaPyramid != null) {
+					this.lumaPyramid.release();
+				}
+				this.lumaPyramid = new LumaPyramid(width, height, PYRAMID_LEVEL_COUNT, true, this.frameStripes);
+			}
+			
+			this.lumaPyramid.build(frame);
+			for (LumaPyramid.Consumer detector : detectors) {
+				detector.onPyramid(this.lumaPyramid, timestampNanos);
+			}
+		}
+		
+		this.yuvConverter.toArgb8888(frame, width, height, this.rgbFrame);
+		
+		// now lumaStats contains the brightness/focus statistics, analysisFrame 
+		// a small NV21 copy of the frame, motionDetector the areas that have changed 
+		// and rgbFrame the ARGB8888 pixels, ready for any analysis
 	}
 
 }
@@ -0,0 +1,437 @@
+package com.ale.nicecameraexample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ImageFormat;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Saves the pictures taken with {@link android.hardware.Camera#takePicture(android.hardware.Camera.ShutterCallback, android.hardware.Camera.PictureCallback, android.hardware.Camera.PictureCallback)}
+ * on a background thread.<br />
+ * Decoding, rotating, encoding and writing a full-size picture takes a lot of time:
+ * if it's done in {@link android.hardware.Camera.PictureCallback#onPictureTaken(byte[], android.hardware.Camera)}
+ * the UI freezes and the preview can't be restarted until everything is done.
+ * Here the pictures are queued (up to a maximum, so memory can't grow without limits)
+ * and saved one by one, while the preview goes on. The result is notified to a
+ * {@link CaptureListener} on the main thread.<br />
+ * Where the pictures end up is decided by a {@link PictureStore}.<br />
+ * By default pictures are rotated without decoding them, by writing the EXIF
+ * Orientation tag (see {@link ExifOrientation}): in this case the DECODE and ENCODE
+ * stages take no time (pictures whose EXIF block can't be updated still take the
+ * decode-rotate-encode path). The old path can be enabled for all pictures with
+ * {@link #setLosslessRotation(boolean)}: in this case the bitmaps can come from a
+ * {@link BitmapPool}, see {@link #setBitmapPool(BitmapPool)}.<br />
+ * The time spent in every stage is recorded in a {@link LatencyHistogram}.
+ */
+public class CapturePipeline {
+
+	/**
+	 * The stages every picture goes through. TOTAL is the time between
+	 * {@link CapturePipeline#submit(byte[], int)} and the end of the write stage,
+	 * so it includes the time spent in the queue too. Preview frames are not decoded,
+	 * but they are encoded to JPEG.
+	 */
+	public enum Stage {
+		DECODE, ROTATE, ENCODE, WRITE, TOTAL
+	}
+
+	/**
+	 * Receives the result of a capture. Its methods are called on the main thread.
+	 */
+	public interface CaptureListener {
+		/**
+		 * @param location where the picture has been saved, as returned by {@link PictureStore#save(byte[], int, int, int)}
+		 * @param stageMicros the time spent in every stage, in microseconds, indexed by {@link Stage#ordinal()}
+		 */
+		void onCaptureSaved(String location, long[] stageMicros);
+
+		void onCaptureFailed(Exception e);
+	}
+
+	private static final int JPEG_QUALITY = 90;
+
+	/**
+	 * The names of the stages in the trace (see {@link Tracer}), indexed by {@link Stage#ordinal()}.
+	 */
+	private static final String[] TRACE_NAMES = {
+		"capture.decode", "capture.rotate", "capture.encode", "capture.write", "capture"
+	};
+
+	private final PictureStore store;
+	private final CaptureListener listener;
+	private final ThreadPoolExecutor executor;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	private final LatencyHistogram[] stageHistograms = new LatencyHistogram[Stage.values().length];
+
+	private volatile boolean losslessRotation = true;
+	private volatile BitmapPool bitmapPool;
+
+	// used only by the pipeline's thread, so they're allocated once
+	private final ReusableOutputStream encodeBuffer = new ReusableOutputStream();
+	private final byte[] decodeStorage = new byte[16 * 1024];
+	private final Matrix rotateMatrix = new Matrix();
+
+	/**
+	 * @param store where the pictures are saved
+	 * @param maxQueuedJobs how many pictures can wait to be saved. When the queue is
+	 * full, new pictures are refused by {@link #submit(byte[], int)}
+	 * @param listener receives the results, can be null
+	 */
+	public CapturePipeline(PictureStore store, int maxQueuedJobs, CaptureListener listener) {
+		this.store = store;
+		this.listener = listener;
+
+		for (int i = 0; i < this.stageHistograms.length; i++) {
+			this.stageHistograms[i] = new LatencyHistogram();
+		}
+
+		this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(maxQueuedJobs),
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "CapturePipeline");
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				}
+			});
+	}
+
+	/**
+	 * Queues a picture to be saved. It never blocks.
+	 * @param jpeg the picture as returned by {@link android.hardware.Camera.PictureCallback#onPictureTaken(byte[], android.hardware.Camera)}
+	 * @param rotationDegrees how much (clockwise) the picture must be rotated to be upright
+	 * @return false if the queue is full (or the pipeline has been shut down) and the picture has been discarded
+	 */
+	public boolean submit(final byte[] jpeg, final int rotationDegrees) {
+		final long submitNanos = System.nanoTime();
+
+		try {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					process(jpeg, rotationDegrees, submitNanos);
+				}
+			});
+			return true;
+		}
+		catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Queues a preview frame to be encoded and saved, for example to implement
+	 * a "zero shutter lag" capture without stopping the preview. It never blocks.
+	 * @param nv21 the frame
+	 * @param width frame width
+	 * @param height frame height
+	 * @param rotationDegrees how much (clockwise) the picture must be rotated to be upright
+	 * @param onFrameConsumed called (on any thread) as soon as the frame is not needed anymore.
+	 * It's always called, even if the frame is refused.
+	 * @return false if the queue is full (or the pipeline has been shut down) and the frame has been discarded
+	 */
+	public boolean submitPreviewFrame(final byte[] nv21, final int width, final int height, final int rotationDegrees, final Runnable onFrameConsumed) {
+		final long submitNanos = System.nanoTime();
+
+		try {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					processPreviewFrame(nv21, width, height, rotationDegrees, onFrameConsumed, submitNanos);
+				}
+			});
+			return true;
+		}
+		catch (RejectedExecutionException e) {
+			onFrameConsumed.run();
+			return false;
+		}
+	}
+
+	/**
+	 * @param lossless true (the default) to rotate the pictures by writing their EXIF
+	 * Orientation tag, false to decode them, rotate the pixels and encode them again
+	 */
+	public void setLosslessRotation(boolean lossless) {
+		this.losslessRotation = lossless;
+	}
+
+	public boolean isLosslessRotation() {
+		return this.losslessRotation;
+	}
+
+	/**
+	 * When the pictures are decoded and rotated (see {@link #setLosslessRotation(boolean)}),
+	 * the decoded and the rotated bitmaps are taken from this pool, and given back to it
+	 * when the picture has been encoded. Decoding into an existing bitmap is possible
+	 * starting from API 11, the rotated one is reused on any version.
+	 * @param pool the pool, or null to allocate new bitmaps every time
+	 */
+	public void setBitmapPool(BitmapPool pool) {
+		this.bitmapPool = pool;
+	}
+
+	public BitmapPool getBitmapPool() {
+		return this.bitmapPool;
+	}
+
+	/**
+	 * @return the distribution of the time spent in the given stage
+	 */
+	public LatencyHistogram getStageHistogram(Stage stage) {
+		return this.stageHistograms[stage.ordinal()];
+	}
+
+	/**
+	 * @return how many pictures are waiting to be saved (the one being saved is not included)
+	 */
+	public int getQueuedCount() {
+		return this.executor.getQueue().size();
+	}
+
+	/**
+	 * Stops accepting new pictures. The ones already queued are saved anyway,
+	 * and then the store is flushed.
+	 */
+	public void shutdown() {
+		try {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						store.flush();
+					} catch (IOException e) {
+						notifyFailure(e);
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			// the queue is full or the pipeline is already shut down: the store 
+			// will be flushed by the operating system
+		}
+		this.executor.shutdown();
+	}
+
+	private void process(byte[] jpeg, int rotationDegrees, long submitNanos) {
+		final long[] stageMicros = new long[Stage.values().length];
+
+		try {
+			long t0 = System.nanoTime();
+			long t1 = t0, t2 = t0, t3 = t0;
+			byte[] encoded = null;
+			int encodedLength = 0;
+			int savedOrientation = 0;
+
+			if (this.losslessRotation) {
+				// no pixels are touched: only the header of the JPEG changes
+				encoded = ExifOrientation.trySetOrientation(jpeg, rotationDegrees);
+				t2 = System.nanoTime();
+				t3 = t2;
+				if (encoded != null) {
+					encodedLength = encoded.length;
+					savedOrientation = rotationDegrees;
+				}
+				// else the EXIF block can't be updated: the pixels are rotated instead
+			}
+
+			if (encoded == null) {
+				BitmapPool pool = this.bitmapPool;
+				Bitmap picture = decode(jpeg, pool);
+
+				t1 = System.nanoTime();
+				if (rotationDegrees != 0) {
+					// draw a rotated version and replace the original bitmap
+					Bitmap rotated = rotate(picture, rotationDegrees, pool);
+					releaseBitmap(picture, pool);
+					picture = rotated;
+				}
+
+				t2 = System.nanoTime();
+				this.encodeBuffer.reset();
+				picture.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, this.encodeBuffer);
+				releaseBitmap(picture, pool);
+				// the store writes the bytes before returning, so they don't need to be copied
+				encoded = this.encodeBuffer.getBuffer();
+				encodedLength = this.encodeBuffer.size();
+				t3 = System.nanoTime();
+				savedOrientation = 0;
+			}
+
+			record(stageMicros, Stage.DECODE, t0, t1);
+			record(stageMicros, Stage.ROTATE, t1, t2);
+			record(stageMicros, Stage.ENCODE, t2, t3);
+			saveAndNotify(encoded, encodedLength, savedOrientation, stageMicros, submitNanos);
+		}
+		catch (Exception e) {
+			notifyFailure(e);
+		}
+	}
+
+	private void processPreviewFrame(byte[] nv21, int width, int height, int rotationDegrees, Runnable onFrameConsumed, long submitNanos) {
+		final long[] stageMicros = new long[Stage.values().length];
+
+		try {
+			long t0 = System.nanoTime();
+			ByteArrayOutputStream out = this.encodeBuffer;
+			out.reset();
+			try {
+				YuvImage image = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+				image.compressToJpeg(new Rect(0, 0, width, height), JPEG_QUALITY, out);
+			}
+			finally {
+				// the frame is not needed anymore, as soon as possible
+				onFrameConsumed.run();
+			}
+
+			long t1 = System.nanoTime();
+			byte[] picture = out.toByteArray();
+			byte[] encoded = ExifOrientation.trySetOrientation(picture, rotationDegrees);
+			int savedOrientation = rotationDegrees;
+			if (encoded == null) {
+				// better a sideways picture than no picture at all
+				encoded = picture;
+				savedOrientation = 0;
+			}
+			long t2 = System.nanoTime();
+
+			record(stageMicros, Stage.ENCODE, t0, t1);
+			record(stageMicros, Stage.ROTATE, t1, t2);
+			saveAndNotify(encoded, encoded.length, savedOrientation, stageMicros, submitNanos);
+		}
+		catch (Exception e) {
+			notifyFailure(e);
+		}
+	}
+
+	/**
+	 * Decodes a picture, into a bitmap of the pool if possible.
+	 * @param pool where to take the bitmap from, or null
+	 */
+	private Bitmap decode(byte[] jpeg, BitmapPool pool) throws IOException {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inTempStorage = this.decodeStorage;
+
+		// before API 11 a bitmap can't be decoded into an existing one
+		if (pool != null && Build.VERSION.SDK_INT >= 11) {
+			// only the header is parsed, to know the size
+			options.inJustDecodeBounds = true;
+			BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+			options.inJustDecodeBounds = false;
+			options.inMutable = true;
+			options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+			options.inBitmap = pool.poll(options.outWidth, options.outHeight, Bitmap.Config.ARGB_8888);
+		}
+
+		Bitmap picture;
+		try {
+			picture = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+		}
+		catch (IllegalArgumentException e) {
+			if (options.inBitmap == null) {
+				throw e;
+			}
+			// the decoder refused to reuse the bitmap: it goes back to the pool
+			pool.release(options.inBitmap);
+			options.inBitmap = null;
+			picture = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+		}
+
+		if (picture == null) {
+			throw new IOException("the picture can't be decoded");
+		}
+		if (pool != null && picture != options.inBitmap) {
+			pool.onAllocated(picture);
+		}
+		return picture;
+	}
+
+	/**
+	 * Draws a rotated copy of a picture. It's what {@link Bitmap#createBitmap(Bitmap, int, int, int, int, Matrix, boolean)}
+	 * does, but the copy can come from the pool.
+	 * @param degrees a multiple of 90
+	 * @param pool where to take the bitmap from, or null
+	 */
+	private Bitmap rotate(Bitmap picture, int degrees, BitmapPool pool) {
+		int width = picture.getWidth();
+		int height = picture.getHeight();
+		boolean swap = (degrees % 180 != 0);
+		int rotatedWidth = swap ? height : width;
+		int rotatedHeight = swap ? width : height;
+
+		Bitmap rotated = (pool != null) 
+			? pool.acquire(rotatedWidth, rotatedHeight, Bitmap.Config.ARGB_8888) 
+			: Bitmap.createBitmap(rotatedWidth, rotatedHeight, Bitmap.Config.ARGB_8888);
+
+		// rotate around the center, then move the center to the center of the new bitmap.
+		// Pixels are mapped one by one, so they don't need to be filtered
+		this.rotateMatrix.setRotate(degrees, width / 2f, height / 2f);
+		this.rotateMatrix.postTranslate((rotatedWidth - width) / 2f, (rotatedHeight - height) / 2f);
+		new Canvas(rotated).drawBitmap(picture, this.rotateMatrix, null);
+		return rotated;
+	}
+
+	private static void releaseBitmap(Bitmap bitmap, BitmapPool pool) {
+		if (pool != null) {
+			pool.release(bitmap);
+		}
+		else {
+			bitmap.recycle();
+		}
+	}
+
+	/**
+	 * The last stage, common to every kind of picture.
+	 */
+	private void saveAndNotify(byte[] jpeg, int length, int orientation, final long[] stageMicros, long submitNanos) throws IOException {
+		long start = System.nanoTime();
+		final String location = this.store.save(jpeg, 0, length, orientation);
+		long end = System.nanoTime();
+
+		record(stageMicros, Stage.WRITE, start, end);
+		record(stageMicros, Stage.TOTAL, submitNanos, end);
+
+		if (this.listener != null) {
+			this.mainHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					listener.onCaptureSaved(location, stageMicros);
+				}
+			});
+		}
+	}
+
+	private void notifyFailure(final Exception e) {
+		if (this.listener != null) {
+			this.mainHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					listener.onCaptureFailed(e);
+				}
+			});
+		}
+	}
+
+	private void record(long[] stageMicros, Stage stage, long startNanos, long endNanos) {
+		long nanos = endNanos - startNanos;
+		stageMicros[stage.ordinal()] = nanos / 1000;
+		this.stageHistograms[stage.ordinal()].recordNanos(nanos);
+		Tracer.complete(TRACE_NAMES[stage.ordinal()], startNanos, endNanos);
+	}
+}
@@ -0,0 +1,446 @@
+package com.ale.nicecameraexample;
+
+/**
+ * Rotates a JPEG picture without touching its pixels, by writing the EXIF
+ * Orientation tag (0x0112) that tells viewers how the picture must be shown.<br />
+ * Decoding, rotating and encoding again a full-size picture needs two big bitmaps
+ * in memory and loses some quality: here only a few bytes of the JPEG header are read
+ * and written.
+ * <ul>
+ * <li>if the picture already has an Orientation tag, it's patched in place;</li>
+ * <li>if it has an EXIF block without the tag, a copy of the first IFD with the new
+ * tag is appended at the end of the block, so that no existing offset changes;</li>
+ * <li>if it has no EXIF block at all, a minimal one is added after the SOI (or JFIF) marker.</li>
+ * </ul>
+ * This class doesn't depend on Android at all.
+ * @see <a href="http://www.cipa.jp/std/documents/e/DC-008-2012_E.pdf">EXIF 2.3 specification</a>
+ */
+public final class ExifOrientation {
+
+	/** EXIF Orientation values, for the rotations a camera can produce */
+	public static final int ORIENTATION_NORMAL = 1;
+	public static final int ORIENTATION_ROTATE_180 = 3;
+	public static final int ORIENTATION_ROTATE_90 = 6;
+	public static final int ORIENTATION_ROTATE_270 = 8;
+
+	private static final int MARKER_SOI = 0xD8;
+	private static final int MARKER_EOI = 0xD9;
+	private static final int MARKER_SOS = 0xDA;
+	private static final int MARKER_APP0 = 0xE0;
+	private static final int MARKER_APP1 = 0xE1;
+
+	private static final int TAG_ORIENTATION = 0x0112;
+	private static final int TYPE_SHORT = 3;
+	private static final int IFD_ENTRY_SIZE = 12;
+	private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+
+	private static final byte[] EXIF_HEADER = { 'E', 'x', 'i', 'f', 0, 0 };
+
+	/**
+	 * The size of a minimal EXIF block: APP1 marker, length, "Exif\0\0", TIFF header,
+	 * IFD0 with one entry, next IFD link.
+	 */
+	private static final int EXIF_SEGMENT_SIZE = 2 + 2 + 6 + 8 + 2 + IFD_ENTRY_SIZE + 4;
+
+	private ExifOrientation() { }
+
+	/**
+	 * Sets the orientation of a JPEG picture.
+	 * @param jpeg the picture, as returned by {@link android.hardware.Camera.PictureCallback#onPictureTaken(byte[], android.hardware.Camera)}
+	 * @param rotationDegrees how much (clockwise) the picture must be rotated to be upright: 0, 90, 180 or 270
+	 * @return the rotated picture. It's the same array if the tag could be patched in place,
+	 * a new one (a few bytes bigger) otherwise
+	 * @throws IllegalArgumentException if the data is not a JPEG picture or its EXIF block can't be updated
+	 */
+	public static byte[] setOrientation(byte[] jpeg, int rotationDegrees) {
+		int orientation = toExifValue(rotationDegrees);
+
+		int exifSegment = findExifSegment(jpeg, jpeg.length);
+		if (exifSegment >= 0) {
+			int segmentEnd = exifSegment + 2 + u16(jpeg, exifSegment + 2, true);
+			return updateExifSegment(jpeg, exifSegment, segmentEnd, orientation);
+		}
+		return insertExifSegment(jpeg, getInsertPosition(jpeg, jpeg.length), orientation);
+	}
+
+	/**
+	 * The same as {@link #setOrientation(byte[], int)} for a picture without an EXIF block
+	 * (like the ones written by {@link android.graphics.YuvImage}), but nothing is allocated:
+	 * the caller inserts the block made by {@link #createExifSegment(int)} in its own buffer.
+	 * @param jpeg the buffer containing the picture, starting at position 0
+	 * @param length the size of the picture
+	 * @return where the EXIF block must be inserted, or -1 if the picture already has one
+	 * (then {@link #setOrientation(byte[], int)} is the way to go)
+	 * @throws IllegalArgumentException if the data is not a JPEG picture
+	 */
+	public static int getExifInsertPosition(byte[] jpeg, int length) {
+		if (findExifSegment(jpeg, length) >= 0) {
+			return -1;
+		}
+		return getInsertPosition(jpeg, length);
+	}
+
+	/**
+	 * @param rotationDegrees how much (clockwise) the picture must be rotated to be upright: 0, 90, 180 or 270
+	 * @return a minimal EXIF block (the whole APP1 segment) containing only the Orientation tag
+	 */
+	public static byte[] createExifSegment(int rotationDegrees) {
+		byte[] segment = new byte[EXIF_SEGMENT_SIZE];
+		writeExifSegment(segment, 0, toExifValue(rotationDegrees));
+		return segment;
+	}
+
+	/**
+	 * The same as {@link #setOrientation(byte[], int)}, but a picture that can't be
+	 * rotated this way is not refused: some cameras write odd EXIF blocks, and the
+	 * picture must be saved anyway.
+	 * @param rotationDegrees how much (clockwise) the picture must be rotated to be upright: 0, 90, 180 or 270
+	 * @return the rotated picture, or null if it's not a JPEG picture or its EXIF block can't
+	 * be updated: then the caller has to rotate the pixels, or save the picture as it is.
+	 * The original data is never changed in this case
+	 * @throws IllegalArgumentException if the rotation is not a multiple of 90 degrees
+	 */
+	public static byte[] trySetOrientation(byte[] jpeg, int rotationDegrees) {
+		// a bad rotation is the caller's fault, not the picture's
+		toExifValue(rotationDegrees);
+		try {
+			return setOrientation(jpeg, rotationDegrees);
+		}
+		catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the orientation of a JPEG picture.
+	 * @param jpeg the picture
+	 * @return the rotation (clockwise, in degrees) written in the EXIF Orientation tag,
+	 * or 0 if there's no such tag (or the data is not a valid JPEG picture, or its EXIF
+	 * block is corrupted)
+	 */
+	public static int getRotationDegrees(byte[] jpeg) {
+		if (jpeg.length < 4 || u8(jpeg, 0) != 0xFF || u8(jpeg, 1) != MARKER_SOI) {
+			return 0;
+		}
+
+		int pos = 2;
+		while (pos + 4 <= jpeg.length && u8(jpeg, pos) == 0xFF) {
+			int marker = u8(jpeg, pos + 1);
+			if (marker == MARKER_SOS || marker == MARKER_EOI) {
+				break;
+			}
+
+			int segmentEnd = pos + 2 + u16(jpeg, pos + 2, true);
+			if (segmentEnd > jpeg.length) {
+				break;
+			}
+
+			if (marker == MARKER_APP1 && startsWith(jpeg, pos + 4, EXIF_HEADER)) {
+				int entry;
+				try {
+					entry = findOrientationEntry(jpeg, pos + 10, segmentEnd);
+				}
+				catch (IllegalArgumentException e) {
+					// a corrupted EXIF block: as if there was no tag
+					return 0;
+				}
+				if (entry < 0) {
+					return 0;
+				}
+				boolean bigEndian = u8(jpeg, pos + 10) == 'M';
+				return toDegrees(u16(jpeg, entry + 8, bigEndian));
+			}
+
+			pos = segmentEnd;
+		}
+		return 0;
+	}
+
+	/**
+	 * @param rotationDegrees a clockwise rotation: 0, 90, 180 or 270 (or equivalent values)
+	 * @return the corresponding EXIF Orientation value
+	 */
+	public static int toExifValue(int rotationDegrees) {
+		switch (((rotationDegrees % 360) + 360) % 360) {
+			case 0: return ORIENTATION_NORMAL;
+			case 90: return ORIENTATION_ROTATE_90;
+			case 180: return ORIENTATION_ROTATE_180;
+			case 270: return ORIENTATION_ROTATE_270;
+			default: throw new IllegalArgumentException("rotation must be a multiple of 90 degrees, got " + rotationDegrees);
+		}
+	}
+
+	private static int toDegrees(int exifValue) {
+		switch (exifValue) {
+			case ORIENTATION_ROTATE_90: return 90;
+			case ORIENTATION_ROTATE_180: return 180;
+			case ORIENTATION_ROTATE_270: return 270;
+			default: return 0;
+		}
+	}
+
+	/**
+	 * @param segmentStart position of the APP1 marker
+	 * @param segmentEnd position of the first byte after the segment
+	 */
+	private static byte[] updateExifSegment(byte[] jpeg, int segmentStart, int segmentEnd, int orientation) {
+		int tiffStart = segmentStart + 10;
+		boolean bigEndian = checkTiffHeader(jpeg, tiffStart, segmentEnd);
+
+		int entry = findOrientationEntry(jpeg, tiffStart, segmentEnd);
+		if (entry >= 0) {
+			// easy: the tag is already there, just change its value
+			putU16(jpeg, entry + 2, TYPE_SHORT, bigEndian);
+			putU32(jpeg, entry + 4, 1, bigEndian);
+			putU16(jpeg, entry + 8, orientation, bigEndian);
+			putU16(jpeg, entry + 10, 0, bigEndian);
+			return jpeg;
+		}
+
+		// the tag is missing: a new IFD0, with all the old entries plus the new one,
+		// is appended at the end of the EXIF block. Nothing else moves, so all the
+		// offsets (that are relative to the TIFF header) are still valid.
+		int ifd0 = tiffStart + (int) u32(jpeg, tiffStart + 4, bigEndian);
+		int entryCount = u16(jpeg, ifd0, bigEndian);
+		int nextIfdOffset = ifd0 + 2 + entryCount * IFD_ENTRY_SIZE;
+
+		int padding = (segmentEnd - tiffStart) & 1; // IFDs must start at an even offset
+		int newIfdSize = 2 + (entryCount + 1) * IFD_ENTRY_SIZE + 4;
+		int growth = padding + newIfdSize;
+		int newSegmentLength = segmentEnd - segmentStart - 2 + growth;
+		if (newSegmentLength > MAX_SEGMENT_LENGTH) {
+			throw new IllegalArgumentException("the EXIF block is too big to be updated");
+		}
+
+		byte[] result = new byte[jpeg.length + growth];
+		System.arraycopy(jpeg, 0, result, 0, segmentEnd);
+		System.arraycopy(jpeg, segmentEnd, result, segmentEnd + growth, jpeg.length - segmentEnd);
+
+		putU16(result, segmentStart + 2, newSegmentLength, true);
+
+		int newIfd = segmentEnd + padding;
+		putU32(result, tiffStart + 4, newIfd - tiffStart, bigEndian);
+		putU16(result, newIfd, entryCount + 1, bigEndian);
+
+		// entries must be sorted by tag
+		int out = newIfd + 2;
+		boolean written = false;
+		for (int i = 0; i < entryCount; i++) {
+			int oldEntry = ifd0 + 2 + i * IFD_ENTRY_SIZE;
+			if (!written && u16(jpeg, oldEntry, bigEndian) > TAG_ORIENTATION) {
+				writeOrientationEntry(result, out, orientation, bigEndian);
+				out += IFD_ENTRY_SIZE;
+				written = true;
+			}
+			System.arraycopy(jpeg, oldEntry, result, out, IFD_ENTRY_SIZE);
+			out += IFD_ENTRY_SIZE;
+		}
+		if (!written) {
+			writeOrientationEntry(result, out, orientation, bigEndian);
+			out += IFD_ENTRY_SIZE;
+		}
+
+		// the link to the next IFD (the thumbnail one, usually) is kept
+		System.arraycopy(jpeg, nextIfdOffset, result, out, 4);
+		return result;
+	}
+
+	/**
+	 * @return the position of the APP1 marker of the EXIF block, or -1 if there's none
+	 * @throws IllegalArgumentException if the data is not a JPEG picture
+	 */
+	private static int findExifSegment(byte[] jpeg, int length) {
+		if (length < 4 || u8(jpeg, 0) != 0xFF || u8(jpeg, 1) != MARKER_SOI) {
+			throw new IllegalArgumentException("not a JPEG picture");
+		}
+
+		int pos = 2;
+		while (pos + 4 <= length) {
+			if (u8(jpeg, pos) != 0xFF) {
+				throw new IllegalArgumentException("corrupted JPEG: marker expected at " + pos);
+			}
+
+			int marker = u8(jpeg, pos + 1);
+			if (marker == 0xFF) {
+				// fill byte
+				pos++;
+				continue;
+			}
+			if (marker == MARKER_SOS || marker == MARKER_EOI) {
+				// no more headers after this
+				break;
+			}
+			if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+				// markers without a length
+				pos += 2;
+				continue;
+			}
+
+			int segmentLength = u16(jpeg, pos + 2, true);
+			int segmentEnd = pos + 2 + segmentLength;
+			if (segmentLength < 2 || segmentEnd > length) {
+				throw new IllegalArgumentException("corrupted JPEG: bad segment length at " + pos);
+			}
+
+			if (marker == MARKER_APP1 && startsWith(jpeg, pos + 4, EXIF_HEADER)) {
+				return pos;
+			}
+			pos = segmentEnd;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return where a new EXIF block goes: right after the SOI marker, or after the
+	 * JFIF block, that must stay the first
+	 */
+	private static int getInsertPosition(byte[] jpeg, int length) {
+		if (length >= 6 && u8(jpeg, 2) == 0xFF && u8(jpeg, 3) == MARKER_APP0) {
+			return 4 + u16(jpeg, 4, true);
+		}
+		return 2;
+	}
+
+	/**
+	 * Adds a minimal EXIF block containing only the Orientation tag.
+	 */
+	private static byte[] insertExifSegment(byte[] jpeg, int position, int orientation) {
+		byte[] result = new byte[jpeg.length + EXIF_SEGMENT_SIZE];
+		System.arraycopy(jpeg, 0, result, 0, position);
+		System.arraycopy(jpeg, position, result, position + EXIF_SEGMENT_SIZE, jpeg.length - position);
+		writeExifSegment(result, position, orientation);
+		return result;
+	}
+
+	private static void writeExifSegment(byte[] data, int position, int orientation) {
+		int p = position;
+		data[p++] = (byte) 0xFF;
+		data[p++] = (byte) MARKER_APP1;
+		putU16(data, p, EXIF_SEGMENT_SIZE - 2, true);
+		p += 2;
+		System.arraycopy(EXIF_HEADER, 0, data, p, EXIF_HEADER.length);
+		p += EXIF_HEADER.length;
+
+		// big endian ("MM"), magic number 42, IFD0 right after the header
+		data[p++] = 'M';
+		data[p++] = 'M';
+		putU16(data, p, 42, true);
+		putU32(data, p + 2, 8, true);
+		p += 6;
+
+		putU16(data, p, 1, true);
+		writeOrientationEntry(data, p + 2, orientation, true);
+		putU32(data, p + 2 + IFD_ENTRY_SIZE, 0, true);
+	}
+
+	/**
+	 * @return the position of the Orientation entry in IFD0, or -1 if there's none
+	 */
+	private static int findOrientationEntry(byte[] jpeg, int tiffStart, int segmentEnd) {
+		boolean bigEndian = checkTiffHeader(jpeg, tiffStart, segmentEnd);
+		long ifd0Offset = u32(jpeg, tiffStart + 4, bigEndian);
+		if (ifd0Offset < 8 || tiffStart + ifd0Offset + 2 > segmentEnd) {
+			throw new IllegalArgumentException("corrupted EXIF: IFD0 is out of bounds");
+		}
+		int ifd0 = tiffStart + (int) ifd0Offset;
+
+		int entryCount = u16(jpeg, ifd0, bigEndian);
+		if (ifd0 + 2 + entryCount * IFD_ENTRY_SIZE + 4 > segmentEnd) {
+			throw new IllegalArgumentException("corrupted EXIF: IFD0 is out of bounds");
+		}
+
+		for (int i = 0; i < entryCount; i++) {
+			int entry = ifd0 + 2 + i * IFD_ENTRY_SIZE;
+			if (u16(jpeg, entry, bigEndian) == TAG_ORIENTATION) {
+				return entry;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if the TIFF data is big endian
+	 */
+	private static boolean checkTiffHeader(byte[] jpeg, int tiffStart, int segmentEnd) {
+		if (tiffStart + 8 > segmentEnd) {
+			throw new IllegalArgumentException("corrupted EXIF: TIFF header is truncated");
+		}
+
+		boolean bigEndian;
+		if (u8(jpeg, tiffStart) == 'M' && u8(jpeg, tiffStart + 1) == 'M') {
+			bigEndian = true;
+		}
+		else if (u8(jpeg, tiffStart) == 'I' && u8(jpeg, tiffStart + 1) == 'I') {
+			bigEndian = false;
+		}
+		else {
+			throw new IllegalArgumentException("corrupted EXIF: unknown byte order");
+		}
+
+		if (u16(jpeg, tiffStart + 2, bigEndian) != 42) {
+			throw new IllegalArgumentException("corrupted EXIF: bad TIFF header");
+		}
+		return bigEndian;
+	}
+
+	private static void writeOrientationEntry(byte[] data, int pos, int orientation, boolean bigEndian) {
+		putU16(data, pos, TAG_ORIENTATION, bigEndian);
+		putU16(data, pos + 2, TYPE_SHORT, bigEndian);
+		putU32(data, pos + 4, 1, bigEndian);
+		// a single SHORT is stored in the first two bytes of the value field
+		putU16(data, pos + 8, orientation, bigEndian);
+		putU16(data, pos + 10, 0, bigEndian);
+	}
+
+	private static boolean startsWith(byte[] data, int pos, byte[] prefix) {
+		if (pos + prefix.length > data.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[pos + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int u8(byte[] data, int pos) {
+		return data[pos] & 0xFF;
+	}
+
+	private static int u16(byte[] data, int pos, boolean bigEndian) {
+		if (bigEndian) {
+			return (u8(data, pos) << 8) | u8(data, pos + 1);
+		}
+		return u8(data, pos) | (u8(data, pos + 1) << 8);
+	}
+
+	private static long u32(byte[] data, int pos, boolean bigEndian) {
+		if (bigEndian) {
+			return ((long) u16(data, pos, true) << 16) | u16(data, pos + 2, true);
+		}
+		return u16(data, pos, false) | ((long) u16(data, pos + 2, false) << 16);
+	}
+
+	private static void putU16(byte[] data, int pos, int value, boolean bigEndian) {
+		if (bigEndian) {
+			data[pos] = (byte) (value >> 8);
+			data[pos + 1] = (byte) value;
+		}
+		else {
+			data[pos] = (byte) value;
+			data[pos + 1] = (byte) (value >> 8);
+		}
+	}
+
+	private static void putU32(byte[] data, int pos, long value, boolean bigEndian) {
+		if (bigEndian) {
+			putU16(data, pos, (int) (value >> 16), true);
+			putU16(data, pos + 2, (int) value, true);
+		}
+		else {
+			putU16(data, pos, (int) value, false);
+			putU16(data, pos + 2, (int) (value >> 16), false);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package com.ale.nicecameraexample;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link PictureStore} that writes every picture in its own file, in a given
+ * directory, through a {@link FileChannel}.<br />
+ * Forcing the data to the storage (the "fsync") is the slowest part of a write,
+ * so it can be batched: with a force interval of N, the files are kept open and
+ * forced all together every N pictures (1 means every picture is forced as soon
+ * as it's written, 0 means it's left to the operating system).<br />
+ * The time spent writing and forcing is recorded, so the throughput of a
+ * storage can be measured. If a picture can't be written, its file is deleted.
+ * This class doesn't depend on Android.
+ */
+public class FilePictureStore implements PictureStore {
+
+	private final File directory;
+	private final String prefix;
+	private final FileChannel[] unforced;
+	private int unforcedCount = 0;
+
+	private final LatencyHistogram writeHistogram = new LatencyHistogram();
+	private final LatencyHistogram forceHistogram = new LatencyHistogram();
+	private long writtenBytes = 0;
+	private long writeNanos = 0;
+
+	private long lastTimestamp = 0;
+	private int sameTimestampCount = 0;
+
+	/**
+	 * @param directory where the pictures are saved. It's created if it doesn't exist
+	 * @param prefix the beginning of every file name
+	 * @param forceInterval how many pictures are written before forcing them to the storage,
+	 * 0 to never force them
+	 */
+	public FilePictureStore(File directory, String prefix, int forceInterval) {
+		if (forceInterval < 0) {
+			throw new IllegalArgumentException("force interval can't be negative, got " + forceInterval);
+		}
+
+		this.directory = directory;
+		this.prefix = prefix;
+		this.unforced = new FileChannel[forceInterval];
+	}
+
+	@Override
+	public synchronized String save(byte[] jpeg, int offset, int length, int orientation) throws IOException {
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IOException("can't create directory " + this.directory);
+		}
+
+		File file = nextFile();
+		FileOutputStream stream = new FileOutputStream(file);
+		FileChannel channel = stream.getChannel();
+		boolean keepOpen = false;
+		boolean written = false;
+
+		try {
+			long start = System.nanoTime();
+			ByteBuffer buffer = ByteBuffer.wrap(jpeg, offset, length);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			written = true;
+			long elapsed = System.nanoTime() - start;
+
+			this.writeHistogram.recordNanos(elapsed);
+			this.writeNanos += elapsed;
+			this.writtenBytes += length;
+
+			if (this.unforced.length > 0) {
+				// the channel stays open until the whole batch is forced
+				this.unforced[this.unforcedCount++] = channel;
+				keepOpen = true;
+				if (this.unforcedCount == this.unforced.length) {
+					flush();
+				}
+			}
+		}
+		finally {
+			if (!keepOpen) {
+				if (written) {
+					stream.close();
+				}
+				else {
+					// a half-written picture is worse than no picture at all
+					try {
+						stream.close();
+					} catch (IOException e) {
+						// the write error is the one that matters
+					}
+					file.delete();
+				}
+			}
+		}
+
+		return file.getAbsolutePath();
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		IOException error = null;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < this.unforcedCount; i++) {
+			try {
+				this.unforced[i].force(true);
+			} catch (IOException e) {
+				error = e;
+			}
+			try {
+				this.unforced[i].close();
+			} catch (IOException e) {
+				error = e;
+			}
+			this.unforced[i] = null;
+		}
+
+		if (this.unforcedCount > 0) {
+			this.forceHistogram.recordNanos(System.nanoTime() - start);
+		}
+		this.unforcedCount = 0;
+
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * @return the distribution of the time spent writing a single picture
+	 */
+	public LatencyHistogram getWriteHistogram() {
+		return this.writeHistogram;
+	}
+
+	/**
+	 * @return the distribution of the time spent forcing a batch of pictures to the storage
+	 */
+	public LatencyHistogram getForceHistogram() {
+		return this.forceHistogram;
+	}
+
+	public synchronized long getWrittenBytes() {
+		return this.writtenBytes;
+	}
+
+	/**
+	 * @return the write speed (not counting the forces), in bytes per second
+	 */
+	public synchronized double getWriteBytesPerSecond() {
+		return (this.writeNanos == 0) ? 0 : this.writtenBytes * 1000000000.0 / this.writeNanos;
+	}
+
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * File names are made of the prefix and the current time, plus a counter
+	 * when more pictures are saved in the same millisecond.
+	 */
+	private File nextFile() {
+		long now = System.currentTimeMillis();
+		if (now == this.lastTimestamp) {
+			this.sameTimestampCount++;
+		}
+		else {
+			this.lastTimestamp = now;
+			this.sameTimestampCount = 0;
+		}
+
+		File file;
+		do {
+			String name = this.prefix + now + (this.sameTimestampCount > 0 ? "_" + this.sameTimestampCount : "") + ".jpg";
+			file = new File(this.directory, name);
+			this.sameTimestampCount++;
+		} while (file.exists());
+		this.sameTimestampCount--;
+
+		return file;
+	}
+}
@@ -0,0 +1,428 @@
+package com.ale.nicecameraexample;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers every preview frame to several analyzers (exposure, motion, barcode...)
+ * that work in parallel, each one on its own thread.<br />
+ * Frames are not copied: every analyzer reads the same buffer, that goes back to
+ * the {@link PreviewBufferPool} (and so to the camera) only when the last analyzer
+ * is done with it. This is tracked by a reference counter per buffer, updated with
+ * atomic operations only, so that dispatching a frame never takes a lock.<br />
+ * Every analyzer has a mailbox that holds at most one frame: if a new frame comes
+ * in while the analyzer is still busy, the one waiting in the mailbox is replaced
+ * (and counted as dropped), so a slow analyzer never holds back the others.
+ * An analyzer can also ask to see only one frame every N.<br />
+ * The fan-out is plugged into a {@link FramePipeline} as its {@link FramePipeline.FrameDispatcher}.
+ * Analyzers can be added and removed at any time. The pipeline gives it its {@link FrameMetrics}:
+ * a frame counts as processed when the last analyzer releases it.
+ */
+public class FrameFanout implements FramePipeline.FrameDispatcher {
+
+	/**
+	 * A buffer of the pool, with the number of analyzers that are still using it.
+	 */
+	private static class Frame {
+		final FrameFanout owner;
+		final PreviewBufferPool pool;
+		final byte[] data;
+		final AtomicInteger references = new AtomicInteger();
+		volatile long timestampNanos;
+		volatile long dispatchNanos;
+
+		Frame(FrameFanout owner, PreviewBufferPool pool, byte[] data) {
+			this.owner = owner;
+			this.pool = pool;
+			this.data = data;
+		}
+
+		void release() {
+			if (this.references.decrementAndGet() != 0) {
+				return;
+			}
+
+			// the last analyzer is done: the frame has been processed
+			FrameMetrics metrics = this.owner.metrics;
+			long end = System.nanoTime();
+			if (metrics != null) {
+				metrics.onFrameProcessed(this.dispatchNanos, end);
+			}
+			this.pool.release(this.data);
+			if (metrics != null) {
+				metrics.onBufferReturned(end, System.nanoTime());
+			}
+		}
+	}
+
+	/**
+	 * A registered analyzer, returned by {@link FrameFanout#addAnalyzer(String, FramePipeline.FrameConsumer, int)}.
+	 * Its counters can be read from any thread.
+	 */
+	public static class Analyzer {
+		private final String name;
+		private final FramePipeline.FrameConsumer consumer;
+		private final int frameInterval;
+		private final AtomicReference<Frame> mailbox = new AtomicReference<Frame>();
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		// written only by the dispatching thread
+		private int frameCounter = 0;
+		private volatile long skippedCount = 0;
+		private volatile long droppedCount = 0;
+		// written only by the analyzer's thread
+		private volatile long processedCount = 0;
+
+		/**
+		 * The thread that runs the analyzer, or null when it's stopped. A thread keeps
+		 * working only as long as it's this one: once stopped, it completes its frame
+		 * and exits, even if the analyzer has been started again in the meantime.
+		 */
+		private volatile Thread thread;
+
+		/**
+		 * A thread stopped from inside itself, that may still be completing its frame.
+		 */
+		private Thread exitingThread;
+
+		private Analyzer(String name, FramePipeline.FrameConsumer consumer, int frameInterval) {
+			this.name = name;
+			this.consumer = consumer;
+			this.frameInterval = frameInterval;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return the analyzer sees one frame every this many
+		 */
+		public int getFrameInterval() {
+			return this.frameInterval;
+		}
+
+		/**
+		 * @return how many frames have been analyzed
+		 */
+		public long getProcessedCount() {
+			return this.processedCount;
+		}
+
+		/**
+		 * @return how many frames have not been given to the analyzer because of its frame interval
+		 */
+		public long getSkippedCount() {
+			return this.skippedCount;
+		}
+
+		/**
+		 * @return how many frames have been replaced in the mailbox before the analyzer could take them
+		 */
+		public long getDroppedCount() {
+			return this.droppedCount;
+		}
+
+		/**
+		 * @return how long the analyzer takes to process a frame
+		 */
+		public LatencyHistogram getLatencyHistogram() {
+			return this.latency;
+		}
+
+		/**
+		 * Copies the counters and the latency of the analyzer.
+		 * @return the same object
+		 */
+		public FrameMetrics.AnalyzerStats getStats(FrameMetrics.AnalyzerStats out) {
+			out.name = this.name;
+			out.processedFrames = this.processedCount;
+			out.skippedFrames = this.skippedCount;
+			out.droppedFrames = this.droppedCount;
+			out.processP50Us = this.latency.getPercentileMicros(50);
+			out.processP95Us = this.latency.getPercentileMicros(95);
+			out.processP99Us = this.latency.getPercentileMicros(99);
+			out.processMaxUs = this.latency.getMaxMicros();
+			return out;
+		}
+
+		@Override
+		public String toString() {
+			return this.name + ": processed " + this.processedCount
+				+ ", skipped " + this.skippedCount
+				+ ", dropped " + this.droppedCount
+				+ ", latency p50/p95/p99 " + this.latency.getPercentileMicros(50)
+				+ "/" + this.latency.getPercentileMicros(95)
+				+ "/" + this.latency.getPercentileMicros(99) + " us";
+		}
+
+		/**
+		 * Puts a frame in the mailbox, replacing (and releasing) the one that was waiting.
+		 * The frame must already count a reference for this analyzer.
+		 */
+		private void post(Frame frame) {
+			Frame old = this.mailbox.getAndSet(frame);
+			if (old != null) {
+				this.droppedCount++;
+				old.release();
+			}
+
+			Thread thread = this.thread;
+			if (thread == null) {
+				// stop() may have already emptied the mailbox: nobody else would release the frame
+				Frame orphan = this.mailbox.getAndSet(null);
+				if (orphan != null) {
+					orphan.release();
+				}
+				return;
+			}
+			LockSupport.unpark(thread);
+		}
+
+		private boolean isRunning() {
+			return this.thread != null;
+		}
+
+		private void run() {
+			Thread self = Thread.currentThread();
+			while (this.thread == self) {
+				Frame frame = this.mailbox.getAndSet(null);
+				if (frame == null) {
+					// woken up by post() or by stop(), spurious wake-ups are harmless
+					LockSupport.park(this);
+					continue;
+				}
+
+				long start = System.nanoTime();
+				try {
+					this.consumer.onFrame(frame.data, frame.timestampNanos);
+				}
+				finally {
+					this.latency.recordNanos(System.nanoTime() - start);
+					this.processedCount++;
+					frame.release();
+				}
+			}
+		}
+
+		/**
+		 * Starts a new thread, after the previous one (if any) has exited: the
+		 * consumer never runs on two threads at once.
+		 */
+		private synchronized void start() {
+			if (this.thread != null) {
+				return;
+			}
+
+			if (this.exitingThread != null) {
+				if (Thread.currentThread() == this.exitingThread) {
+					throw new IllegalStateException("analyzer " + this.name + " can't be restarted by its own thread");
+				}
+				FramePipeline.joinUninterruptibly(this.exitingThread);
+				this.exitingThread = null;
+			}
+
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Analyzer.this.run();
+				}
+			}, "FrameFanout-" + this.name);
+			this.thread = thread;
+			thread.start();
+		}
+
+		/**
+		 * Stops the thread and waits for it to complete its current frame, however
+		 * long it takes (unless it's called by the thread itself).
+		 */
+		private synchronized void stop() {
+			Thread thread = this.thread;
+			if (thread == null) {
+				return;
+			}
+
+			this.thread = null;
+			LockSupport.unpark(thread);
+
+			if (Thread.currentThread() != thread) {
+				FramePipeline.joinUninterruptibly(thread);
+			}
+			else {
+				this.exitingThread = thread;
+			}
+
+			// a frame still waiting must go back to the pool
+			Frame frame = this.mailbox.getAndSet(null);
+			if (frame != null) {
+				frame.release();
+			}
+		}
+	}
+
+	/**
+	 * The registered analyzers. The array is never modified: a new one replaces
+	 * it, so that {@link #dispatch(byte[], long)} can read it without locking.
+	 */
+	private volatile Analyzer[] analyzers = new Analyzer[0];
+
+	private volatile Frame[] frames = new Frame[0];
+	private PreviewBufferPool pool;
+	private boolean running = false;
+	private volatile FrameMetrics metrics;
+
+	/**
+	 * Sets where the processing of the frames is recorded: see {@link FrameMetrics}.
+	 * It's called by the {@link FramePipeline} the fan-out is plugged into.
+	 * @param metrics the metrics, or null
+	 */
+	public void setMetrics(FrameMetrics metrics) {
+		FrameMetrics old = this.metrics;
+		if (old != null && old != metrics) {
+			old.setFanout(null);
+		}
+		this.metrics = metrics;
+		if (metrics != null) {
+			metrics.setFanout(this);
+		}
+	}
+
+	/**
+	 * Sets the pool the frames come from. It must be called while the fan-out is
+	 * stopped, every time the pool changes (for example when the preview size changes).
+	 * @param pool the pool, or null
+	 */
+	public synchronized void setPool(PreviewBufferPool pool) {
+		if (this.running) {
+			throw new IllegalStateException("the pool can't be changed while running");
+		}
+
+		this.pool = pool;
+		this.frames = new Frame[(pool == null) ? 0 : pool.getBufferCount()];
+	}
+
+	/**
+	 * Adds an analyzer. If the fan-out is running, the analyzer starts receiving frames right away.
+	 * @param name a name, used in logs and for the thread
+	 * @param consumer the analyzer, called on its own thread
+	 * @param frameInterval the analyzer gets one frame every this many (1 for every frame)
+	 * @return the handle to read its statistics or to remove it
+	 */
+	public synchronized Analyzer addAnalyzer(String name, FramePipeline.FrameConsumer consumer, int frameInterval) {
+		if (frameInterval < 1) {
+			throw new IllegalArgumentException("frame interval must be at least 1, got " + frameInterval);
+		}
+
+		Analyzer analyzer = new Analyzer(name, consumer, frameInterval);
+
+		Analyzer[] current = this.analyzers;
+		Analyzer[] updated = new Analyzer[current.length + 1];
+		System.arraycopy(current, 0, updated, 0, current.length);
+		updated[current.length] = analyzer;
+		this.analyzers = updated;
+
+		if (this.running) {
+			analyzer.start();
+		}
+		return analyzer;
+	}
+
+	/**
+	 * Removes an analyzer, waiting for it to complete the current frame.
+	 * @param analyzer a handle returned by {@link #addAnalyzer(String, FramePipeline.FrameConsumer, int)}
+	 */
+	public synchronized void removeAnalyzer(Analyzer analyzer) {
+		Analyzer[] current = this.analyzers;
+		int index = -1;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == analyzer) {
+				index = i;
+				break;
+			}
+		}
+		if (index < 0) {
+			return;
+		}
+
+		Analyzer[] updated = new Analyzer[current.length - 1];
+		System.arraycopy(current, 0, updated, 0, index);
+		System.arraycopy(current, index + 1, updated, index, updated.length - index);
+		this.analyzers = updated;
+
+		analyzer.stop();
+	}
+
+	/**
+	 * @return the registered analyzers
+	 */
+	public Analyzer[] getAnalyzers() {
+		return this.analyzers.clone();
+	}
+
+	/**
+	 * Starts the threads of every analyzer.
+	 */
+	public synchronized void start() {
+		this.running = true;
+		for (Analyzer analyzer : this.analyzers) {
+			analyzer.start();
+		}
+	}
+
+	/**
+	 * Stops the threads of every analyzer, waiting for them to complete their current frame.
+	 * Frames that were waiting in the mailboxes go back to the pool. The analyzers stay
+	 * registered, and are started again by {@link #start()}.
+	 */
+	public synchronized void stop() {
+		this.running = false;
+		for (Analyzer analyzer : this.analyzers) {
+			analyzer.stop();
+		}
+	}
+
+	@Override
+	public void dispatch(byte[] data, long timestampNanos) {
+		Frame frame = getFrame(data);
+
+		// the dispatcher holds a reference too, so that the frame can't go back
+		// to the pool while it's still being handed to the analyzers
+		frame.timestampNanos = timestampNanos;
+		frame.dispatchNanos = System.nanoTime();
+		frame.references.set(1);
+
+		for (Analyzer analyzer : this.analyzers) {
+			if (!analyzer.isRunning()) {
+				continue;
+			}
+			if (analyzer.frameCounter++ % analyzer.frameInterval != 0) {
+				analyzer.skippedCount++;
+				continue;
+			}
+
+			frame.references.incrementAndGet();
+			analyzer.post(frame);
+		}
+
+		frame.release();
+	}
+
+	/**
+	 * @return the reusable {@link Frame} that wraps a buffer of the pool
+	 */
+	private Frame getFrame(byte[] data) {
+		Frame[] frames = this.frames;
+		PreviewBufferPool pool = this.pool;
+		int index = (pool == null) ? -1 : pool.indexOf(data);
+		if (index < 0) {
+			throw new IllegalArgumentException("this buffer doesn't belong to the pool");
+		}
+
+		// created the first time the buffer is seen, only by the dispatching thread
+		if (frames[index] == null) {
+			frames[index] = new Frame(this, pool, data);
+		}
+		return frames[index];
+	}
+}
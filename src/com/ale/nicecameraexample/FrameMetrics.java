@@ -0,0 +1,263 @@
+package com.ale.nicecameraexample;
+
+import java.util.Locale;
+
+/**
+ * Collects the numbers that tell how well the preview frame path is doing:
+ * how many frames per second arrive, how regular they are (jitter), how long
+ * they wait before being processed, how long the processing takes and how
+ * long it takes to give the buffer back to the camera.<br />
+ * Every method that records something works on preallocated fields and
+ * {@link LatencyHistogram}s, so it can be called for every frame without
+ * producing garbage. The collected data can be read at any time with
+ * {@link #snapshot(Snapshot)}.<br />
+ * When the frames go through a {@link FrameFanout}, a frame is processed when the
+ * last analyzer is done with it, and every analyzer is measured on its own too
+ * (see {@link Snapshot#analyzers}).
+ */
+public class FrameMetrics {
+
+	/**
+	 * The numbers of a single analyzer of a {@link FrameFanout}, since it has been added.
+	 */
+	public static class AnalyzerStats {
+		public String name;
+		/** frames analyzed */
+		public long processedFrames;
+		/** frames not given to the analyzer because of its frame interval */
+		public long skippedFrames;
+		/** frames replaced in its mailbox before the analyzer could take them */
+		public long droppedFrames;
+		/** time spent analyzing a frame, in microseconds */
+		public long processP50Us, processP95Us, processP99Us, processMaxUs;
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%s: %d processed, %d dropped, p50/p95/p99 = %.1f/%.1f/%.1f ms",
+				name, processedFrames, droppedFrames, processP50Us / 1000.0, processP95Us / 1000.0, processP99Us / 1000.0);
+		}
+	}
+
+	/**
+	 * A copy of the metrics at a given moment. It can be reused across
+	 * calls to {@link FrameMetrics#snapshot(Snapshot)}.
+	 */
+	public static class Snapshot {
+		/** how long the metrics have been collected, in milliseconds */
+		public long elapsedMs;
+		/** frames delivered by the camera */
+		public long deliveredFrames;
+		/** frames completely processed (with a {@link FrameFanout}: released by every analyzer, even if some dropped them) */
+		public long processedFrames;
+		/** frames given back to the camera without being processed, because a newer one arrived */
+		public long droppedFrames;
+		/** times the camera has been left without a free buffer (so it couldn't deliver frames) */
+		public long starvedCount;
+		/** frames lost by the analyzers: the sum of their {@link AnalyzerStats#droppedFrames} */
+		public long analyzerDroppedFrames;
+
+		/** frames per second delivered by the camera */
+		public double deliveredFps;
+		/** average and standard deviation (the "jitter") of the time between two frames, in milliseconds */
+		public double frameIntervalMs;
+		public double frameJitterMs;
+
+		/** time spent by a frame waiting for the pipeline, in microseconds */
+		public long queueP50Us, queueP95Us, queueP99Us;
+		/** time spent processing a frame, in microseconds */
+		public long processP50Us, processP95Us, processP99Us, processMaxUs;
+		/** time spent giving the buffer back to the camera, in microseconds */
+		public long returnP50Us, returnP95Us, returnP99Us;
+
+		/** every analyzer of the {@link FrameFanout}, if the frames go through one */
+		public AnalyzerStats[] analyzers = new AnalyzerStats[0];
+
+		/**
+		 * @return the names of the values written by {@link #toCsv()}, separated by commas
+		 */
+		public static String csvHeader() {
+			return "elapsed_ms,delivered,processed,dropped,starved,fps,interval_ms,jitter_ms,"
+				+ "queue_p50_us,queue_p95_us,queue_p99_us,"
+				+ "process_p50_us,process_p95_us,process_p99_us,process_max_us,"
+				+ "return_p50_us,return_p95_us,return_p99_us,analyzer_dropped";
+		}
+
+		/**
+		 * @return all the values in a single line, so they can be exported and analyzed offline
+		 * (see {@link #csvHeader()})
+		 */
+		public String toCsv() {
+			return String.format(Locale.US, "%d,%d,%d,%d,%d,%.2f,%.2f,%.2f,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d",
+				elapsedMs, deliveredFrames, processedFrames, droppedFrames, starvedCount,
+				deliveredFps, frameIntervalMs, frameJitterMs,
+				queueP50Us, queueP95Us, queueP99Us,
+				processP50Us, processP95Us, processP99Us, processMaxUs,
+				returnP50Us, returnP95Us, returnP99Us, analyzerDroppedFrames);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(String.format(Locale.US, "%.1f fps (jitter %.2f ms), %d delivered, %d processed, "
+				+ "%d dropped, %d starved, %d dropped by analyzers, process p50/p95/p99 = %.1f/%.1f/%.1f ms, queue p95 = %.1f ms",
+				deliveredFps, frameJitterMs, deliveredFrames, processedFrames, droppedFrames, starvedCount, analyzerDroppedFrames,
+				processP50Us / 1000.0, processP95Us / 1000.0, processP99Us / 1000.0, queueP95Us / 1000.0));
+			for (AnalyzerStats analyzer : analyzers) {
+				sb.append("; ").append(analyzer);
+			}
+			return sb.toString();
+		}
+	}
+
+	private final LatencyHistogram queueHistogram = new LatencyHistogram();
+	private final LatencyHistogram processHistogram = new LatencyHistogram();
+	private final LatencyHistogram returnHistogram = new LatencyHistogram();
+
+	private long startNanos;
+	private long lastDeliveryNanos;
+	private long deliveredFrames;
+	private long processedFrames;
+	private long droppedFrames;
+	private long starvedCount;
+	private volatile FrameFanout fanout;
+
+	/**
+	 * Running mean and variance of the time between frames (Welford's method), in nanoseconds.
+	 */
+	private long intervalCount;
+	private double intervalMean;
+	private double intervalM2;
+
+	public FrameMetrics() {
+		reset();
+	}
+
+	/**
+	 * To be called when the camera delivers a frame.
+	 * @param nowNanos the current {@link System#nanoTime()}
+	 */
+	public synchronized void onFrameDelivered(long nowNanos) {
+		if (this.deliveredFrames > 0) {
+			double interval = nowNanos - this.lastDeliveryNanos;
+			this.intervalCount++;
+			double delta = interval - this.intervalMean;
+			this.intervalMean += delta / this.intervalCount;
+			this.intervalM2 += delta * (interval - this.intervalMean);
+		}
+
+		this.lastDeliveryNanos = nowNanos;
+		this.deliveredFrames++;
+	}
+
+	/**
+	 * To be called when the processing of a frame starts.
+	 * @param deliveryNanos when the frame was delivered
+	 * @param nowNanos the current {@link System#nanoTime()}
+	 */
+	public void onFrameStarted(long deliveryNanos, long nowNanos) {
+		this.queueHistogram.recordNanos(nowNanos - deliveryNanos);
+	}
+
+	/**
+	 * To be called when the processing of a frame is over.
+	 */
+	public void onFrameProcessed(long startNanos, long endNanos) {
+		this.processHistogram.recordNanos(endNanos - startNanos);
+		synchronized (this) {
+			this.processedFrames++;
+		}
+	}
+
+	/**
+	 * To be called when the buffer of a frame has been given back to the camera.
+	 */
+	public void onBufferReturned(long startNanos, long endNanos) {
+		this.returnHistogram.recordNanos(endNanos - startNanos);
+	}
+
+	/**
+	 * Measures the analyzers of a fan-out too, from now on.
+	 * @param fanout the fan-out that dispatches the frames, or null
+	 */
+	public void setFanout(FrameFanout fanout) {
+		this.fanout = fanout;
+	}
+
+	/**
+	 * Updates the counters of the frames that have been lost on the way.
+	 * @param droppedFrames total number of frames dropped in favor of newer ones
+	 * @param starvedCount total number of times the camera had no buffer to write to
+	 */
+	public synchronized void setLossCounters(long droppedFrames, long starvedCount) {
+		this.droppedFrames = droppedFrames;
+		this.starvedCount = starvedCount;
+	}
+
+	/**
+	 * Copies the current values into a {@link Snapshot}.
+	 * @param out where to write the values, or null to create a new Snapshot
+	 * @return the filled Snapshot
+	 */
+	public Snapshot snapshot(Snapshot out) {
+		if (out == null) {
+			out = new Snapshot();
+		}
+
+		synchronized (this) {
+			out.elapsedMs = (System.nanoTime() - this.startNanos) / 1000000L;
+			out.deliveredFrames = this.deliveredFrames;
+			out.processedFrames = this.processedFrames;
+			out.droppedFrames = this.droppedFrames;
+			out.starvedCount = this.starvedCount;
+			out.frameIntervalMs = this.intervalMean / 1000000.0;
+			out.frameJitterMs = (this.intervalCount > 1) ? Math.sqrt(this.intervalM2 / (this.intervalCount - 1)) / 1000000.0 : 0;
+			out.deliveredFps = (this.intervalMean > 0) ? 1000000000.0 / this.intervalMean : 0;
+		}
+
+		out.queueP50Us = this.queueHistogram.getPercentileMicros(50);
+		out.queueP95Us = this.queueHistogram.getPercentileMicros(95);
+		out.queueP99Us = this.queueHistogram.getPercentileMicros(99);
+		out.processP50Us = this.processHistogram.getPercentileMicros(50);
+		out.processP95Us = this.processHistogram.getPercentileMicros(95);
+		out.processP99Us = this.processHistogram.getPercentileMicros(99);
+		out.processMaxUs = this.processHistogram.getMaxMicros();
+		out.returnP50Us = this.returnHistogram.getPercentileMicros(50);
+		out.returnP95Us = this.returnHistogram.getPercentileMicros(95);
+		out.returnP99Us = this.returnHistogram.getPercentileMicros(99);
+
+		FrameFanout fanout = this.fanout;
+		FrameFanout.Analyzer[] analyzers = (fanout == null) ? new FrameFanout.Analyzer[0] : fanout.getAnalyzers();
+		if (out.analyzers.length != analyzers.length) {
+			out.analyzers = new AnalyzerStats[analyzers.length];
+		}
+		out.analyzerDroppedFrames = 0;
+		for (int i = 0; i < analyzers.length; i++) {
+			if (out.analyzers[i] == null) {
+				out.analyzers[i] = new AnalyzerStats();
+			}
+			analyzers[i].getStats(out.analyzers[i]);
+			out.analyzerDroppedFrames += out.analyzers[i].droppedFrames;
+		}
+		return out;
+	}
+
+	/**
+	 * Forgets everything and starts collecting again.
+	 */
+	public void reset() {
+		this.queueHistogram.reset();
+		this.processHistogram.reset();
+		this.returnHistogram.reset();
+
+		synchronized (this) {
+			this.startNanos = System.nanoTime();
+			this.lastDeliveryNanos = 0;
+			this.deliveredFrames = 0;
+			this.processedFrames = 0;
+			this.droppedFrames = 0;
+			this.starvedCount = 0;
+			this.intervalCount = 0;
+			this.intervalMean = 0;
+			this.intervalM2 = 0;
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package com.ale.nicecameraexample;
+
+/**
+ * Moves the processing of the preview frames away from the thread that
+ * receives the camera callbacks (usually the UI thread).<br />
+ * The callback only hands the filled buffer to the {@link PreviewBufferPool}
+ * with {@link #submit(byte[])}, which never blocks. A dedicated worker thread
+ * takes the frames from the pool, gives them to the {@link FrameConsumer} and
+ * releases them back to the camera only when the consumer is done.<br />
+ * The pool works as a bounded hand-off queue: its {@link PreviewBufferPool.Policy}
+ * decides whether older frames are dropped when the consumer falls behind
+ * ({@link PreviewBufferPool.Policy#LATEST_WINS}) or the camera is held back
+ * until a buffer is free ({@link PreviewBufferPool.Policy#PROCESS_ALL}).<br />
+ * Instead of a single consumer, the frames can be handed to a {@link FrameDispatcher}
+ * (such as {@link FrameFanout}) that keeps them after the call and releases them
+ * to the pool by itself, so that several analyzers can work on the same frame.<br />
+ * Every step of the way is measured in a {@link FrameMetrics}.
+ */
+public class FramePipeline {
+
+	/**
+	 * The code that analyzes the frames. It's always called on the pipeline's thread.
+	 */
+	public interface FrameConsumer {
+		/**
+		 * @param frame the NV21 frame. It must not be used after this method returns,
+		 * because the buffer goes back to the camera.
+		 * @param timestampNanos when the frame has been delivered by the camera, as {@link System#nanoTime()}
+		 */
+		void onFrame(byte[] frame, long timestampNanos);
+	}
+
+	/**
+	 * Like a {@link FrameConsumer}, but it becomes the owner of the frame: the
+	 * pipeline doesn't release it, the dispatcher must give it back with
+	 * {@link PreviewBufferPool#release(byte[])} when it's done. It's always
+	 * called on the pipeline's thread, and it should return quickly.
+	 */
+	public interface FrameDispatcher {
+		/**
+		 * @param frame the NV21 frame, taken from the pool
+		 * @param timestampNanos when the frame has been delivered by the camera, as {@link System#nanoTime()}
+		 */
+		void dispatch(byte[] frame, long timestampNanos);
+	}
+
+	/**
+	 * How long the worker waits for a frame before checking if it has been stopped.
+	 */
+	private static final long POLL_TIMEOUT_MS = 100;
+
+	private final PreviewBufferPool pool;
+	private final FrameConsumer consumer;
+	private final FrameDispatcher dispatcher;
+	private final FrameMetrics metrics = new FrameMetrics();
+
+	/**
+	 * The loss counters of the pool when the pipeline has been created: a pool
+	 * can outlive its pipelines (see {@link #getMetrics(FrameMetrics.Snapshot)}).
+	 */
+	private final long poolDroppedBase;
+	private final long poolStarvedBase;
+
+	/**
+	 * The thread that takes the frames, or null when the pipeline is stopped. A thread
+	 * keeps working only as long as it's this one.
+	 */
+	private volatile Thread worker;
+
+	/**
+	 * A worker stopped from inside itself, that may still be completing its frame.
+	 */
+	private Thread exitingWorker;
+
+	public FramePipeline(PreviewBufferPool pool, FrameConsumer consumer) {
+		this.pool = pool;
+		this.consumer = consumer;
+		this.dispatcher = null;
+		this.poolDroppedBase = pool.getDroppedCount();
+		this.poolStarvedBase = pool.getStarvedCount();
+	}
+
+	/**
+	 * If the dispatcher is a {@link FrameFanout}, the frames are measured until the
+	 * last analyzer releases them, and every analyzer on its own. Otherwise only the
+	 * {@link FrameDispatcher#dispatch(byte[], long)} call is measured.
+	 */
+	public FramePipeline(PreviewBufferPool pool, FrameDispatcher dispatcher) {
+		this.pool = pool;
+		this.consumer = null;
+		this.dispatcher = dispatcher;
+		this.poolDroppedBase = pool.getDroppedCount();
+		this.poolStarvedBase = pool.getStarvedCount();
+		if (dispatcher instanceof FrameFanout) {
+			((FrameFanout) dispatcher).setMetrics(this.metrics);
+		}
+	}
+
+	/**
+	 * Starts the worker thread. Does nothing if it's already running.<br />
+	 * If the previous worker has been stopped by itself, this waits for it to exit:
+	 * two workers never run at the same time.
+	 * @throws IllegalStateException if it's called by the previous worker
+	 */
+	public synchronized void start() {
+		if (this.worker != null) {
+			return;
+		}
+
+		if (this.exitingWorker != null) {
+			if (Thread.currentThread() == this.exitingWorker) {
+				throw new IllegalStateException("the pipeline can't be restarted by its own worker");
+			}
+			joinUninterruptibly(this.exitingWorker);
+			this.exitingWorker = null;
+		}
+
+		Thread worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				processLoop();
+			}
+		}, "FramePipeline");
+		this.worker = worker;
+		worker.start();
+	}
+
+	/**
+	 * Stops the worker thread, waiting for the current frame to be released
+	 * (unless it's called by the worker itself). Pending frames stay in the pool.
+	 */
+	public synchronized void stop() {
+		Thread worker = this.worker;
+		if (worker == null) {
+			return;
+		}
+
+		this.worker = null;
+		worker.interrupt();
+
+		if (Thread.currentThread() != worker) {
+			joinUninterruptibly(worker);
+		}
+		else {
+			this.exitingWorker = worker;
+		}
+	}
+
+	/**
+	 * Hands a frame just filled by the camera to the pipeline. It never blocks, so
+	 * it can be called directly from {@link android.hardware.Camera.PreviewCallback#onPreviewFrame(byte[], android.hardware.Camera)}.
+	 * @param data the filled buffer
+	 * @return true if the frame has been accepted, false if the buffer doesn't belong to the pool
+	 */
+	public boolean submit(byte[] data) {
+		long now = System.nanoTime();
+		if (!this.pool.onFrameDelivered(data)) {
+			return false;
+		}
+
+		this.metrics.onFrameDelivered(now);
+		return true;
+	}
+
+	/**
+	 * Reads the metrics collected since the pipeline has been created.
+	 * It can be called from any thread, for example to show the values on the UI.
+	 * @param out where to write the values, or null to create a new {@link FrameMetrics.Snapshot}
+	 * @return the filled snapshot
+	 */
+	public FrameMetrics.Snapshot getMetrics(FrameMetrics.Snapshot out) {
+		this.metrics.setLossCounters(this.pool.getDroppedCount() - this.poolDroppedBase, this.pool.getStarvedCount() - this.poolStarvedBase);
+		return this.metrics.snapshot(out);
+	}
+
+	public boolean isRunning() {
+		return this.worker != null;
+	}
+
+	public PreviewBufferPool getPool() {
+		return this.pool;
+	}
+
+	/**
+	 * Waits for a thread to exit, however long it takes. If the waiting thread is
+	 * interrupted it keeps waiting, and the interrupt is restored at the end.
+	 */
+	static void joinUninterruptibly(Thread thread) {
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void processLoop() {
+		Thread self = Thread.currentThread();
+		while (this.worker == self) {
+			byte[] frame;
+			try {
+				frame = this.pool.take(POLL_TIMEOUT_MS);
+			} catch (InterruptedException e) {
+				// stop() has been called
+				break;
+			}
+
+			if (frame == null) {
+				continue;
+			}
+
+			long start = System.nanoTime();
+			long deliveryTime = this.pool.getDeliveryTime(frame);
+			this.metrics.onFrameStarted(deliveryTime, start);
+
+			if (this.dispatcher != null) {
+				// the dispatcher releases the frame by itself (and a fan-out records it)
+				this.dispatcher.dispatch(frame, deliveryTime);
+				if (!(this.dispatcher instanceof FrameFanout)) {
+					this.metrics.onFrameProcessed(start, System.nanoTime());
+				}
+				continue;
+			}
+
+			try {
+				this.consumer.onFrame(frame, deliveryTime);
+			}
+			finally {
+				long end = System.nanoTime();
+				this.metrics.onFrameProcessed(start, end);
+
+				// the consumer is done: the buffer can be filled again
+				this.pool.release(frame);
+				this.metrics.onBufferReturned(end, System.nanoTime());
+			}
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package com.ale.nicecameraexample;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps the last N preview frames, as they are (NV21), in a file: a "dashcam" that
+ * always has the last minutes of preview ready for later inspection.<br />
+ * The file has a fixed size and is used as a circular buffer: when it's full the
+ * oldest frame is overwritten. It's accessed through a memory-mapped buffer, so
+ * recording a frame costs a single copy in memory: the system writes the pages
+ * to the disk by itself, in background.<br />
+ * The frames can be read, even while recording, with {@link FrameRecordingReader}.
+ * <h3>File format</h3>
+ * All the numbers are big-endian.
+ * <pre>
+ * header (64 bytes):
+ *   int   magic         0x4e563231 ("NV21")
+ *   int   version       1
+ *   int   width
+ *   int   height
+ *   int   frameSize     width * height * 3 / 2
+ *   int   slotCount     how many frames the file can hold
+ *   long  writeCount    how many frames have been recorded since the file was created
+ *   (padding up to 64 bytes)
+ * index (slotCount entries of 16 bytes):
+ *   long  sequence      the number of the frame in the slot (0 for the first frame
+ *                       ever recorded), or -1 if the slot is empty
+ *   long  timestamp     when the frame has been delivered, in nanoseconds
+ *                       (the {@link System#nanoTime()} of the recording device)
+ * data (slotCount slots of frameSize bytes):
+ *   the frames. Frame number n is in slot n % slotCount.
+ * </pre>
+ * A frame is written before its index entry, and the index entry before writeCount,
+ * so a reader never sees a half-written frame as complete. While a slot is being
+ * overwritten its sequence is set to -1.<br />
+ * A recorder can be used by one thread at a time. The whole file must be smaller
+ * than 2 GB.
+ */
+public class FrameRecorder implements Closeable {
+
+	static final int MAGIC = 0x4e563231;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+	static final int INDEX_ENTRY_SIZE = 16;
+	static final int WRITE_COUNT_OFFSET = 24;
+
+	private final File path;
+	private final RandomAccessFile file;
+	private final MappedByteBuffer map;
+	private final int width;
+	private final int height;
+	private final int frameSize;
+	private final int slotCount;
+	private final int dataOffset;
+
+	private long writeCount = 0;
+
+	/**
+	 * Creates a new recording, replacing the file if it exists.
+	 * @param file where the frames are recorded
+	 * @param width frame width
+	 * @param height frame height
+	 * @param slotCount how many frames are kept
+	 * @throws IOException if the file can't be created
+	 */
+	public FrameRecorder(File file, int width, int height, int slotCount) throws IOException {
+		if (slotCount < 1) {
+			throw new IllegalArgumentException("at least one slot is required, got " + slotCount);
+		}
+
+		this.path = file;
+		this.width = width;
+		this.height = height;
+		this.frameSize = width * height * 3 / 2;
+		this.slotCount = slotCount;
+		this.dataOffset = HEADER_SIZE + slotCount * INDEX_ENTRY_SIZE;
+
+		long fileSize = this.dataOffset + (long) slotCount * this.frameSize;
+		if (fileSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(slotCount + " frames of " + width + "x" + height + " don't fit in a 2 GB file");
+		}
+
+		this.file = new RandomAccessFile(file, "rw");
+		try {
+			this.file.setLength(0);
+			this.file.setLength(fileSize);
+			this.map = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+		}
+		catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+
+		this.map.putInt(0, MAGIC);
+		this.map.putInt(4, VERSION);
+		this.map.putInt(8, width);
+		this.map.putInt(12, height);
+		this.map.putInt(16, this.frameSize);
+		this.map.putInt(20, slotCount);
+		this.map.putLong(WRITE_COUNT_OFFSET, 0);
+		for (int i = 0; i < slotCount; i++) {
+			this.map.putLong(HEADER_SIZE + i * INDEX_ENTRY_SIZE, -1);
+		}
+	}
+
+	/**
+	 * @param byteBudget the maximum size of the file
+	 * @param width frame width
+	 * @param height frame height
+	 * @return how many frames of the given size can be kept in a file of that size (and
+	 * smaller than 2 GB), at least 1
+	 */
+	public static int slotCountFor(long byteBudget, int width, int height) {
+		long slotSize = INDEX_ENTRY_SIZE + (long) width * height * 3 / 2;
+		long available = Math.min(byteBudget, Integer.MAX_VALUE) - HEADER_SIZE;
+		return (int) Math.max(1, available / slotSize);
+	}
+
+	/**
+	 * Appends a frame, overwriting the oldest one if the file is full.
+	 * @param nv21 the frame: its first width * height * 3 / 2 bytes are recorded
+	 * @param timestampNanos when the frame has been delivered, as {@link System#nanoTime()}
+	 */
+	public void record(byte[] nv21, long timestampNanos) {
+		long sequence = this.writeCount;
+		int slot = (int) (sequence % this.slotCount);
+		int entry = HEADER_SIZE + slot * INDEX_ENTRY_SIZE;
+
+		// the old frame is not valid anymore, the new one is not yet
+		this.map.putLong(entry, -1);
+
+		this.map.position(this.dataOffset + slot * this.frameSize);
+		this.map.put(nv21, 0, this.frameSize);
+
+		this.map.putLong(entry + 8, timestampNanos);
+		this.map.putLong(entry, sequence);
+
+		this.writeCount = sequence + 1;
+		this.map.putLong(WRITE_COUNT_OFFSET, this.writeCount);
+	}
+
+	/**
+	 * @return how many frames have been recorded (including the overwritten ones)
+	 */
+	public long getWriteCount() {
+		return this.writeCount;
+	}
+
+	public File getFile() {
+		return this.path;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	public int getSlotCount() {
+		return this.slotCount;
+	}
+
+	/**
+	 * Writes the frames recorded so far to the disk. It's not needed to read them
+	 * back (the pages are shared), only to survive a crash of the system.
+	 */
+	public void flush() {
+		this.map.force();
+	}
+
+	/**
+	 * Flushes the frames and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		this.file.close();
+	}
+}
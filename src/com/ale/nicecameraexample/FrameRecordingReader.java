@@ -0,0 +1,193 @@
+package com.ale.nicecameraexample;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the frames recorded by a {@link FrameRecorder} (see there for the file format),
+ * even while the recording goes on.<br />
+ * Frames are identified by their sequence number: the oldest one still in the file is
+ * {@link #getFirstSequence()}, the newest one is {@link #getLastSequence()}. A frame
+ * can be found by time with {@link #findSequence(long)}, and a range of frames can be
+ * exported as raw NV21 video with {@link #export(long, long, OutputStream)}.<br />
+ * A reader can be used by one thread at a time.
+ */
+public class FrameRecordingReader implements Closeable {
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer map;
+	private final int width;
+	private final int height;
+	private final int frameSize;
+	private final int slotCount;
+	private final int dataOffset;
+
+	/**
+	 * @param file a file written by a {@link FrameRecorder}
+	 * @throws IOException if the file can't be read or it's not a recording
+	 */
+	public FrameRecordingReader(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		try {
+			long length = this.file.length();
+			if (length < FrameRecorder.HEADER_SIZE || length > Integer.MAX_VALUE) {
+				throw new IOException(file + " is not a frame recording");
+			}
+
+			this.map = this.file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+			if (this.map.getInt(0) != FrameRecorder.MAGIC || this.map.getInt(4) != FrameRecorder.VERSION) {
+				throw new IOException(file + " is not a frame recording");
+			}
+
+			this.width = this.map.getInt(8);
+			this.height = this.map.getInt(12);
+			this.frameSize = this.map.getInt(16);
+			this.slotCount = this.map.getInt(20);
+			this.dataOffset = FrameRecorder.HEADER_SIZE + this.slotCount * FrameRecorder.INDEX_ENTRY_SIZE;
+
+			if (this.slotCount < 1 || this.dataOffset + (long) this.slotCount * this.frameSize > length) {
+				throw new IOException(file + " is truncated");
+			}
+		}
+		catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	public int getFrameSize() {
+		return this.frameSize;
+	}
+
+	/**
+	 * @return how many frames have been recorded so far (including the overwritten ones)
+	 */
+	public long getWriteCount() {
+		return this.map.getLong(FrameRecorder.WRITE_COUNT_OFFSET);
+	}
+
+	/**
+	 * @return the sequence number of the oldest frame in the file
+	 */
+	public long getFirstSequence() {
+		return Math.max(0, getWriteCount() - this.slotCount);
+	}
+
+	/**
+	 * @return the sequence number of the newest frame in the file, or -1 if it's empty
+	 */
+	public long getLastSequence() {
+		return getWriteCount() - 1;
+	}
+
+	/**
+	 * @param sequence a frame number
+	 * @return its timestamp, in nanoseconds, or -1 if the frame is not in the file (anymore)
+	 */
+	public long getTimestamp(long sequence) {
+		if (sequence < 0) {
+			return -1;
+		}
+
+		int entry = FrameRecorder.HEADER_SIZE + (int) (sequence % this.slotCount) * FrameRecorder.INDEX_ENTRY_SIZE;
+		long timestamp = this.map.getLong(entry + 8);
+		return (this.map.getLong(entry) == sequence) ? timestamp : -1;
+	}
+
+	/**
+	 * Finds the first frame recorded at or after the given moment. The timestamps
+	 * grow with the sequence numbers, so it's a binary search.
+	 * @param timestampNanos the moment, as {@link System#nanoTime()} of the recording device
+	 * @return the sequence number of the frame, or -1 if all the frames are older
+	 */
+	public long findSequence(long timestampNanos) {
+		long low = getFirstSequence();
+		long high = getLastSequence();
+		long found = -1;
+
+		while (low <= high) {
+			long middle = (low + high) >>> 1;
+			long timestamp = getTimestamp(middle);
+
+			if (timestamp < 0) {
+				// overwritten while searching: the oldest frames are gone
+				low = middle + 1;
+			}
+			else if (timestamp >= timestampNanos) {
+				found = middle;
+				high = middle - 1;
+			}
+			else {
+				low = middle + 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Copies a frame.
+	 * @param sequence the frame number
+	 * @param out where to copy it, at least {@link #getFrameSize()} bytes long
+	 * @return false if the frame is not in the file, or has been overwritten while copying it
+	 */
+	public boolean readFrame(long sequence, byte[] out) {
+		if (getTimestamp(sequence) < 0) {
+			return false;
+		}
+
+		int slot = (int) (sequence % this.slotCount);
+		this.map.position(this.dataOffset + slot * this.frameSize);
+		this.map.get(out, 0, this.frameSize);
+
+		// the recorder may have started overwriting the slot in the meantime
+		return getTimestamp(sequence) >= 0;
+	}
+
+	/**
+	 * Writes the frames recorded in a time range as raw NV21 video (frames one after
+	 * the other, no headers), that can be played by a {@link ReplayFrameSource}.
+	 * @param fromNanos beginning of the range
+	 * @param toNanos end of the range (included)
+	 * @param out where to write the frames
+	 * @return how many frames have been written
+	 * @throws IOException if the output can't be written
+	 */
+	public int export(long fromNanos, long toNanos, OutputStream out) throws IOException {
+		long sequence = findSequence(fromNanos);
+		if (sequence < 0) {
+			return 0;
+		}
+
+		byte[] frame = new byte[this.frameSize];
+		int count = 0;
+		for (long last = getLastSequence(); sequence <= last; sequence++) {
+			long timestamp = getTimestamp(sequence);
+			if (timestamp > toNanos) {
+				break;
+			}
+			if (timestamp >= 0 && readFrame(sequence, frame)) {
+				out.write(frame);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.file.close();
+	}
+}
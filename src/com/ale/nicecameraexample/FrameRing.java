@@ -0,0 +1,188 @@
+package com.ale.nicecameraexample;
+
+/**
+ * Keeps a copy of the last K preview frames, with their timestamps, in memory
+ * allocated once. It's what makes "zero shutter lag" possible: when the user
+ * taps the capture button the moment has already been recorded, so we just
+ * pick the right frame instead of waiting for the sensor.<br />
+ * A frame picked with {@link #acquireClosest(long)} or {@link #acquireSharpest(long, long)}
+ * is "held": it's not overwritten until {@link #release(int)} is called. Every
+ * frame also gets a sharpness score (the focus score of a {@link LumaAnalyzer} working
+ * on a subsampled grid), so that a blurred frame can be avoided.<br />
+ * All the methods are thread-safe.
+ */
+public class FrameRing {
+
+	/**
+	 * Distance (in pixels) between the samples used to compute the sharpness score.
+	 */
+	private static final int SHARPNESS_STEP = 4;
+
+	private final int width;
+	private final int height;
+	private final byte[][] frames;
+	private final long[] timestamps;
+	private final double[] sharpness;
+	private final boolean[] held;
+	private final boolean[] valid;
+
+	private final LumaAnalyzer analyzer;
+	private final LumaAnalyzer.Stats stats = new LumaAnalyzer.Stats();
+
+	private long droppedCount = 0;
+
+	/**
+	 * @param capacity how many frames are kept. The memory used is capacity * frameSize bytes
+	 * @param width frame width
+	 * @param height frame height
+	 * @param frameSize size (in bytes) of every frame
+	 */
+	public FrameRing(int capacity, int width, int height, int frameSize) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1, got " + capacity);
+		}
+
+		this.width = width;
+		this.height = height;
+		this.frames = new byte[capacity][frameSize];
+		this.timestamps = new long[capacity];
+		this.sharpness = new double[capacity];
+		this.held = new boolean[capacity];
+		this.valid = new boolean[capacity];
+
+		this.analyzer = new LumaAnalyzer(width, height);
+		this.analyzer.setStep(SHARPNESS_STEP);
+	}
+
+	/**
+	 * Copies a frame in the ring, replacing the oldest one that is not held.
+	 * @param frame the NV21 frame
+	 * @param timestampNanos when the frame has been delivered, as {@link System#nanoTime()}
+	 * @return false if every slot is held, and the frame has been discarded
+	 */
+	public boolean add(byte[] frame, long timestampNanos) {
+		// the score is computed out of the main lock, it only reads the source frame
+		double score;
+		synchronized (this.analyzer) {
+			score = this.analyzer.analyze(frame, this.stats).focusScore;
+		}
+
+		synchronized (this) {
+			int slot = -1;
+			for (int i = 0; i < this.frames.length; i++) {
+				if (this.held[i]) {
+					continue;
+				}
+				if (!this.valid[i]) {
+					slot = i;
+					break;
+				}
+				if (slot < 0 || this.timestamps[i] < this.timestamps[slot]) {
+					slot = i;
+				}
+			}
+
+			if (slot < 0) {
+				this.droppedCount++;
+				return false;
+			}
+
+			System.arraycopy(frame, 0, this.frames[slot], 0, Math.min(frame.length, this.frames[slot].length));
+			this.timestamps[slot] = timestampNanos;
+			this.sharpness[slot] = score;
+			this.valid[slot] = true;
+			return true;
+		}
+	}
+
+	/**
+	 * Holds the frame whose timestamp is the closest to the given one.
+	 * @param timestampNanos the wanted moment, as {@link System#nanoTime()}
+	 * @return the slot of the frame, or -1 if the ring is empty
+	 */
+	public synchronized int acquireClosest(long timestampNanos) {
+		int best = -1;
+		for (int i = 0; i < this.frames.length; i++) {
+			if (!this.valid[i] || this.held[i]) {
+				continue;
+			}
+			if (best < 0 || Math.abs(this.timestamps[i] - timestampNanos) < Math.abs(this.timestamps[best] - timestampNanos)) {
+				best = i;
+			}
+		}
+
+		if (best >= 0) {
+			this.held[best] = true;
+		}
+		return best;
+	}
+
+	/**
+	 * Holds the sharpest frame delivered in the given time window. If there's no
+	 * frame in the window, it behaves like {@link #acquireClosest(long)} with the end of the window.
+	 * @param fromNanos beginning of the window, as {@link System#nanoTime()}
+	 * @param toNanos end of the window, as {@link System#nanoTime()}
+	 * @return the slot of the frame, or -1 if the ring is empty
+	 */
+	public synchronized int acquireSharpest(long fromNanos, long toNanos) {
+		int best = -1;
+		for (int i = 0; i < this.frames.length; i++) {
+			if (!this.valid[i] || this.held[i] || this.timestamps[i] < fromNanos || this.timestamps[i] > toNanos) {
+				continue;
+			}
+			if (best < 0 || this.sharpness[i] > this.sharpness[best]) {
+				best = i;
+			}
+		}
+
+		if (best < 0) {
+			return acquireClosest(toNanos);
+		}
+
+		this.held[best] = true;
+		return best;
+	}
+
+	/**
+	 * Lets the ring overwrite a frame again.
+	 * @param slot a slot returned by one of the acquire methods
+	 */
+	public synchronized void release(int slot) {
+		this.held[slot] = false;
+	}
+
+	/**
+	 * @param slot a held slot
+	 * @return the frame in the slot. It must not be used after {@link #release(int)}
+	 */
+	public byte[] getFrame(int slot) {
+		return this.frames[slot];
+	}
+
+	public synchronized long getTimestamp(int slot) {
+		return this.timestamps[slot];
+	}
+
+	public synchronized double getSharpness(int slot) {
+		return this.sharpness[slot];
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	public int getCapacity() {
+		return this.frames.length;
+	}
+
+	/**
+	 * @return how many frames have been discarded because every slot was held
+	 */
+	public synchronized long getDroppedCount() {
+		return this.droppedCount;
+	}
+}
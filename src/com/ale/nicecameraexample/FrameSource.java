@@ -0,0 +1,38 @@
+package com.ale.nicecameraexample;
+
+/**
+ * Something that produces NV21 frames following the contract of
+ * {@link android.hardware.Camera#addCallbackBuffer(byte[])} and
+ * {@link android.hardware.Camera.PreviewCallback#onPreviewFrame(byte[], android.hardware.Camera)}:
+ * empty buffers are given to it with {@link #addCallbackBuffer(byte[])}, and it hands
+ * them back, filled, to its {@link FrameCallback}. A buffer is used only once: to be
+ * filled again it must be given back with addCallbackBuffer(). When there are no
+ * buffers the frames are lost.<br />
+ * The real camera is one of them ({@link CameraFrameSource}), but frames can be
+ * also generated ({@link SyntheticFrameSource}) or read from a file
+ * ({@link ReplayFrameSource}), so that the whole frame path ({@link PreviewBufferPool},
+ * {@link FramePipeline} and the analyzers) can run, and be measured, on a plain JVM.
+ */
+public interface FrameSource extends PreviewBufferPool.BufferSink {
+
+	/**
+	 * Receives the filled buffers.
+	 */
+	interface FrameCallback {
+		/**
+		 * @param data a buffer given with {@link FrameSource#addCallbackBuffer(byte[])}, now filled with a frame
+		 */
+		void onFrame(byte[] data);
+	}
+
+	/**
+	 * @param callback who receives the frames, or null to stop receiving them: then the
+	 * buffers given so far are forgotten too, as {@link android.hardware.Camera#setPreviewCallbackWithBuffer(android.hardware.Camera.PreviewCallback)}
+	 * does, so that they can be given again without being queued twice
+	 */
+	void setFrameCallback(FrameCallback callback);
+
+	int getFrameWidth();
+
+	int getFrameHeight();
+}
@@ -0,0 +1,228 @@
+package com.ale.nicecameraexample;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * A {@link FrameSource} that produces frames on its own thread, at a given frame rate,
+ * like a camera does: if no empty buffer is available when a frame is due, the frame
+ * is lost (and counted in {@link #getSkippedCount()}). The frames are delivered to the
+ * {@link FrameSource.FrameCallback} on the source's thread.<br />
+ * Subclasses only have to fill the buffers, see {@link #fillFrame(byte[], long)}.
+ */
+public abstract class GeneratedFrameSource implements FrameSource {
+
+	private final int width;
+	private final int height;
+	private final long periodNanos;
+
+	private final ArrayDeque<byte[]> buffers = new ArrayDeque<byte[]>();
+	private volatile FrameCallback callback;
+
+	private volatile boolean running = false;
+	private Thread worker;
+
+	private volatile long frameIndex = 0;
+	private volatile long deliveredCount = 0;
+	private volatile long skippedCount = 0;
+	private volatile IOException error;
+
+	/**
+	 * @param width frame width, must be even
+	 * @param height frame height, must be even
+	 * @param fps how many frames per second are produced, or 0 to produce them as fast as possible
+	 */
+	protected GeneratedFrameSource(int width, int height, double fps) {
+		if ((width & 1) != 0 || (height & 1) != 0) {
+			throw new IllegalArgumentException("frame size must be even, got " + width + "x" + height);
+		}
+
+		this.width = width;
+		this.height = height;
+		this.periodNanos = (fps > 0) ? (long) (1000000000L / fps) : 0;
+	}
+
+	/**
+	 * Fills a buffer with a frame. Called on the source's thread.
+	 * @param buffer the buffer, at least {@link #getFrameSize()} bytes long
+	 * @param frameIndex the position of the frame, starting from 0
+	 * @return false if there are no more frames: the source stops
+	 * @throws IOException if the frame can't be produced: the source stops
+	 */
+	protected abstract boolean fillFrame(byte[] buffer, long frameIndex) throws IOException;
+
+	@Override
+	public void addCallbackBuffer(byte[] buffer) {
+		synchronized (this.buffers) {
+			this.buffers.add(buffer);
+		}
+	}
+
+	@Override
+	public void setFrameCallback(FrameCallback callback) {
+		this.callback = callback;
+		if (callback == null) {
+			synchronized (this.buffers) {
+				this.buffers.clear();
+			}
+		}
+	}
+
+	@Override
+	public int getFrameWidth() {
+		return this.width;
+	}
+
+	@Override
+	public int getFrameHeight() {
+		return this.height;
+	}
+
+	/**
+	 * @return the size, in bytes, of a NV21 frame
+	 */
+	public int getFrameSize() {
+		return this.width * this.height * 3 / 2;
+	}
+
+	/**
+	 * Starts producing frames. Does nothing if it's already running.
+	 */
+	public synchronized void start() {
+		if (this.running) {
+			return;
+		}
+
+		this.running = true;
+		this.worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				produceLoop();
+			}
+		}, "FrameSource");
+		this.worker.start();
+	}
+
+	/**
+	 * Stops producing frames, and waits for the current one to be delivered.
+	 * The empty buffers are forgotten, as a released camera does.
+	 */
+	public synchronized void stop() {
+		if (this.worker == null) {
+			return;
+		}
+
+		this.running = false;
+		this.worker.interrupt();
+		if (Thread.currentThread() != this.worker) {
+			try {
+				this.worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		this.worker = null;
+
+		synchronized (this.buffers) {
+			this.buffers.clear();
+		}
+	}
+
+	/**
+	 * @return true until {@link #stop()} is called or the frames are over
+	 */
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	/**
+	 * @return how many frames have been produced (delivered or skipped)
+	 */
+	public long getFrameCount() {
+		return this.frameIndex;
+	}
+
+	/**
+	 * @return how many frames have been delivered to the callback
+	 */
+	public long getDeliveredCount() {
+		return this.deliveredCount;
+	}
+
+	/**
+	 * @return how many empty buffers are waiting to be filled
+	 */
+	public int getQueuedCount() {
+		synchronized (this.buffers) {
+			return this.buffers.size();
+		}
+	}
+
+	/**
+	 * @return how many frames have been lost because there was no empty buffer
+	 */
+	public long getSkippedCount() {
+		return this.skippedCount;
+	}
+
+	/**
+	 * @return the error that has stopped the source, or null
+	 */
+	public IOException getError() {
+		return this.error;
+	}
+
+	private void produceLoop() {
+		long deadline = System.nanoTime();
+
+		try {
+			while (this.running) {
+				if (this.periodNanos > 0) {
+					long wait = deadline - System.nanoTime();
+					if (wait > 0) {
+						Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+					}
+					// a late frame doesn't make the next ones come sooner
+					deadline = Math.max(deadline + this.periodNanos, System.nanoTime());
+				}
+
+				byte[] buffer;
+				synchronized (this.buffers) {
+					buffer = this.buffers.poll();
+				}
+
+				long index = this.frameIndex;
+				if (buffer == null) {
+					this.skippedCount++;
+					this.frameIndex = index + 1;
+					if (this.periodNanos == 0) {
+						// as fast as possible, but without spinning
+						Thread.yield();
+					}
+					continue;
+				}
+
+				if (!fillFrame(buffer, index)) {
+					break;
+				}
+				this.frameIndex = index + 1;
+
+				FrameCallback callback = this.callback;
+				if (callback != null) {
+					callback.onFrame(buffer);
+					this.deliveredCount++;
+				}
+				// else nobody wants it: the buffer is forgotten, as the other empty ones
+			}
+		}
+		catch (InterruptedException e) {
+			// stop() has been called
+		}
+		catch (IOException e) {
+			this.error = e;
+		}
+		finally {
+			this.running = false;
+		}
+	}
+}
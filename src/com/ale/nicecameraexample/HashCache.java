@@ -0,0 +1,132 @@
+package com.ale.nicecameraexample;
+
+/**
+ * Remembers the last {@link PerceptualHash}es seen, to tell whether a frame (or a
+ * picture) is a near duplicate of a recent one: two hashes match when they differ
+ * by at most 'maxDistance' bits.<br />
+ * The hashes are kept in a small array, from the most recently used to the least
+ * recently used one: a lookup compares the hash with all of them (a XOR and a bit
+ * count each, a few nanoseconds for the whole cache), a match moves the entry to
+ * the front, and a new hash pushes the least recently used one out. So a scene
+ * that goes back and forth between a few states keeps matching.<br />
+ * It's thread-safe.
+ */
+public class HashCache {
+
+	private final long[] hashes;
+	private final int maxDistance;
+	private int size = 0;
+
+	private long lookupCount = 0;
+	private long hitCount = 0;
+
+	/**
+	 * @param capacity how many hashes are remembered
+	 * @param maxDistance how many bits two hashes can differ by, and still match
+	 */
+	public HashCache(int capacity, int maxDistance) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1, got " + capacity);
+		}
+		if (maxDistance < 0 || maxDistance > 64) {
+			throw new IllegalArgumentException("maxDistance must be between 0 and 64, got " + maxDistance);
+		}
+
+		this.hashes = new long[capacity];
+		this.maxDistance = maxDistance;
+	}
+
+	/**
+	 * Looks for a hash that matches the given one. If there's one, it becomes the most
+	 * recently used. The given hash is not added.
+	 * @return true if a matching hash is in the cache
+	 */
+	public synchronized boolean contains(long hash) {
+		return lookup(hash) >= 0;
+	}
+
+	/**
+	 * Adds a hash, unless a matching one is already there (which becomes the most recently used).
+	 * @return true if the hash has been added, false if it's a near duplicate
+	 */
+	public synchronized boolean add(long hash) {
+		if (lookup(hash) >= 0) {
+			return false;
+		}
+
+		int moved = Math.min(this.size, this.hashes.length - 1);
+		System.arraycopy(this.hashes, 0, this.hashes, 1, moved);
+		this.hashes[0] = hash;
+		this.size = moved + 1;
+		return true;
+	}
+
+	/**
+	 * Forgets all the hashes (but not the statistics).
+	 */
+	public synchronized void clear() {
+		this.size = 0;
+	}
+
+	public synchronized int size() {
+		return this.size;
+	}
+
+	public int getCapacity() {
+		return this.hashes.length;
+	}
+
+	public int getMaxDistance() {
+		return this.maxDistance;
+	}
+
+	/**
+	 * @return how many times the cache has been searched
+	 */
+	public synchronized long getLookupCount() {
+		return this.lookupCount;
+	}
+
+	/**
+	 * @return how many searches found a matching hash
+	 */
+	public synchronized long getHitCount() {
+		return this.hitCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "HashCache " + this.size + "/" + this.hashes.length + " hashes, max distance " + this.maxDistance
+			+ ": " + this.hitCount + " hits in " + this.lookupCount + " lookups";
+	}
+
+	/**
+	 * @return the distance of the closest matching hash, which is moved to the front, or -1
+	 */
+	private int lookup(long hash) {
+		this.lookupCount++;
+
+		int best = -1;
+		int bestDistance = this.maxDistance + 1;
+		for (int i = 0; i < this.size; i++) {
+			int distance = Long.bitCount(this.hashes[i] ^ hash);
+			if (distance < bestDistance) {
+				best = i;
+				bestDistance = distance;
+				if (distance == 0) {
+					break;
+				}
+			}
+		}
+
+		if (best < 0) {
+			return -1;
+		}
+
+		this.hitCount++;
+		long found = this.hashes[best];
+		System.arraycopy(this.hashes, 0, this.hashes, 1, best);
+		this.hashes[0] = found;
+		return bestDistance;
+	}
+}
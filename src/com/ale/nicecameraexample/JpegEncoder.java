@@ -0,0 +1,23 @@
+package com.ale.nicecameraexample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Something that turns a preview frame into a JPEG picture. On Android it's
+ * {@link YuvImageJpegEncoder}; on a plain JVM anything that writes some bytes can
+ * take its place, to exercise the code around it.
+ */
+public interface JpegEncoder {
+
+	/**
+	 * Encodes a frame.
+	 * @param nv21 the frame
+	 * @param width frame width
+	 * @param height frame height
+	 * @param quality JPEG quality, from 0 to 100
+	 * @param out where the picture is written
+	 * @throws IOException if the frame can't be encoded or written
+	 */
+	void encode(byte[] nv21, int width, int height, int quality, OutputStream out) throws IOException;
+}
@@ -0,0 +1,133 @@
+package com.ale.nicecameraexample;
+
+/**
+ * A fixed-size histogram of durations, used to get percentiles (p50, p95, p99...)
+ * without keeping every single sample.<br />
+ * Values are stored in microseconds in log-linear buckets: every power of two
+ * is split in 16 sub-buckets, so the reported percentiles are at most ~6% off
+ * the real ones, and the memory used is always the same (a few KB) no matter
+ * how many samples are recorded. Recording a sample never allocates.<br />
+ * All the methods are thread-safe.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Values above this (about 35 minutes, in microseconds) are stored in the last bucket.
+	 */
+	private static final long MAX_VALUE_US = (1L << 31) - 1;
+	private static final int BUCKET_COUNT = indexOf(MAX_VALUE_US) + 1;
+
+	private final long[] counts = new long[BUCKET_COUNT];
+	private long totalCount;
+	private long totalSumUs;
+	private long minUs = Long.MAX_VALUE;
+	private long maxUs = 0;
+
+	/**
+	 * Adds a duration to the histogram.
+	 * @param durationNanos the duration, in nanoseconds. Negative values are recorded as zero.
+	 */
+	public void recordNanos(long durationNanos) {
+		recordMicros(durationNanos / 1000);
+	}
+
+	/**
+	 * Adds a duration to the histogram.
+	 * @param durationUs the duration, in microseconds. Negative values are recorded as zero.
+	 */
+	public synchronized void recordMicros(long durationUs) {
+		if (durationUs < 0) durationUs = 0;
+		if (durationUs > MAX_VALUE_US) durationUs = MAX_VALUE_US;
+
+		this.counts[indexOf(durationUs)]++;
+		this.totalCount++;
+		this.totalSumUs += durationUs;
+		if (durationUs < this.minUs) this.minUs = durationUs;
+		if (durationUs > this.maxUs) this.maxUs = durationUs;
+	}
+
+	/**
+	 * @param percentile a value between 0 and 100
+	 * @return the duration (in microseconds) under which the given percentage of the
+	 * samples fall, or 0 if the histogram is empty
+	 */
+	public synchronized long getPercentileMicros(double percentile) {
+		if (this.totalCount == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(percentile / 100.0 * this.totalCount);
+		if (rank < 1) rank = 1;
+
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += this.counts[i];
+			if (seen >= rank) {
+				// the real value is somewhere in the bucket: don't report more than what we have seen
+				return Math.min(highestValueOf(i), this.maxUs);
+			}
+		}
+		return this.maxUs;
+	}
+
+	public synchronized long getCount() {
+		return this.totalCount;
+	}
+
+	/**
+	 * @return the average duration in microseconds, or 0 if the histogram is empty
+	 */
+	public synchronized long getMeanMicros() {
+		return (this.totalCount == 0) ? 0 : this.totalSumUs / this.totalCount;
+	}
+
+	/**
+	 * @return the shortest recorded duration in microseconds, or 0 if the histogram is empty
+	 */
+	public synchronized long getMinMicros() {
+		return (this.totalCount == 0) ? 0 : this.minUs;
+	}
+
+	/**
+	 * @return the longest recorded duration in microseconds
+	 */
+	public synchronized long getMaxMicros() {
+		return this.maxUs;
+	}
+
+	/**
+	 * Forgets all the recorded samples.
+	 */
+	public synchronized void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			this.counts[i] = 0;
+		}
+		this.totalCount = 0;
+		this.totalSumUs = 0;
+		this.minUs = Long.MAX_VALUE;
+		this.maxUs = 0;
+	}
+
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		int shift = msb - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >> shift) & (SUB_BUCKETS - 1));
+	}
+
+	private static long highestValueOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = index % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,182 @@
+package com.ale.nicecameraexample;
+
+/**
+ * Computes some statistics of a preview frame reading only its luma (Y) plane,
+ * that is the first width * height bytes of a NV21 buffer: there's no need to
+ * convert the frame to RGB to know how bright or how sharp it is.<br />
+ * For every frame it computes:
+ * <ul>
+ * <li>the brightness histogram (256 bins) and the mean brightness;</li>
+ * <li>the ratio of under-exposed and over-exposed (clipped) samples;</li>
+ * <li>a focus score: the variance of the Laplacian, the higher the sharper.</li>
+ * </ul>
+ * The work can be limited to a region of interest, and only one pixel every
+ * "step" (both horizontally and vertically) can be read, trading accuracy
+ * for speed. Results are written into a reusable {@link Stats} object, so
+ * analyzing a frame doesn't allocate anything.<br />
+ * An analyzer is not thread-safe: use one per thread.
+ */
+public class LumaAnalyzer {
+
+	/**
+	 * The results of {@link LumaAnalyzer#analyze(byte[], Stats)}.
+	 */
+	public static class Stats {
+		/** how many samples fall in every brightness value, from 0 to 255 */
+		public final int[] histogram = new int[256];
+		/** how many samples have been read */
+		public int sampleCount;
+		/** average brightness, from 0 to 255 */
+		public double mean;
+		/** ratio (0 to 1) of the samples that are too dark */
+		public double clippedLowRatio;
+		/** ratio (0 to 1) of the samples that are too bright */
+		public double clippedHighRatio;
+		/** variance of the Laplacian: the more details in focus, the higher */
+		public double focusScore;
+
+		/**
+		 * @param percentile a value between 0 and 100
+		 * @return the brightness under which the given percentage of the samples fall
+		 */
+		public int getBrightnessPercentile(double percentile) {
+			long rank = (long) Math.ceil(percentile / 100.0 * this.sampleCount);
+			long seen = 0;
+			for (int i = 0; i < 256; i++) {
+				seen += this.histogram[i];
+				if (seen >= rank && seen > 0) {
+					return i;
+				}
+			}
+			return 255;
+		}
+	}
+
+	private final int width;
+	private final int height;
+
+	private int left, top, right, bottom;
+	private int step = 1;
+	private int clipLow = 5;
+	private int clipHigh = 250;
+
+	/**
+	 * @param width frame width
+	 * @param height frame height
+	 */
+	public LumaAnalyzer(int width, int height) {
+		this.width = width;
+		this.height = height;
+		setRegion(0, 0, width, height);
+	}
+
+	/**
+	 * Limits the analysis to a rectangle of the frame. By default the whole frame is analyzed.
+	 * @param left first column
+	 * @param top first row
+	 * @param right the column after the last one
+	 * @param bottom the row after the last one
+	 */
+	public void setRegion(int left, int top, int right, int bottom) {
+		if (left < 0 || top < 0 || right > this.width || bottom > this.height || left >= right || top >= bottom) {
+			throw new IllegalArgumentException("invalid region " + left + "," + top + "," + right + "," + bottom);
+		}
+		this.left = left;
+		this.top = top;
+		this.right = right;
+		this.bottom = bottom;
+	}
+
+	/**
+	 * @param step only one pixel every "step" is read, both horizontally and vertically.
+	 * 1 (the default) reads every pixel.
+	 */
+	public void setStep(int step) {
+		if (step < 1) {
+			throw new IllegalArgumentException("step must be at least 1, got " + step);
+		}
+		this.step = step;
+	}
+
+	/**
+	 * @param low samples up to this value are counted as under-exposed (default 5)
+	 * @param high samples from this value are counted as over-exposed (default 250)
+	 */
+	public void setClipThresholds(int low, int high) {
+		this.clipLow = low;
+		this.clipHigh = high;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Analyzes a frame.
+	 * @param nv21 the frame (only the luma plane is read)
+	 * @param out where the results are written
+	 * @return the same Stats object
+	 */
+	public Stats analyze(byte[] nv21, Stats out) {
+		int[] histogram = out.histogram;
+		for (int i = 0; i < 256; i++) {
+			histogram[i] = 0;
+		}
+
+		int w = this.width;
+		int s = this.step;
+		int count = 0;
+		long sum = 0;
+		int low = 0;
+		int high = 0;
+
+		// the Laplacian needs the 4 neighbours, so it's computed only for samples
+		// that are not on the border of the frame
+		int lapCount = 0;
+		long lapSum = 0;
+		long lapSquares = 0;
+
+		for (int y = this.top; y < this.bottom; y += s) {
+			int row = y * w;
+			boolean innerRow = (y > 0 && y < this.height - 1);
+
+			for (int x = this.left; x < this.right; x += s) {
+				int p = nv21[row + x] & 0xff;
+				histogram[p]++;
+				sum += p;
+				count++;
+				if (p <= this.clipLow) low++;
+				else if (p >= this.clipHigh) high++;
+
+				if (innerRow && x > 0 && x < w - 1) {
+					int lap = 4 * p
+						- (nv21[row + x - 1] & 0xff)
+						- (nv21[row + x + 1] & 0xff)
+						- (nv21[row - w + x] & 0xff)
+						- (nv21[row + w + x] & 0xff);
+					lapSum += lap;
+					lapSquares += lap * lap;
+					lapCount++;
+				}
+			}
+		}
+
+		out.sampleCount = count;
+		out.mean = (count == 0) ? 0 : (double) sum / count;
+		out.clippedLowRatio = (count == 0) ? 0 : (double) low / count;
+		out.clippedHighRatio = (count == 0) ? 0 : (double) high / count;
+
+		if (lapCount == 0) {
+			out.focusScore = 0;
+		}
+		else {
+			double lapMean = (double) lapSum / lapCount;
+			out.focusScore = (double) lapSquares / lapCount - lapMean * lapMean;
+		}
+		return out;
+	}
+}
@@ -0,0 +1,387 @@
+package com.ale.nicecameraexample;
+
+/**
+ * The structures most detectors (faces, boxes, templates, adaptive thresholds...)
+ * need on a frame, built once and shared by all of them:
+ * <ul>
+ * <li>the integral image of the luma (Y plane): the sum of any rectangle of pixels
+ * costs four lookups, see {@link #sum(int, int, int, int)}</li>
+ * <li>optionally, the integral image of the squared luma, for the variance of any
+ * rectangle, see {@link #variance(int, int, int, int)}</li>
+ * <li>a pyramid of luma images, each one half the size of the previous one</li>
+ * </ul>
+ * Everything is built into arrays allocated once, by {@link #build(byte[])}.
+ * The work is split in stripes on several threads (see {@link ParallelStripes}):
+ * the integral image takes two passes (sums along the rows, then along the columns),
+ * and every level of the pyramid is computed straight from the integral image (a
+ * pixel of level k is the mean of a 2^k x 2^k block), so the levels don't depend on
+ * each other.<br />
+ * The time spent on the integral image and on every level is recorded in a
+ * {@link LatencyHistogram}.<br />
+ * It's not thread-safe: the structures must be read by the thread that built them,
+ * or after it.
+ */
+public class LumaPyramid {
+
+	/**
+	 * Something that uses the structures of a frame (a detector, for example).
+	 */
+	public interface Consumer {
+		/**
+		 * @param pyramid the structures of the frame: they're valid only during the call
+		 * @param timestampNanos when the frame has been delivered
+		 */
+		void onPyramid(LumaPyramid pyramid, long timestampNanos);
+	}
+
+	/**
+	 * Levels smaller than this are built by the calling thread alone.
+	 */
+	private static final int PARALLEL_MIN_PIXELS = 16 * 1024;
+
+	private final int width;
+	private final int height;
+	private final int stride;
+	private final int[] integral;
+	private final long[] squaredIntegral;
+
+	/**
+	 * Level 0 is the luma given to {@link #build(byte[])}, the others are allocated here.
+	 */
+	private final byte[][] levels;
+	private final int[] levelWidths;
+	private final int[] levelHeights;
+
+	private final ParallelStripes stripes;
+	private final boolean ownsStripes;
+	private final LatencyHistogram integralHistogram = new LatencyHistogram();
+	private final LatencyHistogram[] levelHistograms;
+
+	// what the tasks are working on
+	private byte[] luma;
+	private int buildingLevel;
+
+	private final ParallelStripes.Task rowSumsTask = new ParallelStripes.Task() {
+		@Override
+		public void runStripe(int stripe, int stripeCount) {
+			rowSums(height * stripe / stripeCount, height * (stripe + 1) / stripeCount);
+		}
+	};
+
+	private final ParallelStripes.Task columnSumsTask = new ParallelStripes.Task() {
+		@Override
+		public void runStripe(int stripe, int stripeCount) {
+			columnSums(1 + width * stripe / stripeCount, 1 + width * (stripe + 1) / stripeCount);
+		}
+	};
+
+	private final ParallelStripes.Task levelTask = new ParallelStripes.Task() {
+		@Override
+		public void runStripe(int stripe, int stripeCount) {
+			int rows = levelHeights[buildingLevel];
+			downsample(buildingLevel, rows * stripe / stripeCount, rows * (stripe + 1) / stripeCount);
+		}
+	};
+
+	/**
+	 * @param width luma width
+	 * @param height luma height
+	 * @param levelCount how many levels the pyramid has, the full-size one included. There
+	 * are less if the smallest ones would be smaller than 1 pixel.
+	 * @param squaredSums true to build the integral image of the squared luma too
+	 * @param threads how many threads build the structures, the calling one included
+	 */
+	public LumaPyramid(int width, int height, int levelCount, boolean squaredSums, int threads) {
+		this(width, height, levelCount, squaredSums, null, threads);
+	}
+
+	/**
+	 * Builds a pyramid that uses threads shared with other work (for example with other
+	 * pyramids, of other sizes): they're not stopped by {@link #release()}.
+	 * @param stripes the threads that build the structures, the calling one included
+	 */
+	public LumaPyramid(int width, int height, int levelCount, boolean squaredSums, ParallelStripes stripes) {
+		this(width, height, levelCount, squaredSums, stripes, 0);
+	}
+
+	/**
+	 * @param stripes the shared threads, or null to start 'threads' threads of its own
+	 */
+	private LumaPyramid(int width, int height, int levelCount, boolean squaredSums, ParallelStripes stripes, int threads) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("size must be positive, got " + width + "x" + height);
+		}
+		if ((long) width * height * 255 > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(width + "x" + height + " is too big for an integral image of ints");
+		}
+
+		this.width = width;
+		this.height = height;
+		this.stride = width + 1;
+		this.integral = new int[this.stride * (height + 1)];
+		this.squaredIntegral = squaredSums ? new long[this.stride * (height + 1)] : null;
+
+		int count = 1;
+		while (count < levelCount && (width >> count) > 0 && (height >> count) > 0) {
+			count++;
+		}
+
+		this.levels = new byte[count][];
+		this.levelWidths = new int[count];
+		this.levelHeights = new int[count];
+		this.levelHistograms = new LatencyHistogram[count];
+		for (int i = 0; i < count; i++) {
+			this.levelWidths[i] = width >> i;
+			this.levelHeights[i] = height >> i;
+			this.levelHistograms[i] = new LatencyHistogram();
+			if (i > 0) {
+				this.levels[i] = new byte[this.levelWidths[i] * this.levelHeights[i]];
+			}
+		}
+
+		// the threads are started last, when nothing can go wrong anymore
+		this.ownsStripes = (stripes == null);
+		this.stripes = this.ownsStripes ? new ParallelStripes(threads, "LumaPyramid") : stripes;
+	}
+
+	/**
+	 * Builds everything for a new frame.<br />
+	 * [IMPORTANT!] level 0 of the pyramid is the given array itself: it must not change
+	 * while the pyramid is used.
+	 * @param luma the Y plane, at least width * height bytes (a NV21 frame is fine)
+	 */
+	public void build(byte[] luma) {
+		if (luma.length < this.width * this.height) {
+			throw new IllegalArgumentException("luma buffer is too small for a " + this.width + "x" + this.height + " frame");
+		}
+
+		this.luma = luma;
+		this.levels[0] = luma;
+
+		long start = System.nanoTime();
+		this.stripes.run(this.rowSumsTask);
+		this.stripes.run(this.columnSumsTask);
+		long end = System.nanoTime();
+		this.integralHistogram.recordNanos(end - start);
+
+		for (int level = 1; level < this.levels.length; level++) {
+			start = end;
+			this.buildingLevel = level;
+			if (this.levelWidths[level] * this.levelHeights[level] < PARALLEL_MIN_PIXELS) {
+				// waking up the workers would take longer
+				this.levelTask.runStripe(0, 1);
+			}
+			else {
+				this.stripes.run(this.levelTask);
+			}
+			end = System.nanoTime();
+			this.levelHistograms[level].recordNanos(end - start);
+		}
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * @return the sum of the luma in the rectangle [left, right) x [top, bottom)
+	 */
+	public int sum(int left, int top, int right, int bottom) {
+		int[] ii = this.integral;
+		int s = this.stride;
+		return ii[bottom * s + right] - ii[top * s + right] - ii[bottom * s + left] + ii[top * s + left];
+	}
+
+	/**
+	 * @return the sum of the squared luma in the rectangle [left, right) x [top, bottom)
+	 * @throws IllegalStateException if the squared sums are not built
+	 */
+	public long squaredSum(int left, int top, int right, int bottom) {
+		long[] ii = this.squaredIntegral;
+		if (ii == null) {
+			throw new IllegalStateException("squared sums are not built");
+		}
+		int s = this.stride;
+		return ii[bottom * s + right] - ii[top * s + right] - ii[bottom * s + left] + ii[top * s + left];
+	}
+
+	/**
+	 * @return the mean luma in the rectangle [left, right) x [top, bottom), which must not be empty
+	 */
+	public int mean(int left, int top, int right, int bottom) {
+		int area = (right - left) * (bottom - top);
+		return (sum(left, top, right, bottom) + area / 2) / area;
+	}
+
+	/**
+	 * @return the variance of the luma in the rectangle [left, right) x [top, bottom),
+	 * which must not be empty
+	 * @throws IllegalStateException if the squared sums are not built
+	 */
+	public double variance(int left, int top, int right, int bottom) {
+		double area = (right - left) * (bottom - top);
+		double mean = sum(left, top, right, bottom) / area;
+		return squaredSum(left, top, right, bottom) / area - mean * mean;
+	}
+
+	/**
+	 * @return how many levels the pyramid has, the full-size one included
+	 */
+	public int getLevelCount() {
+		return this.levels.length;
+	}
+
+	/**
+	 * @param level 0 for the full-size luma, 1 for the half-size one and so on
+	 * @return the luma of the level, {@link #getLevelWidth(int)} pixels per row
+	 */
+	public byte[] getLevel(int level) {
+		return this.levels[level];
+	}
+
+	public int getLevelWidth(int level) {
+		return this.levelWidths[level];
+	}
+
+	public int getLevelHeight(int level) {
+		return this.levelHeights[level];
+	}
+
+	/**
+	 * @return the integral image: (width + 1) x (height + 1) values, the first row and
+	 * column are 0. The value at (x, y) is the sum of the luma in [0, x) x [0, y).
+	 */
+	public int[] getIntegral() {
+		return this.integral;
+	}
+
+	/**
+	 * @return the integral image of the squared luma (same layout as {@link #getIntegral()}), or null
+	 */
+	public long[] getSquaredIntegral() {
+		return this.squaredIntegral;
+	}
+
+	/**
+	 * @return the time spent building the integral images
+	 */
+	public LatencyHistogram getIntegralHistogram() {
+		return this.integralHistogram;
+	}
+
+	/**
+	 * @return the time spent building a level (always empty for level 0, which is not built)
+	 */
+	public LatencyHistogram getLevelHistogram(int level) {
+		return this.levelHistograms[level];
+	}
+
+	/**
+	 * Stops the worker threads, unless they're shared. The pyramid can't be built
+	 * anymore after this call.
+	 */
+	public void release() {
+		if (this.ownsStripes) {
+			this.stripes.release();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("LumaPyramid ").append(this.width).append('x').append(this.height)
+			.append(" on ").append(this.stripes.getStripeCount()).append(" threads, p50 build times: integral ")
+			.append(this.integralHistogram.getPercentileMicros(50)).append(" us");
+		for (int level = 1; level < this.levels.length; level++) {
+			sb.append(", ").append(this.levelWidths[level]).append('x').append(this.levelHeights[level]).append(' ')
+				.append(this.levelHistograms[level].getPercentileMicros(50)).append(" us");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * First pass: every row of the integral images gets the running sums of its own row of pixels.
+	 */
+	private void rowSums(int firstRow, int lastRow) {
+		byte[] luma = this.luma;
+		int[] ii = this.integral;
+		long[] sq = this.squaredIntegral;
+		int s = this.stride;
+
+		for (int y = firstRow; y < lastRow; y++) {
+			int src = y * this.width;
+			int dst = (y + 1) * s + 1;
+			int rowSum = 0;
+
+			if (sq == null) {
+				for (int x = 0; x < this.width; x++) {
+					rowSum += luma[src + x] & 0xff;
+					ii[dst + x] = rowSum;
+				}
+			}
+			else {
+				long rowSquaredSum = 0;
+				for (int x = 0; x < this.width; x++) {
+					int v = luma[src + x] & 0xff;
+					rowSum += v;
+					rowSquaredSum += v * v;
+					ii[dst + x] = rowSum;
+					sq[dst + x] = rowSquaredSum;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Second pass: the rows are added to each other, top to bottom, on the columns
+	 * in [firstColumn, lastColumn). Every thread walks its columns row by row, to
+	 * read the memory in order.
+	 */
+	private void columnSums(int firstColumn, int lastColumn) {
+		int[] ii = this.integral;
+		long[] sq = this.squaredIntegral;
+		int s = this.stride;
+
+		for (int y = 2; y <= this.height; y++) {
+			int row = y * s;
+			int above = row - s;
+			for (int x = firstColumn; x < lastColumn; x++) {
+				ii[row + x] += ii[above + x];
+			}
+			if (sq != null) {
+				for (int x = firstColumn; x < lastColumn; x++) {
+					sq[row + x] += sq[above + x];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the rows in [firstRow, lastRow) of a level, as the means of the blocks of the full-size luma.
+	 */
+	private void downsample(int level, int firstRow, int lastRow) {
+		byte[] out = this.levels[level];
+		int outWidth = this.levelWidths[level];
+		int[] ii = this.integral;
+		int s = this.stride;
+		int shift = 2 * level;
+		int round = 1 << (shift - 1);
+
+		for (int y = firstRow; y < lastRow; y++) {
+			int top = (y << level) * s;
+			int bottom = ((y + 1) << level) * s;
+			int o = y * outWidth;
+
+			for (int x = 0; x < outWidth; x++) {
+				int left = x << level;
+				int right = (x + 1) << level;
+				int sum = ii[bottom + right] - ii[top + right] - ii[bottom + left] + ii[top + left];
+				out[o + x] = (byte) ((sum + round) >> shift);
+			}
+		}
+	}
+}
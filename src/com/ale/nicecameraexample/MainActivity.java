@@ -1,5 +1,14 @@
 package com.ale.nicecameraexample;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
 import android.hardware.Camera;
 import android.os.Build;
 import android.os.Bundle;
@@ -26,17 +35,70 @@ public class MainActivity extends Activity {
 	public static final String LOG_TAG = "NiceCameraExample";
 	
 	/**
-	 * 'camera' is the object that references the hardware device 
-	 * installed on your Android phone.
+	 * If true, the capture button saves one of the last preview frames instead of 
+	 * asking the camera for a full-size picture: there's no delay between the tap and 
+	 * the picture, but its resolution is the preview one. 
+	 * See {@link CameraPreview#takeZeroShutterLagPicture(long, boolean)}.
+	 */
+	private static final boolean ZERO_SHUTTER_LAG = false;
+	
+	/**
+	 * If true, the preview size and frame rate follow how fast the frames are processed, 
+	 * see {@link CameraPreview#setAdaptivePreview(boolean)}.
 	 */
-	private Camera camera;
+	private static final boolean ADAPTIVE_PREVIEW = false;
+	
+	/**
+	 * How many pictures a long press on the capture button takes, 
+	 * see {@link CameraPreview#takeBurst(int)}.
+	 */
+	private static final int BURST_FRAME_COUNT = 10;
+	
+	/**
+	 * If true, a tap on the capture button doesn't save the same scene twice, 
+	 * see {@link CameraPreview#setSkipDuplicateCaptures(boolean)}.
+	 */
+	private static final boolean SKIP_DUPLICATE_CAPTURES = false;
+	
+	/**
+	 * If greater than 0, a snapshot of the preview is saved every TIME_LAPSE_INTERVAL_MS 
+	 * milliseconds, see {@link CameraPreview#setSnapshotInterval(long)}.
+	 */
+	private static final long TIME_LAPSE_INTERVAL_MS = 0;
+	
+	/**
+	 * If true, what the app does (opening the camera, starting the preview, every frame, 
+	 * every capture stage...) is recorded by {@link Tracer}, and written to TRACE_FILE_NAME 
+	 * in the app's external files directory every time the app is paused. Pull it with 
+	 * adb and open it in chrome://tracing. TRACE_EVENT_COUNT is how many events are kept.
+	 */
+	private static final boolean TRACING = false;
+	private static final int TRACE_EVENT_COUNT = 16384;
+	private static final String TRACE_FILE_NAME = "trace.json";
+	
+	/**
+	 * 'cameraLifecycle' holds the object that references the hardware device 
+	 * installed on your Android phone, and knows what it's doing 
+	 * (opening, previewing, taking a picture...). See {@link CameraLifecycle}.
+	 */
+	private final CameraLifecycle<AndroidCameraDevice> cameraLifecycle = new CameraLifecycle<AndroidCameraDevice>();
 	
 	/**
 	 * Phone can have multiple cameras, so 'cameraID' is a 
 	 * useful variable to store which one of the camera is active.
 	 * It starts with value -1 
 	 */
-	private int cameraID;
+	private int cameraID = -1;
+	
+	/**
+	 * The camera is opened in background by this object, see {@link #setCameraInstance()}.
+	 * 'cameraRequestNanos' is the moment it has been requested.
+	 * The opener reads and writes the cache of the camera capabilities too, 
+	 * so the UI thread never touches its file.
+	 */
+	private CameraOpener cameraOpener;
+	private long cameraRequestNanos;
+	private boolean paused = false;
 	
 	/**
 	 * 'camPreview' is the object that prints the data
@@ -55,16 +117,23 @@ public class MainActivity extends Activity {
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		if (TRACING) {
+			Tracer.enable(TRACE_EVENT_COUNT);
+		}
+		
+		// first, we ask for an "instance" of the hardware camera: it's opened in background, 
+		// while the layout is inflated and the preview object is created
+		this.cameraOpener = new CameraOpener(new CameraCapabilityCache(new File(getCacheDir(), "camera_capabilities"), Build.FINGERPRINT));
+		setCameraInstance();
 		setContentView(R.layout.activity_main);
 		
-		// first, we check is it's possible to get an "instance" of the hardware camera
-		if (setCameraInstance() == true) {
-			// everything's OK, we can go further and create the preview object
-			this.camPreview = new CameraPreview(this, this.camera, this.cameraID);
-		}
-		else {
-			// error here! we can print something or just cry.
-			this.finish();
+		// the preview object starts working as soon as the camera is available
+		this.camPreview = new CameraPreview(this, this.cameraLifecycle, this.cameraOpener);
+		this.camPreview.setZeroShutterLag(ZERO_SHUTTER_LAG);
+		this.camPreview.setAdaptivePreview(ADAPTIVE_PREVIEW);
+		this.camPreview.setSkipDuplicateCaptures(SKIP_DUPLICATE_CAPTURES);
+		if (TIME_LAPSE_INTERVAL_MS > 0) {
+			this.camPreview.setSnapshotInterval(TIME_LAPSE_INTERVAL_MS);
 		}
 		
 		// if the preview is set, we add it to the contents of our activity.
@@ -84,7 +153,29 @@ public class MainActivity extends Activity {
 			new View.OnClickListener() {
 				@Override
 				public void onClick(View v) {
-					camera.takePicture(null, null, camPreview); // request a picture
+					if (camPreview.isZeroShutterLag()) {
+						// the moment is already in memory, no need to wait for the camera
+						camPreview.takeZeroShutterLagPicture(System.nanoTime(), false);
+					}
+					else {
+						// the preview frame of this moment tells if it's the same picture as before
+						camPreview.onPictureRequested();
+						if (!cameraLifecycle.takePicture()) { // request a picture
+							// the camera is still opening, or already taking a picture
+							Log.i(MainActivity.LOG_TAG, "onClick(): the camera is " + cameraLifecycle.getState() + ", can't take a picture now");
+						}
+					}
+				}
+			}
+		);
+		
+		// a long press takes a burst of preview frames
+		captureButton.setOnLongClickListener(
+			new View.OnLongClickListener() {
+				@Override
+				public boolean onLongClick(View v) {
+					camPreview.takeBurst(BURST_FRAME_COUNT);
+					return true;
 				}
 			}
 		);
@@ -100,25 +191,30 @@ public class MainActivity extends Activity {
 	@Override
 	protected void onResume() {
 		super.onResume();
-		if (setCameraInstance() == true) {
-			// TODO: camPreview.refresh...
-		}
-		else {
-			Log.e(MainActivity.LOG_TAG, "onResume(): can't reconnect the camera");
-			this.finish();
-		}
+		this.paused = false;
+		
+		// the same camPreview is used again: it's bound to the new camera 
+		// as soon as it's open, see onCameraOpened()
+		setCameraInstance();
 	}
 	
 	@Override
 	protected void onPause() {
 		super.onPause();
+		this.paused = true;
 		releaseCameraInstance();
+		exportTrace();
 	}
 	
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
 		releaseCameraInstance();
+		this.cameraOpener.shutdown();
+		
+		if (this.camPreview != null) {
+			this.camPreview.release();
+		}
 	}
 	
 	/**
@@ -134,101 +230,130 @@ public class MainActivity extends Activity {
 	
 	/**
 	 * [IMPORTANT!] The most important method of this Activity: it asks for an instance 
-	 * of the hardware camera(s) and save it to the private field {@link #camera}.
-	 * @return TRUE if camera is set, FALSE if something bad happens
+	 * of the hardware camera(s), that is then handed to {@link #cameraLifecycle}.
+	 * The camera is opened in background by {@link #cameraOpener}, so this method
+	 * returns immediately: the result comes later, on the UI thread.
 	 */
-	private boolean setCameraInstance() {
-		if (this.camera != null) {
-			// do the job only if the camera is not already set
-			Log.i(MainActivity.LOG_TAG, "setCameraInstance(): camera is already set, nothing to do");
-			return true;
+	private void setCameraInstance() {
+		if (!this.cameraLifecycle.beginOpening()) {
+			// do the job only if the camera is not already set (or coming)
+			Log.i(MainActivity.LOG_TAG, "setCameraInstance(): camera is " + this.cameraLifecycle.getState() + ", nothing to do");
+			return;
 		}
 		
-		// warning here! starting from API 9, we can retrieve one from the multiple 
-		// hardware cameras (ex. front/back)
-		if (Build.VERSION.SDK_INT >= 9) {
-			
-			if (this.cameraID < 0) {
-				// at this point, it's the first time we request for a camera
-				Camera.CameraInfo camInfo = new Camera.CameraInfo();
-				for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
-					Camera.getCameraInfo(i, camInfo);
+		this.cameraRequestNanos = System.nanoTime();
+		this.cameraOpener.open(this.cameraID, new CameraOpener.Callback() {
+			@Override
+			public void onCameraOpened(CameraOpener.OpenedCamera opened) {
+				cameraID = opened.cameraID;
+				Tracer.complete("setCameraInstance", cameraRequestNanos, System.nanoTime());
 				
-					if (camInfo.facing == Camera.CameraInfo.CAMERA_FACING_BACK) {
-						// in this example we'll request specifically the back camera 
-						try {
-							this.camera = Camera.open(i);
-							this.cameraID = i; // assign to cameraID this camera's ID (O RLY?)
-							return true;
-						}
-						catch (RuntimeException e){
-							// something bad happened! this camera could be locked by other apps 
-							Log.e(MainActivity.LOG_TAG, "setCameraInstance(): trying to open camera #" + i + " but it's locked", e);
-						}
+				// the frames must stop flowing before the camera goes away
+				AndroidCameraDevice device = new AndroidCameraDevice(opened.camera, opened.cameraID, camPreview, new Runnable() {
+					@Override
+					public void run() {
+						camPreview.stopFrameProcessing();
 					}
+				});
+				
+				if (!cameraLifecycle.onOpened(device)) {
+					// too late, the app has been paused in the meantime and the camera 
+					// has already been released. Maybe it's back now?
+					Log.i(MainActivity.LOG_TAG, "setCameraInstance(): camera #" + cameraID + " released while opening");
+					if (!paused && !isFinishing()) {
+						setCameraInstance();
+					}
+					return;
 				}
+				
+				// here, the open() went good and the camera is available
+				Log.i(MainActivity.LOG_TAG, "setCameraInstance(): successfully set camera #" + cameraID 
+					+ " (" + (System.nanoTime() - cameraRequestNanos) / 1000000 + " ms after the request)");
+				camPreview.rebindCamera(cameraRequestNanos);
 			}
-			else {
-				// at this point, a previous camera was set, we try to re-instantiate it
-				try {
-					this.camera = Camera.open(this.cameraID);
-				}
-				catch (RuntimeException e){
-					Log.e(MainActivity.LOG_TAG, "setCameraInstance(): trying to re-open camera #" + this.cameraID + " but it's locked", e);
-				}
-			}
-		}
-		
-		// we could reach this point in two cases:
-		// - the API is lower than 9
-		// - previous code block failed
-		// hence, we try the classic method, that doesn't ask for a particular camera
-		if (this.camera == null) {
-			try {
-				this.camera = Camera.open();
-				this.cameraID = 0;
-			}
-			catch (RuntimeException e) {
+			
+			@Override
+			public void onCameraOpenFailed(RuntimeException e) {
+				cameraLifecycle.onOpenFailed();
+				
 				// this is REALLY bad, the camera is definitely locked by the system.
+				// We can print something or just cry.
 				Log.e(MainActivity.LOG_TAG, 
-					"setCameraInstance(): trying to open default camera but it's locked. "
-					+ "The camera is not available for this app at the moment.", e
+					"setCameraInstance(): the camera is not available for this app at the moment.", e
 				);
-				return false;
+				finish();
 			}
-		}
-
-		// here, the open() went good and the camera is available
-		Log.i(MainActivity.LOG_TAG, "setCameraInstance(): successfully set camera #" + this.cameraID);
-		return true;
+		});
 	}
 
 	/**
 	 * [IMPORTANT!] Another very important method: it releases all the resources and the locks
 	 * we created while using the camera. It MUST be called everytime the app exits, crashes, 
-	 * is paused or whatever. The order of the called methods are the following: <br />
+	 * is paused or whatever. The job is done by the {@link #cameraLifecycle}, 
+	 * that calls the following methods in this order: <br />
 	 * 
 	 * 1) stop any preview coming to the GUI, if running <br />
-	 * 2) call {@link Camera#release()} <br />
-	 * 3) set our camera object to null and invalidate its ID
+	 * 2) stop processing the preview frames, so nobody gives buffers to the camera anymore <br />
+	 * 3) call {@link Camera#release()} <br />
+	 * 4) forget the camera object. Its ID is kept, so that the same camera 
+	 * is opened again when the app is resumed <br />
+	 * 
+	 * If the camera is still being opened, this happens as soon as it's open.
 	 */
 	private void releaseCameraInstance() {
-		if (this.camera != null) {
-			try {
-				this.camera.stopPreview();
-			}
-			catch (Exception e) {
-				Log.i(MainActivity.LOG_TAG, "releaseCameraInstance(): tried to stop a non-existent preview, this is not an error");
-			}
-			
-			this.camera.setPreviewCallback(null);
-			this.camera.release();
-			this.camera = null;
-			this.cameraID = -1;
+		if (this.cameraLifecycle.release()) {
 			Log.i(MainActivity.LOG_TAG, "releaseCameraInstance(): camera has been released.");
 		}
 	}
 	
+	/**
+	 * Writes the events traced so far (see {@link #TRACING}) on a background thread. 
+	 * The file is overwritten every time.
+	 */
+	private void exportTrace() {
+		final TraceRecorder recorder = Tracer.getRecorder();
+		if (recorder == null) {
+			return;
+		}
+		
+		File dir = getExternalFilesDir(null);
+		if (dir == null) {
+			// the external storage is not available
+			dir = getFilesDir();
+		}
+		final File file = new File(dir, TRACE_FILE_NAME);
+		
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				// every thread gets its own line in the trace, with its name
+				Map<Long, String> threadNames = new HashMap<Long, String>();
+				for (Thread thread : Thread.getAllStackTraces().keySet()) {
+					threadNames.put(thread.getId(), thread.getName());
+				}
+				
+				Writer out = null;
+				try {
+					out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+					int count = recorder.writeJson(out, threadNames);
+					Log.i(MainActivity.LOG_TAG, "exportTrace(): " + count + " events written to " + file);
+				}
+				catch (IOException e) {
+					Log.e(MainActivity.LOG_TAG, "exportTrace(): can't write " + file, e);
+				}
+				finally {
+					if (out != null) {
+						try {
+							out.close();
+						} catch (IOException e) {
+							// nothing to do
+						}
+					}
+				}
+			}
+		}, "TraceExport").start();
+	}
+	
 	/**
 	 * Everytime the screen changes its orientation, the layout of the 
 	 * snap button changes to a more convenient position.
@@ -245,12 +370,4 @@ public class MainActivity extends Activity {
 				layout.gravity = (Gravity.BOTTOM | Gravity.CENTER); break;
 		}
 	}
-
-	public Camera getCamera() {
-		return this.camera;
-	}
-	
-	public int getCameraID() {
-		return this.cameraID;
-	}
 }
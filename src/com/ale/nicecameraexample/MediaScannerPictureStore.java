@@ -0,0 +1,45 @@
+package com.ale.nicecameraexample;
+
+import java.io.IOException;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+
+/**
+ * Saves the pictures with a {@link FilePictureStore} and then tells the media
+ * scanner about them, so they appear in the gallery as if they were saved with
+ * {@link android.provider.MediaStore.Images.Media#insertImage(android.content.ContentResolver, android.graphics.Bitmap, String, String)}.
+ * The scanner reads the rotation from the EXIF block of the file.
+ */
+public class MediaScannerPictureStore implements PictureStore {
+
+	private static final String[] JPEG_MIME_TYPE = { "image/jpeg" };
+
+	private final Context context;
+	private final FilePictureStore fileStore;
+
+	/**
+	 * @param context any context, only the application one is kept
+	 * @param fileStore the store that actually writes the files
+	 */
+	public MediaScannerPictureStore(Context context, FilePictureStore fileStore) {
+		this.context = context.getApplicationContext();
+		this.fileStore = fileStore;
+	}
+
+	@Override
+	public String save(byte[] jpeg, int offset, int length, int orientation) throws IOException {
+		String path = this.fileStore.save(jpeg, offset, length, orientation);
+		MediaScannerConnection.scanFile(this.context, new String[] { path }, JPEG_MIME_TYPE, null);
+		return path;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		this.fileStore.flush();
+	}
+
+	public FilePictureStore getFileStore() {
+		return this.fileStore;
+	}
+}
@@ -0,0 +1,222 @@
+package com.ale.nicecameraexample;
+
+/**
+ * Tells whether the scene has changed, by comparing a small luma thumbnail of every
+ * frame (for example the one produced by {@link Nv21Scaler}) with a running background.<br />
+ * The background is an exponential moving average of the past frames, so slow
+ * changes (like the light of the day) are absorbed, while a moving object is not.
+ * A pixel that differs from the background more than a threshold is "changed";
+ * the thumbnail is divided in square blocks, and a block is "dirty" when enough of
+ * its pixels have changed. The ratio of dirty blocks is the change score of the frame.<br />
+ * It's meant to be cheap enough to run on every frame, so that the expensive
+ * processing runs only when something happens: see {@link #update(byte[])}.
+ * All the memory is allocated in the constructor. A detector is not thread-safe.
+ */
+public class MotionDetector {
+
+	/**
+	 * Bits of fraction of the background values.
+	 */
+	private static final int BACKGROUND_FRACTION_BITS = 8;
+
+	private final int width;
+	private final int height;
+	private final int blockSize;
+	private final int blockColumns;
+	private final int blockRows;
+
+	private final int[] background;
+	private final int[] changedPixels;
+	private final boolean[] dirtyMap;
+
+	private int backgroundShift = 4;
+	private int pixelThreshold = 20;
+	private double blockThreshold = 0.1;
+	private double minChangeScore = 0.01;
+
+	private boolean initialized = false;
+	private int dirtyBlockCount = 0;
+	private double changeScore = 0;
+	private boolean changed = true;
+
+	/**
+	 * @param width thumbnail width
+	 * @param height thumbnail height
+	 * @param blockSize side of the blocks of the dirty map, in pixels
+	 */
+	public MotionDetector(int width, int height, int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("block size must be at least 1, got " + blockSize);
+		}
+
+		this.width = width;
+		this.height = height;
+		this.blockSize = blockSize;
+		this.blockColumns = (width + blockSize - 1) / blockSize;
+		this.blockRows = (height + blockSize - 1) / blockSize;
+
+		this.background = new int[width * height];
+		this.changedPixels = new int[this.blockColumns * this.blockRows];
+		this.dirtyMap = new boolean[this.blockColumns * this.blockRows];
+	}
+
+	/**
+	 * @param shift how fast the background follows the scene: every frame it moves
+	 * by 1 / 2^shift towards the current one. Default 4 (1/16).
+	 */
+	public void setBackgroundShift(int shift) {
+		if (shift < 0 || shift > BACKGROUND_FRACTION_BITS) {
+			throw new IllegalArgumentException("shift must be between 0 and " + BACKGROUND_FRACTION_BITS + ", got " + shift);
+		}
+		this.backgroundShift = shift;
+	}
+
+	/**
+	 * @param threshold a pixel is changed if it differs from the background more than this (default 20)
+	 */
+	public void setPixelThreshold(int threshold) {
+		this.pixelThreshold = threshold;
+	}
+
+	/**
+	 * @param ratio a block is dirty if at least this ratio (0 to 1) of its pixels has changed (default 0.1)
+	 */
+	public void setBlockThreshold(double ratio) {
+		this.blockThreshold = ratio;
+	}
+
+	/**
+	 * @param score the frame is considered changed if its change score is at least this (default 0.01)
+	 */
+	public void setMinChangeScore(double score) {
+		this.minChangeScore = score;
+	}
+
+	/**
+	 * Forgets the background: the next frame is considered changed.
+	 */
+	public void reset() {
+		this.initialized = false;
+		this.changed = true;
+	}
+
+	/**
+	 * Compares a frame with the background, and updates the background with it.
+	 * @param luma the thumbnail: its first width * height bytes are read
+	 * (so a NV21 buffer can be given as it is)
+	 * @return true if the scene has changed, that is if the frame should be processed.
+	 * The first frame is always changed.
+	 */
+	public boolean update(byte[] luma) {
+		int w = this.width;
+		int h = this.height;
+		int[] background = this.background;
+
+		if (!this.initialized) {
+			for (int i = 0; i < w * h; i++) {
+				background[i] = (luma[i] & 0xff) << BACKGROUND_FRACTION_BITS;
+			}
+			for (int i = 0; i < this.dirtyMap.length; i++) {
+				this.dirtyMap[i] = true;
+			}
+			this.dirtyBlockCount = this.dirtyMap.length;
+			this.changeScore = 1;
+			this.changed = true;
+			this.initialized = true;
+			return true;
+		}
+
+		int[] changedPixels = this.changedPixels;
+		for (int i = 0; i < changedPixels.length; i++) {
+			changedPixels[i] = 0;
+		}
+
+		int shift = this.backgroundShift;
+		int threshold = this.pixelThreshold;
+
+		for (int y = 0; y < h; y++) {
+			int row = y * w;
+			int blockRow = (y / this.blockSize) * this.blockColumns;
+
+			for (int x = 0; x < w; x++) {
+				int i = row + x;
+				int p = luma[i] & 0xff;
+				int bg = background[i];
+
+				int diff = p - (bg >> BACKGROUND_FRACTION_BITS);
+				if (diff > threshold || diff < -threshold) {
+					changedPixels[blockRow + x / this.blockSize]++;
+				}
+
+				background[i] = bg + (((p << BACKGROUND_FRACTION_BITS) - bg) >> shift);
+			}
+		}
+
+		int dirty = 0;
+		for (int by = 0; by < this.blockRows; by++) {
+			int blockHeight = Math.min(this.blockSize, h - by * this.blockSize);
+
+			for (int bx = 0; bx < this.blockColumns; bx++) {
+				int blockWidth = Math.min(this.blockSize, w - bx * this.blockSize);
+				int b = by * this.blockColumns + bx;
+
+				boolean isDirty = changedPixels[b] >= this.blockThreshold * blockWidth * blockHeight
+					&& changedPixels[b] > 0;
+				this.dirtyMap[b] = isDirty;
+				if (isDirty) dirty++;
+			}
+		}
+
+		this.dirtyBlockCount = dirty;
+		this.changeScore = (double) dirty / this.dirtyMap.length;
+		this.changed = this.changeScore >= this.minChangeScore;
+		return this.changed;
+	}
+
+	/**
+	 * @return the result of the last {@link #update(byte[])}
+	 */
+	public boolean isChanged() {
+		return this.changed;
+	}
+
+	/**
+	 * @return the ratio (0 to 1) of dirty blocks in the last frame
+	 */
+	public double getChangeScore() {
+		return this.changeScore;
+	}
+
+	public int getDirtyBlockCount() {
+		return this.dirtyBlockCount;
+	}
+
+	/**
+	 * @param column column of the block, from 0 to {@link #getBlockColumns()} - 1
+	 * @param row row of the block, from 0 to {@link #getBlockRows()} - 1
+	 * @return true if the block has changed in the last frame
+	 */
+	public boolean isBlockDirty(int column, int row) {
+		return this.dirtyMap[row * this.blockColumns + column];
+	}
+
+	public int getBlockColumns() {
+		return this.blockColumns;
+	}
+
+	public int getBlockRows() {
+		return this.blockRows;
+	}
+
+	public int getBlockSize() {
+		return this.blockSize;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+}
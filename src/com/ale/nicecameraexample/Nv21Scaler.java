@@ -0,0 +1,296 @@
+package com.ale.nicecameraexample;
+
+/**
+ * Crops a region of a NV21 frame and scales it down to a small, fixed resolution
+ * (for example 160x120), so that detectors that don't need the full frame can
+ * work on a fraction of the pixels. The small frame is computed once and can be
+ * shared by any number of analyzers.<br />
+ * Two filters are available: {@link Filter#BOX} averages all the source pixels that
+ * fall in a destination pixel (the best choice for big reductions),
+ * {@link Filter#BILINEAR} interpolates the 4 closest ones (faster, sharper).
+ * A crop smaller than the output is scaled up: the box filter just repeats the pixels.
+ * Only integer arithmetic is used. The chroma plane can be skipped when only the
+ * brightness is needed: in this case the chroma part of the output is left untouched.<br />
+ * The output is a NV21 buffer owned by the scaler and reused for every frame.
+ * A scaler is not thread-safe: use one per thread.
+ */
+public class Nv21Scaler {
+
+	public enum Filter {
+		BOX, BILINEAR
+	}
+
+	private final Filter filter;
+	private final boolean lumaOnly;
+
+	private int dstWidth;
+	private int dstHeight;
+	private byte[] output;
+
+	/**
+	 * The crop rectangle, or a negative cropRight to use the whole frame.
+	 */
+	private int cropLeft, cropTop, cropRight = -1, cropBottom = -1;
+
+	/**
+	 * Lookup tables that map destination columns and rows to source ones. They
+	 * depend only on the sizes, so they're computed again only when a size changes.
+	 */
+	private int tablesSrcWidth, tablesSrcHeight;
+	private int tablesCropLeft, tablesCropTop, tablesCropWidth, tablesCropHeight;
+	private int[] lumaX, lumaY, lumaWeightX, lumaWeightY;
+	private int[] chromaX, chromaY, chromaWeightX, chromaWeightY;
+
+	/**
+	 * @param dstWidth width of the scaled frame, must be even
+	 * @param dstHeight height of the scaled frame, must be even
+	 * @param filter how the pixels are combined
+	 * @param lumaOnly true to scale only the luma plane
+	 */
+	public Nv21Scaler(int dstWidth, int dstHeight, Filter filter, boolean lumaOnly) {
+		this.filter = filter;
+		this.lumaOnly = lumaOnly;
+		setOutputSize(dstWidth, dstHeight);
+	}
+
+	/**
+	 * Changes the resolution of the scaled frame. The output buffer is allocated
+	 * again only if the new size is different.
+	 * @param dstWidth width of the scaled frame, must be even
+	 * @param dstHeight height of the scaled frame, must be even
+	 */
+	public void setOutputSize(int dstWidth, int dstHeight) {
+		if (dstWidth <= 0 || dstHeight <= 0 || (dstWidth & 1) != 0 || (dstHeight & 1) != 0) {
+			throw new IllegalArgumentException("output size must be positive and even, got " + dstWidth + "x" + dstHeight);
+		}
+		if (dstWidth == this.dstWidth && dstHeight == this.dstHeight) {
+			return;
+		}
+
+		this.dstWidth = dstWidth;
+		this.dstHeight = dstHeight;
+		this.output = new byte[dstWidth * dstHeight * 3 / 2];
+		this.tablesSrcWidth = 0; // tables must be computed again
+	}
+
+	/**
+	 * Sets the region of the source frame that is scaled. Coordinates are rounded
+	 * down to even values, because of the chroma subsampling.
+	 * @param left first column
+	 * @param top first row
+	 * @param right the column after the last one
+	 * @param bottom the row after the last one
+	 */
+	public void setCrop(int left, int top, int right, int bottom) {
+		if (left < 0 || top < 0 || right - left < 2 || bottom - top < 2) {
+			throw new IllegalArgumentException("invalid crop " + left + "," + top + "," + right + "," + bottom);
+		}
+		this.cropLeft = left & ~1;
+		this.cropTop = top & ~1;
+		this.cropRight = right & ~1;
+		this.cropBottom = bottom & ~1;
+	}
+
+	/**
+	 * Goes back to scaling the whole frame (the default).
+	 */
+	public void clearCrop() {
+		this.cropLeft = 0;
+		this.cropTop = 0;
+		this.cropRight = -1;
+		this.cropBottom = -1;
+	}
+
+	/**
+	 * Scales a frame.
+	 * @param src the source NV21 frame
+	 * @param srcWidth source frame width, must be even
+	 * @param srcHeight source frame height, must be even
+	 * @return the scaled frame: the same buffer returned by {@link #getOutput()}
+	 */
+	public byte[] scale(byte[] src, int srcWidth, int srcHeight) {
+		int left = this.cropLeft;
+		int top = this.cropTop;
+		int right = (this.cropRight < 0) ? srcWidth : Math.min(this.cropRight, srcWidth);
+		int bottom = (this.cropBottom < 0) ? srcHeight : Math.min(this.cropBottom, srcHeight);
+		if (left >= right || top >= bottom) {
+			throw new IllegalArgumentException("crop is outside the " + srcWidth + "x" + srcHeight + " frame");
+		}
+
+		prepareTables(srcWidth, srcHeight, left, top, right - left, bottom - top);
+
+		int srcFrameSize = srcWidth * srcHeight;
+		int dstFrameSize = this.dstWidth * this.dstHeight;
+
+		if (this.filter == Filter.BOX) {
+			boxPlane(src, 0, srcWidth, 1, this.output, 0, this.dstWidth, this.dstHeight, this.lumaX, this.lumaY);
+			if (!this.lumaOnly) {
+				boxPlane(src, srcFrameSize, srcWidth / 2, 2, this.output, dstFrameSize, this.dstWidth / 2, this.dstHeight / 2, this.chromaX, this.chromaY);
+			}
+		}
+		else {
+			bilinearPlane(src, 0, srcWidth, 1, this.output, 0, this.dstWidth, this.dstHeight,
+				this.lumaX, this.lumaY, this.lumaWeightX, this.lumaWeightY);
+			if (!this.lumaOnly) {
+				bilinearPlane(src, srcFrameSize, srcWidth / 2, 2, this.output, dstFrameSize, this.dstWidth / 2, this.dstHeight / 2,
+					this.chromaX, this.chromaY, this.chromaWeightX, this.chromaWeightY);
+			}
+		}
+
+		return this.output;
+	}
+
+	/**
+	 * @return the buffer that contains the last scaled frame
+	 */
+	public byte[] getOutput() {
+		return this.output;
+	}
+
+	public int getOutputWidth() {
+		return this.dstWidth;
+	}
+
+	public int getOutputHeight() {
+		return this.dstHeight;
+	}
+
+	public boolean isLumaOnly() {
+		return this.lumaOnly;
+	}
+
+	private void prepareTables(int srcWidth, int srcHeight, int left, int top, int cropWidth, int cropHeight) {
+		if (srcWidth == this.tablesSrcWidth && srcHeight == this.tablesSrcHeight
+			&& left == this.tablesCropLeft && top == this.tablesCropTop
+			&& cropWidth == this.tablesCropWidth && cropHeight == this.tablesCropHeight) {
+			return;
+		}
+
+		int dw = this.dstWidth;
+		int dh = this.dstHeight;
+
+		if (this.filter == Filter.BOX) {
+			this.lumaX = boxBounds(left, cropWidth, dw);
+			this.lumaY = boxBounds(top, cropHeight, dh);
+			this.chromaX = boxBounds(left / 2, cropWidth / 2, dw / 2);
+			this.chromaY = boxBounds(top / 2, cropHeight / 2, dh / 2);
+		}
+		else {
+			this.lumaX = new int[dw];
+			this.lumaWeightX = new int[dw];
+			this.lumaY = new int[dh];
+			this.lumaWeightY = new int[dh];
+			this.chromaX = new int[dw / 2];
+			this.chromaWeightX = new int[dw / 2];
+			this.chromaY = new int[dh / 2];
+			this.chromaWeightY = new int[dh / 2];
+			bilinearPositions(left, cropWidth, dw, this.lumaX, this.lumaWeightX);
+			bilinearPositions(top, cropHeight, dh, this.lumaY, this.lumaWeightY);
+			bilinearPositions(left / 2, cropWidth / 2, dw / 2, this.chromaX, this.chromaWeightX);
+			bilinearPositions(top / 2, cropHeight / 2, dh / 2, this.chromaY, this.chromaWeightY);
+		}
+
+		this.tablesSrcWidth = srcWidth;
+		this.tablesSrcHeight = srcHeight;
+		this.tablesCropLeft = left;
+		this.tablesCropTop = top;
+		this.tablesCropWidth = cropWidth;
+		this.tablesCropHeight = cropHeight;
+	}
+
+	/**
+	 * @return 2 * dstLength source positions: destination element i covers
+	 * source elements from bounds[2 * i] (included) to bounds[2 * i + 1] (excluded).
+	 * Every destination element covers at least one source element: when scaling up,
+	 * the same source element is repeated.
+	 */
+	private static int[] boxBounds(int start, int srcLength, int dstLength) {
+		int[] bounds = new int[2 * dstLength];
+		for (int i = 0; i < dstLength; i++) {
+			int begin = (int) ((long) i * srcLength / dstLength);
+			int end = (int) ((long) (i + 1) * srcLength / dstLength);
+			bounds[2 * i] = start + begin;
+			bounds[2 * i + 1] = start + Math.max(end, begin + 1);
+		}
+		return bounds;
+	}
+
+	/**
+	 * Computes, for every destination element, the first of the two source elements
+	 * to interpolate and the weight (0-255) of the second one.
+	 */
+	private static void bilinearPositions(int start, int srcLength, int dstLength, int[] positions, int[] weights) {
+		for (int i = 0; i < dstLength; i++) {
+			// center of the destination element, in the source coordinates, 8 bits of fraction
+			long center = ((2L * i + 1) * srcLength * 256) / (2L * dstLength) - 128;
+			if (center < 0) center = 0;
+
+			int pos = (int) (center >> 8);
+			int weight = (int) (center & 0xff);
+			if (pos >= srcLength - 1) {
+				pos = srcLength - 1;
+				weight = 0;
+			}
+			positions[i] = start + pos;
+			weights[i] = weight;
+		}
+	}
+
+	private static void boxPlane(byte[] src, int srcOffset, int srcStride, int elementSize,
+		byte[] dst, int dstOffset, int dw, int dh, int[] xBounds, int[] yBounds) {
+
+		for (int c = 0; c < elementSize; c++) {
+			for (int dy = 0; dy < dh; dy++) {
+				int y0 = yBounds[2 * dy];
+				int y1 = yBounds[2 * dy + 1];
+				int out = dstOffset + dy * dw * elementSize + c;
+
+				for (int dx = 0; dx < dw; dx++, out += elementSize) {
+					int x0 = xBounds[2 * dx];
+					int x1 = xBounds[2 * dx + 1];
+					int sum = 0;
+
+					for (int y = y0; y < y1; y++) {
+						int p = srcOffset + (y * srcStride + x0) * elementSize + c;
+						for (int x = x0; x < x1; x++, p += elementSize) {
+							sum += src[p] & 0xff;
+						}
+					}
+
+					int count = (x1 - x0) * (y1 - y0);
+					dst[out] = (byte) ((sum + count / 2) / count);
+				}
+			}
+		}
+	}
+
+	private static void bilinearPlane(byte[] src, int srcOffset, int srcStride, int elementSize,
+		byte[] dst, int dstOffset, int dw, int dh, int[] xs, int[] ys, int[] wxs, int[] wys) {
+
+		int lastX = srcStride - 1;
+
+		for (int c = 0; c < elementSize; c++) {
+			for (int dy = 0; dy < dh; dy++) {
+				int wy = wys[dy];
+				int row0 = ys[dy] * srcStride;
+				int row1 = (wy == 0) ? row0 : row0 + srcStride;
+				int out = dstOffset + dy * dw * elementSize + c;
+
+				for (int dx = 0; dx < dw; dx++, out += elementSize) {
+					int x0 = xs[dx];
+					int wx = wxs[dx];
+					int x1 = (x0 < lastX) ? x0 + 1 : x0;
+
+					int p00 = src[srcOffset + (row0 + x0) * elementSize + c] & 0xff;
+					int p01 = src[srcOffset + (row0 + x1) * elementSize + c] & 0xff;
+					int p10 = src[srcOffset + (row1 + x0) * elementSize + c] & 0xff;
+					int p11 = src[srcOffset + (row1 + x1) * elementSize + c] & 0xff;
+
+					int top = p00 * (256 - wx) + p01 * wx;
+					int bottom = p10 * (256 - wx) + p11 * wx;
+					dst[out] = (byte) ((top * (256 - wy) + bottom * wy + 32768) >> 16);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.ale.nicecameraexample;
+
+/**
+ * Rotates (by 90, 180 or 270 degrees) and/or mirrors a NV21 frame, so that the
+ * analysis code can work on upright images even if the camera always produces
+ * landscape-oriented ones.<br />
+ * The luma plane is transformed pixel by pixel, the chroma plane (interleaved
+ * V and U samples, one pair every 2x2 pixels) pair by pair, so that the colors
+ * stay where they belong. The result is written into a destination buffer
+ * given by the caller, that can be reused for every frame.<br />
+ * A rotation reads the source by rows and writes the destination by columns
+ * (or vice versa): to avoid jumping all over the memory, frames are processed in
+ * small square tiles that fit in the CPU cache.
+ */
+public final class Nv21Transform {
+
+	/**
+	 * Side (in elements) of the square tiles.
+	 */
+	private static final int TILE_SIZE = 32;
+
+	private Nv21Transform() { }
+
+	/**
+	 * Rotates and mirrors a frame.
+	 * @param src the source frame
+	 * @param width source frame width, must be even
+	 * @param height source frame height, must be even
+	 * @param rotationDegrees clockwise rotation: 0, 90, 180 or 270
+	 * @param mirror true to flip the result horizontally (after the rotation)
+	 * @param dst the destination, at least width * height * 3 / 2 bytes long. It can't be the source.
+	 * For 90 and 270 degrees its width and height are swapped.
+	 */
+	public static void transform(byte[] src, int width, int height, int rotationDegrees, boolean mirror, byte[] dst) {
+		int frameSize = width * height;
+		if ((width & 1) != 0 || (height & 1) != 0) {
+			throw new IllegalArgumentException("frame size must be even, got " + width + "x" + height);
+		}
+		if (src.length < frameSize * 3 / 2 || dst.length < frameSize * 3 / 2) {
+			throw new IllegalArgumentException("buffers are too small for a " + width + "x" + height + " frame");
+		}
+		if (src == dst) {
+			throw new IllegalArgumentException("source and destination must be different buffers");
+		}
+
+		int rotation = ((rotationDegrees % 360) + 360) % 360;
+		if (rotation % 90 != 0) {
+			throw new IllegalArgumentException("rotation must be a multiple of 90 degrees, got " + rotationDegrees);
+		}
+
+		// luma: one byte per element
+		transformPlane(src, 0, width, height, dst, 0, 1, rotation, mirror);
+		// chroma: one (V, U) pair per element, a quarter of the elements
+		transformPlane(src, frameSize, width / 2, height / 2, dst, frameSize, 2, rotation, mirror);
+	}
+
+	/**
+	 * @return the width of the frame after a rotation
+	 */
+	public static int getRotatedWidth(int width, int height, int rotationDegrees) {
+		return (rotationDegrees % 180 == 0) ? width : height;
+	}
+
+	/**
+	 * @return the height of the frame after a rotation
+	 */
+	public static int getRotatedHeight(int width, int height, int rotationDegrees) {
+		return (rotationDegrees % 180 == 0) ? height : width;
+	}
+
+	/**
+	 * Transforms a plane of sw x sh elements of the given size (in bytes).
+	 */
+	private static void transformPlane(byte[] src, int srcOffset, int sw, int sh,
+		byte[] dst, int dstOffset, int elementSize, int rotation, boolean mirror) {
+
+		int dw = (rotation % 180 == 0) ? sw : sh;
+
+		// the destination coordinates (dx, dy) of the source element (x, y) are
+		// dx = ox + x * xx + y * yx
+		// dy = oy + x * xy + y * yy
+		int ox, oy, xx, yx, xy, yy;
+		switch (rotation) {
+			case 90:  ox = sh - 1; oy = 0;      xx = 0;  yx = -1; xy = 1;  yy = 0;  break;
+			case 180: ox = sw - 1; oy = sh - 1; xx = -1; yx = 0;  xy = 0;  yy = -1; break;
+			case 270: ox = 0;      oy = sw - 1; xx = 0;  yx = 1;  xy = -1; yy = 0;  break;
+			default:  ox = 0;      oy = 0;      xx = 1;  yx = 0;  xy = 0;  yy = 1;  break;
+		}
+		if (mirror) {
+			ox = dw - 1 - ox;
+			xx = -xx;
+			yx = -yx;
+		}
+
+		// ...that is, as an index in the destination plane
+		int origin = oy * dw + ox;
+		int stepX = xy * dw + xx;
+		int stepY = yy * dw + yx;
+
+		for (int tileY = 0; tileY < sh; tileY += TILE_SIZE) {
+			int endY = Math.min(tileY + TILE_SIZE, sh);
+
+			for (int tileX = 0; tileX < sw; tileX += TILE_SIZE) {
+				int endX = Math.min(tileX + TILE_SIZE, sw);
+
+				for (int y = tileY; y < endY; y++) {
+					int s = y * sw + tileX;
+					int d = origin + tileX * stepX + y * stepY;
+
+					if (elementSize == 1) {
+						for (int x = tileX; x < endX; x++, s++, d += stepX) {
+							dst[dstOffset + d] = src[srcOffset + s];
+						}
+					}
+					else {
+						for (int x = tileX; x < endX; x++, s++, d += stepX) {
+							int si = srcOffset + 2 * s;
+							int di = dstOffset + 2 * d;
+							dst[di] = src[si];
+							dst[di + 1] = src[si + 1];
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.ale.nicecameraexample;
+
+/**
+ * Runs a piece of work split in stripes, one per thread, and waits for all of them.
+ * The calling thread does the first stripe, the other ones are done by worker
+ * threads that are started once and reused for every call, so nothing is
+ * allocated per frame: {@link YuvConverter} and {@link LumaPyramid} work this way.<br />
+ * Remember to call {@link #release()} when it's no longer needed.
+ */
+public class ParallelStripes {
+
+	/**
+	 * A piece of work that can be split in stripes.
+	 */
+	public interface Task {
+		/**
+		 * Does one of the stripes. It may be called on any thread, at the same time as the other stripes.
+		 * @param stripe the stripe, from 0 to stripeCount - 1
+		 * @param stripeCount how many stripes there are
+		 */
+		void runStripe(int stripe, int stripeCount);
+	}
+
+	private final Worker[] workers;
+
+	/**
+	 * The task that is running, a counter incremented for every new task, and the
+	 * number of stripes still running. Guarded by 'this'.
+	 */
+	private Task task;
+	private long generation = 0;
+	private int pendingStripes = 0;
+	private RuntimeException failure;
+	private boolean released = false;
+
+	/**
+	 * @param threads how many threads work on a task, the calling one included.
+	 * Values lower than 2 run everything on the calling thread.
+	 * @param name the name of the worker threads
+	 */
+	public ParallelStripes(int threads, String name) {
+		int workerCount = Math.max(0, threads - 1);
+		this.workers = new Worker[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			this.workers[i] = new Worker(i + 1, name + "-" + (i + 1));
+			this.workers[i].start();
+		}
+	}
+
+	/**
+	 * Runs a task and returns when all its stripes are done.
+	 * @throws RuntimeException thrown by one of the stripes
+	 */
+	public void run(Task task) {
+		int stripes = this.workers.length + 1;
+		if (stripes == 1) {
+			task.runStripe(0, 1);
+			return;
+		}
+
+		synchronized (this) {
+			if (this.released) {
+				throw new IllegalStateException("the workers have been released");
+			}
+			this.task = task;
+			this.failure = null;
+			this.pendingStripes = this.workers.length;
+			this.generation++;
+			notifyAll();
+		}
+
+		RuntimeException failure = null;
+		try {
+			task.runStripe(0, stripes);
+		}
+		catch (RuntimeException e) {
+			failure = e;
+		}
+
+		synchronized (this) {
+			boolean interrupted = false;
+			while (this.pendingStripes > 0 && !this.released) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			this.task = null;
+			if (failure == null) {
+				failure = this.failure;
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * @return how many stripes every task is split in
+	 */
+	public int getStripeCount() {
+		return this.workers.length + 1;
+	}
+
+	/**
+	 * Stops the worker threads. Nothing can be run anymore after this call.
+	 */
+	public synchronized void release() {
+		this.released = true;
+		this.task = null;
+		notifyAll();
+	}
+
+	/**
+	 * A thread that sleeps until a new task is published, does its own stripe
+	 * and then goes back to sleep.
+	 */
+	private class Worker extends Thread {
+		private final int stripe;
+
+		Worker(int stripe, String name) {
+			super(name);
+			this.stripe = stripe;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			long seenGeneration = 0;
+
+			while (true) {
+				Task task;
+				synchronized (ParallelStripes.this) {
+					while (!released && generation == seenGeneration) {
+						try {
+							ParallelStripes.this.wait();
+						} catch (InterruptedException e) {
+							// nobody is supposed to interrupt us, keep waiting
+						}
+					}
+					if (released) {
+						return;
+					}
+					seenGeneration = generation;
+					task = ParallelStripes.this.task;
+				}
+
+				RuntimeException failure = null;
+				try {
+					task.runStripe(this.stripe, workers.length + 1);
+				}
+				catch (RuntimeException e) {
+					failure = e;
+				}
+
+				synchronized (ParallelStripes.this) {
+					if (failure != null && ParallelStripes.this.failure == null) {
+						ParallelStripes.this.failure = failure;
+					}
+					pendingStripes--;
+					if (pendingStripes == 0) {
+						ParallelStripes.this.notifyAll();
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.ale.nicecameraexample;
+
+/**
+ * Computes a 64 bit fingerprint of a frame, such that frames that look the same
+ * get the same hash (or almost), even if the sensor noise makes every byte different.
+ * Two hashes are compared with {@link #distance(long, long)}: the number of
+ * different bits, from 0 (same picture) to 64.<br />
+ * The luma (Y) plane of the frame is reduced to a tiny grid of block means,
+ * straight from the NV21 buffer, and every bit of the hash says how a block
+ * compares to something else:
+ * <ul>
+ * <li>{@link #dHash(byte[], int, int)}: 9x8 blocks, every bit is 1 if a block is
+ * brighter than the one on its right. It follows the gradients, so it's not
+ * fooled by a change of exposure;</li>
+ * <li>{@link #aHash(byte[], int, int)}: 8x8 blocks, every bit is 1 if a block is
+ * brighter than the mean of all of them.</li>
+ * </ul>
+ * Only one pixel every "step" (both horizontally and vertically) can be read, trading
+ * accuracy for speed: the blocks are big, so a few samples are enough.<br />
+ * Nothing is allocated per frame. A hasher is not thread-safe: use one per thread.
+ */
+public class PerceptualHash {
+
+	private static final int GRID_ROWS = 8;
+
+	/**
+	 * The mean of every block, with 4 bits of fraction, row by row.
+	 */
+	private final int[] means = new int[(GRID_ROWS + 1) * GRID_ROWS];
+	private int step = 1;
+
+	/**
+	 * @param step read one pixel every 'step', both horizontally and vertically (1 = all of them)
+	 */
+	public void setStep(int step) {
+		if (step < 1) {
+			throw new IllegalArgumentException("step must be at least 1, got " + step);
+		}
+		this.step = step;
+	}
+
+	public int getStep() {
+		return this.step;
+	}
+
+	/**
+	 * Difference hash: the most robust one, for most uses.
+	 * @param luma the Y plane, at least width * height bytes (a NV21 frame is fine)
+	 * @param width frame width, at least 9 * step
+	 * @param height frame height, at least 8 * step
+	 */
+	public long dHash(byte[] luma, int width, int height) {
+		int columns = GRID_ROWS + 1;
+		computeMeans(luma, width, height, columns);
+
+		long hash = 0;
+		for (int row = 0; row < GRID_ROWS; row++) {
+			int i = row * columns;
+			for (int column = 0; column < GRID_ROWS; column++, i++) {
+				hash <<= 1;
+				if (this.means[i] > this.means[i + 1]) {
+					hash |= 1;
+				}
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Average hash: slightly cheaper than {@link #dHash(byte[], int, int)}, but a
+	 * change of brightness in a part of the frame flips a lot of bits.
+	 * @param luma the Y plane, at least width * height bytes (a NV21 frame is fine)
+	 * @param width frame width, at least 8 * step
+	 * @param height frame height, at least 8 * step
+	 */
+	public long aHash(byte[] luma, int width, int height) {
+		int cells = GRID_ROWS * GRID_ROWS;
+		computeMeans(luma, width, height, GRID_ROWS);
+
+		long total = 0;
+		for (int i = 0; i < cells; i++) {
+			total += this.means[i];
+		}
+		long mean = total / cells;
+
+		long hash = 0;
+		for (int i = 0; i < cells; i++) {
+			hash <<= 1;
+			if (this.means[i] > mean) {
+				hash |= 1;
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * @return how many bits differ between the two hashes: 0 means the same picture,
+	 * a few bits a very similar one, around 32 two unrelated pictures
+	 */
+	public static int distance(long hash1, long hash2) {
+		return Long.bitCount(hash1 ^ hash2);
+	}
+
+	/**
+	 * Fills {@link #means} with the mean luma of a grid of 'columns' x GRID_ROWS blocks.
+	 * Every block starts on a sampled row and column, so that none of them is empty.
+	 */
+	private void computeMeans(byte[] luma, int width, int height, int columns) {
+		int step = this.step;
+		if (width < columns * step || height < GRID_ROWS * step) {
+			throw new IllegalArgumentException(width + "x" + height + " is too small for a "
+				+ columns + "x" + GRID_ROWS + " grid read every " + step + " pixels");
+		}
+		if (luma.length < width * height) {
+			throw new IllegalArgumentException("luma buffer is too small for a " + width + "x" + height + " frame");
+		}
+
+		for (int row = 0; row < GRID_ROWS; row++) {
+			int top = height * row / GRID_ROWS;
+			int bottom = height * (row + 1) / GRID_ROWS;
+
+			for (int column = 0; column < columns; column++) {
+				int left = width * column / columns;
+				int right = width * (column + 1) / columns;
+				int sum = 0;
+				int count = 0;
+
+				for (int y = top; y < bottom; y += step) {
+					int end = y * width + right;
+					for (int p = y * width + left; p < end; p += step) {
+						sum += luma[p] & 0xff;
+					}
+					count += (right - left + step - 1) / step;
+				}
+				this.means[row * columns + column] = (sum << 4) / count;
+			}
+		}
+	}
+}
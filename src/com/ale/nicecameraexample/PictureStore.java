@@ -0,0 +1,30 @@
+package com.ale.nicecameraexample;
+
+import java.io.IOException;
+
+/**
+ * Somewhere to save the JPEG pictures produced by the camera.<br />
+ * Pictures are passed as already encoded bytes, so they are written as they are,
+ * without being decoded and encoded again. Implementations may be called from
+ * any thread, but never concurrently.
+ */
+public interface PictureStore {
+
+	/**
+	 * Saves a picture.
+	 * @param jpeg the buffer containing the picture
+	 * @param offset where the picture starts in the buffer
+	 * @param length the size of the picture, in bytes
+	 * @param orientation the clockwise rotation (in degrees) that makes the picture upright,
+	 * in case it's not already written in its EXIF block
+	 * @return where the picture has been saved (a path or an URI)
+	 * @throws IOException if the picture can't be saved
+	 */
+	String save(byte[] jpeg, int offset, int length, int orientation) throws IOException;
+
+	/**
+	 * Makes sure that everything saved so far is on the storage.
+	 * @throws IOException if something can't be written
+	 */
+	void flush() throws IOException;
+}
@@ -0,0 +1,356 @@
+package com.ale.nicecameraexample;
+
+/**
+ * A fixed set of preallocated preview buffers that rotate between the camera
+ * and the code that processes the frames.<br />
+ * With a single buffer (the classic {@link android.hardware.Camera#addCallbackBuffer(byte[])}
+ * example) every frame that comes out while the previous one is still being
+ * processed is lost, because the camera has nowhere to write it. With N buffers
+ * the camera can keep filling the free ones in the meantime.<br />
+ * Every buffer is always in one of these states:
+ * <ul>
+ * <li>idle: owned by the pool, but not given to anyone (for example because no sink is attached)</li>
+ * <li>queued: given to the camera, waiting to be filled</li>
+ * <li>pending: filled by the camera, waiting to be taken by a consumer</li>
+ * <li>processing: taken by a consumer, waiting to be released</li>
+ * </ul>
+ * This class doesn't know anything about {@link android.hardware.Camera}: buffers
+ * are handed to a {@link BufferSink}, so the same logic can be driven by a fake
+ * producer on a plain JVM. All the methods are thread-safe.
+ */
+public class PreviewBufferPool {
+
+	/**
+	 * What to do with frames that are waiting while the consumer is busy.
+	 */
+	public enum Policy {
+		/**
+		 * Every delivered frame is kept, in order, until a consumer takes it.
+		 * If the consumer is too slow the camera runs out of buffers and
+		 * stops delivering (this is counted in {@link PreviewBufferPool#getStarvedCount()}).
+		 * This is the "block" behavior: the producer is held back, but without
+		 * blocking the thread that receives the camera callbacks.
+		 */
+		PROCESS_ALL,
+
+		/**
+		 * Only the most recent frame is kept: when a new frame comes in, the
+		 * older pending ones are immediately given back to the camera
+		 * (and counted in {@link PreviewBufferPool#getDroppedCount()}).
+		 * This is the "drop oldest" behavior.
+		 */
+		LATEST_WINS
+	}
+
+	/**
+	 * The one that fills the buffers: in the real app it's just a wrapper
+	 * around {@link android.hardware.Camera#addCallbackBuffer(byte[])}.
+	 */
+	public interface BufferSink {
+		void addCallbackBuffer(byte[] buffer);
+	}
+
+	private static final int STATE_IDLE = 0;
+	private static final int STATE_QUEUED = 1;
+	private static final int STATE_PENDING = 2;
+	private static final int STATE_PROCESSING = 3;
+
+	private final byte[][] buffers;
+	private final int[] states;
+	private final long[] deliveryTimes;
+	private final Policy policy;
+	private BufferSink sink;
+
+	/**
+	 * FIFO of the indexes of the buffers that have been filled and are waiting for a consumer.
+	 */
+	private final int[] pending;
+	private int pendingHead;
+	private int pendingCount;
+
+	private int idleCount;
+	private int queuedCount;
+	private int processingCount;
+
+	private long deliveredCount;
+	private long droppedCount;
+	private long starvedCount;
+
+	/**
+	 * @param count how many buffers to allocate
+	 * @param bufferSize the size of every buffer, in bytes (that is, the size of a preview frame)
+	 * @param policy what to do with frames that wait for the consumer
+	 */
+	public PreviewBufferPool(int count, int bufferSize, Policy policy) {
+		if (count < 1) {
+			throw new IllegalArgumentException("at least one buffer is required, got " + count);
+		}
+
+		this.policy = policy;
+		this.buffers = new byte[count][];
+		this.states = new int[count];
+		this.deliveryTimes = new long[count];
+		this.pending = new int[count];
+
+		for (int i = 0; i < count; i++) {
+			this.buffers[i] = new byte[bufferSize];
+			this.states[i] = STATE_IDLE;
+		}
+		this.idleCount = count;
+	}
+
+	/**
+	 * Sets the object that fills the buffers and gives it all the idle ones.
+	 * @param sink the new sink, or null to stop giving buffers away
+	 */
+	public synchronized void attach(BufferSink sink) {
+		this.sink = sink;
+
+		if (sink == null) {
+			return;
+		}
+
+		for (int i = 0; i < this.buffers.length; i++) {
+			if (this.states[i] == STATE_IDLE) {
+				this.idleCount--;
+				recycle(i);
+			}
+		}
+	}
+
+	/**
+	 * Stops giving buffers to the current sink. Buffers that were queued in it
+	 * are considered lost with it (for example when the camera is released) and
+	 * become idle again, so that they can be given to the next sink. The same
+	 * happens to the pending frames, that are dropped.<br />
+	 * [IMPORTANT!] if the sink lives on (a camera that is only reconfigured), it must 
+	 * forget the buffers first (see {@link FrameSource#setFrameCallback(FrameSource.FrameCallback)}): 
+	 * otherwise the next {@link #attach(BufferSink)} queues them twice.
+	 */
+	public synchronized void detach() {
+		this.sink = null;
+
+		while (this.pendingCount > 0) {
+			recycle(pollPending());
+			this.droppedCount++;
+		}
+
+		for (int i = 0; i < this.buffers.length; i++) {
+			if (this.states[i] == STATE_QUEUED) {
+				this.states[i] = STATE_IDLE;
+				this.queuedCount--;
+				this.idleCount++;
+			}
+		}
+	}
+
+	/**
+	 * To be called when the sink has filled a buffer (that is, in
+	 * {@link android.hardware.Camera.PreviewCallback#onPreviewFrame(byte[], android.hardware.Camera)}).
+	 * @param buffer the filled buffer. Buffers that don't belong to this pool are ignored.
+	 * @return true if the buffer belongs to this pool and is now pending
+	 */
+	public synchronized boolean onFrameDelivered(byte[] buffer) {
+		int index = indexOf(buffer);
+		if (index < 0 || this.states[index] != STATE_QUEUED) {
+			return false;
+		}
+
+		this.queuedCount--;
+		this.deliveredCount++;
+		this.deliveryTimes[index] = System.nanoTime();
+
+		if (this.policy == Policy.LATEST_WINS) {
+			// older frames are useless now: back to the camera
+			while (this.pendingCount > 0) {
+				recycle(pollPending());
+				this.droppedCount++;
+			}
+		}
+
+		this.states[index] = STATE_PENDING;
+		this.pending[(this.pendingHead + this.pendingCount) % this.pending.length] = index;
+		this.pendingCount++;
+
+		if (this.queuedCount == 0) {
+			// the camera has nothing to write the next frame into
+			this.starvedCount++;
+		}
+
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Takes the oldest pending frame. It must be given back with {@link #release(byte[])}
+	 * as soon as it's not needed anymore.
+	 * @return a filled buffer, or null if no frames are pending
+	 */
+	public synchronized byte[] take() {
+		if (this.pendingCount == 0) {
+			return null;
+		}
+
+		int index = pollPending();
+		this.states[index] = STATE_PROCESSING;
+		this.processingCount++;
+		return this.buffers[index];
+	}
+
+	/**
+	 * Same as {@link #take()}, but waits for a frame to be delivered.
+	 * @param timeoutMillis the maximum time to wait, in milliseconds
+	 * @return a filled buffer, or null if nothing arrived in time
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 */
+	public synchronized byte[] take(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long remaining = timeoutMillis;
+
+		while (this.pendingCount == 0 && remaining > 0) {
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+
+		return take();
+	}
+
+	/**
+	 * Gives a buffer taken with {@link #take()} back to the sink,
+	 * so it can be filled again.
+	 * @param buffer the processed buffer
+	 */
+	public synchronized void release(byte[] buffer) {
+		int index = indexOf(buffer);
+		if (index < 0 || this.states[index] != STATE_PROCESSING) {
+			throw new IllegalArgumentException("this buffer doesn't belong to the pool or has not been taken");
+		}
+
+		this.processingCount--;
+		recycle(index);
+	}
+
+	/**
+	 * @param buffer a buffer of this pool
+	 * @return the {@link System#nanoTime()} of the last time the buffer has been
+	 * filled (see {@link #onFrameDelivered(byte[])}), or 0 if it's unknown
+	 */
+	public synchronized long getDeliveryTime(byte[] buffer) {
+		int index = indexOf(buffer);
+		return (index < 0) ? 0 : this.deliveryTimes[index];
+	}
+
+	/**
+	 * @return the size (in bytes) of every buffer
+	 */
+	public int getBufferSize() {
+		return this.buffers[0].length;
+	}
+
+	/**
+	 * @return the total number of buffers
+	 */
+	public int getBufferCount() {
+		return this.buffers.length;
+	}
+
+	public Policy getPolicy() {
+		return this.policy;
+	}
+
+	/**
+	 * @return how many buffers are free, that is queued in the sink and waiting to be filled
+	 */
+	public synchronized int getQueuedCount() {
+		return this.queuedCount;
+	}
+
+	/**
+	 * @return how many filled buffers wait for a consumer
+	 */
+	public synchronized int getPendingCount() {
+		return this.pendingCount;
+	}
+
+	/**
+	 * @return how many buffers are being processed by a consumer
+	 */
+	public synchronized int getProcessingCount() {
+		return this.processingCount;
+	}
+
+	/**
+	 * @return how many buffers are out of the sink (pending or processing)
+	 */
+	public synchronized int getInFlightCount() {
+		return this.pendingCount + this.processingCount;
+	}
+
+	/**
+	 * @return how many buffers are not given to anyone
+	 */
+	public synchronized int getIdleCount() {
+		return this.idleCount;
+	}
+
+	/**
+	 * @return how many frames have been delivered by the sink so far
+	 */
+	public synchronized long getDeliveredCount() {
+		return this.deliveredCount;
+	}
+
+	/**
+	 * @return how many delivered frames have been given back without being
+	 * processed, because of the {@link Policy#LATEST_WINS} policy
+	 */
+	public synchronized long getDroppedCount() {
+		return this.droppedCount;
+	}
+
+	/**
+	 * @return how many times the sink has been left without any free buffer.
+	 * When that happens the camera can't deliver new frames.
+	 */
+	public synchronized long getStarvedCount() {
+		return this.starvedCount;
+	}
+
+	/**
+	 * @param buffer a buffer
+	 * @return its position in the pool (from 0 to {@link #getBufferCount()} - 1),
+	 * or -1 if it doesn't belong to the pool
+	 */
+	public int indexOf(byte[] buffer) {
+		if (buffer != null) {
+			for (int i = 0; i < this.buffers.length; i++) {
+				if (this.buffers[i] == buffer) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private int pollPending() {
+		int index = this.pending[this.pendingHead];
+		this.pendingHead = (this.pendingHead + 1) % this.pending.length;
+		this.pendingCount--;
+		return index;
+	}
+
+	/**
+	 * Gives the buffer to the sink, or keeps it idle if there's no sink.
+	 */
+	private void recycle(int index) {
+		if (this.sink == null) {
+			this.states[index] = STATE_IDLE;
+			this.idleCount++;
+		}
+		else {
+			this.states[index] = STATE_QUEUED;
+			this.queuedCount++;
+			this.sink.addCallbackBuffer(this.buffers[index]);
+		}
+	}
+}
@@ -0,0 +1,395 @@
+package com.ale.nicecameraexample;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Chooses the preview size and frame rate by looking at how hard it is to keep up
+ * with the frames: on a slow device it steps down until the processing is fast
+ * enough, on a fast one it steps up to use the resolution that would be wasted.<br />
+ * The possible configurations are a "ladder" of {@link Level}s, from the cheapest
+ * to the most expensive one (see {@link #buildLadder(int[], int[], float, float, int)}).
+ * The governor is fed with the processing time of every frame
+ * ({@link #onFrameProcessed(long)}), and from time to time it's asked whether the
+ * level should change ({@link #evaluate(long, long, long)}). The decision is taken
+ * on windows of about one second, looking at:
+ * <ul>
+ * <li>the load: how much of the time between two frames is spent processing one
+ * (using the 90th percentile of the processing time)</li>
+ * <li>the drop rate: how many frames have been lost before being processed (replaced by
+ * newer ones, or never delivered because the camera had no buffer to write them to)</li>
+ * </ul>
+ * There's some hysteresis, because every change restarts the preview:
+ * <ul>
+ * <li>it steps down after {@link #setDownWindows(int) 2} overloaded windows in a row
+ * (more than one step, if the load is far too high), and up after
+ * {@link #setUpWindows(int) 5} light ones</li>
+ * <li>it steps up only if the load on the next level, estimated from the number of
+ * pixels per second, is still acceptable</li>
+ * <li>if a level turns out to be too heavy shortly after stepping up to it, it's
+ * not tried again for a while (longer every time)</li>
+ * </ul>
+ * It doesn't know anything about the camera, so it can be driven by simulated
+ * latencies on a plain JVM.
+ */
+public class PreviewGovernor {
+
+	/**
+	 * A preview configuration.
+	 */
+	public static class Level {
+		public final int width;
+		public final int height;
+		/** the preview fps range, multiplied by 1000 (as in the camera parameters), or 0 if unknown */
+		public final int minFps;
+		public final int maxFps;
+
+		public Level(int width, int height, int minFps, int maxFps) {
+			this.width = width;
+			this.height = height;
+			this.minFps = minFps;
+			this.maxFps = maxFps;
+		}
+
+		/**
+		 * @return how many pixels per second (or per frame, if the frame rate is unknown) have to be processed
+		 */
+		public long getCost() {
+			return (long) this.width * this.height * (this.maxFps > 0 ? this.maxFps : 1);
+		}
+
+		@Override
+		public String toString() {
+			return this.width + "x" + this.height + (this.maxFps > 0 ? " @ " + this.minFps / 1000.0 + "-" + this.maxFps / 1000.0 + " fps" : "");
+		}
+	}
+
+	private static final int WINDOW_SAMPLES = 128;
+	private static final long PROBATION_NANOS = 10000000000L;
+	private static final long MIN_BACKOFF_NANOS = 10000000000L;
+	private static final long MAX_BACKOFF_NANOS = 300000000000L;
+
+	private final Level[] ladder;
+	private final long[] blockedUntilNanos;
+	private final long[] backoffNanos;
+	private int level;
+
+	private long windowNanos = 1000000000L;
+	private int minWindowFrames = 10;
+	private double highLoad = 0.85;
+	private double lowLoad = 0.5;
+	private double highDropRate = 0.1;
+	private double lowDropRate = 0.02;
+	private int downWindows = 2;
+	private int upWindows = 5;
+
+	// the current window
+	private final long[] samples = new long[WINDOW_SAMPLES];
+	private final long[] sorted = new long[WINDOW_SAMPLES];
+	private int sampleCount = 0;
+	private long windowStartNanos = -1;
+	private long windowDelivered;
+	private long windowDropped;
+
+	private boolean settling = true;
+	private long levelSinceNanos;
+	private int overloadedCount = 0;
+	private int underloadedCount = 0;
+	private double lastLoad = 0;
+	private double lastDropRate = 0;
+
+	/**
+	 * @param ladder the possible configurations, from the cheapest to the most expensive one
+	 * @param level where to start
+	 */
+	public PreviewGovernor(Level[] ladder, int level) {
+		if (ladder.length == 0) {
+			throw new IllegalArgumentException("the ladder is empty");
+		}
+		if (level < 0 || level >= ladder.length) {
+			throw new IllegalArgumentException("level " + level + " is not in the ladder");
+		}
+
+		this.ladder = ladder.clone();
+		this.blockedUntilNanos = new long[ladder.length];
+		this.backoffNanos = new long[ladder.length];
+		Arrays.fill(this.backoffNanos, MIN_BACKOFF_NANOS);
+		this.level = level;
+	}
+
+	/**
+	 * Builds the ladder from the sizes and frame rates supported by a camera. Only the
+	 * sizes with the given aspect ratio and not wider than maxWidth are used. For every
+	 * maximum frame rate only the steadiest range (the one with the highest minimum)
+	 * is kept, and rates under 10 fps are ignored.
+	 * @param sizes (width, height) pairs
+	 * @param fpsRanges (min, max) pairs, multiplied by 1000, or null if unknown
+	 * @param aspectW aspect ratio
+	 * @param aspectH aspect ratio
+	 * @param maxWidth the widest size to use
+	 * @return the levels, sorted by cost. Empty if no size is good.
+	 */
+	public static Level[] buildLadder(int[] sizes, int[] fpsRanges, float aspectW, float aspectH, int maxWidth) {
+		List<int[]> ranges = new ArrayList<int[]>();
+		if (fpsRanges != null) {
+			for (int i = 0; i < fpsRanges.length; i += 2) {
+				int min = fpsRanges[i];
+				int max = fpsRanges[i + 1];
+				if (max < 10000) {
+					continue;
+				}
+
+				boolean found = false;
+				for (int[] range : ranges) {
+					if (range[1] == max) {
+						range[0] = Math.max(range[0], min);
+						found = true;
+					}
+				}
+				if (!found) {
+					ranges.add(new int[] {min, max});
+				}
+			}
+		}
+		if (ranges.isEmpty()) {
+			ranges.add(new int[] {0, 0});
+		}
+
+		List<Level> levels = new ArrayList<Level>();
+		for (int i = 0; i < sizes.length; i += 2) {
+			int width = sizes[i];
+			int height = sizes[i + 1];
+			if (width > maxWidth || width / aspectW != height / aspectH) {
+				continue;
+			}
+			for (int[] range : ranges) {
+				levels.add(new Level(width, height, range[0], range[1]));
+			}
+		}
+
+		Collections.sort(levels, new Comparator<Level>() {
+			@Override
+			public int compare(Level a, Level b) {
+				long ca = a.getCost();
+				long cb = b.getCost();
+				// with the same cost, the bigger size (and lower frame rate) first
+				return (ca != cb) ? (ca < cb ? -1 : 1) : (a.maxFps - b.maxFps);
+			}
+		});
+		return levels.toArray(new Level[levels.size()]);
+	}
+
+	/**
+	 * @return the index of the level with the given size and the highest frame rate or,
+	 * if there's no such size, of the most expensive level that is not wider. 0 if all are wider.
+	 */
+	public static int findLevel(Level[] ladder, int width, int height) {
+		int exact = -1;
+		int narrower = -1;
+		for (int i = 0; i < ladder.length; i++) {
+			Level l = ladder[i];
+			if (l.width == width && l.height == height) {
+				if (exact < 0 || l.maxFps > ladder[exact].maxFps) {
+					exact = i;
+				}
+			}
+			else if (l.width <= width) {
+				// the ladder is sorted by cost
+				narrower = i;
+			}
+		}
+		return (exact >= 0) ? exact : Math.max(narrower, 0);
+	}
+
+	/**
+	 * How long a decision window lasts, and how many frames it needs at least.
+	 */
+	public synchronized void setWindow(long windowMillis, int minFrames) {
+		this.windowNanos = windowMillis * 1000000L;
+		this.minWindowFrames = minFrames;
+	}
+
+	/**
+	 * Over the high load the preview is too heavy, under the low load there's room for more.
+	 * @param low between 0 and high
+	 * @param high between low and 1 (or more, if some drops are acceptable)
+	 */
+	public synchronized void setLoadThresholds(double low, double high) {
+		if (low < 0 || high <= low) {
+			throw new IllegalArgumentException("bad load thresholds " + low + "-" + high);
+		}
+		this.lowLoad = low;
+		this.highLoad = high;
+	}
+
+	/**
+	 * Over the high rate (frames dropped / frames delivered) the preview is too heavy,
+	 * the rate must be under the low one to step up.
+	 */
+	public synchronized void setDropRateThresholds(double low, double high) {
+		if (low < 0 || high < low) {
+			throw new IllegalArgumentException("bad drop rate thresholds " + low + "-" + high);
+		}
+		this.lowDropRate = low;
+		this.highDropRate = high;
+	}
+
+	/**
+	 * @param windows how many overloaded windows in a row are needed to step down
+	 */
+	public synchronized void setDownWindows(int windows) {
+		this.downWindows = Math.max(1, windows);
+	}
+
+	/**
+	 * @param windows how many light windows in a row are needed to step up
+	 */
+	public synchronized void setUpWindows(int windows) {
+		this.upWindows = Math.max(1, windows);
+	}
+
+	/**
+	 * To be called when the preview has been (re)started with the current level:
+	 * what has been measured so far is forgotten, and the first window is ignored
+	 * (the first frames are often slower).
+	 * @param nowNanos the current {@link System#nanoTime()}
+	 */
+	public synchronized void restart(long nowNanos) {
+		this.windowStartNanos = -1;
+		this.sampleCount = 0;
+		this.settling = true;
+		this.overloadedCount = 0;
+		this.underloadedCount = 0;
+		this.levelSinceNanos = nowNanos;
+	}
+
+	/**
+	 * To be called when a frame has been processed.
+	 * @param processUs how long it took, in microseconds
+	 */
+	public synchronized void onFrameProcessed(long processUs) {
+		// when the window is full, the oldest samples are overwritten
+		this.samples[this.sampleCount % WINDOW_SAMPLES] = processUs;
+		this.sampleCount++;
+	}
+
+	/**
+	 * Decides whether the level should change. It can be called as often as needed:
+	 * nothing is done until the current window is complete.
+	 * @param nowNanos the current {@link System#nanoTime()}
+	 * @param deliveredFrames how many frames have been delivered so far, the lost ones included
+	 * (any counter that only grows)
+	 * @param droppedFrames how many of them have been lost so far, wherever it happened
+	 * @return the new level, if it has changed, or -1. In the first case the preview has
+	 * to be restarted with the new level, and then {@link #restart(long)} called.
+	 */
+	public synchronized int evaluate(long nowNanos, long deliveredFrames, long droppedFrames) {
+		if (this.windowStartNanos < 0) {
+			startWindow(nowNanos, deliveredFrames, droppedFrames);
+			return -1;
+		}
+
+		long elapsed = nowNanos - this.windowStartNanos;
+		long delivered = deliveredFrames - this.windowDelivered;
+		if (elapsed < this.windowNanos || delivered < this.minWindowFrames) {
+			return -1;
+		}
+
+		double fps = delivered * 1e9 / elapsed;
+		this.lastLoad = windowPercentile(90) * fps / 1e6;
+		this.lastDropRate = (double) (droppedFrames - this.windowDropped) / delivered;
+		startWindow(nowNanos, deliveredFrames, droppedFrames);
+
+		if (this.settling) {
+			this.settling = false;
+			return -1;
+		}
+
+		if (this.lastLoad > this.highLoad || this.lastDropRate > this.highDropRate) {
+			this.underloadedCount = 0;
+			if (++this.overloadedCount >= this.downWindows && this.level > 0) {
+				if (nowNanos - this.levelSinceNanos < PROBATION_NANOS) {
+					// we've just stepped up here: don't try again too soon
+					this.blockedUntilNanos[this.level] = nowNanos + this.backoffNanos[this.level];
+					this.backoffNanos[this.level] = Math.min(this.backoffNanos[this.level] * 2, MAX_BACKOFF_NANOS);
+				}
+				// when the load is far too high, more than one step is taken at once
+				long cost = this.ladder[this.level].getCost();
+				int lower = this.level - 1;
+				while (lower > 0 && this.lastLoad * this.ladder[lower].getCost() / cost > this.highLoad) {
+					lower--;
+				}
+				return changeLevel(lower, nowNanos);
+			}
+		}
+		else if (this.lastLoad < this.lowLoad && this.lastDropRate <= this.lowDropRate) {
+			this.overloadedCount = 0;
+			if (++this.underloadedCount >= this.upWindows && this.level < this.ladder.length - 1) {
+				int next = this.level + 1;
+				double nextLoad = this.lastLoad * this.ladder[next].getCost() / this.ladder[this.level].getCost();
+				if (nowNanos >= this.blockedUntilNanos[next] && nextLoad < this.highLoad) {
+					return changeLevel(next, nowNanos);
+				}
+			}
+		}
+		else {
+			this.overloadedCount = 0;
+			this.underloadedCount = 0;
+		}
+		return -1;
+	}
+
+	public synchronized int getLevelIndex() {
+		return this.level;
+	}
+
+	public synchronized Level getLevel() {
+		return this.ladder[this.level];
+	}
+
+	public Level[] getLadder() {
+		return this.ladder.clone();
+	}
+
+	/**
+	 * @return the load measured on the last window (1 means that processing a frame takes
+	 * as long as the time between two frames)
+	 */
+	public synchronized double getLastLoad() {
+		return this.lastLoad;
+	}
+
+	/**
+	 * @return the fraction of frames dropped in the last window
+	 */
+	public synchronized double getLastDropRate() {
+		return this.lastDropRate;
+	}
+
+	private void startWindow(long nowNanos, long deliveredFrames, long droppedFrames) {
+		this.windowStartNanos = nowNanos;
+		this.windowDelivered = deliveredFrames;
+		this.windowDropped = droppedFrames;
+		this.sampleCount = 0;
+	}
+
+	private int changeLevel(int level, long nowNanos) {
+		this.level = level;
+		restart(nowNanos);
+		return level;
+	}
+
+	private long windowPercentile(int percentile) {
+		int count = Math.min(this.sampleCount, WINDOW_SAMPLES);
+		if (count == 0) {
+			return 0;
+		}
+
+		System.arraycopy(this.samples, 0, this.sorted, 0, count);
+		Arrays.sort(this.sorted, 0, count);
+		return this.sorted[Math.min(count - 1, count * percentile / 100)];
+	}
+}
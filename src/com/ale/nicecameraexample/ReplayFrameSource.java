@@ -0,0 +1,113 @@
+package com.ale.nicecameraexample;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A {@link FrameSource} that reads recorded NV21 frames from a file and streams them
+ * at a given frame rate. The file is "raw video": frames of width * height * 3 / 2 bytes,
+ * one after the other, without headers (as written, for example, by
+ * <code>ffmpeg -i video.mp4 -f rawvideo -pix_fmt nv21 frames.nv21</code>).
+ * An incomplete frame at the end of the file is ignored.<br />
+ * It can also replay the frames kept by a {@link FrameRecorder}, from the oldest to the
+ * newest, see {@link #fromRecording(File, double, boolean)}.
+ */
+public class ReplayFrameSource extends GeneratedFrameSource {
+
+	private final RandomAccessFile file;
+	private final FrameRecordingReader recording;
+	private final long firstSequence;
+	private final long frameCount;
+	private final boolean loop;
+
+	/**
+	 * @param file the file to read
+	 * @param width frame width, must be even
+	 * @param height frame height, must be even
+	 * @param fps how many frames per second are delivered, or 0 to deliver them as fast as possible
+	 * @param loop true to start again from the first frame at the end of the file
+	 * @throws IOException if the file can't be opened, or doesn't contain any frame
+	 */
+	public ReplayFrameSource(File file, int width, int height, double fps, boolean loop) throws IOException {
+		super(width, height, fps);
+		this.file = new RandomAccessFile(file, "r");
+		this.recording = null;
+		this.firstSequence = 0;
+		this.frameCount = this.file.length() / getFrameSize();
+		this.loop = loop;
+
+		if (this.frameCount == 0) {
+			this.file.close();
+			throw new IOException(file + " doesn't contain any " + width + "x" + height + " frame");
+		}
+	}
+
+	private ReplayFrameSource(FrameRecordingReader recording, double fps, boolean loop) {
+		super(recording.getWidth(), recording.getHeight(), fps);
+		this.file = null;
+		this.recording = recording;
+		this.firstSequence = recording.getFirstSequence();
+		this.frameCount = recording.getLastSequence() - this.firstSequence + 1;
+		this.loop = loop;
+	}
+
+	/**
+	 * Replays the frames kept in a file written by a {@link FrameRecorder}. The frames
+	 * are the ones in the file when it's opened: the recording should be stopped, or
+	 * its oldest frames could be overwritten before they're replayed (the source
+	 * stops with an error, see {@link #getError()}).
+	 * @param file the recording
+	 * @param fps how many frames per second are delivered, or 0 to deliver them as fast as possible
+	 * @param loop true to start again from the oldest frame after the newest one
+	 * @throws IOException if the file can't be opened, or doesn't contain any frame
+	 */
+	public static ReplayFrameSource fromRecording(File file, double fps, boolean loop) throws IOException {
+		FrameRecordingReader recording = new FrameRecordingReader(file);
+		if (recording.getWriteCount() == 0) {
+			recording.close();
+			throw new IOException(file + " doesn't contain any frame");
+		}
+		return new ReplayFrameSource(recording, fps, loop);
+	}
+
+	/**
+	 * @return how many frames there are in the file
+	 */
+	public long getRecordedFrameCount() {
+		return this.frameCount;
+	}
+
+	/**
+	 * Stops the source and closes the file.
+	 */
+	public void close() throws IOException {
+		stop();
+		if (this.file != null) {
+			this.file.close();
+		}
+		else {
+			this.recording.close();
+		}
+	}
+
+	@Override
+	protected boolean fillFrame(byte[] buffer, long frameIndex) throws IOException {
+		if (frameIndex >= this.frameCount && !this.loop) {
+			return false;
+		}
+
+		if (this.recording != null) {
+			long sequence = this.firstSequence + frameIndex % this.frameCount;
+			if (!this.recording.readFrame(sequence, buffer)) {
+				throw new IOException("frame #" + sequence + " has been overwritten by the recorder");
+			}
+			return true;
+		}
+
+		int frameSize = getFrameSize();
+		this.file.seek((frameIndex % this.frameCount) * frameSize);
+		this.file.readFully(buffer, 0, frameSize);
+		return true;
+	}
+}
@@ -0,0 +1,47 @@
+package com.ale.nicecameraexample;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A {@link ByteArrayOutputStream} whose bytes can be read without copying them.
+ * After {@link #reset()} the buffer is kept, and it only grows: once it's big
+ * enough for the biggest picture, writing into it doesn't allocate anything.
+ */
+public class ReusableOutputStream extends ByteArrayOutputStream {
+
+	public ReusableOutputStream() {
+		super();
+	}
+
+	/**
+	 * @param size the initial size of the buffer
+	 */
+	public ReusableOutputStream(int size) {
+		super(size);
+	}
+
+	/**
+	 * @return the buffer itself: the first {@link #size()} bytes are the ones written.
+	 * It's replaced by a bigger one when it's full.
+	 */
+	public synchronized byte[] getBuffer() {
+		return this.buf;
+	}
+
+	/**
+	 * Inserts some bytes in the middle of the ones already written.
+	 * @param position where the bytes go, between 0 and {@link #size()}
+	 * @param data the bytes to insert
+	 */
+	public synchronized void insert(int position, byte[] data) {
+		if (position < 0 || position > this.count) {
+			throw new IllegalArgumentException("position must be between 0 and " + this.count + ", got " + position);
+		}
+
+		int tail = this.count - position;
+		// makes room at the end (the buffer grows if needed), then shifts the tail there
+		write(data, 0, data.length);
+		System.arraycopy(this.buf, position, this.buf, position + data.length, tail);
+		System.arraycopy(data, 0, this.buf, position, data.length);
+	}
+}
@@ -0,0 +1,219 @@
+package com.ale.nicecameraexample;
+
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+/**
+ * The logic behind {@link BitmapPool}: keeps the buffers that are not needed anymore,
+ * looked up by width, height and format, within a budget in bytes. When it's full,
+ * the least recently released buffers are discarded.<br />
+ * This class doesn't know anything about {@link android.graphics.Bitmap}: buffers
+ * are allocated, measured and discarded by an {@link Allocator}, so the same logic
+ * can be run (and measured) on a plain JVM with arrays. It's thread-safe.
+ */
+public class SizedPool<T> {
+
+	/**
+	 * Knows how the pooled buffers are made: in the app it's just a wrapper around
+	 * {@link android.graphics.Bitmap}.
+	 */
+	public interface Allocator<T> {
+		T allocate(int width, int height, int format);
+
+		int getWidth(T buffer);
+
+		int getHeight(T buffer);
+
+		int getFormat(T buffer);
+
+		/**
+		 * @return how many bytes the buffer takes
+		 */
+		int sizeOf(T buffer);
+
+		/**
+		 * @return false if the buffer can't be written again, so it must not be pooled
+		 */
+		boolean isReusable(T buffer);
+
+		/**
+		 * Called on the buffers that leave the pool without being reused.
+		 */
+		void discard(T buffer);
+	}
+
+	private final Allocator<T> allocator;
+	private final long maxBytes;
+
+	/**
+	 * The buffers in the pool, from the least to the most recently released.
+	 * There are only a few of them, so they can be just scanned.
+	 */
+	private final LinkedList<T> buffers = new LinkedList<T>();
+	private long bytes = 0;
+
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+	private long allocatedBytes = 0;
+	private long reusedBytes = 0;
+
+	/**
+	 * @param maxBytes how much memory the buffers in the pool can take, at most
+	 */
+	public SizedPool(Allocator<T> allocator, long maxBytes) {
+		if (allocator == null) {
+			throw new IllegalArgumentException("allocator is null");
+		}
+		this.allocator = allocator;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Takes a buffer from the pool or, if there's none of the given size, allocates a new one.
+	 * Its content is undefined.
+	 * @return a buffer that can be given back with {@link #release(Object)}
+	 */
+	public T acquire(int width, int height, int format) {
+		T buffer = poll(width, height, format);
+		if (buffer == null) {
+			buffer = this.allocator.allocate(width, height, format);
+			onAllocated(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Takes a buffer from the pool, if there's one of the given size. It's counted as a
+	 * hit or a miss: in the second case the caller should allocate the buffer by itself,
+	 * and tell it to the pool with {@link #onAllocated(Object)}.
+	 * @return a buffer, or null
+	 */
+	public synchronized T poll(int width, int height, int format) {
+		// the most recently released first (descendingIterator() is not available before API 9)
+		ListIterator<T> i = this.buffers.listIterator(this.buffers.size());
+		while (i.hasPrevious()) {
+			T buffer = i.previous();
+			if (this.allocator.getWidth(buffer) == width && this.allocator.getHeight(buffer) == height
+					&& this.allocator.getFormat(buffer) == format) {
+				i.remove();
+				int size = this.allocator.sizeOf(buffer);
+				this.bytes -= size;
+				this.reusedBytes += size;
+				this.hitCount++;
+				return buffer;
+			}
+		}
+
+		this.missCount++;
+		return null;
+	}
+
+	/**
+	 * Counts a buffer that has been allocated because {@link #poll(int, int, int)} returned null.
+	 */
+	public synchronized void onAllocated(T buffer) {
+		this.allocatedBytes += this.allocator.sizeOf(buffer);
+	}
+
+	/**
+	 * Gives a buffer back to the pool. If it's bigger than the whole budget,
+	 * or it can't be reused, it's discarded.
+	 * @param buffer a buffer that is not used anymore, or null
+	 */
+	public void release(T buffer) {
+		if (buffer == null) {
+			return;
+		}
+
+		if (!this.allocator.isReusable(buffer) || this.allocator.sizeOf(buffer) > this.maxBytes) {
+			this.allocator.discard(buffer);
+			return;
+		}
+
+		synchronized (this) {
+			this.buffers.addLast(buffer);
+			this.bytes += this.allocator.sizeOf(buffer);
+			trim();
+		}
+	}
+
+	/**
+	 * Discards all the buffers in the pool.
+	 */
+	public synchronized void clear() {
+		for (T buffer : this.buffers) {
+			this.allocator.discard(buffer);
+		}
+		this.buffers.clear();
+		this.bytes = 0;
+	}
+
+	/**
+	 * @return how many bytes the buffers in the pool take
+	 */
+	public synchronized long getSize() {
+		return this.bytes;
+	}
+
+	public long getMaxSize() {
+		return this.maxBytes;
+	}
+
+	public synchronized int getCount() {
+		return this.buffers.size();
+	}
+
+	public synchronized long getHitCount() {
+		return this.hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return this.missCount;
+	}
+
+	/**
+	 * @return how many buffers have been discarded to stay within the budget
+	 */
+	public synchronized long getEvictionCount() {
+		return this.evictionCount;
+	}
+
+	/**
+	 * @return the fraction of requests served by the pool, between 0 and 1
+	 */
+	public synchronized double getHitRate() {
+		long requests = this.hitCount + this.missCount;
+		return (requests == 0) ? 0 : (double) this.hitCount / requests;
+	}
+
+	/**
+	 * @return how many bytes have been allocated because the pool had no buffer to give
+	 */
+	public synchronized long getAllocatedBytes() {
+		return this.allocatedBytes;
+	}
+
+	/**
+	 * @return how many bytes have been reused instead of being allocated
+	 */
+	public synchronized long getReusedBytes() {
+		return this.reusedBytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return this.buffers.size() + " buffers, " + this.bytes / 1024 + "/" + this.maxBytes / 1024 + " KB, "
+			+ "hit rate " + Math.round(getHitRate() * 100) + "% (" + this.hitCount + " hits, " + this.missCount + " misses), "
+			+ this.evictionCount + " evicted, " + this.allocatedBytes / 1024 + " KB allocated, " + this.reusedBytes / 1024 + " KB reused";
+	}
+
+	private void trim() {
+		while (this.bytes > this.maxBytes) {
+			T eldest = this.buffers.removeFirst();
+			this.bytes -= this.allocator.sizeOf(eldest);
+			this.evictionCount++;
+			this.allocator.discard(eldest);
+		}
+	}
+}
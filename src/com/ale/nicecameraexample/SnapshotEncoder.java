@@ -0,0 +1,324 @@
+package com.ale.nicecameraexample;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Turns preview frames into JPEG stills on a background thread, without asking the
+ * camera for a picture (which stops the preview and reconfigures the sensor).<br />
+ * {@link #submit(byte[], int, int, int, long)} copies the frame into one of a few
+ * working copies and returns immediately; the "SnapshotEncoder" thread encodes it
+ * into an output buffer that is reused for every snapshot, writes the orientation in
+ * its EXIF block (in place) and gives it to the {@link SnapshotListener}. The copies
+ * and the buffer are allocated by the first snapshots, and then only when the frames
+ * get bigger: after that, a snapshot doesn't allocate anything (unless the encoder does).<br />
+ * The snapshots can be limited to one every "min interval" (see {@link #setMinInterval(long)}):
+ * a time-lapse can just submit every frame. The latency (from the submission to the encoded
+ * picture) is recorded in a {@link LatencyHistogram}, together with how many bytes per second
+ * are produced.<br />
+ * The encoding is done by a {@link JpegEncoder}, so all of this works on a plain JVM too.
+ */
+public class SnapshotEncoder {
+
+	/**
+	 * Receives the snapshots. Its methods are called on the encoder's thread.
+	 */
+	public interface SnapshotListener {
+		/**
+		 * @param jpeg the buffer containing the picture, from position 0. It's reused
+		 * by the next snapshot: it's valid only during the call.
+		 * @param length the size of the picture
+		 * @param rotationDegrees the rotation written in the EXIF block of the picture
+		 * @param frameNanos when the frame has been delivered
+		 */
+		void onSnapshot(byte[] jpeg, int length, int rotationDegrees, long frameNanos);
+
+		void onSnapshotFailed(Exception e);
+	}
+
+	/**
+	 * A frame waiting to be encoded, in one of the working copies.
+	 */
+	private static class Job {
+		byte[] frame;
+		int width;
+		int height;
+		int rotationDegrees;
+		long frameNanos;
+		long submitNanos;
+	}
+
+	private static final int JPEG_QUALITY = 90;
+
+	/**
+	 * Queued by {@link #shutdown()} after the last frame: the encoder's thread stops when it takes it.
+	 */
+	private static final Job SHUTDOWN = new Job();
+
+	private final JpegEncoder encoder;
+	private final SnapshotListener listener;
+	private final ArrayBlockingQueue<Job> freeJobs;
+	private final ArrayBlockingQueue<Job> pendingJobs;
+	private final Thread worker;
+
+	// used only by the encoder's thread
+	private final ReusableOutputStream encodeBuffer = new ReusableOutputStream(64 * 1024);
+	private final byte[][] exifSegments = new byte[4][];
+
+	private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+	private volatile long minIntervalNanos = 0;
+	private long lastSubmitNanos = 0;
+	private boolean shutdown = false;
+
+	/**
+	 * The counters, guarded by 'this'.
+	 */
+	private long submittedCount = 0;
+	private long encodedCount = 0;
+	private long failedCount = 0;
+	private long throttledCount = 0;
+	private long busyCount = 0;
+	private long allocationCount = 0;
+	private long encodedBytes = 0;
+	private long firstSubmitNanos = 0;
+	private long lastEncodedNanos = 0;
+
+	/**
+	 * Starts the encoder's thread.
+	 * @param copyCount how many frames can wait to be encoded (at least 1)
+	 * @param encoder encodes the frames
+	 * @param listener receives the snapshots
+	 */
+	public SnapshotEncoder(int copyCount, JpegEncoder encoder, SnapshotListener listener) {
+		if (copyCount < 1) {
+			throw new IllegalArgumentException("at least one copy is required, got " + copyCount);
+		}
+
+		this.encoder = encoder;
+		this.listener = listener;
+		this.freeJobs = new ArrayBlockingQueue<Job>(copyCount);
+		// room for all the copies and SHUTDOWN
+		this.pendingJobs = new ArrayBlockingQueue<Job>(copyCount + 1);
+		for (int i = 0; i < copyCount; i++) {
+			this.freeJobs.add(new Job());
+		}
+		for (int i = 0; i < this.exifSegments.length; i++) {
+			this.exifSegments[i] = ExifOrientation.createExifSegment(i * 90);
+		}
+
+		this.worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				encodeLoop();
+			}
+		}, "SnapshotEncoder");
+		this.worker.start();
+	}
+
+	/**
+	 * Limits the rate of the snapshots: a frame submitted less than 'millis' after the
+	 * last accepted one is refused.
+	 * @param millis the minimum interval between two snapshots, 0 for no limit
+	 */
+	public void setMinInterval(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("interval can't be negative, got " + millis);
+		}
+		this.minIntervalNanos = millis * 1000000;
+	}
+
+	public long getMinInterval() {
+		return this.minIntervalNanos / 1000000;
+	}
+
+	/**
+	 * Takes a snapshot of a frame: it's copied, and encoded later.
+	 * @param nv21 the frame, at least width * height * 3 / 2 bytes
+	 * @param width frame width
+	 * @param height frame height
+	 * @param rotationDegrees how much (clockwise) the frame must be rotated to be upright
+	 * @param frameNanos when the frame has been delivered, as {@link System#nanoTime()}
+	 * @return false if the frame has been refused, because it comes too early (see
+	 * {@link #setMinInterval(long)}), all the copies are still waiting to be encoded,
+	 * or the encoder has been shut down
+	 */
+	public synchronized boolean submit(byte[] nv21, int width, int height, int rotationDegrees, long frameNanos) {
+		if (this.shutdown) {
+			return false;
+		}
+
+		long now = System.nanoTime();
+		long minInterval = this.minIntervalNanos;
+		if (minInterval > 0 && this.lastSubmitNanos != 0 && now - this.lastSubmitNanos < minInterval) {
+			this.throttledCount++;
+			return false;
+		}
+
+		Job job = this.freeJobs.poll();
+		if (job == null) {
+			// the encoder is behind
+			this.busyCount++;
+			return false;
+		}
+
+		int frameSize = width * height * 3 / 2;
+		if (job.frame == null || job.frame.length < frameSize) {
+			job.frame = new byte[frameSize];
+			this.allocationCount++;
+		}
+		System.arraycopy(nv21, 0, job.frame, 0, frameSize);
+		job.width = width;
+		job.height = height;
+		job.rotationDegrees = ((rotationDegrees % 360) + 360) % 360;
+		job.frameNanos = frameNanos;
+		job.submitNanos = now;
+
+		this.lastSubmitNanos = now;
+		if (this.firstSubmitNanos == 0) {
+			this.firstSubmitNanos = now;
+		}
+		this.submittedCount++;
+		this.pendingJobs.add(job);
+		return true;
+	}
+
+	/**
+	 * @return the time from the submission of a frame to its encoded picture
+	 */
+	public LatencyHistogram getLatencyHistogram() {
+		return this.latencyHistogram;
+	}
+
+	public synchronized long getEncodedCount() {
+		return this.encodedCount;
+	}
+
+	/**
+	 * @return how many frames have been refused because they came too early
+	 */
+	public synchronized long getThrottledCount() {
+		return this.throttledCount;
+	}
+
+	/**
+	 * @return how many frames have been refused because the encoder was behind
+	 */
+	public synchronized long getBusyCount() {
+		return this.busyCount;
+	}
+
+	/**
+	 * @return how many times a working copy has been allocated (it stops growing after the warm-up)
+	 */
+	public synchronized long getAllocationCount() {
+		return this.allocationCount;
+	}
+
+	/**
+	 * @return the size of all the pictures encoded so far, in bytes
+	 */
+	public synchronized long getEncodedBytes() {
+		return this.encodedBytes;
+	}
+
+	/**
+	 * @return the bytes produced per second, from the first submission to the last encoded picture
+	 */
+	public synchronized double getBytesPerSecond() {
+		long elapsedNanos = this.lastEncodedNanos - this.firstSubmitNanos;
+		return (this.encodedCount > 0 && elapsedNanos > 0) ? this.encodedBytes * 1e9 / elapsedNanos : 0;
+	}
+
+	/**
+	 * Stops the encoder's thread when the frames already submitted have been encoded:
+	 * a snapshot is never cut in the middle. No more frames are accepted.
+	 */
+	public synchronized void shutdown() {
+		if (this.shutdown) {
+			return;
+		}
+		this.shutdown = true;
+		// after the last frame (submit() holds the same lock), and there's always room for it
+		this.pendingJobs.add(SHUTDOWN);
+	}
+
+	/**
+	 * Waits for the encoder's thread to stop, after {@link #shutdown()}.
+	 * @return true if it has stopped
+	 */
+	boolean awaitTermination(long millis) throws InterruptedException {
+		this.worker.join(millis);
+		return !this.worker.isAlive();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SnapshotEncoder: " + this.encodedCount + "/" + this.submittedCount + " encoded, " + this.failedCount + " failed, "
+			+ this.throttledCount + " throttled, " + this.busyCount + " busy, " + this.allocationCount + " copies allocated, latency p50 "
+			+ this.latencyHistogram.getPercentileMicros(50) / 1000 + " ms, p99 " + this.latencyHistogram.getPercentileMicros(99) / 1000
+			+ " ms, " + Math.round(getBytesPerSecond() / 1024) + " KB/s";
+	}
+
+	private void encodeLoop() {
+		while (true) {
+			Job job;
+			try {
+				job = this.pendingJobs.take();
+			}
+			catch (InterruptedException e) {
+				// nobody but the system is supposed to interrupt us
+				return;
+			}
+			if (job == SHUTDOWN) {
+				return;
+			}
+
+			encode(job);
+			this.freeJobs.add(job);
+		}
+	}
+
+	private void encode(Job job) {
+		ReusableOutputStream out = this.encodeBuffer;
+		try {
+			out.reset();
+			this.encoder.encode(job.frame, job.width, job.height, JPEG_QUALITY, out);
+			setOrientation(out, job.rotationDegrees);
+		}
+		catch (Exception e) {
+			synchronized (this) {
+				this.failedCount++;
+			}
+			this.listener.onSnapshotFailed(e);
+			return;
+		}
+
+		long end = System.nanoTime();
+		this.latencyHistogram.recordNanos(end - job.submitNanos);
+		synchronized (this) {
+			this.encodedCount++;
+			this.encodedBytes += out.size();
+			this.lastEncodedNanos = end;
+		}
+		this.listener.onSnapshot(out.getBuffer(), out.size(), job.rotationDegrees, job.frameNanos);
+	}
+
+	/**
+	 * Writes the orientation in the picture, in the buffer itself if possible.
+	 */
+	private void setOrientation(ReusableOutputStream out, int rotationDegrees) {
+		if (rotationDegrees == 0) {
+			return;
+		}
+
+		int position = ExifOrientation.getExifInsertPosition(out.getBuffer(), out.size());
+		if (position >= 0) {
+			out.insert(position, this.exifSegments[rotationDegrees / 90]);
+			return;
+		}
+
+		// the encoder wrote an EXIF block of its own: it must be patched, on a copy
+		byte[] rotated = ExifOrientation.setOrientation(out.toByteArray(), rotationDegrees);
+		out.reset();
+		out.write(rotated, 0, rotated.length);
+	}
+}
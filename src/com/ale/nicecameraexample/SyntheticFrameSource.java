@@ -0,0 +1,85 @@
+package com.ale.nicecameraexample;
+
+/**
+ * A {@link FrameSource} that draws its own frames: a diagonal gradient that slowly
+ * scrolls, with a bright square moving across it and some noise on top. The content
+ * of every frame depends only on its index and on the seed, so two runs with the
+ * same parameters produce exactly the same frames.
+ */
+public class SyntheticFrameSource extends GeneratedFrameSource {
+
+	/**
+	 * Side of the moving square, and how many pixels it moves at every frame.
+	 */
+	private static final int SQUARE_SIZE = 32;
+	private static final int SQUARE_SPEED = 8;
+
+	private final long seed;
+	private int noiseAmplitude = 4;
+
+	/**
+	 * @param width frame width, must be even
+	 * @param height frame height, must be even
+	 * @param fps how many frames per second are produced, or 0 to produce them as fast as possible
+	 * @param seed the seed of the noise
+	 */
+	public SyntheticFrameSource(int width, int height, double fps, long seed) {
+		super(width, height, fps);
+		this.seed = seed;
+	}
+
+	/**
+	 * @param amplitude the noise goes from -amplitude to +amplitude (default 4). 0 disables it.
+	 */
+	public void setNoiseAmplitude(int amplitude) {
+		this.noiseAmplitude = amplitude;
+	}
+
+	@Override
+	protected boolean fillFrame(byte[] buffer, long frameIndex) {
+		int w = getFrameWidth();
+		int h = getFrameHeight();
+		int shift = (int) (frameIndex & 0xff);
+
+		int squareX = (int) ((frameIndex * SQUARE_SPEED) % Math.max(1, w - SQUARE_SIZE));
+		int squareY = (h - SQUARE_SIZE) / 2;
+
+		// a simple LCG is enough, and it's the same on every JVM
+		int noise = this.noiseAmplitude;
+		long random = (this.seed ^ (frameIndex * 0x9e3779b97f4a7c15L)) * 6364136223846793005L + 1442695040888963407L;
+
+		for (int y = 0; y < h; y++) {
+			int row = y * w;
+			boolean squareRow = (y >= squareY && y < squareY + SQUARE_SIZE);
+
+			for (int x = 0; x < w; x++) {
+				int value;
+				if (squareRow && x >= squareX && x < squareX + SQUARE_SIZE) {
+					value = 235;
+				}
+				else {
+					value = 16 + (((x + y) / 2 + shift) & 0x7f);
+				}
+
+				if (noise > 0) {
+					random = random * 6364136223846793005L + 1442695040888963407L;
+					value += (int) ((random >>> 33) % (2 * noise + 1)) - noise;
+					if (value < 0) value = 0;
+					else if (value > 255) value = 255;
+				}
+				buffer[row + x] = (byte) value;
+			}
+		}
+
+		// chroma: colors change slowly along the frame
+		int frameSize = w * h;
+		for (int y = 0; y < h / 2; y++) {
+			int row = frameSize + y * w;
+			for (int x = 0; x < w; x += 2) {
+				buffer[row + x] = (byte) (128 + ((y + shift) & 0x1f) - 16);     // V
+				buffer[row + x + 1] = (byte) (128 + ((x / 2) & 0x1f) - 16); // U
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,218 @@
+package com.ale.nicecameraexample;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records what the app is doing, and when, in a fixed-size ring of events that
+ * can be exported in the Chrome trace_event format (open it in chrome://tracing,
+ * or in Perfetto): every thread gets its own timeline, so it's easy to see where
+ * the time goes between opening the camera and the first frame, or how the frames
+ * overlap with a capture.<br />
+ * Events are stored in preallocated arrays: recording one takes no lock and
+ * allocates nothing (the names should be constants). When the ring is full the
+ * oldest events are overwritten.<br />
+ * It's usually driven through {@link Tracer}, that costs nothing when tracing is off.
+ */
+public class TraceRecorder {
+
+	private static final byte TYPE_COMPLETE = 'X';
+	private static final byte TYPE_INSTANT = 'i';
+	private static final byte TYPE_COUNTER = 'C';
+
+	private final int mask;
+	private final AtomicLong cursor = new AtomicLong();
+
+	/**
+	 * For every slot, 1 + the sequence number of the event in it, 0 if it's empty,
+	 * or -1 while it's being written.
+	 */
+	private final AtomicLongArray published;
+	private final String[] names;
+	private final byte[] types;
+	private final long[] timestamps;
+	private final long[] values;
+	private final long[] threads;
+
+	private final long originNanos = System.nanoTime();
+
+	/**
+	 * @param capacity how many events are kept, must be a power of two
+	 */
+	public TraceRecorder(int capacity) {
+		if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+			throw new IllegalArgumentException("capacity must be a power of two, got " + capacity);
+		}
+
+		this.mask = capacity - 1;
+		this.published = new AtomicLongArray(capacity);
+		this.names = new String[capacity];
+		this.types = new byte[capacity];
+		this.timestamps = new long[capacity];
+		this.values = new long[capacity];
+		this.threads = new long[capacity];
+	}
+
+	/**
+	 * Records something that took some time.
+	 * @param name what it was
+	 * @param startNanos when it started, as {@link System#nanoTime()}
+	 * @param endNanos when it ended
+	 */
+	public void complete(String name, long startNanos, long endNanos) {
+		record(TYPE_COMPLETE, name, startNanos, endNanos - startNanos);
+	}
+
+	/**
+	 * Records something that happened now.
+	 */
+	public void instant(String name) {
+		record(TYPE_INSTANT, name, System.nanoTime(), 0);
+	}
+
+	/**
+	 * Records the value of a counter (shown as a graph).
+	 */
+	public void counter(String name, long value) {
+		record(TYPE_COUNTER, name, System.nanoTime(), value);
+	}
+
+	/**
+	 * @return how many events have been recorded (including the overwritten ones)
+	 */
+	public long getEventCount() {
+		return this.cursor.get();
+	}
+
+	public int getCapacity() {
+		return this.mask + 1;
+	}
+
+	/**
+	 * Writes the events in the ring as a Chrome trace_event JSON document. It can be
+	 * called while the events are being recorded: the ones that are overwritten in
+	 * the meantime are skipped.
+	 * @param out where to write
+	 * @param threadNames the names of the threads, by {@link Thread#getId()} (for example
+	 * from {@link Thread#getAllStackTraces()}), or null
+	 * @return how many events have been written
+	 * @throws IOException if the output can't be written
+	 */
+	public int writeJson(Writer out, Map<Long, String> threadNames) throws IOException {
+		StringBuilder sb = new StringBuilder(128);
+		out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+		boolean first = true;
+
+		if (threadNames != null) {
+			for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+				sb.setLength(0);
+				sb.append(first ? "" : ",\n").append("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":")
+					.append(thread.getKey()).append(",\"args\":{\"name\":");
+				appendString(sb, thread.getValue());
+				sb.append("}}");
+				out.write(sb.toString());
+				first = false;
+			}
+		}
+
+		long end = this.cursor.get();
+		long start = Math.max(0, end - getCapacity());
+		int count = 0;
+
+		for (long sequence = start; sequence < end; sequence++) {
+			int slot = (int) (sequence & this.mask);
+			if (this.published.get(slot) != sequence + 1) {
+				// not written yet, or already overwritten
+				continue;
+			}
+
+			String name = this.names[slot];
+			byte type = this.types[slot];
+			long timestamp = this.timestamps[slot];
+			long value = this.values[slot];
+			long thread = this.threads[slot];
+
+			if (this.published.get(slot) != sequence + 1) {
+				// overwritten while reading it
+				continue;
+			}
+
+			sb.setLength(0);
+			sb.append(first ? "" : ",\n").append("{\"ph\":\"").append((char) type).append("\",\"name\":");
+			appendString(sb, name);
+			sb.append(",\"pid\":1,\"tid\":").append(thread).append(",\"ts\":");
+			appendMicros(sb, timestamp - this.originNanos);
+
+			if (type == TYPE_COMPLETE) {
+				sb.append(",\"dur\":");
+				appendMicros(sb, value);
+			}
+			else if (type == TYPE_INSTANT) {
+				sb.append(",\"s\":\"t\"");
+			}
+			else {
+				sb.append(",\"args\":{\"value\":").append(value).append('}');
+			}
+			sb.append('}');
+
+			out.write(sb.toString());
+			first = false;
+			count++;
+		}
+
+		out.write("\n]}\n");
+		out.flush();
+		return count;
+	}
+
+	private void record(byte type, String name, long timestamp, long value) {
+		long sequence = this.cursor.getAndIncrement();
+		int slot = (int) (sequence & this.mask);
+
+		// a full barrier: a reader can't see the new fields with the old sequence
+		this.published.getAndSet(slot, -1);
+		this.names[slot] = name;
+		this.types[slot] = type;
+		this.timestamps[slot] = timestamp;
+		this.values[slot] = value;
+		this.threads[slot] = Thread.currentThread().getId();
+		this.published.set(slot, sequence + 1);
+	}
+
+	private static void appendMicros(StringBuilder sb, long nanos) {
+		// microseconds, with three decimals
+		if (nanos < 0) {
+			sb.append('-');
+			nanos = -nanos;
+		}
+		long fraction = nanos % 1000;
+		sb.append(nanos / 1000).append('.');
+		if (fraction < 100) {
+			sb.append('0');
+		}
+		if (fraction < 10) {
+			sb.append('0');
+		}
+		sb.append(fraction);
+	}
+
+	private static void appendString(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			}
+			else if (c < 0x20) {
+				sb.append(' ');
+			}
+			else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+}
@@ -0,0 +1,91 @@
+package com.ale.nicecameraexample;
+
+/**
+ * The switch of the app-wide {@link TraceRecorder}. When tracing is off, every method
+ * here costs a single read of a field, so they can be left on the hot paths:
+ * <pre>
+ * long start = Tracer.begin();
+ * ...
+ * Tracer.end("setupCamera", start);
+ * </pre>
+ * The names should be constants, so that nothing is allocated to record an event.
+ */
+public final class Tracer {
+
+	private static volatile TraceRecorder recorder;
+
+	private Tracer() {
+	}
+
+	/**
+	 * Starts tracing, discarding the events recorded so far.
+	 * @param capacity how many events are kept, must be a power of two
+	 */
+	public static void enable(int capacity) {
+		recorder = new TraceRecorder(capacity);
+	}
+
+	/**
+	 * Stops tracing.
+	 * @return the events recorded so far, or null if tracing was off
+	 */
+	public static TraceRecorder disable() {
+		TraceRecorder r = recorder;
+		recorder = null;
+		return r;
+	}
+
+	public static boolean isEnabled() {
+		return recorder != null;
+	}
+
+	/**
+	 * @return the recorder, or null if tracing is off
+	 */
+	public static TraceRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * @return the current {@link System#nanoTime()} to be passed to {@link #end(String, long)},
+	 * or 0 if tracing is off
+	 */
+	public static long begin() {
+		return (recorder != null) ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records something that started at {@link #begin()} and ends now.
+	 */
+	public static void end(String name, long startNanos) {
+		TraceRecorder r = recorder;
+		if (r != null && startNanos != 0) {
+			r.complete(name, startNanos, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Records something that took some time, for example when it has been measured
+	 * anyway, or it started on another thread.
+	 */
+	public static void complete(String name, long startNanos, long endNanos) {
+		TraceRecorder r = recorder;
+		if (r != null) {
+			r.complete(name, startNanos, endNanos);
+		}
+	}
+
+	public static void instant(String name) {
+		TraceRecorder r = recorder;
+		if (r != null) {
+			r.instant(name);
+		}
+	}
+
+	public static void counter(String name, long value) {
+		TraceRecorder r = recorder;
+		if (r != null) {
+			r.counter(name, value);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package com.ale.nicecameraexample;
+
+/**
+ * Converts the Y'UV420sp (NV21) frames produced by the camera preview into
+ * RGB pixels, using only integer (fixed-point) math.<br />
+ * The caller owns the output arrays: allocate them once (for example when
+ * the preview size is known) and pass them to every call, so no garbage is
+ * produced frame after frame.<br />
+ * If built with more than one thread, the frame is split into horizontal
+ * stripes that are converted in parallel by a {@link ParallelStripes}: the
+ * calling thread works on the first one, the other ones are handled by a set
+ * of worker threads that are started once and reused. The threads can be
+ * shared with other per-frame work (see {@link #YuvConverter(ParallelStripes)}).
+ * Remember to call {@link #release()} when the converter is no longer needed.
+ * @see <a href="http://en.wikipedia.org/wiki/YUV#Y.27UV420sp_.28NV21.29_to_ARGB8888_conversion">YUV Conversion - Wikipedia</a>
+ */
+public class YuvConverter {
+
+	private static final int FORMAT_ARGB8888 = 0;
+	private static final int FORMAT_RGB565 = 1;
+
+	/**
+	 * Upper bound of a color channel before the final shift. Coefficients are
+	 * scaled by 1024 (10 bits), so each channel lives in 18 bits.
+	 */
+	private static final int CHANNEL_MAX = 262143;
+
+	private final ParallelStripes stripes;
+	private final boolean ownsStripes;
+	private boolean released = false;
+
+	/**
+	 * Parameters of the frame that is being converted right now, read by the
+	 * stripes of {@link #convertTask}.
+	 */
+	private byte[] frameIn;
+	private int[] frameOutArgb;
+	private short[] frameOutRgb565;
+	private int frameWidth;
+	private int frameHeight;
+	private int frameFormat;
+
+	private final ParallelStripes.Task convertTask = new ParallelStripes.Task() {
+		@Override
+		public void runStripe(int stripe, int stripeCount) {
+			convertStripe(stripe, stripeCount);
+		}
+	};
+
+	/**
+	 * Builds a single-threaded converter: everything happens on the calling thread.
+	 */
+	public YuvConverter() {
+		this(1);
+	}
+
+	/**
+	 * @param threads how many threads convert a single frame, the calling one included.
+	 * Values lower than 2 give a single-threaded converter.
+	 */
+	public YuvConverter(int threads) {
+		this.stripes = new ParallelStripes(threads, "YuvConverter");
+		this.ownsStripes = true;
+	}
+
+	/**
+	 * Builds a converter that works on threads shared with something else (for example
+	 * the other steps of the frame processing): they're not stopped by {@link #release()}.
+	 * @param stripes the threads that convert a frame, the calling one included
+	 */
+	public YuvConverter(ParallelStripes stripes) {
+		if (stripes == null) {
+			throw new IllegalArgumentException("stripes is null");
+		}
+		this.stripes = stripes;
+		this.ownsStripes = false;
+	}
+
+	/**
+	 * Converts a NV21 frame into ARGB8888 pixels (the format used by
+	 * {@link android.graphics.Bitmap#setPixels(int[], int, int, int, int, int, int)}).
+	 * @param nv21 the source frame, at least width * height * 3 / 2 bytes long
+	 * @param width frame width, must be even
+	 * @param height frame height, must be even
+	 * @param out destination array, at least width * height long
+	 */
+	public void toArgb8888(byte[] nv21, int width, int height, int[] out) {
+		checkArguments(nv21, width, height, out.length);
+		convert(nv21, width, height, out, null, FORMAT_ARGB8888);
+	}
+
+	/**
+	 * Converts a NV21 frame into RGB565 pixels (the format used by
+	 * {@link android.graphics.Bitmap.Config#RGB_565} bitmaps).
+	 * @param nv21 the source frame, at least width * height * 3 / 2 bytes long
+	 * @param width frame width, must be even
+	 * @param height frame height, must be even
+	 * @param out destination array, at least width * height long
+	 */
+	public void toRgb565(byte[] nv21, int width, int height, short[] out) {
+		checkArguments(nv21, width, height, out.length);
+		convert(nv21, width, height, null, out, FORMAT_RGB565);
+	}
+
+	/**
+	 * Stops the worker threads, unless they're shared. The converter can't be used anymore after this call.
+	 */
+	public void release() {
+		this.released = true;
+		if (this.ownsStripes) {
+			this.stripes.release();
+		}
+	}
+
+	/**
+	 * @return the number of threads working on a single frame
+	 */
+	public int getThreadCount() {
+		return this.stripes.getStripeCount();
+	}
+
+	private void checkArguments(byte[] nv21, int width, int height, int outLength) {
+		if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+			throw new IllegalArgumentException("frame size must be positive and even, got " + width + "x" + height);
+		}
+		if (nv21.length < width * height * 3 / 2) {
+			throw new IllegalArgumentException("NV21 buffer is too small for a " + width + "x" + height + " frame");
+		}
+		if (outLength < width * height) {
+			throw new IllegalArgumentException("output buffer is too small for a " + width + "x" + height + " frame");
+		}
+	}
+
+	private void convert(byte[] nv21, int width, int height, int[] outArgb, short[] outRgb565, int format) {
+		if (this.released) {
+			throw new IllegalStateException("converter has been released");
+		}
+
+		this.frameIn = nv21;
+		this.frameOutArgb = outArgb;
+		this.frameOutRgb565 = outRgb565;
+		this.frameWidth = width;
+		this.frameHeight = height;
+		this.frameFormat = format;
+		try {
+			// the workers see the fields written before they're woken up
+			this.stripes.run(this.convertTask);
+		}
+		finally {
+			this.frameIn = null;
+			this.frameOutArgb = null;
+			this.frameOutRgb565 = null;
+		}
+	}
+
+	private void convertStripe(int stripe, int stripes) {
+		// stripes are made of an even number of rows, because
+		// every chroma row is shared by two luma rows
+		int chromaRows = this.frameHeight / 2;
+		int firstRow = (chromaRows * stripe / stripes) * 2;
+		int lastRow = (chromaRows * (stripe + 1) / stripes) * 2;
+
+		if (this.frameFormat == FORMAT_ARGB8888) {
+			argbRows(this.frameIn, this.frameWidth, this.frameHeight, this.frameOutArgb, firstRow, lastRow);
+		}
+		else {
+			rgb565Rows(this.frameIn, this.frameWidth, this.frameHeight, this.frameOutRgb565, firstRow, lastRow);
+		}
+	}
+
+	/**
+	 * Converts the rows in [firstRow, lastRow) to ARGB8888. Both bounds must be even.
+	 */
+	static void argbRows(byte[] nv21, int width, int height, int[] out, int firstRow, int lastRow) {
+		int frameSize = width * height;
+
+		for (int j = firstRow; j < lastRow; j++) {
+			int yp = j * width;
+			int uvp = frameSize + (j >> 1) * width;
+			int u = 0;
+			int v = 0;
+
+			for (int i = 0; i < width; i++, yp++) {
+				int y = (0xff & nv21[yp]) - 16;
+				if (y < 0) y = 0;
+				if ((i & 1) == 0) {
+					v = (0xff & nv21[uvp++]) - 128;
+					u = (0xff & nv21[uvp++]) - 128;
+				}
+
+				int y1192 = 1192 * y;
+				int r = (y1192 + 1634 * v);
+				int g = (y1192 - 833 * v - 400 * u);
+				int b = (y1192 + 2066 * u);
+
+				if (r < 0) r = 0; else if (r > CHANNEL_MAX) r = CHANNEL_MAX;
+				if (g < 0) g = 0; else if (g > CHANNEL_MAX) g = CHANNEL_MAX;
+				if (b < 0) b = 0; else if (b > CHANNEL_MAX) b = CHANNEL_MAX;
+
+				out[yp] = 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+			}
+		}
+	}
+
+	/**
+	 * Converts the rows in [firstRow, lastRow) to RGB565. Both bounds must be even.
+	 */
+	static void rgb565Rows(byte[] nv21, int width, int height, short[] out, int firstRow, int lastRow) {
+		int frameSize = width * height;
+
+		for (int j = firstRow; j < lastRow; j++) {
+			int yp = j * width;
+			int uvp = frameSize + (j >> 1) * width;
+			int u = 0;
+			int v = 0;
+
+			for (int i = 0; i < width; i++, yp++) {
+				int y = (0xff & nv21[yp]) - 16;
+				if (y < 0) y = 0;
+				if ((i & 1) == 0) {
+					v = (0xff & nv21[uvp++]) - 128;
+					u = (0xff & nv21[uvp++]) - 128;
+				}
+
+				int y1192 = 1192 * y;
+				int r = (y1192 + 1634 * v);
+				int g = (y1192 - 833 * v - 400 * u);
+				int b = (y1192 + 2066 * u);
+
+				if (r < 0) r = 0; else if (r > CHANNEL_MAX) r = CHANNEL_MAX;
+				if (g < 0) g = 0; else if (g > CHANNEL_MAX) g = CHANNEL_MAX;
+				if (b < 0) b = 0; else if (b > CHANNEL_MAX) b = CHANNEL_MAX;
+
+				// 18 bits per channel: keep the top 5 (red, blue) or 6 (green) bits
+				out[yp] = (short) (((r >> 13) << 11) | ((g >> 12) << 5) | (b >> 13));
+			}
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.ale.nicecameraexample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+/**
+ * Encodes NV21 frames with {@link YuvImage}, the hardware-independent encoder
+ * available on every Android version.
+ */
+public class YuvImageJpegEncoder implements JpegEncoder {
+
+	@Override
+	public void encode(byte[] nv21, int width, int height, int quality, OutputStream out) throws IOException {
+		YuvImage image = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+		if (!image.compressToJpeg(new Rect(0, 0, width, height), quality, out)) {
+			throw new IOException("the frame can't be encoded");
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BurstCaptureTest {
+
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+
+	/**
+	 * The smallest picture {@link ExifOrientation} accepts, with the first byte of the frame in it.
+	 */
+	static class FakeEncoder implements JpegEncoder {
+		@Override
+		public void encode(byte[] nv21, int width, int height, int quality, OutputStream out) throws IOException {
+			out.write(new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 0, 4, nv21[0], 0, (byte) 0xFF, (byte) 0xD9 });
+		}
+	}
+
+	/**
+	 * Keeps the pictures in memory. It can be held closed, to fill the burst's slots.
+	 */
+	static class FakeStore implements PictureStore {
+		final List<byte[]> pictures = new ArrayList<byte[]>();
+		final CountDownLatch gate;
+
+		FakeStore(boolean open) {
+			this.gate = new CountDownLatch(open ? 0 : 1);
+		}
+
+		@Override
+		public String save(byte[] jpeg, int offset, int length, int orientation) throws IOException {
+			try {
+				this.gate.await();
+			}
+			catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			synchronized (this) {
+				byte[] copy = new byte[length];
+				System.arraycopy(jpeg, offset, copy, 0, length);
+				this.pictures.add(copy);
+				return "picture" + this.pictures.size();
+			}
+		}
+
+		@Override
+		public void flush() { }
+	}
+
+	private final BlockingQueue<BurstCapture.Result> results = new ArrayBlockingQueue<BurstCapture.Result>(4);
+	private final BurstCapture.BurstListener listener = new BurstCapture.BurstListener() {
+		@Override
+		public void onBurstFinished(BurstCapture.Result result) {
+			results.add(result);
+		}
+	};
+	private BurstCapture burst;
+
+	@After
+	public void shutdown() {
+		if (this.burst != null) {
+			this.burst.shutdown();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void everyRequestedFrameIsWritten() throws InterruptedException {
+		FakeStore store = new FakeStore(true);
+		this.burst = new BurstCapture(3, WIDTH, HEIGHT, new FakeEncoder(), store);
+		assertTrue(this.burst.start(5, 0, this.listener));
+		assertFalse(this.burst.start(5, 0, this.listener));
+
+		BurstCapture.Result result = feedUntilFinished(0);
+		assertEquals(5, result.captured);
+		assertEquals(5, result.written);
+		assertEquals(0, result.failed);
+		assertFalse(result.cancelled);
+		assertNull(result.error);
+		assertEquals(5, store.pictures.size());
+		assertFalse(this.burst.isRunning());
+	}
+
+	@Test(timeout = 10000)
+	public void cancelSavesTheCapturedFramesAndSkipsTheOthers() throws InterruptedException {
+		FakeStore store = new FakeStore(false);
+		this.burst = new BurstCapture(3, WIDTH, HEIGHT, new FakeEncoder(), store);
+		this.burst.start(10, 90, this.listener);
+
+		// the store is closed: 3 frames fill the slots, the 4th has none
+		for (int i = 0; i < 4; i++) {
+			this.burst.onFrame(frame(i), i + 1);
+		}
+		this.burst.cancel();
+		this.burst.onFrame(frame(4), 5);
+		assertNull("finished before the captured frames were written", this.results.poll(100, TimeUnit.MILLISECONDS));
+
+		store.gate.countDown();
+		BurstCapture.Result result = this.results.take();
+		assertTrue(result.cancelled);
+		assertEquals(10, result.requested);
+		assertEquals(3, result.captured);
+		assertEquals(3, result.written);
+		assertEquals(8, result.skipped);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i, store.pictures.get(i)[store.pictures.get(i).length - 4]);
+		}
+
+		// the slots are all free again
+		assertTrue(this.burst.start(3, 0, this.listener));
+		assertEquals(3, feedUntilFinished(10).written);
+	}
+
+	@Test(timeout = 10000)
+	public void aBurstCancelledBeforeItsFirstFrameFinishesAtOnce() throws InterruptedException {
+		this.burst = new BurstCapture(2, WIDTH, HEIGHT, new FakeEncoder(), new FakeStore(true));
+		this.burst.cancel();
+
+		this.burst.start(4, 0, this.listener);
+		this.burst.cancel();
+		BurstCapture.Result result = this.results.take();
+		assertTrue(result.cancelled);
+		assertEquals(0, result.captured);
+		assertEquals(4, result.skipped);
+		assertEquals(0, result.elapsedMs);
+		assertFalse(this.burst.isRunning());
+
+		// a second cancel has nothing to do
+		this.burst.cancel();
+		assertNull(this.results.poll(50, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Plays the preview until the burst is finished.
+	 */
+	private BurstCapture.Result feedUntilFinished(int firstFrame) throws InterruptedException {
+		BurstCapture.Result result = null;
+		for (int i = firstFrame; result == null; i++) {
+			this.burst.onFrame(frame(i), i + 1);
+			result = this.results.poll(5, TimeUnit.MILLISECONDS);
+		}
+		return result;
+	}
+
+	private static byte[] frame(int index) {
+		byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+		frame[0] = (byte) index;
+		return frame;
+	}
+}
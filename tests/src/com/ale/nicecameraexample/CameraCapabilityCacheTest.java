@@ -0,0 +1,147 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CameraCapabilityCacheTest {
+
+	private File directory;
+	private File file;
+
+	@Before
+	public void createDirectory() throws IOException {
+		this.directory = TestFiles.createTempDirectory("CameraCapabilityCacheTest");
+		this.file = new File(this.directory, "camera_capabilities");
+	}
+
+	@After
+	public void deleteDirectory() {
+		TestFiles.delete(this.directory);
+	}
+
+	@Test
+	public void entriesSurviveARestart() throws IOException {
+		CameraCapabilityCache cache = new CameraCapabilityCache(this.file, "build-1");
+		cache.put(0, entry(640));
+		cache.put(1, entry(320));
+
+		CameraCapabilityCache reloaded = new CameraCapabilityCache(this.file, "build-1");
+		reloaded.load();
+		assertEntry(640, reloaded.get(0));
+		assertEntry(320, reloaded.get(1));
+		assertNull(reloaded.get(2));
+	}
+
+	@Test
+	public void anotherBuildStartsEmpty() throws IOException {
+		new CameraCapabilityCache(this.file, "build-1").put(0, entry(640));
+
+		assertNull(new CameraCapabilityCache(this.file, "build-2").get(0));
+	}
+
+	@Test
+	public void aCorruptedFileMeansAnEmptyCache() throws IOException {
+		FileOutputStream out = new FileOutputStream(this.file);
+		out.write(TestFrames.random(16, 16, 3));
+		out.close();
+
+		CameraCapabilityCache cache = new CameraCapabilityCache(this.file, "build-1");
+		assertNull(cache.get(0));
+
+		// and it can be overwritten
+		cache.put(0, entry(640));
+		assertEntry(640, new CameraCapabilityCache(this.file, "build-1").get(0));
+	}
+
+	@Test
+	public void updateDoesntWriteTheFile() throws IOException {
+		CameraCapabilityCache cache = new CameraCapabilityCache(this.file, "build-1");
+		cache.update(0, entry(640));
+
+		assertEntry(640, cache.get(0));
+		assertFalse(this.file.exists());
+
+		cache.save();
+		assertEntry(640, new CameraCapabilityCache(this.file, "build-1").get(0));
+	}
+
+	@Test
+	public void clearDeletesTheFile() throws IOException {
+		CameraCapabilityCache cache = new CameraCapabilityCache(this.file, "build-1");
+		cache.put(0, entry(640));
+		cache.clear();
+
+		assertNull(cache.get(0));
+		assertFalse(this.file.exists());
+	}
+
+	@Test(timeout = 10000)
+	public void concurrentSavesLeaveAValidFile() throws Exception {
+		final CameraCapabilityCache cache = new CameraCapabilityCache(this.file, "build-1");
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int cameraId = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 50; i++) {
+							cache.update(cameraId, entry(100 + i));
+							cache.save();
+							cache.get((cameraId + 1) % 4);
+						}
+					}
+					catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(failure.get());
+
+		// the last save has seen every last update
+		cache.save();
+		CameraCapabilityCache reloaded = new CameraCapabilityCache(this.file, "build-1");
+		for (int cameraId = 0; cameraId < threads.length; cameraId++) {
+			assertEntry(149, reloaded.get(cameraId));
+		}
+		assertFalse(new File(this.file.getPath() + ".tmp").exists());
+	}
+
+	private static CameraCapabilityCache.Entry entry(int previewWidth) {
+		return new CameraCapabilityCache.Entry(new int[] { previewWidth, previewWidth * 3 / 4, 176, 144 },
+			new int[] { previewWidth * 2, previewWidth * 3 / 2 },
+			previewWidth, previewWidth * 3 / 4, previewWidth * 2, previewWidth * 3 / 2, 1280, 4096);
+	}
+
+	private static void assertEntry(int previewWidth, CameraCapabilityCache.Entry entry) {
+		assertNotNull(entry);
+		CameraCapabilityCache.Entry expected = entry(previewWidth);
+		assertArrayEquals(expected.previewSizes, entry.previewSizes);
+		assertArrayEquals(expected.pictureSizes, entry.pictureSizes);
+		assertEquals(expected.previewWidth, entry.previewWidth);
+		assertEquals(expected.previewHeight, entry.previewHeight);
+		assertEquals(expected.pictureWidth, entry.pictureWidth);
+		assertEquals(expected.pictureHeight, entry.pictureHeight);
+		assertTrue(entry.isChosenWith(1280, 4096));
+	}
+}
@@ -0,0 +1,315 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class CameraLifecycleTest {
+
+	/**
+	 * A camera that counts the calls, checks that they never overlap and that
+	 * nothing is called after release(). A call can be made to block until it's allowed to go on.
+	 */
+	private static class FakeDevice implements CameraLifecycle.Device {
+		final AtomicInteger startPreviewCount = new AtomicInteger();
+		final AtomicInteger stopPreviewCount = new AtomicInteger();
+		final AtomicInteger takePictureCount = new AtomicInteger();
+		final AtomicInteger releaseCount = new AtomicInteger();
+		final AtomicReference<String> violation = new AtomicReference<String>();
+		private final AtomicInteger active = new AtomicInteger();
+
+		volatile CountDownLatch entered = null;
+		volatile CountDownLatch proceed = null;
+
+		@Override
+		public void startPreview() {
+			call("startPreview", this.startPreviewCount);
+		}
+
+		@Override
+		public void stopPreview() {
+			call("stopPreview", this.stopPreviewCount);
+		}
+
+		@Override
+		public void takePicture() {
+			call("takePicture", this.takePictureCount);
+		}
+
+		@Override
+		public void release() {
+			call("release", this.releaseCount);
+		}
+
+		private void call(String name, AtomicInteger counter) {
+			if (this.active.incrementAndGet() != 1) {
+				this.violation.compareAndSet(null, name + " overlaps another call");
+			}
+			if (this.releaseCount.get() > 0) {
+				this.violation.compareAndSet(null, name + " after release");
+			}
+			counter.incrementAndGet();
+
+			CountDownLatch entered = this.entered;
+			CountDownLatch proceed = this.proceed;
+			if (entered != null && proceed != null) {
+				this.entered = null;
+				entered.countDown();
+				try {
+					proceed.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			this.active.decrementAndGet();
+		}
+	}
+
+	@Test
+	public void normalLifecycle() {
+		CameraLifecycle<FakeDevice> lifecycle = new CameraLifecycle<FakeDevice>();
+		FakeDevice device = new FakeDevice();
+
+		assertTrue(lifecycle.beginOpening());
+		assertFalse(lifecycle.beginOpening());
+		assertEquals(CameraLifecycle.State.OPENING, lifecycle.getState());
+		assertFalse(lifecycle.isOpen());
+
+		assertTrue(lifecycle.onOpened(device));
+		assertTrue(lifecycle.isOpen());
+		assertSame(device, lifecycle.getDevice());
+		assertFalse(lifecycle.takePicture());
+
+		assertTrue(lifecycle.startPreview());
+		assertTrue(lifecycle.isPreviewing());
+		assertTrue(lifecycle.takePicture());
+		assertEquals(CameraLifecycle.State.CAPTURING, lifecycle.getState());
+		assertFalse(lifecycle.takePicture());
+		assertTrue(lifecycle.onPictureTaken());
+		assertFalse(lifecycle.onPictureTaken());
+		assertEquals(CameraLifecycle.State.OPENED, lifecycle.getState());
+
+		assertTrue(lifecycle.startPreview());
+		assertTrue(lifecycle.stopPreview());
+		assertFalse(lifecycle.stopPreview());
+
+		assertTrue(lifecycle.release());
+		assertFalse(lifecycle.release());
+		assertEquals(CameraLifecycle.State.CLOSED, lifecycle.getState());
+		assertNull(lifecycle.getDevice());
+		assertEquals(1, device.releaseCount.get());
+		assertNull(device.violation.get());
+
+		// and it can be opened again
+		assertTrue(lifecycle.beginOpening());
+	}
+
+	@Test
+	public void releaseWhilePreviewingStopsThePreview() {
+		CameraLifecycle<FakeDevice> lifecycle = new CameraLifecycle<FakeDevice>();
+		FakeDevice device = new FakeDevice();
+		lifecycle.beginOpening();
+		lifecycle.onOpened(device);
+		lifecycle.startPreview();
+
+		assertTrue(lifecycle.release());
+		assertEquals(1, device.stopPreviewCount.get());
+		assertEquals(1, device.releaseCount.get());
+		assertNull(device.violation.get());
+	}
+
+	@Test
+	public void releaseWhileOpeningIsDoneWhenTheCameraArrives() {
+		CameraLifecycle<FakeDevice> lifecycle = new CameraLifecycle<FakeDevice>();
+		FakeDevice device = new FakeDevice();
+		lifecycle.beginOpening();
+
+		assertTrue(lifecycle.release());
+		assertFalse(lifecycle.release());
+		assertFalse(lifecycle.isOpen());
+		assertEquals(CameraLifecycle.State.OPENING, lifecycle.getState());
+
+		// too late: the camera is released right away
+		assertFalse(lifecycle.onOpened(device));
+		assertEquals(1, device.releaseCount.get());
+		assertEquals(0, device.stopPreviewCount.get());
+		assertEquals(CameraLifecycle.State.CLOSED, lifecycle.getState());
+		assertNull(lifecycle.getDevice());
+	}
+
+	@Test
+	public void releaseWhileOpeningThenFailure() {
+		CameraLifecycle<FakeDevice> lifecycle = new CameraLifecycle<FakeDevice>();
+		lifecycle.beginOpening();
+		assertTrue(lifecycle.release());
+
+		lifecycle.onOpenFailed();
+		assertEquals(CameraLifecycle.State.CLOSED, lifecycle.getState());
+		assertTrue(lifecycle.beginOpening());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void onOpenedWithoutOpening() {
+		new CameraLifecycle<FakeDevice>().onOpened(new FakeDevice());
+	}
+
+	@Test(timeout = 10000)
+	public void releaseWhileStartingThePreview() throws InterruptedException {
+		releaseWhileBusy(false);
+	}
+
+	@Test(timeout = 10000)
+	public void releaseWhileTakingAPicture() throws InterruptedException {
+		releaseWhileBusy(true);
+	}
+
+	/**
+	 * Blocks a thread inside the device, releases the camera from another one, and checks
+	 * that the release is done by the first thread, after its call.
+	 */
+	private void releaseWhileBusy(final boolean picture) throws InterruptedException {
+		final CameraLifecycle<FakeDevice> lifecycle = new CameraLifecycle<FakeDevice>();
+		FakeDevice device = new FakeDevice();
+		lifecycle.beginOpening();
+		lifecycle.onOpened(device);
+		if (picture) {
+			lifecycle.startPreview();
+		}
+
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch proceed = new CountDownLatch(1);
+		device.proceed = proceed;
+		device.entered = entered;
+
+		final AtomicReference<Boolean> result = new AtomicReference<Boolean>();
+		Thread caller = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				result.set(picture ? lifecycle.takePicture() : lifecycle.startPreview());
+			}
+		});
+		caller.start();
+		entered.await();
+
+		// the camera is busy: the release is only booked
+		assertTrue(lifecycle.release());
+		assertFalse(lifecycle.release());
+		assertFalse(lifecycle.isOpen());
+		assertFalse(lifecycle.isPreviewing());
+		assertFalse(lifecycle.stopPreview());
+		assertEquals(0, device.releaseCount.get());
+
+		proceed.countDown();
+		caller.join();
+
+		assertTrue(result.get());
+		assertEquals(1, device.releaseCount.get());
+		assertEquals(1, device.stopPreviewCount.get());
+		assertEquals(CameraLifecycle.State.CLOSED, lifecycle.getState());
+		assertNull(device.violation.get());
+
+		// the picture arrives after the release: it must be ignored
+		assertFalse(lifecycle.onPictureTaken());
+		assertEquals(CameraLifecycle.State.CLOSED, lifecycle.getState());
+	}
+
+	@Test
+	public void pictureAfterRelease() {
+		CameraLifecycle<FakeDevice> lifecycle = new CameraLifecycle<FakeDevice>();
+		FakeDevice device = new FakeDevice();
+		lifecycle.beginOpening();
+		lifecycle.onOpened(device);
+		lifecycle.startPreview();
+		lifecycle.takePicture();
+
+		assertTrue(lifecycle.release());
+		assertFalse(lifecycle.onPictureTaken());
+		assertEquals(CameraLifecycle.State.CLOSED, lifecycle.getState());
+
+		// not even when the camera is open again
+		lifecycle.beginOpening();
+		lifecycle.onOpened(new FakeDevice());
+		assertFalse(lifecycle.onPictureTaken());
+		assertEquals(CameraLifecycle.State.OPENED, lifecycle.getState());
+	}
+
+	@Test(timeout = 30000)
+	public void manyThreadsHammeringTheTransitions() throws InterruptedException {
+		final CameraLifecycle<FakeDevice> lifecycle = new CameraLifecycle<FakeDevice>();
+		final FakeDevice[] devices = new FakeDevice[2000];
+		final AtomicInteger opened = new AtomicInteger();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final Random random = new Random(t);
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < 20000; i++) {
+							switch (random.nextInt(7)) {
+								case 0:
+									if (lifecycle.beginOpening()) {
+										int index = opened.getAndIncrement();
+										if (index < devices.length) {
+											devices[index] = new FakeDevice();
+											lifecycle.onOpened(devices[index]);
+										}
+										else {
+											lifecycle.onOpenFailed();
+										}
+									}
+									break;
+								case 1: lifecycle.startPreview(); break;
+								case 2: lifecycle.stopPreview(); break;
+								case 3: lifecycle.takePicture(); break;
+								case 4: lifecycle.onPictureTaken(); break;
+								case 5: lifecycle.release(); break;
+								default:
+									lifecycle.isOpen();
+									lifecycle.isPreviewing();
+									lifecycle.getDevice();
+									break;
+							}
+						}
+					}
+					catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+			threads[t].start();
+		}
+
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+
+		// whatever happened, releasing leaves a closed camera, and every device released once
+		lifecycle.release();
+		assertEquals(CameraLifecycle.State.CLOSED, lifecycle.getState());
+		int count = Math.min(opened.get(), devices.length);
+		assertTrue("no camera has ever been opened", count > 0);
+		for (int i = 0; i < count; i++) {
+			assertNull(devices[i].violation.get());
+			assertEquals(1, devices[i].releaseCount.get());
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ExifOrientationTest {
+
+	private static final int[] ROTATIONS = { 0, 90, 180, 270 };
+
+	/**
+	 * The part of a JPEG after the headers: a fake quantization table, the scan and EOI.
+	 */
+	private static final byte[] BODY = {
+		(byte) 0xFF, (byte) 0xDB, 0, 5, 0, 1, 2,
+		(byte) 0xFF, (byte) 0xDA, 0, 4, 0, 0, 10, 20, 30, (byte) 0xFF, 0, 40,
+		(byte) 0xFF, (byte) 0xD9
+	};
+
+	@Test
+	public void pictureWithoutExif() {
+		for (int rotation : ROTATIONS) {
+			byte[] jpeg = jpeg(null);
+			assertEquals(0, ExifOrientation.getRotationDegrees(jpeg));
+
+			byte[] rotated = ExifOrientation.setOrientation(jpeg, rotation);
+			assertEquals(rotation, ExifOrientation.getRotationDegrees(rotated));
+			assertBodyUnchanged(rotated);
+		}
+	}
+
+	@Test
+	public void jfifStaysFirst() {
+		byte[] jfif = { (byte) 0xFF, (byte) 0xE0, 0, 7, 'J', 'F', 'I', 'F', 0 };
+		byte[] rotated = ExifOrientation.setOrientation(jpeg(jfif), 90);
+
+		assertEquals(90, ExifOrientation.getRotationDegrees(rotated));
+		assertArrayEquals(jfif, Arrays.copyOfRange(rotated, 2, 2 + jfif.length));
+		assertEquals(0xE1, rotated[2 + jfif.length + 1] & 0xFF);
+		assertBodyUnchanged(rotated);
+	}
+
+	@Test
+	public void existingTagIsPatchedInPlace() {
+		for (boolean bigEndian : new boolean[] { true, false }) {
+			byte[] jpeg = jpeg(exif(bigEndian, 0x010F, 0x0112, 0x8769));
+			assertEquals(0, ExifOrientation.getRotationDegrees(jpeg));
+
+			for (int rotation : ROTATIONS) {
+				assertSame(jpeg, ExifOrientation.setOrientation(jpeg, rotation));
+				assertEquals(rotation, ExifOrientation.getRotationDegrees(jpeg));
+			}
+			assertBodyUnchanged(jpeg);
+		}
+	}
+
+	@Test
+	public void missingTagIsAdded() {
+		for (boolean bigEndian : new boolean[] { true, false }) {
+			byte[] original = jpeg(exif(bigEndian, 0x010F, 0x0110, 0x8769));
+			byte[] rotated = ExifOrientation.setOrientation(original.clone(), 270);
+
+			assertEquals(270, ExifOrientation.getRotationDegrees(rotated));
+			assertBodyUnchanged(rotated);
+
+			// the other entries are still there, sorted by tag
+			int[] tags = readIfd0Tags(rotated, bigEndian);
+			assertArrayEquals(new int[] { 0x010F, 0x0110, 0x0112, 0x8769 }, tags);
+		}
+	}
+
+	@Test
+	public void insertPositionIsConsistent() {
+		byte[] plain = jpeg(null);
+		int position = ExifOrientation.getExifInsertPosition(plain, plain.length);
+		assertEquals(2, position);
+
+		// inserting the segment by hand gives the same picture as setOrientation()
+		byte[] segment = ExifOrientation.createExifSegment(180);
+		byte[] manual = new byte[plain.length + segment.length];
+		System.arraycopy(plain, 0, manual, 0, position);
+		System.arraycopy(segment, 0, manual, position, segment.length);
+		System.arraycopy(plain, position, manual, position + segment.length, plain.length - position);
+		assertArrayEquals(ExifOrientation.setOrientation(plain, 180), manual);
+
+		byte[] withExif = jpeg(exif(true, 0x0112));
+		assertEquals(-1, ExifOrientation.getExifInsertPosition(withExif, withExif.length));
+	}
+
+	@Test
+	public void badRotationIsRefused() {
+		try {
+			ExifOrientation.setOrientation(jpeg(null), 45);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(ExifOrientation.ORIENTATION_ROTATE_90, ExifOrientation.toExifValue(-270));
+	}
+
+	@Test
+	public void notAJpegIsRefused() {
+		try {
+			ExifOrientation.setOrientation(new byte[] { 1, 2, 3, 4, 5 }, 90);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(0, ExifOrientation.getRotationDegrees(new byte[] { 1, 2, 3, 4, 5 }));
+		assertEquals(0, ExifOrientation.getRotationDegrees(new byte[0]));
+	}
+
+	@Test
+	public void corruptedExifReadsAsZero() {
+		byte[] exif = exif(true, 0x0112);
+
+		byte[] badOrder = exif.clone();
+		badOrder[10] = 'X';
+		assertCorrupted(jpeg(badOrder));
+
+		byte[] badMagic = exif.clone();
+		badMagic[13] = 43;
+		assertCorrupted(jpeg(badMagic));
+
+		byte[] badOffset = exif.clone();
+		badOffset[14] = (byte) 0xFF; // IFD0 far beyond the end of the block
+		assertCorrupted(jpeg(badOffset));
+
+		byte[] badCount = exif.clone();
+		badCount[18] = (byte) 0x7F; // thousands of entries
+		assertCorrupted(jpeg(badCount));
+
+		// just the header
+		byte[] truncated = { (byte) 0xFF, (byte) 0xE1, 0, 10, 'E', 'x', 'i', 'f', 0, 0, 'M', 'M' };
+		assertCorrupted(jpeg(truncated));
+	}
+
+	@Test
+	public void malformedExifIsGivenBackUntouched() {
+		byte[] badOffset = exif(true, 0x0112);
+		badOffset[14] = (byte) 0xFF; // IFD0 far beyond the end of the block
+		byte[] jpeg = jpeg(badOffset);
+		byte[] original = jpeg.clone();
+
+		assertNull(ExifOrientation.trySetOrientation(jpeg, 90));
+		assertArrayEquals(original, jpeg);
+		assertNull(ExifOrientation.trySetOrientation(new byte[] { 1, 2, 3, 4, 5 }, 90));
+
+		// a good picture is rotated as usual
+		byte[] rotated = ExifOrientation.trySetOrientation(jpeg(null), 180);
+		assertEquals(180, ExifOrientation.getRotationDegrees(rotated));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void tryingABadRotationIsRefused() {
+		ExifOrientation.trySetOrientation(jpeg(null), 45);
+	}
+
+	@Test
+	public void randomCorruptionNeverThrowsAnythingElse() {
+		Random random = new Random(1);
+		byte[] original = jpeg(exif(false, 0x010F, 0x0112, 0x8769));
+
+		for (int i = 0; i < 20000; i++) {
+			byte[] jpeg = original.clone();
+			for (int flips = 1 + random.nextInt(3); flips > 0; flips--) {
+				jpeg[random.nextInt(jpeg.length)] = (byte) random.nextInt(256);
+			}
+			if (random.nextInt(4) == 0) {
+				jpeg = Arrays.copyOf(jpeg, random.nextInt(jpeg.length));
+			}
+
+			int degrees = ExifOrientation.getRotationDegrees(jpeg);
+			assertTrue(degrees == 0 || degrees == 90 || degrees == 180 || degrees == 270);
+			try {
+				ExifOrientation.setOrientation(jpeg, 90);
+			} catch (IllegalArgumentException e) {
+				// expected, for most of them
+			}
+		}
+	}
+
+	private static void assertCorrupted(byte[] jpeg) {
+		assertEquals(0, ExifOrientation.getRotationDegrees(jpeg));
+		try {
+			ExifOrientation.setOrientation(jpeg, 90);
+			fail("corrupted EXIF accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static void assertBodyUnchanged(byte[] jpeg) {
+		assertArrayEquals(BODY, Arrays.copyOfRange(jpeg, jpeg.length - BODY.length, jpeg.length));
+	}
+
+	/**
+	 * @param header a segment that goes right after SOI, or null
+	 */
+	private static byte[] jpeg(byte[] header) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(0xFF);
+		out.write(0xD8);
+		if (header != null) {
+			out.write(header, 0, header.length);
+		}
+		out.write(BODY, 0, BODY.length);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return an APP1 EXIF segment with one IFD0 entry per tag (values are 1), and a
+	 * link to a next IFD
+	 */
+	private static byte[] exif(boolean bigEndian, int... tags) {
+		int tiffSize = 8 + 2 + tags.length * 12 + 4;
+		byte[] segment = new byte[10 + tiffSize];
+		segment[0] = (byte) 0xFF;
+		segment[1] = (byte) 0xE1;
+		put(segment, 2, 2, segment.length - 2, true);
+		System.arraycopy(new byte[] { 'E', 'x', 'i', 'f', 0, 0 }, 0, segment, 4, 6);
+
+		int tiff = 10;
+		segment[tiff] = segment[tiff + 1] = (byte) (bigEndian ? 'M' : 'I');
+		put(segment, tiff + 2, 2, 42, bigEndian);
+		put(segment, tiff + 4, 4, 8, bigEndian);
+		put(segment, tiff + 8, 2, tags.length, bigEndian);
+		for (int i = 0; i < tags.length; i++) {
+			int entry = tiff + 10 + i * 12;
+			put(segment, entry, 2, tags[i], bigEndian);
+			put(segment, entry + 2, 2, 3, bigEndian);
+			put(segment, entry + 4, 4, 1, bigEndian);
+			put(segment, entry + 8, 2, 1, bigEndian);
+		}
+		put(segment, tiff + 10 + tags.length * 12, 4, 0x1234, bigEndian);
+		return segment;
+	}
+
+	private static int[] readIfd0Tags(byte[] jpeg, boolean bigEndian) {
+		int tiff = 2 + 10;
+		int ifd0 = tiff + get(jpeg, tiff + 4, 4, bigEndian);
+		int[] tags = new int[get(jpeg, ifd0, 2, bigEndian)];
+		for (int i = 0; i < tags.length; i++) {
+			tags[i] = get(jpeg, ifd0 + 2 + i * 12, 2, bigEndian);
+		}
+		assertEquals("the link to the next IFD is kept", 0x1234, get(jpeg, ifd0 + 2 + tags.length * 12, 4, bigEndian));
+		return tags;
+	}
+
+	private static void put(byte[] data, int pos, int size, int value, boolean bigEndian) {
+		for (int i = 0; i < size; i++) {
+			int shift = bigEndian ? (size - 1 - i) * 8 : i * 8;
+			data[pos + i] = (byte) (value >> shift);
+		}
+	}
+
+	private static int get(byte[] data, int pos, int size, boolean bigEndian) {
+		int value = 0;
+		for (int i = 0; i < size; i++) {
+			int shift = bigEndian ? (size - 1 - i) * 8 : i * 8;
+			value |= (data[pos + i] & 0xFF) << shift;
+		}
+		return value;
+	}
+}
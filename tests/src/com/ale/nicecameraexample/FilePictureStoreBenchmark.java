@@ -0,0 +1,56 @@
+package com.ale.nicecameraexample;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * How fast {@link FilePictureStore} writes pictures, and how long the forces take,
+ * for a few picture sizes and force intervals.<br />
+ * The pictures go to a temporary directory in java.io.tmpdir, or in the directory given
+ * as the first argument (to measure a particular storage), and are deleted at the end.
+ */
+public class FilePictureStoreBenchmark {
+
+	private static final int[] PICTURE_SIZES = { 100 * 1024, 1024 * 1024, 4 * 1024 * 1024 };
+	private static final int[] FORCE_INTERVALS = { 0, 1, 8 };
+	private static final long BYTES_PER_RUN = 64L * 1024 * 1024;
+
+	public static void main(String[] args) throws IOException {
+		File root = (args.length > 0) ? new File(args[0]) : null;
+		File directory = (root != null) ? new File(root, "FilePictureStoreBenchmark") : TestFiles.createTempDirectory("FilePictureStoreBenchmark");
+
+		try {
+			for (int size : PICTURE_SIZES) {
+				byte[] picture = new byte[size];
+				new Random(size).nextBytes(picture);
+				int count = (int) Math.max(8, BYTES_PER_RUN / size);
+
+				for (int forceInterval : FORCE_INTERVALS) {
+					FilePictureStore store = new FilePictureStore(directory, "BENCH_", forceInterval);
+
+					long start = System.nanoTime();
+					for (int i = 0; i < count; i++) {
+						store.save(picture, 0, picture.length, 0);
+					}
+					store.flush();
+					long elapsed = System.nanoTime() - start;
+
+					LatencyHistogram writes = store.getWriteHistogram();
+					LatencyHistogram forces = store.getForceHistogram();
+					System.out.printf("%d KB x %d, force every %d: %.1f MB/s overall, %.1f MB/s writing,"
+						+ " write p50 %d us p99 %d us, force p50 %d us p99 %d us (%d forces)%n",
+						size / 1024, count, forceInterval,
+						store.getWrittenBytes() / (elapsed / 1e9) / (1024 * 1024), store.getWriteBytesPerSecond() / (1024 * 1024),
+						writes.getPercentileMicros(50), writes.getPercentileMicros(99),
+						forces.getPercentileMicros(50), forces.getPercentileMicros(99), forces.getCount());
+
+					TestFiles.delete(directory);
+				}
+			}
+		}
+		finally {
+			TestFiles.delete(directory);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FilePictureStoreTest {
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		this.directory = TestFiles.createTempDirectory("FilePictureStoreTest");
+	}
+
+	@After
+	public void deleteDirectory() {
+		TestFiles.delete(this.directory);
+	}
+
+	@Test
+	public void picturesAreWritten() throws IOException {
+		FilePictureStore store = new FilePictureStore(new File(this.directory, "sub"), "IMG_", 1);
+		byte[] data = TestFrames.random(16, 16, 1);
+
+		String path = store.save(data, 10, 100, 0);
+		assertTrue(path.startsWith(new File(this.directory, "sub").getAbsolutePath()));
+		assertArrayEquals(Arrays.copyOfRange(data, 10, 110), read(new File(path)));
+		assertEquals(100, store.getWrittenBytes());
+		assertEquals(1, store.getWriteHistogram().getCount());
+		assertEquals(1, store.getForceHistogram().getCount());
+	}
+
+	@Test
+	public void namesAreUnique() throws IOException {
+		FilePictureStore store = new FilePictureStore(this.directory, "IMG_", 0);
+		Set<String> paths = new HashSet<String>();
+		for (int i = 0; i < 200; i++) {
+			assertTrue(paths.add(store.save(new byte[] { (byte) i }, 0, 1, 0)));
+		}
+		assertEquals(200, this.directory.list().length);
+		assertEquals(0, store.getForceHistogram().getCount());
+	}
+
+	@Test
+	public void forcesAreBatched() throws IOException {
+		FilePictureStore store = new FilePictureStore(this.directory, "IMG_", 4);
+		for (int i = 0; i < 10; i++) {
+			store.save(new byte[1000], 0, 1000, 0);
+		}
+		assertEquals(2, store.getForceHistogram().getCount());
+
+		store.flush();
+		assertEquals(3, store.getForceHistogram().getCount());
+		store.flush();
+		assertEquals("nothing left to force", 3, store.getForceHistogram().getCount());
+		assertEquals(10, this.directory.list().length);
+	}
+
+	@Test
+	public void failedWriteLeavesNoFile() throws IOException {
+		FilePictureStore store = new FilePictureStore(this.directory, "IMG_", 0);
+		try {
+			store.save(new byte[10], 0, 100, 0);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+		assertEquals(0, this.directory.list().length);
+		assertEquals(0, store.getWrittenBytes());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeForceIntervalIsRefused() {
+		new FilePictureStore(this.directory, "IMG_", -1);
+	}
+
+	private static byte[] read(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < data.length) {
+				read += in.read(data, read, data.length - read);
+			}
+		}
+		finally {
+			in.close();
+		}
+		return data;
+	}
+}
@@ -0,0 +1,220 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class FrameFanoutTest {
+
+	/**
+	 * Counts how many threads are in the consumer at the same time.
+	 */
+	private static class SlowConsumer implements FramePipeline.FrameConsumer {
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger maxActive = new AtomicInteger();
+		final AtomicInteger frames = new AtomicInteger();
+		final long sleepMillis;
+		final CountDownLatch gate;
+
+		SlowConsumer(long sleepMillis) {
+			this.sleepMillis = sleepMillis;
+			this.gate = new CountDownLatch(0);
+		}
+
+		/**
+		 * A consumer that is busy with its first frame until the gate is opened.
+		 */
+		SlowConsumer(CountDownLatch gate) {
+			this.sleepMillis = 0;
+			this.gate = gate;
+		}
+
+		@Override
+		public void onFrame(byte[] frame, long timestampNanos) {
+			int now = this.active.incrementAndGet();
+			if (now > this.maxActive.get()) {
+				this.maxActive.set(now);
+			}
+			try {
+				this.gate.await();
+				Thread.sleep(this.sleepMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			this.frames.incrementAndGet();
+			this.active.decrementAndGet();
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void everyAnalyzerSeesTheFrameAndItGoesBackOnce() throws InterruptedException {
+		Source source = new Source(4);
+		FrameFanout fanout = new FrameFanout();
+		fanout.setPool(source.pool);
+		SlowConsumer fast = new SlowConsumer(0);
+		// stuck on a frame until they've all been dispatched: it can only drop the others
+		SlowConsumer slow = new SlowConsumer(new CountDownLatch(1));
+		fanout.addAnalyzer("fast", fast, 1);
+		fanout.addAnalyzer("slow", slow, 1);
+		FrameFanout.Analyzer sparse = fanout.addAnalyzer("sparse", new SlowConsumer(0), 3);
+		fanout.start();
+
+		for (int i = 0; i < 30; i++) {
+			source.dispatchNext(fanout);
+			Thread.sleep(2);
+		}
+		slow.gate.countDown();
+		fanout.stop();
+
+		assertEquals("every buffer is back in the pool", 0, source.pool.getProcessingCount());
+		assertTrue(slow.frames.get() <= 2);
+		assertTrue(fast.frames.get() > slow.frames.get());
+		assertEquals(20, sparse.getSkippedCount());
+		assertEquals(1, fast.maxActive.get());
+	}
+
+	@Test(timeout = 30000)
+	public void restartWaitsForTheOldThread() throws InterruptedException {
+		Source source = new Source(3);
+		FrameFanout fanout = new FrameFanout();
+		fanout.setPool(source.pool);
+		// slower than a stop() used to wait for
+		SlowConsumer consumer = new SlowConsumer(700);
+		fanout.addAnalyzer("slow", consumer, 1);
+
+		for (int i = 0; i < 3; i++) {
+			fanout.start();
+			source.dispatchNext(fanout);
+			Thread.sleep(50);
+			fanout.stop();
+			assertEquals("stop() waits for the frame", 0, consumer.active.get());
+		}
+
+		assertEquals(1, consumer.maxActive.get());
+		assertEquals(3, consumer.frames.get());
+		assertEquals(0, source.pool.getProcessingCount());
+	}
+
+	@Test(timeout = 30000)
+	public void startAndStopHammering() throws InterruptedException {
+		final Source source = new Source(4);
+		final FrameFanout fanout = new FrameFanout();
+		fanout.setPool(source.pool);
+		SlowConsumer consumer = new SlowConsumer(1);
+		FrameFanout.Analyzer analyzer = fanout.addAnalyzer("busy", consumer, 1);
+		fanout.start();
+
+		Thread dispatcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 3000; i++) {
+					source.dispatchNext(fanout);
+				}
+			}
+		});
+		dispatcher.start();
+
+		for (int i = 0; dispatcher.isAlive(); i++) {
+			if ((i & 1) == 0) {
+				fanout.stop();
+				fanout.start();
+			}
+			else {
+				// the same consumer, with a new analyzer
+				fanout.removeAnalyzer(analyzer);
+				analyzer = fanout.addAnalyzer("busy", consumer, 1);
+			}
+		}
+		dispatcher.join();
+		fanout.stop();
+
+		assertTrue("the consumer ran on " + consumer.maxActive.get() + " threads at once", consumer.maxActive.get() <= 1);
+		assertEquals(0, source.pool.getProcessingCount());
+		assertEquals(0, source.pool.getPendingCount());
+	}
+
+	@Test(timeout = 20000)
+	public void metricsCoverEveryAnalyzer() throws InterruptedException {
+		SyntheticFrameSource source = new SyntheticFrameSource(160, 120, 200, 1);
+		PreviewBufferPool pool = new PreviewBufferPool(3, source.getFrameSize(), PreviewBufferPool.Policy.LATEST_WINS);
+		FrameFanout fanout = new FrameFanout();
+		fanout.setPool(pool);
+		fanout.addAnalyzer("fast", new SlowConsumer(0), 1);
+		SlowConsumer slow = new SlowConsumer(20);
+		fanout.addAnalyzer("slow", slow, 1);
+
+		final FramePipeline pipeline = new FramePipeline(pool, fanout);
+		source.setFrameCallback(new FrameSource.FrameCallback() {
+			@Override
+			public void onFrame(byte[] data) {
+				pipeline.submit(data);
+			}
+		});
+		fanout.start();
+		pipeline.start();
+		pool.attach(source);
+		source.start();
+		Thread.sleep(500);
+		source.stop();
+		pipeline.stop();
+		fanout.stop();
+
+		FrameMetrics.Snapshot metrics = pipeline.getMetrics(null);
+		assertEquals(2, metrics.analyzers.length);
+		assertEquals("fast", metrics.analyzers[0].name);
+		assertEquals("slow", metrics.analyzers[1].name);
+		assertEquals(slow.frames.get(), metrics.analyzers[1].processedFrames);
+		assertTrue("the slow analyzer lost frames", metrics.analyzers[1].droppedFrames > 0);
+		assertEquals(metrics.analyzers[0].droppedFrames + metrics.analyzers[1].droppedFrames, metrics.analyzerDroppedFrames);
+		assertTrue(metrics.analyzers[1].processP50Us >= 15000);
+
+		// a frame is processed when both analyzers are done with it (or have dropped it)
+		assertTrue(metrics.processMaxUs >= 15000);
+		assertTrue(metrics.processedFrames > 0);
+		assertEquals(0, pool.getProcessingCount());
+	}
+
+	/**
+	 * A pool attached to a fake camera, that gives the buffers back in a queue.
+	 */
+	private static class Source {
+		final PreviewBufferPool pool;
+		final ArrayDeque<byte[]> camera = new ArrayDeque<byte[]>();
+
+		Source(int count) {
+			this.pool = new PreviewBufferPool(count, 16, PreviewBufferPool.Policy.LATEST_WINS);
+			this.pool.attach(new PreviewBufferPool.BufferSink() {
+				@Override
+				public void addCallbackBuffer(byte[] buffer) {
+					synchronized (Source.this.camera) {
+						Source.this.camera.add(buffer);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Fills a free buffer (waiting for one if needed) and dispatches it, as the
+		 * pipeline does.
+		 */
+		void dispatchNext(FrameFanout fanout) {
+			byte[] buffer;
+			while (true) {
+				synchronized (this.camera) {
+					buffer = this.camera.poll();
+				}
+				if (buffer != null) {
+					break;
+				}
+				Thread.yield();
+			}
+			this.pool.onFrameDelivered(buffer);
+			fanout.dispatch(this.pool.take(), System.nanoTime());
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class FrameMetricsTest {
+
+	private static final long MS = 1000000L;
+
+	@Test
+	public void fpsAndJitterComeFromTheIntervals() {
+		FrameMetrics metrics = new FrameMetrics();
+		long now = 0;
+		for (int i = 0; i < 101; i++) {
+			metrics.onFrameDelivered(now);
+			// 30 and 40 ms, one after the other
+			now += (i % 2 == 0) ? 30 * MS : 40 * MS;
+		}
+
+		FrameMetrics.Snapshot snapshot = metrics.snapshot(null);
+		assertEquals(101, snapshot.deliveredFrames);
+		assertEquals(35, snapshot.frameIntervalMs, 1e-6);
+		assertEquals(1000.0 / 35, snapshot.deliveredFps, 1e-6);
+		// 100 intervals, 5 ms from the mean each
+		assertEquals(5 * Math.sqrt(100.0 / 99), snapshot.frameJitterMs, 1e-6);
+	}
+
+	@Test
+	public void aSingleFrameHasNoRate() {
+		FrameMetrics metrics = new FrameMetrics();
+		metrics.onFrameDelivered(1000 * MS);
+		FrameMetrics.Snapshot snapshot = metrics.snapshot(null);
+		assertEquals(1, snapshot.deliveredFrames);
+		assertEquals(0, snapshot.deliveredFps, 0);
+		assertEquals(0, snapshot.frameJitterMs, 0);
+	}
+
+	@Test
+	public void stagesGoToTheirOwnHistograms() {
+		FrameMetrics metrics = new FrameMetrics();
+		for (int i = 1; i <= 100; i++) {
+			metrics.onFrameStarted(0, i * 1000L);
+			metrics.onFrameProcessed(0, 10 * MS);
+			metrics.onBufferReturned(0, 7000);
+		}
+
+		FrameMetrics.Snapshot snapshot = metrics.snapshot(null);
+		assertEquals(100, snapshot.processedFrames);
+		// as precise as the histogram buckets
+		assertEquals(50, snapshot.queueP50Us, 50 / 16);
+		assertEquals(95, snapshot.queueP95Us, 95 / 16);
+		assertEquals(99, snapshot.queueP99Us, 99 / 16);
+		assertEquals(10000, snapshot.processP50Us);
+		assertEquals(10000, snapshot.processMaxUs);
+		assertEquals(7, snapshot.returnP99Us);
+	}
+
+	@Test
+	public void lossCountersAreReported() {
+		FrameMetrics metrics = new FrameMetrics();
+		metrics.setLossCounters(12, 3);
+		FrameMetrics.Snapshot snapshot = metrics.snapshot(null);
+		assertEquals(12, snapshot.droppedFrames);
+		assertEquals(3, snapshot.starvedCount);
+
+		// they're totals, not increments
+		metrics.setLossCounters(15, 3);
+		assertEquals(15, metrics.snapshot(snapshot).droppedFrames);
+	}
+
+	@Test
+	public void snapshotsAreReused() {
+		FrameMetrics metrics = new FrameMetrics();
+		FrameMetrics.Snapshot snapshot = new FrameMetrics.Snapshot();
+		assertSame(snapshot, metrics.snapshot(snapshot));
+	}
+
+	@Test
+	public void resetStartsAgain() {
+		FrameMetrics metrics = new FrameMetrics();
+		metrics.onFrameDelivered(0);
+		metrics.onFrameDelivered(33 * MS);
+		metrics.onFrameProcessed(0, MS);
+		metrics.setLossCounters(4, 2);
+		metrics.reset();
+
+		FrameMetrics.Snapshot snapshot = metrics.snapshot(null);
+		assertEquals(0, snapshot.deliveredFrames);
+		assertEquals(0, snapshot.processedFrames);
+		assertEquals(0, snapshot.droppedFrames);
+		assertEquals(0, snapshot.starvedCount);
+		assertEquals(0, snapshot.processP99Us);
+		assertEquals(0, snapshot.deliveredFps, 0);
+
+		// the first frame after a reset has no interval
+		metrics.onFrameDelivered(5000 * MS);
+		metrics.onFrameDelivered(5050 * MS);
+		assertEquals(50, metrics.snapshot(snapshot).frameIntervalMs, 1e-6);
+	}
+
+	@Test
+	public void csvMatchesItsHeader() {
+		FrameMetrics metrics = new FrameMetrics();
+		metrics.onFrameDelivered(0);
+		metrics.onFrameDelivered(33 * MS);
+		String csv = metrics.snapshot(null).toCsv();
+		assertEquals(FrameMetrics.Snapshot.csvHeader().split(",").length, csv.split(",").length);
+		// always with a dot, whatever the locale
+		assertEquals("30.30", csv.split(",")[5]);
+	}
+}
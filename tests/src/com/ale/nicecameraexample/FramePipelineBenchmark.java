@@ -0,0 +1,114 @@
+package com.ale.nicecameraexample;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The whole preview frame path, as set up by {@link CameraPreview}, fed by a
+ * {@link SyntheticFrameSource} instead of the camera: buffer pool, pipeline, and
+ * a {@link FrameFanout} with a luma analyzer and a motion detector. It runs for a few
+ * seconds at the usual camera rates, then as fast as possible, and prints the
+ * {@link FrameMetrics} of every run (as CSV too, so the runs can be compared).<br />
+ * The last run replays the same frames from a raw file, with a {@link ReplayFrameSource}.<br />
+ * Arguments: [seconds per run] [width] [height]
+ */
+public class FramePipelineBenchmark {
+
+	private static final int BUFFER_COUNT = 3;
+
+	public static void main(String[] args) throws Exception {
+		long runMillis = (args.length > 0) ? (long) (Double.parseDouble(args[0]) * 1000) : 3000;
+		int width = (args.length > 1) ? Integer.parseInt(args[1]) : 640;
+		int height = (args.length > 2) ? Integer.parseInt(args[2]) : 480;
+		double[] rates = { 30, 60, 0 };
+
+		System.out.println("run," + FrameMetrics.Snapshot.csvHeader());
+		for (double fps : rates) {
+			for (PreviewBufferPool.Policy policy : PreviewBufferPool.Policy.values()) {
+				String name = ((fps > 0) ? (int) fps + "fps" : "max") + "-" + policy;
+				run(name, new SyntheticFrameSource(width, height, fps, 1), policy, runMillis);
+			}
+		}
+
+		File raw = File.createTempFile("FramePipelineBenchmark", ".nv21");
+		try {
+			writeRawFrames(raw, width, height, 100);
+			ReplayFrameSource replay = new ReplayFrameSource(raw, width, height, 0, true);
+			try {
+				run("replay-max-" + PreviewBufferPool.Policy.LATEST_WINS, replay, PreviewBufferPool.Policy.LATEST_WINS, runMillis);
+			}
+			finally {
+				replay.close();
+			}
+		}
+		finally {
+			raw.delete();
+		}
+	}
+
+	private static void run(String name, GeneratedFrameSource source, PreviewBufferPool.Policy policy, long millis) throws InterruptedException {
+		int width = source.getFrameWidth();
+		int height = source.getFrameHeight();
+		final PreviewBufferPool pool = new PreviewBufferPool(BUFFER_COUNT, source.getFrameSize(), policy);
+
+		final LumaAnalyzer lumaAnalyzer = new LumaAnalyzer(width, height);
+		final LumaAnalyzer.Stats lumaStats = new LumaAnalyzer.Stats();
+		final MotionDetector motionDetector = new MotionDetector(width, height, 16);
+
+		FrameFanout fanout = new FrameFanout();
+		fanout.setPool(pool);
+		fanout.addAnalyzer("Luma", new FramePipeline.FrameConsumer() {
+			@Override
+			public void onFrame(byte[] frame, long timestampNanos) {
+				lumaAnalyzer.analyze(frame, lumaStats);
+			}
+		}, 1);
+		fanout.addAnalyzer("Motion", new FramePipeline.FrameConsumer() {
+			@Override
+			public void onFrame(byte[] frame, long timestampNanos) {
+				motionDetector.update(frame);
+			}
+		}, 2);
+
+		final FramePipeline pipeline = new FramePipeline(pool, fanout);
+		source.setFrameCallback(new FrameSource.FrameCallback() {
+			@Override
+			public void onFrame(byte[] data) {
+				pipeline.submit(data);
+			}
+		});
+
+		fanout.start();
+		pipeline.start();
+		pool.attach(source);
+		source.start();
+
+		Thread.sleep(millis);
+
+		source.stop();
+		pipeline.stop();
+		fanout.stop();
+		FrameMetrics.Snapshot metrics = pipeline.getMetrics(null);
+		pool.detach();
+
+		System.out.println(name + "," + metrics.toCsv());
+		System.out.println("# " + name + ": " + metrics + ", " + source.getSkippedCount() + " skipped by the source");
+	}
+
+	/**
+	 * Writes 'count' synthetic frames one after the other, as raw NV21 video.
+	 */
+	private static void writeRawFrames(File file, int width, int height, int count) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			for (int i = 0; i < count; i++) {
+				out.write(TestFrames.synthetic(width, height, i));
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+}
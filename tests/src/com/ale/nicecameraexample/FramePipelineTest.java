@@ -0,0 +1,189 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class FramePipelineTest {
+
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+
+	@Test(timeout = 20000)
+	public void slowConsumerWithLatestWinsDropsFrames() throws InterruptedException {
+		final AtomicLong consumed = new AtomicLong();
+		Run run = new Run(PreviewBufferPool.Policy.LATEST_WINS, new FramePipeline.FrameConsumer() {
+			@Override
+			public void onFrame(byte[] frame, long timestampNanos) {
+				consumed.incrementAndGet();
+				sleep(5);
+			}
+		});
+		run.runFor(500);
+
+		FrameMetrics.Snapshot metrics = run.metrics;
+		assertTrue("frames have been processed", consumed.get() > 0);
+		assertTrue("frames have been dropped", metrics.droppedFrames > 0);
+		assertEquals(consumed.get(), metrics.processedFrames);
+		assertEquals(metrics.deliveredFrames, metrics.processedFrames + metrics.droppedFrames + run.pendingFrames);
+		assertTrue(metrics.processP50Us >= 4000);
+	}
+
+	@Test(timeout = 20000)
+	public void processAllHoldsTheProducerBack() throws InterruptedException {
+		final AtomicLong consumed = new AtomicLong();
+		Run run = new Run(PreviewBufferPool.Policy.PROCESS_ALL, new FramePipeline.FrameConsumer() {
+			@Override
+			public void onFrame(byte[] frame, long timestampNanos) {
+				consumed.incrementAndGet();
+				// twice the frame period: the source must be left without buffers
+				sleep(10);
+			}
+		});
+		run.runFor(500);
+
+		FrameMetrics.Snapshot metrics = run.metrics;
+		assertEquals(0, metrics.droppedFrames);
+		assertTrue("the pool has been starved", metrics.starvedCount > 0);
+		assertTrue("the source has skipped frames", run.source.getSkippedCount() > 0);
+		assertEquals(consumed.get() + run.pendingFrames, metrics.deliveredFrames);
+	}
+
+	@Test(timeout = 20000)
+	public void framesAreDeliveredInOrder() throws InterruptedException {
+		final long[] last = { -1 };
+		final AtomicLong outOfOrder = new AtomicLong();
+		Run run = new Run(PreviewBufferPool.Policy.PROCESS_ALL, new FramePipeline.FrameConsumer() {
+			@Override
+			public void onFrame(byte[] frame, long timestampNanos) {
+				if (timestampNanos < last[0]) {
+					outOfOrder.incrementAndGet();
+				}
+				last[0] = timestampNanos;
+			}
+		});
+		run.runFor(300);
+
+		assertTrue(last[0] > 0);
+		assertEquals(0, outOfOrder.get());
+	}
+
+	@Test(timeout = 20000)
+	public void dispatcherOwnsTheFrames() throws InterruptedException {
+		final PreviewBufferPool[] pool = new PreviewBufferPool[1];
+		final AtomicLong dispatched = new AtomicLong();
+		Run run = new Run(PreviewBufferPool.Policy.LATEST_WINS, new FramePipeline.FrameDispatcher() {
+			@Override
+			public void dispatch(byte[] frame, long timestampNanos) {
+				dispatched.incrementAndGet();
+				pool[0].release(frame);
+			}
+		});
+		pool[0] = run.pool;
+		run.runFor(300);
+
+		assertTrue(dispatched.get() > 0);
+		assertEquals(0, run.pool.getProcessingCount());
+	}
+
+	@Test(timeout = 20000)
+	public void pipelineCanBeRestarted() throws InterruptedException {
+		final AtomicLong consumed = new AtomicLong();
+		Run run = new Run(PreviewBufferPool.Policy.LATEST_WINS, new FramePipeline.FrameConsumer() {
+			@Override
+			public void onFrame(byte[] frame, long timestampNanos) {
+				consumed.incrementAndGet();
+			}
+		});
+
+		for (int i = 0; i < 5; i++) {
+			run.runFor(50);
+			assertFalse(run.pipeline.isRunning());
+		}
+		assertTrue(consumed.get() > 0);
+		assertEquals(0, run.pool.getProcessingCount());
+	}
+
+	@Test(timeout = 20000)
+	public void aNewPipelineDoesntCountTheLossesOfThePreviousOne() throws InterruptedException {
+		FramePipeline.FrameConsumer slow = new FramePipeline.FrameConsumer() {
+			@Override
+			public void onFrame(byte[] frame, long timestampNanos) {
+				sleep(5);
+			}
+		};
+		Run run = new Run(PreviewBufferPool.Policy.LATEST_WINS, slow);
+		run.runFor(300);
+		assertTrue(run.metrics.droppedFrames > 0);
+
+		// the same pool, as when the preview is restarted with the same size
+		FrameMetrics.Snapshot metrics = new FramePipeline(run.pool, slow).getMetrics(null);
+		assertEquals(0, metrics.droppedFrames);
+		assertEquals(0, metrics.starvedCount);
+	}
+
+	@Test
+	public void foreignBuffersAreRefused() {
+		PreviewBufferPool pool = new PreviewBufferPool(2, 16, PreviewBufferPool.Policy.LATEST_WINS);
+		FramePipeline pipeline = new FramePipeline(pool, (FramePipeline.FrameConsumer) null);
+		assertFalse(pipeline.submit(new byte[16]));
+		assertEquals(0, pipeline.getMetrics(null).deliveredFrames);
+	}
+
+	/**
+	 * A synthetic camera at 200 fps, 3 buffers and the pipeline between them.
+	 */
+	private static class Run {
+		final SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 200, 1);
+		final PreviewBufferPool pool;
+		final FramePipeline pipeline;
+
+		/**
+		 * Read when the source has stopped, before the pending frames are dropped.
+		 */
+		FrameMetrics.Snapshot metrics;
+		int pendingFrames;
+
+		Run(PreviewBufferPool.Policy policy, FramePipeline.FrameConsumer consumer) {
+			this.pool = new PreviewBufferPool(3, this.source.getFrameSize(), policy);
+			this.pipeline = new FramePipeline(this.pool, consumer);
+		}
+
+		Run(PreviewBufferPool.Policy policy, FramePipeline.FrameDispatcher dispatcher) {
+			this.pool = new PreviewBufferPool(3, this.source.getFrameSize(), policy);
+			this.pipeline = new FramePipeline(this.pool, dispatcher);
+		}
+
+		void runFor(long millis) throws InterruptedException {
+			this.source.setFrameCallback(new FrameSource.FrameCallback() {
+				@Override
+				public void onFrame(byte[] data) {
+					Run.this.pipeline.submit(data);
+				}
+			});
+			this.pipeline.start();
+			this.pool.attach(this.source);
+			this.source.start();
+
+			Thread.sleep(millis);
+
+			this.source.stop();
+			this.pipeline.stop();
+			this.pendingFrames = this.pool.getPendingCount();
+			this.metrics = this.pipeline.getMetrics(null);
+			this.pool.detach();
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameRecorderTest {
+
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		this.directory = TestFiles.createTempDirectory("FrameRecorderTest");
+	}
+
+	@After
+	public void deleteDirectory() {
+		TestFiles.delete(this.directory);
+	}
+
+	@Test
+	public void slotCountFitsTheBudget() throws IOException {
+		long budget = 64L * 1024 * 1024;
+		int slotCount = FrameRecorder.slotCountFor(budget, 640, 480);
+		assertEquals(145, slotCount);
+
+		// the file is as big as the budget allows, not a slot more
+		long slotSize = FrameRecorder.INDEX_ENTRY_SIZE + 640 * 480 * 3 / 2;
+		assertTrue(FrameRecorder.HEADER_SIZE + slotCount * slotSize <= budget);
+		assertTrue(FrameRecorder.HEADER_SIZE + (slotCount + 1) * slotSize > budget);
+
+		File file = new File(this.directory, "budget");
+		FrameRecorder recorder = new FrameRecorder(file, WIDTH, HEIGHT, FrameRecorder.slotCountFor(100000, WIDTH, HEIGHT));
+		recorder.close();
+		assertTrue(file.length() <= 100000);
+	}
+
+	@Test
+	public void slotCountIsAtLeastOneAndBelow2GB() {
+		assertEquals(1, FrameRecorder.slotCountFor(0, 640, 480));
+		assertEquals(1, FrameRecorder.slotCountFor(1000, 640, 480));
+
+		int slotCount = FrameRecorder.slotCountFor(Long.MAX_VALUE, 640, 480);
+		assertTrue(FrameRecorder.HEADER_SIZE + (long) slotCount * (FrameRecorder.INDEX_ENTRY_SIZE + 640 * 480 * 3 / 2) <= Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void theLastFramesAreKept() throws IOException {
+		File file = new File(this.directory, "recording");
+		FrameRecorder recorder = new FrameRecorder(file, WIDTH, HEIGHT, 4);
+		for (int i = 0; i < 10; i++) {
+			recorder.record(TestFrames.synthetic(WIDTH, HEIGHT, i), 1000L * i);
+		}
+		assertEquals(10, recorder.getWriteCount());
+
+		// read while the recorder is still open
+		FrameRecordingReader reader = new FrameRecordingReader(file);
+		try {
+			assertEquals(WIDTH, reader.getWidth());
+			assertEquals(HEIGHT, reader.getHeight());
+			assertEquals(6, reader.getFirstSequence());
+			assertEquals(9, reader.getLastSequence());
+
+			byte[] frame = new byte[reader.getFrameSize()];
+			assertFalse(reader.readFrame(5, frame));
+			for (int i = 6; i < 10; i++) {
+				assertTrue(reader.readFrame(i, frame));
+				assertArrayEquals(TestFrames.synthetic(WIDTH, HEIGHT, i), frame);
+				assertEquals(1000L * i, reader.getTimestamp(i));
+			}
+
+			assertEquals(7, reader.findSequence(6500));
+			assertEquals(6, reader.findSequence(0));
+			assertEquals(-1, reader.findSequence(9001));
+		}
+		finally {
+			reader.close();
+			recorder.close();
+		}
+	}
+
+	@Test
+	public void exportWritesRawFrames() throws IOException {
+		File file = new File(this.directory, "recording");
+		FrameRecorder recorder = new FrameRecorder(file, WIDTH, HEIGHT, 8);
+		for (int i = 0; i < 5; i++) {
+			recorder.record(TestFrames.synthetic(WIDTH, HEIGHT, i), 1000L * i);
+		}
+		recorder.close();
+
+		FrameRecordingReader reader = new FrameRecordingReader(file);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(3, reader.export(1000, 3000, out));
+		reader.close();
+
+		byte[] raw = out.toByteArray();
+		int frameSize = WIDTH * HEIGHT * 3 / 2;
+		assertEquals(3 * frameSize, raw.length);
+		for (int i = 0; i < 3; i++) {
+			assertArrayEquals(TestFrames.synthetic(WIDTH, HEIGHT, i + 1), Arrays.copyOfRange(raw, i * frameSize, (i + 1) * frameSize));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void otherFilesAreNotRecordings() throws IOException {
+		File file = new File(this.directory, "other");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(TestFrames.random(64, 64, 1));
+		out.close();
+		new FrameRecordingReader(file);
+	}
+}
@@ -0,0 +1,152 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FrameRingTest {
+
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+	private static final int FRAME_SIZE = WIDTH * HEIGHT * 3 / 2;
+
+	@Test
+	public void theClosestFrameIsPicked() {
+		FrameRing ring = new FrameRing(4, WIDTH, HEIGHT, FRAME_SIZE);
+		for (int i = 0; i < 4; i++) {
+			ring.add(flat(10 * i), 1000 * i);
+		}
+
+		int slot = ring.acquireClosest(2400);
+		assertEquals(2000, ring.getTimestamp(slot));
+		assertArrayEquals(flat(20), ring.getFrame(slot));
+
+		// a held frame can't be picked twice
+		int next = ring.acquireClosest(2400);
+		assertEquals(3000, ring.getTimestamp(next));
+		ring.release(slot);
+		ring.release(next);
+	}
+
+	@Test
+	public void anEmptyRingHasNothingToGive() {
+		FrameRing ring = new FrameRing(2, WIDTH, HEIGHT, FRAME_SIZE);
+		assertEquals(-1, ring.acquireClosest(0));
+		assertEquals(-1, ring.acquireSharpest(0, 1000));
+	}
+
+	@Test
+	public void theOldestFramesAreOverwritten() {
+		FrameRing ring = new FrameRing(3, WIDTH, HEIGHT, FRAME_SIZE);
+		for (int i = 1; i <= 5; i++) {
+			assertTrue(ring.add(flat(i), 1000 * i));
+		}
+
+		// only the last 3 are left
+		int slot = ring.acquireClosest(0);
+		assertEquals(3000, ring.getTimestamp(slot));
+		assertArrayEquals(flat(3), ring.getFrame(slot));
+		ring.release(slot);
+
+		slot = ring.acquireClosest(10000);
+		assertEquals(5000, ring.getTimestamp(slot));
+		assertArrayEquals(flat(5), ring.getFrame(slot));
+		ring.release(slot);
+	}
+
+	@Test
+	public void heldFramesSurviveTheWrapAround() {
+		FrameRing ring = new FrameRing(3, WIDTH, HEIGHT, FRAME_SIZE);
+		ring.add(flat(1), 1000);
+		ring.add(flat(2), 2000);
+		ring.add(flat(3), 3000);
+
+		int held = ring.acquireClosest(1000);
+		for (int i = 4; i <= 10; i++) {
+			assertTrue(ring.add(flat(i), 1000 * i));
+		}
+
+		// the held frame is still the oldest one, untouched
+		assertEquals(1000, ring.getTimestamp(held));
+		assertArrayEquals(flat(1), ring.getFrame(held));
+		int other = ring.acquireClosest(0);
+		assertEquals(9000, ring.getTimestamp(other));
+		ring.release(other);
+
+		// once released, it's the first to go
+		ring.release(held);
+		ring.add(flat(11), 11000);
+		held = ring.acquireClosest(0);
+		assertEquals(9000, ring.getTimestamp(held));
+	}
+
+	@Test
+	public void framesAreDroppedWhenEverySlotIsHeld() {
+		FrameRing ring = new FrameRing(2, WIDTH, HEIGHT, FRAME_SIZE);
+		ring.add(flat(1), 1000);
+		ring.add(flat(2), 2000);
+		int first = ring.acquireClosest(1000);
+		int second = ring.acquireClosest(2000);
+
+		assertFalse(ring.add(flat(3), 3000));
+		assertEquals(1, ring.getDroppedCount());
+		assertEquals(-1, ring.acquireClosest(3000));
+
+		ring.release(first);
+		assertTrue(ring.add(flat(3), 3000));
+		ring.release(second);
+	}
+
+	@Test
+	public void theSharpestFrameOfTheWindowIsPicked() {
+		FrameRing ring = new FrameRing(5, WIDTH, HEIGHT, FRAME_SIZE);
+		byte[] sharp = TestFrames.random(WIDTH, HEIGHT, 1);
+		byte[] alsoSharp = TestFrames.random(WIDTH, HEIGHT, 2);
+		ring.add(flat(50), 1000);
+		ring.add(sharp, 2000);
+		ring.add(flat(60), 3000);
+		ring.add(flat(70), 4000);
+		// a sharp one, but out of the window
+		ring.add(alsoSharp, 9000);
+
+		int slot = ring.acquireSharpest(1000, 4000);
+		assertEquals(2000, ring.getTimestamp(slot));
+		assertArrayEquals(sharp, ring.getFrame(slot));
+		assertTrue(ring.getSharpness(slot) > 0);
+
+		// the sharp one is held: the next best of the window is a flat one
+		int next = ring.acquireSharpest(1000, 4000);
+		long timestamp = ring.getTimestamp(next);
+		assertTrue("picked " + timestamp, timestamp >= 1000 && timestamp <= 4000);
+		ring.release(next);
+
+		slot = ring.acquireSharpest(0, 10000);
+		assertEquals(9000, ring.getTimestamp(slot));
+		assertTrue(ring.getSharpness(slot) > 0);
+	}
+
+	@Test
+	public void anEmptyWindowGivesTheClosestFrame() {
+		FrameRing ring = new FrameRing(3, WIDTH, HEIGHT, FRAME_SIZE);
+		ring.add(TestFrames.random(WIDTH, HEIGHT, 1), 1000);
+		ring.add(flat(20), 5000);
+
+		int slot = ring.acquireSharpest(6000, 7000);
+		assertEquals(5000, ring.getTimestamp(slot));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void anEmptyRingIsRefused() {
+		new FrameRing(0, WIDTH, HEIGHT, FRAME_SIZE);
+	}
+
+	/**
+	 * @return a frame without any detail, so its sharpness is 0
+	 */
+	private static byte[] flat(int luma) {
+		return TestFrames.uniform(WIDTH, HEIGHT, luma, 128, 128);
+	}
+}
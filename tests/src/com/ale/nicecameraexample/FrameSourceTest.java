@@ -0,0 +1,235 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameSourceTest {
+
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		this.directory = TestFiles.createTempDirectory("FrameSourceTest");
+	}
+
+	@After
+	public void deleteDirectory() {
+		TestFiles.delete(this.directory);
+	}
+
+	@Test
+	public void syntheticFramesDependOnlyOnIndexAndSeed() {
+		assertArrayEquals(fill(new SyntheticFrameSource(WIDTH, HEIGHT, 0, 7), 5), fill(new SyntheticFrameSource(WIDTH, HEIGHT, 30, 7), 5));
+		assertFalse(Arrays.equals(fill(new SyntheticFrameSource(WIDTH, HEIGHT, 0, 7), 5), fill(new SyntheticFrameSource(WIDTH, HEIGHT, 0, 8), 5)));
+		assertFalse(Arrays.equals(fill(new SyntheticFrameSource(WIDTH, HEIGHT, 0, 7), 5), fill(new SyntheticFrameSource(WIDTH, HEIGHT, 0, 7), 6)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void oddSizesAreRefused() {
+		new SyntheticFrameSource(WIDTH + 1, HEIGHT, 0, 1);
+	}
+
+	@Test(timeout = 10000)
+	public void buffersAreFilledInOrderAndFramesWithoutBuffersAreSkipped() throws InterruptedException {
+		SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 0, 3);
+		Collector collector = new Collector(source, false);
+		for (int i = 0; i < 4; i++) {
+			source.addCallbackBuffer(new byte[source.getFrameSize()]);
+		}
+
+		source.start();
+		collector.await(4);
+		while (source.getSkippedCount() == 0) {
+			Thread.sleep(1);
+		}
+		source.stop();
+
+		// the buffers are never given back: only the first 4 frames are delivered
+		assertEquals(4, source.getDeliveredCount());
+		assertEquals(source.getFrameCount(), source.getDeliveredCount() + source.getSkippedCount());
+		for (int i = 0; i < 4; i++) {
+			assertArrayEquals(fill(new SyntheticFrameSource(WIDTH, HEIGHT, 0, 3), i), collector.frames.get(i));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void buffersAreNeverQueuedTwiceAcrossAReattach() throws InterruptedException {
+		SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 0, 1);
+		PreviewBufferPool pool = new PreviewBufferPool(3, source.getFrameSize(), PreviewBufferPool.Policy.LATEST_WINS);
+		Collector collector = new Collector(source, false);
+		pool.attach(source);
+		assertEquals(3, source.getQueuedCount());
+
+		// the preview is reconfigured, as for a change of size: the source lives on
+		source.setFrameCallback(null);
+		pool.detach();
+		assertEquals(0, source.getQueuedCount());
+		source.setFrameCallback(collector);
+		pool.attach(source);
+		assertEquals(3, source.getQueuedCount());
+
+		// every buffer is filled once, and then the source has none
+		source.start();
+		collector.await(3);
+		while (source.getSkippedCount() == 0) {
+			Thread.sleep(1);
+		}
+		source.stop();
+		assertEquals(3, source.getDeliveredCount());
+	}
+
+	@Test(timeout = 10000)
+	public void theFrameRateIsRespected() throws InterruptedException {
+		SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 100, 1);
+		new Collector(source, true);
+		source.addCallbackBuffer(new byte[source.getFrameSize()]);
+		source.addCallbackBuffer(new byte[source.getFrameSize()]);
+
+		long start = System.nanoTime();
+		source.start();
+		Thread.sleep(500);
+		source.stop();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		// about 50 frames, with a generous margin for a busy machine
+		assertTrue("too many frames: " + source.getFrameCount(), source.getFrameCount() <= seconds * 100 + 2);
+		assertTrue("too few frames: " + source.getFrameCount(), source.getFrameCount() >= 10);
+	}
+
+	@Test(timeout = 10000)
+	public void rawFilesAreReplayedInOrder() throws IOException, InterruptedException {
+		File raw = new File(this.directory, "frames.nv21");
+		FileOutputStream out = new FileOutputStream(raw);
+		for (int i = 0; i < 5; i++) {
+			out.write(TestFrames.synthetic(WIDTH, HEIGHT, i));
+		}
+		// an incomplete frame at the end is ignored
+		out.write(new byte[100]);
+		out.close();
+
+		ReplayFrameSource replay = new ReplayFrameSource(raw, WIDTH, HEIGHT, 0, false);
+		assertEquals(5, replay.getRecordedFrameCount());
+		Collector collector = new Collector(replay, true);
+		replay.addCallbackBuffer(new byte[replay.getFrameSize()]);
+		replay.start();
+		collector.await(5);
+		waitForTheEnd(replay);
+		replay.close();
+
+		assertNull(replay.getError());
+		assertEquals(5, collector.frames.size());
+		for (int i = 0; i < 5; i++) {
+			assertArrayEquals(TestFrames.synthetic(WIDTH, HEIGHT, i), collector.frames.get(i));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void loopingStartsAgainFromTheFirstFrame() throws IOException, InterruptedException {
+		File raw = new File(this.directory, "frames.nv21");
+		FileOutputStream out = new FileOutputStream(raw);
+		out.write(TestFrames.synthetic(WIDTH, HEIGHT, 0));
+		out.write(TestFrames.synthetic(WIDTH, HEIGHT, 1));
+		out.close();
+
+		ReplayFrameSource replay = new ReplayFrameSource(raw, WIDTH, HEIGHT, 0, true);
+		Collector collector = new Collector(replay, true);
+		replay.addCallbackBuffer(new byte[replay.getFrameSize()]);
+		replay.start();
+		collector.await(5);
+		replay.close();
+
+		for (int i = 0; i < 5; i++) {
+			assertArrayEquals(TestFrames.synthetic(WIDTH, HEIGHT, i % 2), collector.frames.get(i));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void emptyFilesAreRefused() throws IOException {
+		File raw = new File(this.directory, "empty.nv21");
+		new FileOutputStream(raw).close();
+		new ReplayFrameSource(raw, WIDTH, HEIGHT, 0, false);
+	}
+
+	@Test(timeout = 10000)
+	public void recordingsAreReplayedFromTheOldestFrame() throws IOException, InterruptedException {
+		File file = new File(this.directory, "recording");
+		FrameRecorder recorder = new FrameRecorder(file, WIDTH, HEIGHT, 3);
+		for (int i = 0; i < 5; i++) {
+			recorder.record(TestFrames.synthetic(WIDTH, HEIGHT, i), i * 1000L);
+		}
+		recorder.close();
+
+		ReplayFrameSource replay = ReplayFrameSource.fromRecording(file, 0, false);
+		assertEquals(3, replay.getRecordedFrameCount());
+		Collector collector = new Collector(replay, true);
+		replay.addCallbackBuffer(new byte[replay.getFrameSize()]);
+		replay.start();
+		collector.await(3);
+		waitForTheEnd(replay);
+		replay.close();
+
+		assertEquals(3, collector.frames.size());
+		for (int i = 0; i < 3; i++) {
+			assertArrayEquals(TestFrames.synthetic(WIDTH, HEIGHT, i + 2), collector.frames.get(i));
+		}
+	}
+
+	/**
+	 * Keeps a copy of every frame, and gives the buffer back to the source if asked to.
+	 */
+	private static class Collector implements FrameSource.FrameCallback {
+		final List<byte[]> frames = new ArrayList<byte[]>();
+		private final FrameSource source;
+		private final boolean recycle;
+
+		Collector(FrameSource source, boolean recycle) {
+			this.source = source;
+			this.recycle = recycle;
+			source.setFrameCallback(this);
+		}
+
+		@Override
+		public synchronized void onFrame(byte[] data) {
+			this.frames.add(data.clone());
+			notifyAll();
+			if (this.recycle) {
+				this.source.addCallbackBuffer(data);
+			}
+		}
+
+		synchronized void await(int count) throws InterruptedException {
+			while (this.frames.size() < count) {
+				wait();
+			}
+		}
+	}
+
+	private static byte[] fill(SyntheticFrameSource source, long index) {
+		byte[] frame = new byte[source.getFrameSize()];
+		source.fillFrame(frame, index);
+		return frame;
+	}
+
+	private static void waitForTheEnd(GeneratedFrameSource source) throws InterruptedException {
+		while (source.isRunning()) {
+			Thread.sleep(1);
+		}
+	}
+}
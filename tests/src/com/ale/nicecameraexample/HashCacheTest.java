@@ -0,0 +1,118 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HashCacheTest {
+
+	/** Hashes that are 32 or 64 bits away from each other */
+	private static final long A = 0L;
+	private static final long B = -1L;
+	private static final long C = 0x00000000FFFFFFFFL;
+	private static final long D = 0xFFFFFFFF00000000L;
+
+	@Test
+	public void hashesWithinTheDistanceMatch() {
+		HashCache cache = new HashCache(4, 3);
+		assertTrue(cache.add(A));
+
+		assertTrue(cache.contains(A));
+		assertTrue(cache.contains(0x7L));
+		assertFalse(cache.contains(0xFL));
+		assertFalse(cache.contains(B));
+	}
+
+	@Test
+	public void nearDuplicatesAreNotAdded() {
+		HashCache cache = new HashCache(4, 2);
+		assertTrue(cache.add(A));
+		assertFalse(cache.add(0x3L));
+		assertFalse(cache.add(A));
+		assertEquals(1, cache.size());
+
+		assertTrue(cache.add(0x7L));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void aZeroDistanceMatchesOnlyTheSameHash() {
+		HashCache cache = new HashCache(4, 0);
+		cache.add(A);
+		assertTrue(cache.contains(A));
+		assertFalse(cache.contains(0x1L));
+	}
+
+	@Test
+	public void theLeastRecentlyUsedHashIsForgotten() {
+		HashCache cache = new HashCache(3, 3);
+		cache.add(A);
+		cache.add(B);
+		cache.add(C);
+		assertEquals(3, cache.size());
+
+		// A is used again, so B is now the oldest one
+		assertTrue(cache.contains(A));
+		cache.add(D);
+		assertEquals(3, cache.size());
+		assertFalse(cache.contains(B));
+		assertTrue(cache.contains(A));
+		assertTrue(cache.contains(C));
+		assertTrue(cache.contains(D));
+	}
+
+	@Test
+	public void aNearDuplicateIsUsedToo() {
+		HashCache cache = new HashCache(2, 3);
+		cache.add(A);
+		cache.add(B);
+
+		// a near duplicate of A moves A to the front, so B goes away
+		assertFalse(cache.add(0x1L));
+		cache.add(C);
+		assertTrue(cache.contains(A));
+		assertFalse(cache.contains(B));
+	}
+
+	@Test
+	public void theClosestHashIsTheOneUsed() {
+		HashCache cache = new HashCache(2, 4);
+		long close = 0x10L;
+		long far = 0xFL;
+		cache.add(close);
+		cache.add(far);
+
+		// both match A, but only the closest one becomes the most recently used
+		assertTrue(cache.contains(A));
+		cache.add(B);
+		assertFalse(cache.contains(far));
+		assertTrue(cache.contains(close));
+	}
+
+	@Test
+	public void statisticsSurviveAClear() {
+		HashCache cache = new HashCache(4, 3);
+		cache.add(A);
+		cache.contains(A);
+		cache.contains(B);
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertFalse(cache.contains(A));
+
+		// add() counts as a lookup too
+		assertEquals(4, cache.getLookupCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void anEmptyCacheIsRefused() {
+		new HashCache(0, 3);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void aDistanceOver64IsRefused() {
+		new HashCache(4, 65);
+	}
+}
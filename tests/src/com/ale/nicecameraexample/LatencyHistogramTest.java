@@ -0,0 +1,134 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void anEmptyHistogramReportsZeros() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentileMicros(50));
+		assertEquals(0, histogram.getMeanMicros());
+		assertEquals(0, histogram.getMinMicros());
+		assertEquals(0, histogram.getMaxMicros());
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		// the first 32 values have a bucket each
+		for (long value = 0; value < 32; value++) {
+			LatencyHistogram histogram = new LatencyHistogram();
+			histogram.recordMicros(value);
+			histogram.recordMicros(1000000);
+			assertEquals(value, histogram.getPercentileMicros(50));
+		}
+	}
+
+	@Test
+	public void bucketsAreAtMostOneSixteenthWide() {
+		Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			long value = (long) Math.pow(2, random.nextDouble() * 30);
+			LatencyHistogram histogram = new LatencyHistogram();
+			histogram.recordMicros(value);
+			histogram.recordMicros(Integer.MAX_VALUE);
+
+			// the top of the bucket of the value
+			long reported = histogram.getPercentileMicros(50);
+			assertTrue(value + " reported as " + reported, reported >= value && reported <= value + value / 16);
+		}
+	}
+
+	@Test
+	public void bucketBoundaries() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		// 32 and 33 share a bucket, 34 is in the next one
+		histogram.recordMicros(32);
+		histogram.recordMicros(34);
+		histogram.recordMicros(1000);
+		assertEquals(33, histogram.getPercentileMicros(33));
+		assertEquals(35, histogram.getPercentileMicros(66));
+
+		// 992..1023 is a single bucket
+		histogram.reset();
+		histogram.recordMicros(992);
+		histogram.recordMicros(2000);
+		assertEquals(1023, histogram.getPercentileMicros(50));
+		histogram.recordMicros(1024);
+		histogram.recordMicros(1087);
+		assertEquals(1087, histogram.getPercentileMicros(75));
+	}
+
+	@Test
+	public void percentilesNeverExceedTheMax() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.recordMicros(1000);
+		assertEquals(1000, histogram.getPercentileMicros(50));
+		assertEquals(1000, histogram.getPercentileMicros(100));
+	}
+
+	@Test
+	public void percentilesOfAUniformDistribution() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 10000; i++) {
+			histogram.recordMicros(i);
+		}
+
+		assertWithin(5000, histogram.getPercentileMicros(50));
+		assertWithin(9500, histogram.getPercentileMicros(95));
+		assertWithin(9900, histogram.getPercentileMicros(99));
+		assertEquals(10000, histogram.getPercentileMicros(100));
+		assertEquals(1, histogram.getPercentileMicros(0));
+		assertEquals(5000, histogram.getMeanMicros());
+		assertEquals(1, histogram.getMinMicros());
+		assertEquals(10000, histogram.getMaxMicros());
+		assertEquals(10000, histogram.getCount());
+	}
+
+	@Test
+	public void outOfRangeValuesAreClamped() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.recordMicros(-5);
+		assertEquals(0, histogram.getMinMicros());
+		assertEquals(0, histogram.getPercentileMicros(100));
+
+		histogram.recordMicros(Long.MAX_VALUE);
+		assertEquals(Integer.MAX_VALUE, histogram.getMaxMicros());
+		assertEquals(Integer.MAX_VALUE, histogram.getPercentileMicros(100));
+	}
+
+	@Test
+	public void nanosAreTruncatedToMicros() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.recordNanos(1999);
+		histogram.recordNanos(3000);
+		assertEquals(1, histogram.getMinMicros());
+		assertEquals(3, histogram.getMaxMicros());
+	}
+
+	@Test
+	public void resetForgetsEverything() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.recordMicros(500);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMaxMicros());
+
+		histogram.recordMicros(7);
+		assertEquals(7, histogram.getMinMicros());
+		assertEquals(7, histogram.getPercentileMicros(99));
+	}
+
+	/**
+	 * Checks that a percentile is no more than a bucket off the real value.
+	 */
+	private static void assertWithin(long expected, long actual) {
+		assertTrue("expected about " + expected + " but was " + actual, actual >= expected && actual <= expected + expected / 16);
+	}
+}
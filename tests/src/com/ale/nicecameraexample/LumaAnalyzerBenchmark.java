@@ -0,0 +1,39 @@
+package com.ale.nicecameraexample;
+
+/**
+ * How long {@link LumaAnalyzer} takes on a preview frame, reading every pixel and
+ * one every 2, 4 and 8.
+ */
+public class LumaAnalyzerBenchmark {
+
+	private static final int FRAMES = 1000;
+
+	public static void main(String[] args) {
+		int[][] sizes = { { 640, 480 }, { 1280, 960 } };
+		int[] steps = { 1, 2, 4, 8 };
+
+		for (int[] size : sizes) {
+			int width = size[0], height = size[1];
+			byte[][] frames = { TestFrames.synthetic(width, height, 0), TestFrames.synthetic(width, height, 1) };
+			LumaAnalyzer analyzer = new LumaAnalyzer(width, height);
+			LumaAnalyzer.Stats stats = new LumaAnalyzer.Stats();
+
+			for (int step : steps) {
+				analyzer.setStep(step);
+				for (int i = 0; i < FRAMES; i++) {
+					analyzer.analyze(frames[i & 1], stats);
+				}
+
+				long start = System.nanoTime();
+				for (int i = 0; i < FRAMES; i++) {
+					analyzer.analyze(frames[i & 1], stats);
+				}
+				long elapsed = System.nanoTime() - start;
+				TestFrames.sink += stats.sampleCount;
+
+				System.out.printf("%dx%d, step %d: %.3f ms/frame, %.1f Mpixels/s of frame%n",
+					width, height, step, elapsed / 1e6 / FRAMES, (double) width * height * FRAMES / (elapsed / 1e9) / 1e6);
+			}
+		}
+	}
+}
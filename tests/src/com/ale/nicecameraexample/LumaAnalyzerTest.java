@@ -0,0 +1,113 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LumaAnalyzerTest {
+
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void uniformFrame() {
+		LumaAnalyzer analyzer = new LumaAnalyzer(WIDTH, HEIGHT);
+		LumaAnalyzer.Stats stats = new LumaAnalyzer.Stats();
+
+		assertSame(stats, analyzer.analyze(TestFrames.uniform(WIDTH, HEIGHT, 100, 128, 128), stats));
+		assertEquals(WIDTH * HEIGHT, stats.sampleCount);
+		assertEquals(100, stats.mean, DELTA);
+		assertEquals(WIDTH * HEIGHT, stats.histogram[100]);
+		assertEquals(0, stats.focusScore, DELTA);
+		assertEquals(0, stats.clippedLowRatio, DELTA);
+		assertEquals(100, stats.getBrightnessPercentile(1));
+		assertEquals(100, stats.getBrightnessPercentile(99));
+	}
+
+	@Test
+	public void statsMatchAPlainComputation() {
+		byte[] frame = TestFrames.random(WIDTH, HEIGHT, 3);
+		LumaAnalyzer analyzer = new LumaAnalyzer(WIDTH, HEIGHT);
+		analyzer.setClipThresholds(20, 230);
+		LumaAnalyzer.Stats stats = analyzer.analyze(frame, new LumaAnalyzer.Stats());
+
+		long sum = 0;
+		int low = 0, high = 0;
+		double lapSum = 0, lapSquares = 0;
+		int lapCount = 0;
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int p = luma(frame, x, y);
+				sum += p;
+				if (p <= 20) low++;
+				if (p >= 230) high++;
+				if (x > 0 && y > 0 && x < WIDTH - 1 && y < HEIGHT - 1) {
+					int lap = 4 * p - luma(frame, x - 1, y) - luma(frame, x + 1, y) - luma(frame, x, y - 1) - luma(frame, x, y + 1);
+					lapSum += lap;
+					lapSquares += (double) lap * lap;
+					lapCount++;
+				}
+			}
+		}
+
+		int count = WIDTH * HEIGHT;
+		assertEquals((double) sum / count, stats.mean, DELTA);
+		assertEquals((double) low / count, stats.clippedLowRatio, DELTA);
+		assertEquals((double) high / count, stats.clippedHighRatio, DELTA);
+		double lapMean = lapSum / lapCount;
+		assertEquals(lapSquares / lapCount - lapMean * lapMean, stats.focusScore, 1e-6);
+	}
+
+	@Test
+	public void sharpFrameScoresHigherThanBlurredOne() {
+		byte[] sharp = TestFrames.uniform(WIDTH, HEIGHT, 0, 128, 128);
+		byte[] blurred = TestFrames.uniform(WIDTH, HEIGHT, 0, 128, 128);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				// the same stripes, with hard and with soft edges
+				sharp[y * WIDTH + x] = (byte) (((x / 4) & 1) == 0 ? 40 : 200);
+				int phase = x % 8;
+				blurred[y * WIDTH + x] = (byte) (40 + 160 * Math.min(phase, 8 - phase) / 4);
+			}
+		}
+
+		LumaAnalyzer analyzer = new LumaAnalyzer(WIDTH, HEIGHT);
+		double sharpScore = analyzer.analyze(sharp, new LumaAnalyzer.Stats()).focusScore;
+		double blurredScore = analyzer.analyze(blurred, new LumaAnalyzer.Stats()).focusScore;
+		assertTrue(sharpScore + " <= " + blurredScore, sharpScore > blurredScore);
+	}
+
+	@Test
+	public void regionAndStepLimitTheSamples() {
+		byte[] frame = TestFrames.uniform(WIDTH, HEIGHT, 50, 128, 128);
+		for (int y = 10; y < 20; y++) {
+			for (int x = 10; x < 30; x++) {
+				frame[y * WIDTH + x] = (byte) 255;
+			}
+		}
+
+		LumaAnalyzer analyzer = new LumaAnalyzer(WIDTH, HEIGHT);
+		analyzer.setRegion(10, 10, 30, 20);
+		LumaAnalyzer.Stats stats = analyzer.analyze(frame, new LumaAnalyzer.Stats());
+		assertEquals(200, stats.sampleCount);
+		assertEquals(1, stats.clippedHighRatio, DELTA);
+
+		analyzer.setStep(4);
+		stats = analyzer.analyze(frame, stats);
+		assertEquals(5 * 3, stats.sampleCount);
+		assertEquals(5 * 3, stats.histogram[255]);
+		assertEquals(0, stats.histogram[50]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void regionOutsideTheFrameIsRefused() {
+		new LumaAnalyzer(WIDTH, HEIGHT).setRegion(0, 0, WIDTH + 1, HEIGHT);
+	}
+
+	private static int luma(byte[] frame, int x, int y) {
+		return frame[y * WIDTH + x] & 0xff;
+	}
+}
@@ -0,0 +1,50 @@
+package com.ale.nicecameraexample;
+
+/**
+ * How long {@link LumaPyramid} takes to build the integral images and the levels of a
+ * preview frame, with and without the squared sums, on 1 thread and on all the cores.
+ */
+public class LumaPyramidBenchmark {
+
+	private static final int FRAMES = 300;
+	private static final int LEVELS = 4;
+
+	public static void main(String[] args) {
+		int[][] sizes = { { 640, 480 }, { 1280, 960 } };
+		int cores = Runtime.getRuntime().availableProcessors();
+		int[] threadCounts = (cores > 1) ? new int[] { 1, cores } : new int[] { 1 };
+
+		for (int[] size : sizes) {
+			int width = size[0], height = size[1];
+			byte[][] frames = { TestFrames.synthetic(width, height, 0), TestFrames.synthetic(width, height, 1) };
+
+			for (int threads : threadCounts) {
+				for (boolean squaredSums : new boolean[] { false, true }) {
+					LumaPyramid pyramid = new LumaPyramid(width, height, LEVELS, squaredSums, threads);
+					for (int i = 0; i < FRAMES; i++) {
+						pyramid.build(frames[i & 1]);
+					}
+
+					// only the measured frames in the histograms
+					pyramid.release();
+					pyramid = new LumaPyramid(width, height, LEVELS, squaredSums, threads);
+					long start = System.nanoTime();
+					for (int i = 0; i < FRAMES; i++) {
+						pyramid.build(frames[i & 1]);
+					}
+					long elapsed = System.nanoTime() - start;
+					TestFrames.sink += pyramid.sum(0, 0, width, height);
+
+					StringBuilder levels = new StringBuilder();
+					for (int level = 1; level < pyramid.getLevelCount(); level++) {
+						levels.append(level > 1 ? ", " : "").append(pyramid.getLevelHistogram(level).getPercentileMicros(50));
+					}
+					System.out.printf("%dx%d, %d threads%s: %.3f ms/frame (p50 integral %d us, levels %s us)%n",
+						width, height, threads, squaredSums ? ", squared sums" : "", elapsed / 1e6 / FRAMES,
+						pyramid.getIntegralHistogram().getPercentileMicros(50), levels);
+					pyramid.release();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LumaPyramidTest {
+
+	@Test
+	public void sumsMatchTheBruteForceOnes() {
+		int width = 37, height = 23;
+		byte[] luma = TestFrames.random(width, height, 1);
+		LumaPyramid pyramid = new LumaPyramid(width, height, 1, true, 1);
+		pyramid.build(luma);
+
+		Random random = new Random(2);
+		for (int i = 0; i < 200; i++) {
+			int left = random.nextInt(width), right = left + 1 + random.nextInt(width - left);
+			int top = random.nextInt(height), bottom = top + 1 + random.nextInt(height - top);
+
+			long sum = 0, squaredSum = 0;
+			for (int y = top; y < bottom; y++) {
+				for (int x = left; x < right; x++) {
+					int v = luma[y * width + x] & 0xff;
+					sum += v;
+					squaredSum += v * v;
+				}
+			}
+			int area = (right - left) * (bottom - top);
+			double mean = (double) sum / area;
+
+			assertEquals(sum, pyramid.sum(left, top, right, bottom));
+			assertEquals(squaredSum, pyramid.squaredSum(left, top, right, bottom));
+			assertEquals(Math.round(mean), pyramid.mean(left, top, right, bottom), 1);
+			assertEquals((double) squaredSum / area - mean * mean, pyramid.variance(left, top, right, bottom), 1e-6);
+		}
+		assertEquals(0, pyramid.sum(5, 5, 5, 10));
+	}
+
+	@Test
+	public void levelsAreTheRoundedMeansOfTheBlocks() {
+		int width = 64, height = 40;
+		byte[] luma = TestFrames.random(width, height, 3);
+		LumaPyramid pyramid = new LumaPyramid(width, height, 4, false, 1);
+		pyramid.build(luma);
+
+		assertEquals(4, pyramid.getLevelCount());
+		assertEquals(luma, pyramid.getLevel(0));
+		for (int level = 1; level < 4; level++) {
+			int size = 1 << level;
+			int levelWidth = pyramid.getLevelWidth(level);
+			assertEquals(width / size, levelWidth);
+			assertEquals(height / size, pyramid.getLevelHeight(level));
+
+			for (int y = 0; y < pyramid.getLevelHeight(level); y++) {
+				for (int x = 0; x < levelWidth; x++) {
+					int sum = 0;
+					for (int j = 0; j < size; j++) {
+						for (int i = 0; i < size; i++) {
+							sum += luma[(y * size + j) * width + x * size + i] & 0xff;
+						}
+					}
+					int expected = (sum + size * size / 2) / (size * size);
+					assertEquals("level " + level + " at " + x + "," + y, expected, pyramid.getLevel(level)[y * levelWidth + x] & 0xff);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void levelsStopAtOnePixel() {
+		LumaPyramid pyramid = new LumaPyramid(8, 4, 10, false, 1);
+		assertEquals(3, pyramid.getLevelCount());
+		assertEquals(2, pyramid.getLevelWidth(2));
+		assertEquals(1, pyramid.getLevelHeight(2));
+	}
+
+	@Test(timeout = 10000)
+	public void parallelAndSharedBuildsAreTheSame() {
+		// big enough for the levels to be split too, and the stripes don't divide it evenly
+		int width = 642, height = 482;
+		byte[] luma = TestFrames.synthetic(width, height, 5);
+		LumaPyramid expected = new LumaPyramid(width, height, 4, true, 1);
+		expected.build(luma);
+
+		ParallelStripes shared = new ParallelStripes(3, "LumaPyramidTest");
+		try {
+			for (int threads = 2; threads <= 4; threads++) {
+				LumaPyramid pyramid = new LumaPyramid(width, height, 4, true, threads);
+				assertSameStructures(expected, pyramid, luma);
+				pyramid.release();
+			}
+
+			LumaPyramid pyramid = new LumaPyramid(width, height, 4, true, shared);
+			assertSameStructures(expected, pyramid, luma);
+			pyramid.release();
+			// the shared threads are still there
+			new LumaPyramid(width, height, 4, true, shared).build(luma);
+		}
+		finally {
+			shared.release();
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void varianceNeedsTheSquaredSums() {
+		LumaPyramid pyramid = new LumaPyramid(16, 16, 2, false, 1);
+		pyramid.build(TestFrames.uniform(16, 16, 100, 128, 128));
+		assertNull(pyramid.getSquaredIntegral());
+		assertEquals(100 * 16 * 16, pyramid.sum(0, 0, 16, 16));
+		pyramid.variance(0, 0, 16, 16);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void tooBigForIntsIsRefused() {
+		new LumaPyramid(4096, 4096, 1, false, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void smallBufferIsRefused() {
+		new LumaPyramid(16, 16, 1, false, 1).build(new byte[16 * 16 - 1]);
+	}
+
+	/**
+	 * Builds the pyramid twice, to be sure nothing is left from the previous frame.
+	 */
+	private static void assertSameStructures(LumaPyramid expected, LumaPyramid pyramid, byte[] luma) {
+		pyramid.build(TestFrames.random(pyramid.getWidth(), pyramid.getHeight(), 9));
+		pyramid.build(luma);
+		assertArrayEquals(expected.getIntegral(), pyramid.getIntegral());
+		assertArrayEquals(expected.getSquaredIntegral(), pyramid.getSquaredIntegral());
+		for (int level = 1; level < expected.getLevelCount(); level++) {
+			assertArrayEquals("level " + level, expected.getLevel(level), pyramid.getLevel(level));
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MotionDetectorTest {
+
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+	private static final int BLOCK = 16;
+	private static final int BACKGROUND = 60;
+	private static final int OBJECT = 200;
+
+	@Test
+	public void firstFrameIsAlwaysChanged() {
+		MotionDetector detector = new MotionDetector(WIDTH, HEIGHT, BLOCK);
+		assertTrue(detector.update(frame(-1, -1, 0)));
+		assertEquals(1, detector.getChangeScore(), 0);
+		assertEquals(10 * 8, detector.getDirtyBlockCount());
+	}
+
+	@Test
+	public void stillNoisySceneIsNotChanged() {
+		MotionDetector detector = new MotionDetector(WIDTH, HEIGHT, BLOCK);
+		detector.update(frame(-1, -1, 0));
+		for (int i = 1; i < 50; i++) {
+			assertFalse("frame " + i, detector.update(frame(-1, -1, i)));
+			assertEquals(0, detector.getDirtyBlockCount());
+		}
+	}
+
+	@Test
+	public void movingBlockDirtiesOnlyItsBlocks() {
+		MotionDetector detector = new MotionDetector(WIDTH, HEIGHT, BLOCK);
+		detector.update(frame(-1, -1, 0));
+		detector.update(frame(-1, -1, 1));
+
+		// a 16x16 object aligned to the block grid, moving one block to the right every frame
+		for (int step = 0; step < 6; step++) {
+			int column = 1 + step;
+			assertTrue("step " + step, detector.update(frame(column * BLOCK, 3 * BLOCK, 2 + step)));
+
+			for (int row = 0; row < detector.getBlockRows(); row++) {
+				for (int c = 0; c < detector.getBlockColumns(); c++) {
+					// only where the object is now: the background has barely moved
+					// where it was, so the block it left is clean again
+					boolean expected = row == 3 && c == column;
+					assertEquals("block " + c + "," + row + " at step " + step, expected, detector.isBlockDirty(c, row));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void objectThatStopsIsAbsorbed() {
+		MotionDetector detector = new MotionDetector(WIDTH, HEIGHT, BLOCK);
+		detector.update(frame(-1, -1, 0));
+		assertTrue(detector.update(frame(40, 40, 1)));
+
+		boolean absorbed = false;
+		for (int i = 0; i < 200 && !absorbed; i++) {
+			absorbed = !detector.update(frame(40, 40, 2 + i));
+		}
+		assertTrue("the background follows the scene", absorbed);
+	}
+
+	@Test
+	public void slowLightChangeIsAbsorbed() {
+		MotionDetector detector = new MotionDetector(WIDTH, HEIGHT, BLOCK);
+		byte[] frame = new byte[WIDTH * HEIGHT];
+		for (int luma = 60; luma < 160; luma++) {
+			Arrays.fill(frame, (byte) luma);
+			boolean changed = detector.update(frame);
+			if (luma > 60) {
+				assertFalse("luma " + luma, changed);
+			}
+		}
+	}
+
+	@Test
+	public void thresholdsAreApplied() {
+		MotionDetector detector = new MotionDetector(WIDTH, HEIGHT, BLOCK);
+		detector.setMinChangeScore(0.05); // 4 blocks
+		detector.update(frame(-1, -1, 0));
+		assertFalse("a single block is not enough", detector.update(frame(0, 0, 1)));
+		assertEquals(1, detector.getDirtyBlockCount());
+
+		detector.reset();
+		assertTrue(detector.update(frame(-1, -1, 2)));
+	}
+
+	@Test
+	public void partialBlocksOnTheBorder() {
+		// 100x70 with 16x16 blocks: the last column and row are 4 and 6 pixels
+		MotionDetector detector = new MotionDetector(100, 70, BLOCK);
+		assertEquals(7, detector.getBlockColumns());
+		assertEquals(5, detector.getBlockRows());
+
+		byte[] frame = new byte[100 * 70];
+		Arrays.fill(frame, (byte) BACKGROUND);
+		detector.update(frame);
+		frame[69 * 100 + 99] = (byte) OBJECT;
+		detector.setBlockThreshold(1.0 / 24);
+		assertTrue(detector.update(frame));
+		assertTrue(detector.isBlockDirty(6, 4));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void badShiftIsRefused() {
+		new MotionDetector(WIDTH, HEIGHT, BLOCK).setBackgroundShift(9);
+	}
+
+	/**
+	 * A flat background with some noise, and a bright square of BLOCK pixels at (x, y),
+	 * or none if x is negative.
+	 */
+	private static byte[] frame(int x, int y, long seed) {
+		Random random = new Random(seed);
+		byte[] frame = new byte[WIDTH * HEIGHT];
+		for (int i = 0; i < frame.length; i++) {
+			frame[i] = (byte) (BACKGROUND + random.nextInt(11) - 5);
+		}
+		if (x >= 0) {
+			for (int row = y; row < y + BLOCK; row++) {
+				for (int column = x; column < x + BLOCK; column++) {
+					frame[row * WIDTH + column] = (byte) OBJECT;
+				}
+			}
+		}
+		return frame;
+	}
+}
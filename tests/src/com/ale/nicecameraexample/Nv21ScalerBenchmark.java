@@ -0,0 +1,40 @@
+package com.ale.nicecameraexample;
+
+/**
+ * How long {@link Nv21Scaler} takes to reduce a preview frame to the usual analysis
+ * sizes, with both filters, with and without the chroma plane.
+ */
+public class Nv21ScalerBenchmark {
+
+	private static final int FRAMES = 1000;
+
+	public static void main(String[] args) {
+		int[][] sources = { { 640, 480 }, { 1280, 960 } };
+		int[][] outputs = { { 320, 240 }, { 160, 120 } };
+
+		for (int[] source : sources) {
+			byte[] frame = TestFrames.synthetic(source[0], source[1], 0);
+
+			for (int[] output : outputs) {
+				for (Nv21Scaler.Filter filter : Nv21Scaler.Filter.values()) {
+					for (boolean lumaOnly : new boolean[] { false, true }) {
+						Nv21Scaler scaler = new Nv21Scaler(output[0], output[1], filter, lumaOnly);
+						for (int i = 0; i < FRAMES; i++) {
+							scaler.scale(frame, source[0], source[1]);
+						}
+
+						long start = System.nanoTime();
+						for (int i = 0; i < FRAMES; i++) {
+							scaler.scale(frame, source[0], source[1]);
+						}
+						long elapsed = System.nanoTime() - start;
+						TestFrames.sink += scaler.getOutput()[0];
+
+						System.out.printf("%dx%d -> %dx%d, %s%s: %.3f ms/frame%n", source[0], source[1], output[0], output[1],
+							filter, lumaOnly ? " (luma only)" : "", elapsed / 1e6 / FRAMES);
+					}
+				}
+			}
+		}
+	}
+}
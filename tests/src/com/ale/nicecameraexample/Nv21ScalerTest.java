@@ -0,0 +1,165 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class Nv21ScalerTest {
+
+	@Test
+	public void uniformFrameStaysUniform() {
+		byte[] src = TestFrames.uniform(640, 480, 77, 99, 150);
+		for (Nv21Scaler.Filter filter : Nv21Scaler.Filter.values()) {
+			Nv21Scaler scaler = new Nv21Scaler(160, 120, filter, false);
+			byte[] out = scaler.scale(src, 640, 480);
+			assertSame(out, scaler.getOutput());
+
+			int frameSize = 160 * 120;
+			for (int i = 0; i < frameSize; i++) {
+				assertEquals(filter + " luma " + i, 77, out[i] & 0xff);
+			}
+			for (int i = frameSize; i < out.length; i += 2) {
+				assertEquals(filter + " V " + i, 99, out[i] & 0xff);
+				assertEquals(filter + " U " + i, 150, out[i + 1] & 0xff);
+			}
+		}
+	}
+
+	@Test
+	public void boxIsTheRoundedMeanOfTheBlock() {
+		int width = 64, height = 48, factor = 4;
+		byte[] src = TestFrames.random(width, height, 5);
+		Nv21Scaler scaler = new Nv21Scaler(width / factor, height / factor, Nv21Scaler.Filter.BOX, false);
+		byte[] out = scaler.scale(src, width, height);
+
+		int dw = width / factor;
+		for (int dy = 0; dy < height / factor; dy++) {
+			for (int dx = 0; dx < dw; dx++) {
+				int sum = 0;
+				for (int y = dy * factor; y < (dy + 1) * factor; y++) {
+					for (int x = dx * factor; x < (dx + 1) * factor; x++) {
+						sum += src[y * width + x] & 0xff;
+					}
+				}
+				int expected = (sum + factor * factor / 2) / (factor * factor);
+				assertEquals("luma " + dx + "," + dy, expected, out[dy * dw + dx] & 0xff);
+			}
+		}
+
+		// V of the first chroma block: the chroma plane is reduced by the same factor
+		int frameSize = width * height;
+		int sum = 0;
+		for (int y = 0; y < factor; y++) {
+			for (int x = 0; x < factor; x++) {
+				sum += src[frameSize + y * width + 2 * x] & 0xff;
+			}
+		}
+		int count = factor * factor;
+		assertEquals((sum + count / 2) / count, out[dw * (height / factor)] & 0xff);
+	}
+
+	@Test
+	public void bilinearFollowsAGradient() {
+		int width = 256, height = 16;
+		byte[] src = TestFrames.uniform(width, height, 0, 128, 128);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				src[y * width + x] = (byte) x;
+			}
+		}
+
+		Nv21Scaler scaler = new Nv21Scaler(64, 4, Nv21Scaler.Filter.BILINEAR, true);
+		byte[] out = scaler.scale(src, width, height);
+		for (int dx = 0; dx < 64; dx++) {
+			// the center of destination pixel dx is at source x = 4 * dx + 1.5
+			assertTrue("pixel " + dx, Math.abs((out[dx] & 0xff) - (4 * dx + 1.5)) <= 1);
+		}
+	}
+
+	@Test
+	public void cropSelectsTheRegion() {
+		int width = 64, height = 48;
+		byte[] src = TestFrames.uniform(width, height, 10, 128, 128);
+		for (int y = 16; y < 32; y++) {
+			for (int x = 32; x < 48; x++) {
+				src[y * width + x] = (byte) 200;
+			}
+		}
+
+		Nv21Scaler scaler = new Nv21Scaler(8, 8, Nv21Scaler.Filter.BOX, true);
+		scaler.setCrop(33, 17, 48, 32); // rounded down to 32,16
+		byte[] out = scaler.scale(src, width, height);
+		for (int i = 0; i < 64; i++) {
+			assertEquals(200, out[i] & 0xff);
+		}
+
+		scaler.clearCrop();
+		out = scaler.scale(src, width, height);
+		assertEquals(10, out[0] & 0xff);
+	}
+
+	@Test
+	public void boxRepeatsThePixelsWhenScalingUp() {
+		int width = 4, height = 2;
+		byte[] src = TestFrames.random(width, height, 9);
+		Nv21Scaler scaler = new Nv21Scaler(16, 8, Nv21Scaler.Filter.BOX, false);
+		byte[] out = scaler.scale(src, width, height);
+
+		for (int dy = 0; dy < 8; dy++) {
+			for (int dx = 0; dx < 16; dx++) {
+				assertEquals("luma " + dx + "," + dy, src[(dy / 4) * width + dx / 4] & 0xff, out[dy * 16 + dx] & 0xff);
+			}
+		}
+		// a single row of 2 chroma samples
+		for (int cy = 0; cy < 4; cy++) {
+			for (int cx = 0; cx < 8; cx++) {
+				int in = width * height + (cx / 4) * 2;
+				int i = 16 * 8 + (cy * 8 + cx) * 2;
+				assertEquals("V " + cx + "," + cy, src[in] & 0xff, out[i] & 0xff);
+				assertEquals("U " + cx + "," + cy, src[in + 1] & 0xff, out[i + 1] & 0xff);
+			}
+		}
+	}
+
+	@Test
+	public void tinyCropsAreScaledUp() {
+		int width = 64, height = 48;
+		byte[] src = TestFrames.uniform(width, height, 10, 128, 128);
+		src[20 * width + 30] = (byte) 200;
+		src[20 * width + 31] = (byte) 200;
+		src[21 * width + 30] = (byte) 200;
+		src[21 * width + 31] = (byte) 200;
+
+		for (Nv21Scaler.Filter filter : Nv21Scaler.Filter.values()) {
+			Nv21Scaler scaler = new Nv21Scaler(16, 16, filter, false);
+			scaler.setCrop(30, 20, 32, 22);
+			byte[] out = scaler.scale(src, width, height);
+			for (int i = 0; i < 16 * 16; i++) {
+				assertEquals(filter + " luma " + i, 200, out[i] & 0xff);
+			}
+		}
+	}
+
+	@Test
+	public void lumaOnlyLeavesTheChromaAlone() {
+		Nv21Scaler scaler = new Nv21Scaler(16, 16, Nv21Scaler.Filter.BOX, true);
+		byte[] out = scaler.getOutput();
+		out[16 * 16] = 42;
+		scaler.scale(TestFrames.uniform(64, 64, 1, 2, 3), 64, 64);
+		assertEquals(42, out[16 * 16]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void oddOutputSizeIsRefused() {
+		new Nv21Scaler(15, 16, Nv21Scaler.Filter.BOX, false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void cropOutsideTheFrameIsRefused() {
+		Nv21Scaler scaler = new Nv21Scaler(16, 16, Nv21Scaler.Filter.BOX, false);
+		scaler.setCrop(100, 100, 200, 200);
+		scaler.scale(new byte[64 * 64 * 3 / 2], 64, 64);
+	}
+}
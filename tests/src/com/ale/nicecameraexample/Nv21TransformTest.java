@@ -0,0 +1,130 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class Nv21TransformTest {
+
+	/**
+	 * Odd multiples of 2, so the chroma planes have odd sizes too. The biggest one
+	 * doesn't fit in a single tile.
+	 */
+	private static final int[][] SIZES = { { 2, 2 }, { 6, 10 }, { 10, 6 }, { 66, 34 }, { 34, 66 } };
+
+	@Test
+	public void everyRotationMatchesTheReference() {
+		long seed = 0;
+		for (int[] size : SIZES) {
+			int width = size[0], height = size[1];
+			byte[] src = TestFrames.random(width, height, seed++);
+
+			for (int rotation = 0; rotation < 360; rotation += 90) {
+				for (boolean mirror : new boolean[] { false, true }) {
+					byte[] dst = new byte[src.length];
+					Nv21Transform.transform(src, width, height, rotation, mirror, dst);
+					assertArrayEquals(width + "x" + height + " rotated by " + rotation + (mirror ? ", mirrored" : ""),
+						reference(src, width, height, rotation, mirror), dst);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void negativeRotationsAreTheSame() {
+		int width = 10, height = 6;
+		byte[] src = TestFrames.random(width, height, 3);
+		byte[] expected = new byte[src.length];
+		byte[] actual = new byte[src.length];
+
+		Nv21Transform.transform(src, width, height, 270, false, expected);
+		Nv21Transform.transform(src, width, height, -90, false, actual);
+		assertArrayEquals(expected, actual);
+
+		Nv21Transform.transform(src, width, height, 90, true, expected);
+		Nv21Transform.transform(src, width, height, 450, true, actual);
+		assertArrayEquals(expected, actual);
+	}
+
+	@Test
+	public void fourQuarterTurnsGiveTheFrameBack() {
+		int width = 66, height = 34;
+		byte[] src = TestFrames.synthetic(width, height, 1);
+		byte[] a = src.clone();
+		byte[] b = new byte[src.length];
+		for (int i = 0; i < 4; i++) {
+			int w = Nv21Transform.getRotatedWidth(width, height, 90 * i);
+			int h = Nv21Transform.getRotatedHeight(width, height, 90 * i);
+			Nv21Transform.transform(a, w, h, 90, false, b);
+			byte[] swap = a;
+			a = b;
+			b = swap;
+		}
+		assertArrayEquals(src, a);
+	}
+
+	@Test
+	public void rotatedSizes() {
+		for (int rotation : new int[] { 0, 180, 360, -180 }) {
+			assertEquals(640, Nv21Transform.getRotatedWidth(640, 480, rotation));
+			assertEquals(480, Nv21Transform.getRotatedHeight(640, 480, rotation));
+		}
+		for (int rotation : new int[] { 90, 270, -90 }) {
+			assertEquals(480, Nv21Transform.getRotatedWidth(640, 480, rotation));
+			assertEquals(640, Nv21Transform.getRotatedHeight(640, 480, rotation));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void oddSizesAreRefused() {
+		Nv21Transform.transform(new byte[7 * 6 * 3 / 2], 7, 6, 90, false, new byte[7 * 6 * 3 / 2]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void badRotationsAreRefused() {
+		Nv21Transform.transform(new byte[6 * 6 * 3 / 2], 6, 6, 45, false, new byte[6 * 6 * 3 / 2]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void smallBuffersAreRefused() {
+		Nv21Transform.transform(new byte[6 * 6 * 3 / 2], 6, 6, 90, false, new byte[6 * 6]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void transformingInPlaceIsRefused() {
+		byte[] frame = new byte[6 * 6 * 3 / 2];
+		Nv21Transform.transform(frame, 6, 6, 90, false, frame);
+	}
+
+	/**
+	 * Moves every luma pixel and every chroma pair one by one, the obvious way.
+	 */
+	private static byte[] reference(byte[] src, int width, int height, int rotation, boolean mirror) {
+		byte[] dst = new byte[src.length];
+		referencePlane(src, 0, width, height, dst, 1, rotation, mirror);
+		referencePlane(src, width * height, width / 2, height / 2, dst, 2, rotation, mirror);
+		return dst;
+	}
+
+	private static void referencePlane(byte[] src, int offset, int sw, int sh, byte[] dst, int elementSize, int rotation, boolean mirror) {
+		int dw = (rotation % 180 == 0) ? sw : sh;
+		for (int y = 0; y < sh; y++) {
+			for (int x = 0; x < sw; x++) {
+				int dx, dy;
+				switch (rotation) {
+					case 90: dx = sh - 1 - y; dy = x; break;
+					case 180: dx = sw - 1 - x; dy = sh - 1 - y; break;
+					case 270: dx = y; dy = sw - 1 - x; break;
+					default: dx = x; dy = y; break;
+				}
+				if (mirror) {
+					dx = dw - 1 - dx;
+				}
+				for (int b = 0; b < elementSize; b++) {
+					dst[offset + (dy * dw + dx) * elementSize + b] = src[offset + (y * sw + x) * elementSize + b];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.ale.nicecameraexample;
+
+import java.util.Random;
+
+/**
+ * How long {@link PerceptualHash} takes on a preview frame, reading every pixel and one
+ * every 2, 4 and 8, and how well it still tells the frames apart: the distance between
+ * a frame and a noisy copy of it should stay small, the one between two different
+ * frames large. Then how long a {@link HashCache} lookup takes, at the sizes the app uses.
+ */
+public class PerceptualHashBenchmark {
+
+	private static final int FRAMES = 2000;
+	private static final int LOOKUPS = 1000000;
+
+	public static void main(String[] args) {
+		int[][] sizes = { { 640, 480 }, { 1280, 960 } };
+		int[] steps = { 1, 2, 4, 8 };
+
+		for (int[] size : sizes) {
+			int width = size[0], height = size[1];
+			byte[] frame = TestFrames.synthetic(width, height, 0);
+			byte[] noisy = TestFrames.noisy(frame, width, height, 6, 1);
+			// the square has moved by 80 pixels
+			byte[] other = TestFrames.synthetic(width, height, 10);
+			PerceptualHash hasher = new PerceptualHash();
+
+			for (int step : steps) {
+				hasher.setStep(step);
+				for (int i = 0; i < FRAMES; i++) {
+					TestFrames.sink += hasher.dHash(frame, width, height);
+				}
+
+				long start = System.nanoTime();
+				for (int i = 0; i < FRAMES; i++) {
+					TestFrames.sink += hasher.dHash(frame, width, height);
+				}
+				long dHashNanos = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int i = 0; i < FRAMES; i++) {
+					TestFrames.sink += hasher.aHash(frame, width, height);
+				}
+				long aHashNanos = System.nanoTime() - start;
+
+				long hash = hasher.dHash(frame, width, height);
+				System.out.printf("%dx%d, step %d: dHash %.1f us/frame, aHash %.1f us/frame, dHash distance to a noisy copy %d, to another frame %d%n",
+					width, height, step, dHashNanos / 1e3 / FRAMES, aHashNanos / 1e3 / FRAMES,
+					PerceptualHash.distance(hash, hasher.dHash(noisy, width, height)),
+					PerceptualHash.distance(hash, hasher.dHash(other, width, height)));
+			}
+		}
+
+		// a cache full of unrelated hashes: every lookup scans all of them
+		Random random = new Random(1);
+		for (int capacity : new int[] { 16, 32 }) {
+			HashCache cache = new HashCache(capacity, 3);
+			for (int i = 0; i < capacity; i++) {
+				cache.add(random.nextLong());
+			}
+			long[] queries = new long[1024];
+			for (int i = 0; i < queries.length; i++) {
+				queries[i] = random.nextLong();
+			}
+
+			for (int i = 0; i < LOOKUPS; i++) {
+				TestFrames.sink += cache.contains(queries[i & 1023]) ? 1 : 0;
+			}
+			long start = System.nanoTime();
+			for (int i = 0; i < LOOKUPS; i++) {
+				TestFrames.sink += cache.contains(queries[i & 1023]) ? 1 : 0;
+			}
+			long elapsed = System.nanoTime() - start;
+			System.out.printf("HashCache of %d hashes: %.1f ns/lookup%n", capacity, (double) elapsed / LOOKUPS);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PerceptualHashTest {
+
+	private static final int WIDTH = 320;
+	private static final int HEIGHT = 240;
+
+	@Test
+	public void theSameFrameGivesTheSameHash() {
+		byte[] frame = TestFrames.synthetic(WIDTH, HEIGHT, 3);
+		PerceptualHash hasher = new PerceptualHash();
+		assertEquals(hasher.dHash(frame, WIDTH, HEIGHT), hasher.dHash(frame.clone(), WIDTH, HEIGHT));
+		assertEquals(hasher.aHash(frame, WIDTH, HEIGHT), hasher.aHash(frame.clone(), WIDTH, HEIGHT));
+		assertEquals(hasher.dHash(frame, WIDTH, HEIGHT), new PerceptualHash().dHash(frame, WIDTH, HEIGHT));
+	}
+
+	@Test
+	public void noiseFlipsOnlyAFewBits() {
+		PerceptualHash hasher = new PerceptualHash();
+		for (int step = 1; step <= 4; step *= 2) {
+			hasher.setStep(step);
+			for (long index = 0; index < 5; index++) {
+				byte[] frame = TestFrames.synthetic(WIDTH, HEIGHT, index);
+				byte[] noisy = TestFrames.noisy(frame, WIDTH, HEIGHT, 6, index);
+				assertClose("dHash, step " + step, hasher.dHash(frame, WIDTH, HEIGHT), hasher.dHash(noisy, WIDTH, HEIGHT));
+				assertClose("aHash, step " + step, hasher.aHash(frame, WIDTH, HEIGHT), hasher.aHash(noisy, WIDTH, HEIGHT));
+			}
+		}
+	}
+
+	@Test
+	public void aChangeOfExposureFlipsOnlyAFewBits() {
+		byte[] frame = TestFrames.synthetic(WIDTH, HEIGHT, 2);
+		byte[] brighter = frame.clone();
+		byte[] darker = frame.clone();
+		for (int i = 0; i < WIDTH * HEIGHT; i++) {
+			int luma = frame[i] & 0xff;
+			brighter[i] = (byte) Math.min(255, luma + 20);
+			darker[i] = (byte) (luma * 3 / 4);
+		}
+
+		PerceptualHash hasher = new PerceptualHash();
+		long dHash = hasher.dHash(frame, WIDTH, HEIGHT);
+		assertClose("dHash, brighter", dHash, hasher.dHash(brighter, WIDTH, HEIGHT));
+		assertClose("dHash, darker", dHash, hasher.dHash(darker, WIDTH, HEIGHT));
+		long aHash = hasher.aHash(frame, WIDTH, HEIGHT);
+		assertClose("aHash, brighter", aHash, hasher.aHash(brighter, WIDTH, HEIGHT));
+		assertClose("aHash, darker", aHash, hasher.aHash(darker, WIDTH, HEIGHT));
+	}
+
+	@Test
+	public void differentFramesAreFarApart() {
+		PerceptualHash hasher = new PerceptualHash();
+		byte[] frame = TestFrames.synthetic(WIDTH, HEIGHT, 0);
+		// the square has moved by 80 pixels
+		byte[] other = TestFrames.synthetic(WIDTH, HEIGHT, 10);
+		int distance = PerceptualHash.distance(hasher.dHash(frame, WIDTH, HEIGHT), hasher.dHash(other, WIDTH, HEIGHT));
+		assertTrue("distance " + distance, distance > 8);
+
+		byte[] random1 = TestFrames.random(WIDTH, HEIGHT, 1);
+		byte[] random2 = TestFrames.random(WIDTH, HEIGHT, 2);
+		distance = PerceptualHash.distance(hasher.dHash(random1, WIDTH, HEIGHT), hasher.dHash(random2, WIDTH, HEIGHT));
+		assertTrue("distance " + distance, distance > 16 && distance < 48);
+	}
+
+	@Test
+	public void distanceCountsTheDifferentBits() {
+		assertEquals(0, PerceptualHash.distance(0x1234L, 0x1234L));
+		assertEquals(64, PerceptualHash.distance(0L, -1L));
+		assertEquals(3, PerceptualHash.distance(0L, 0x8000000000000003L));
+	}
+
+	@Test
+	public void theSmallestFramesAreFine() {
+		PerceptualHash hasher = new PerceptualHash();
+		hasher.setStep(2);
+		hasher.dHash(TestFrames.random(18, 16, 1), 18, 16);
+		hasher.aHash(TestFrames.random(16, 16, 1), 16, 16);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void framesTooSmallForTheGridAreRefused() {
+		PerceptualHash hasher = new PerceptualHash();
+		hasher.setStep(2);
+		hasher.dHash(TestFrames.random(16, 16, 1), 16, 16);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void aZeroStepIsRefused() {
+		new PerceptualHash().setStep(0);
+	}
+
+	private static void assertClose(String message, long expected, long actual) {
+		int distance = PerceptualHash.distance(expected, actual);
+		assertTrue(message + ": " + distance + " bits differ", distance <= 4);
+	}
+}
@@ -0,0 +1,225 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+
+import org.junit.Test;
+
+public class PreviewBufferPoolTest {
+
+	/**
+	 * Plays the camera: keeps the buffers it's given, and fills them in order.
+	 */
+	private static class FakeCamera implements PreviewBufferPool.BufferSink {
+		final ArrayDeque<byte[]> queued = new ArrayDeque<byte[]>();
+
+		@Override
+		public void addCallbackBuffer(byte[] buffer) {
+			this.queued.add(buffer);
+		}
+
+		byte[] deliver(PreviewBufferPool pool) {
+			byte[] buffer = this.queued.poll();
+			if (buffer != null) {
+				assertTrue(pool.onFrameDelivered(buffer));
+			}
+			return buffer;
+		}
+	}
+
+	@Test
+	public void buffersAreIdleUntilAttached() {
+		PreviewBufferPool pool = new PreviewBufferPool(3, 100, PreviewBufferPool.Policy.PROCESS_ALL);
+		assertEquals(3, pool.getIdleCount());
+		assertEquals(100, pool.getBufferSize());
+
+		FakeCamera camera = new FakeCamera();
+		pool.attach(camera);
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(3, pool.getQueuedCount());
+		assertEquals(3, camera.queued.size());
+		assertCountsAddUp(pool);
+	}
+
+	@Test
+	public void processAllKeepsTheOrder() {
+		PreviewBufferPool pool = new PreviewBufferPool(3, 16, PreviewBufferPool.Policy.PROCESS_ALL);
+		FakeCamera camera = new FakeCamera();
+		pool.attach(camera);
+
+		byte[] first = camera.deliver(pool);
+		byte[] second = camera.deliver(pool);
+		assertEquals(2, pool.getPendingCount());
+
+		assertSame(first, pool.take());
+		assertSame(second, pool.take());
+		assertNull(pool.take());
+		assertEquals(2, pool.getProcessingCount());
+		assertEquals(0, pool.getDroppedCount());
+		assertCountsAddUp(pool);
+
+		pool.release(first);
+		pool.release(second);
+		assertEquals(3, pool.getQueuedCount());
+		assertCountsAddUp(pool);
+	}
+
+	@Test
+	public void processAllStarvesTheCamera() {
+		PreviewBufferPool pool = new PreviewBufferPool(2, 16, PreviewBufferPool.Policy.PROCESS_ALL);
+		FakeCamera camera = new FakeCamera();
+		pool.attach(camera);
+
+		camera.deliver(pool);
+		camera.deliver(pool);
+		assertEquals(1, pool.getStarvedCount());
+		assertNull("the camera has no buffers left", camera.deliver(pool));
+		assertEquals(2, pool.getDeliveredCount());
+	}
+
+	@Test
+	public void latestWinsDropsTheOlderFrames() {
+		PreviewBufferPool pool = new PreviewBufferPool(3, 16, PreviewBufferPool.Policy.LATEST_WINS);
+		FakeCamera camera = new FakeCamera();
+		pool.attach(camera);
+
+		byte[] last = null;
+		for (int i = 0; i < 10; i++) {
+			last = camera.deliver(pool);
+			assertEquals(1, pool.getPendingCount());
+			assertCountsAddUp(pool);
+		}
+
+		assertEquals(9, pool.getDroppedCount());
+		assertEquals(0, pool.getStarvedCount());
+		assertSame(last, pool.take());
+	}
+
+	@Test
+	public void detachDropsThePendingFrames() {
+		PreviewBufferPool pool = new PreviewBufferPool(3, 16, PreviewBufferPool.Policy.PROCESS_ALL);
+		FakeCamera camera = new FakeCamera();
+		pool.attach(camera);
+
+		byte[] taken = camera.deliver(pool);
+		camera.deliver(pool);
+		assertSame(taken, pool.take());
+
+		pool.detach();
+		assertEquals(1, pool.getDroppedCount());
+		assertEquals(2, pool.getIdleCount());
+		assertEquals(1, pool.getProcessingCount());
+
+		// released after the camera is gone: it stays idle
+		pool.release(taken);
+		assertEquals(3, pool.getIdleCount());
+		assertCountsAddUp(pool);
+
+		FakeCamera next = new FakeCamera();
+		pool.attach(next);
+		assertEquals(3, next.queued.size());
+	}
+
+	@Test
+	public void foreignBuffersAreIgnored() {
+		PreviewBufferPool pool = new PreviewBufferPool(2, 16, PreviewBufferPool.Policy.PROCESS_ALL);
+		pool.attach(new FakeCamera());
+
+		assertFalse(pool.onFrameDelivered(new byte[16]));
+		assertFalse(pool.onFrameDelivered(null));
+		assertEquals(-1, pool.indexOf(new byte[16]));
+		assertEquals(0, pool.getDeliveredCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void releasingAQueuedBufferIsRefused() {
+		PreviewBufferPool pool = new PreviewBufferPool(2, 16, PreviewBufferPool.Policy.PROCESS_ALL);
+		FakeCamera camera = new FakeCamera();
+		pool.attach(camera);
+		pool.release(camera.queued.peek());
+	}
+
+	@Test(timeout = 5000)
+	public void takeWaitsForAFrame() throws InterruptedException {
+		final PreviewBufferPool pool = new PreviewBufferPool(2, 16, PreviewBufferPool.Policy.LATEST_WINS);
+		final FakeCamera camera = new FakeCamera();
+		pool.attach(camera);
+		final byte[] buffer = camera.queued.poll();
+
+		assertNull(pool.take(10));
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				pool.onFrameDelivered(buffer);
+			}
+		}).start();
+
+		assertSame(buffer, pool.take(4000));
+		assertTrue(pool.getDeliveryTime(buffer) > 0);
+	}
+
+	@Test(timeout = 20000)
+	public void producerAndConsumerDontLoseBuffers() throws InterruptedException {
+		final PreviewBufferPool pool = new PreviewBufferPool(4, 16, PreviewBufferPool.Policy.LATEST_WINS);
+		final ArrayDeque<byte[]> queued = new ArrayDeque<byte[]>();
+		pool.attach(new PreviewBufferPool.BufferSink() {
+			@Override
+			public void addCallbackBuffer(byte[] buffer) {
+				synchronized (queued) {
+					queued.add(buffer);
+				}
+			}
+		});
+
+		final int frames = 200000;
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < frames; i++) {
+					byte[] buffer;
+					synchronized (queued) {
+						buffer = queued.poll();
+					}
+					if (buffer != null) {
+						pool.onFrameDelivered(buffer);
+					}
+					else {
+						Thread.yield();
+					}
+				}
+			}
+		});
+		producer.start();
+
+		long processed = 0;
+		while (producer.isAlive() || pool.getPendingCount() > 0) {
+			byte[] frame = pool.take(1);
+			if (frame != null) {
+				processed++;
+				pool.release(frame);
+			}
+		}
+		producer.join();
+
+		assertEquals(pool.getDeliveredCount(), processed + pool.getDroppedCount());
+		assertEquals(4, pool.getQueuedCount());
+		assertEquals(4, queued.size());
+		assertCountsAddUp(pool);
+	}
+
+	private static void assertCountsAddUp(PreviewBufferPool pool) {
+		assertEquals(pool.getBufferCount(), pool.getIdleCount() + pool.getQueuedCount()
+			+ pool.getPendingCount() + pool.getProcessingCount());
+	}
+}
@@ -0,0 +1,201 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PreviewGovernorTest {
+
+	private static final int[] SIZES = { 1280, 960, 320, 240, 1280, 720, 640, 480, 176, 144, 960, 720, 1920, 1440 };
+
+	/**
+	 * 4:3 sizes without frame rates: every level costs as many pixels as it has.
+	 */
+	private static PreviewGovernor.Level[] ladder() {
+		return PreviewGovernor.buildLadder(SIZES, null, 4, 3, 1280);
+	}
+
+	@Test
+	public void ladderKeepsTheGoodSizesSortedByCost() {
+		PreviewGovernor.Level[] ladder = ladder();
+		// not 1280x720 and 176x144 (other ratios), nor 1920x1440 (too wide)
+		int[] expected = { 320, 640, 960, 1280 };
+		assertEquals(expected.length, ladder.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], ladder[i].width);
+			assertEquals(expected[i] * 3 / 4, ladder[i].height);
+		}
+	}
+
+	@Test
+	public void ladderKeepsTheSteadiestRangeForEveryRate() {
+		int[] ranges = { 5000, 8000, 7500, 15000, 15000, 15000, 10000, 30000, 30000, 30000 };
+		PreviewGovernor.Level[] ladder = PreviewGovernor.buildLadder(new int[] { 640, 480, 320, 240 }, ranges, 4, 3, 1280);
+
+		// 320x240 and 640x480 at 15 and 30 fps: 8 fps is too slow
+		assertEquals(4, ladder.length);
+		for (PreviewGovernor.Level level : ladder) {
+			assertEquals(level.maxFps, level.minFps);
+		}
+		for (int i = 1; i < ladder.length; i++) {
+			assertTrue(ladder[i - 1].getCost() <= ladder[i].getCost());
+		}
+	}
+
+	@Test
+	public void findLevelPrefersTheExactSize() {
+		PreviewGovernor.Level[] ladder = ladder();
+		assertEquals(1, PreviewGovernor.findLevel(ladder, 640, 480));
+		// not in the ladder: the biggest one that isn't wider
+		assertEquals(2, PreviewGovernor.findLevel(ladder, 1024, 768));
+		assertEquals(0, PreviewGovernor.findLevel(ladder, 100, 75));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void emptyLadderIsRefused() {
+		new PreviewGovernor(new PreviewGovernor.Level[0], 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void levelOutsideTheLadderIsRefused() {
+		new PreviewGovernor(ladder(), 4);
+	}
+
+	@Test
+	public void overloadStepsDownAfterTwoWindows() {
+		Simulation sim = new Simulation(2);
+
+		// the first window is ignored: the first frames are often slower
+		assertEquals(-1, sim.window(30, 30000, 0));
+		assertEquals(-1, sim.window(30, 30000, 0));
+		assertEquals(1, sim.window(30, 30000, 0));
+		assertEquals(1, sim.governor.getLevelIndex());
+		assertEquals(0.9, sim.governor.getLastLoad(), 0.05);
+	}
+
+	@Test
+	public void farTooMuchLoadTakesMoreSteps() {
+		Simulation sim = new Simulation(3);
+		sim.window(30, 100000, 0);
+		sim.window(30, 100000, 0);
+
+		// a load of 3 on 1280x960 is still too much on 960x720 and 640x480
+		int level = sim.window(30, 100000, 0);
+		assertTrue("stepped down to " + level, level <= 1);
+	}
+
+	@Test
+	public void lightLoadStepsUpAfterFiveWindows() {
+		Simulation sim = new Simulation(1);
+		sim.window(30, 3000, 0);
+		for (int i = 0; i < 4; i++) {
+			assertEquals(-1, sim.window(30, 3000, 0));
+		}
+		assertEquals(2, sim.window(30, 3000, 0));
+	}
+
+	@Test
+	public void noStepUpIfTheNextLevelWouldBeTooHeavy() {
+		Simulation sim = new Simulation(0);
+		// a load of 0.3 on 320x240 would be 1.2 on 640x480
+		for (int i = 0; i < 20; i++) {
+			assertEquals(-1, sim.window(30, 10000, 0));
+		}
+		assertEquals(0, sim.governor.getLevelIndex());
+	}
+
+	@Test
+	public void dropsAloneStepDown() {
+		Simulation sim = new Simulation(2);
+		sim.window(30, 1000, 0.5);
+		sim.window(30, 1000, 0.5);
+		assertEquals(1, sim.window(30, 1000, 0.5));
+		assertEquals(0.5, sim.governor.getLastDropRate(), 0.01);
+	}
+
+	@Test
+	public void dropsKeepTheLevelFromGoingUp() {
+		Simulation sim = new Simulation(1);
+		for (int i = 0; i < 20; i++) {
+			assertEquals(-1, sim.window(30, 1000, 0.05));
+		}
+	}
+
+	@Test
+	public void aLevelTooHeavyRightAfterSteppingUpIsBlockedForAWhile() {
+		Simulation sim = new Simulation(1);
+		sim.window(30, 3000, 0);
+		for (int i = 0; i < 5; i++) {
+			sim.window(30, 3000, 0);
+		}
+		assertEquals(2, sim.governor.getLevelIndex());
+
+		// 960x720 turns out to be too heavy: back to 640x480
+		sim.window(30, 30000, 0);
+		sim.window(30, 30000, 0);
+		assertEquals(1, sim.window(30, 30000, 0));
+
+		// light again: 960x720 would be tried after 5 windows, but it's blocked 
+		// until the backoff (10 s) is over
+		sim.window(30, 3000, 0);
+		int windows = 0;
+		while (sim.window(30, 3000, 0) < 0) {
+			windows++;
+			assertTrue("never stepped up again", windows < 100);
+		}
+		assertTrue("stepped up again after " + windows + " windows", windows >= 8);
+		assertEquals(2, sim.governor.getLevelIndex());
+	}
+
+	@Test
+	public void restartForgetsTheWindow() {
+		Simulation sim = new Simulation(2);
+		sim.window(30, 30000, 0);
+		sim.window(30, 30000, 0);
+
+		// the preview has been restarted by someone else: one settling window again
+		sim.governor.restart(sim.nowNanos);
+		sim.governor.evaluate(sim.nowNanos, sim.delivered, sim.dropped);
+		assertEquals(-1, sim.window(30, 30000, 0));
+		assertEquals(-1, sim.window(30, 30000, 0));
+		assertEquals(1, sim.window(30, 30000, 0));
+	}
+
+	/**
+	 * A preview driven by simulated processing times, one second per window.
+	 */
+	private static class Simulation {
+		final PreviewGovernor governor;
+		long nowNanos = 1000000000L;
+		long delivered = 0;
+		long dropped = 0;
+
+		Simulation(int level) {
+			this.governor = new PreviewGovernor(ladder(), level);
+			this.governor.restart(this.nowNanos);
+			this.governor.evaluate(this.nowNanos, 0, 0);
+		}
+
+		/**
+		 * @return what {@link PreviewGovernor#evaluate(long, long, long)} returns at the end of the window
+		 */
+		int window(int fps, long processUs, double dropRate) {
+			int lost = (int) Math.round(fps * dropRate);
+			for (int i = 0; i < fps - lost; i++) {
+				this.governor.onFrameProcessed(processUs);
+			}
+			this.delivered += fps;
+			this.dropped += lost;
+			this.nowNanos += 1000000000L;
+
+			int level = this.governor.evaluate(this.nowNanos, this.delivered, this.dropped);
+			if (level >= 0) {
+				// the preview is restarted with the new level
+				this.governor.restart(this.nowNanos);
+				this.governor.evaluate(this.nowNanos, this.delivered, this.dropped);
+			}
+			return level;
+		}
+	}
+}
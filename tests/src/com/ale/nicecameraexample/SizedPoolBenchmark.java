@@ -0,0 +1,108 @@
+package com.ale.nicecameraexample;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * The allocation churn of the decode-rotate-encode capture path, with and without a
+ * {@link SizedPool}: every shot "decodes" a full-size ARGB picture, draws it rotated
+ * on a second buffer and reads it back, as {@link CapturePipeline} does with bitmaps.<br />
+ * Arguments: [shots] [width] [height], 30 shots of 2048x1536 by default. The pool has
+ * room for the two pictures of a shot, as in {@link CameraPreview}.
+ */
+public class SizedPoolBenchmark {
+
+	public static void main(String[] args) {
+		int shots = (args.length > 0) ? Integer.parseInt(args[0]) : 30;
+		int width = (args.length > 1) ? Integer.parseInt(args[1]) : 2048;
+		int height = (args.length > 2) ? Integer.parseInt(args[2]) : 1536;
+		long pictureBytes = 4L * width * height;
+
+		for (boolean pooled : new boolean[] { false, true, false, true }) {
+			SizedPool<SizedPoolTest.Pixels> pool = pooled 
+				? new SizedPool<SizedPoolTest.Pixels>(new SizedPoolTest.PixelsAllocator(), 2 * pictureBytes) 
+				: null;
+			long allocatedBytes = 0;
+
+			long gcCount = getGcCount();
+			long gcMillis = getGcMillis();
+			long start = System.nanoTime();
+			for (int i = 0; i < shots; i++) {
+				SizedPoolTest.Pixels picture = acquire(pool, width, height);
+				SizedPoolTest.Pixels rotated = acquire(pool, height, width);
+				if (pool == null) {
+					allocatedBytes += 2 * pictureBytes;
+				}
+
+				decode(picture, i);
+				rotate(picture, rotated);
+				TestFrames.sink += encode(rotated);
+
+				if (pool != null) {
+					pool.release(picture);
+					pool.release(rotated);
+				}
+			}
+			long elapsed = System.nanoTime() - start;
+			gcCount = getGcCount() - gcCount;
+			gcMillis = getGcMillis() - gcMillis;
+
+			if (pool != null) {
+				allocatedBytes = pool.getAllocatedBytes();
+			}
+			System.out.printf("%dx%d x %d, %s: %.2f ms/shot, %d MB allocated, %d collections (%d ms)%s%n",
+				width, height, shots, pooled ? "pooled" : "not pooled", elapsed / 1e6 / shots,
+				allocatedBytes / (1024 * 1024), gcCount, gcMillis,
+				pooled ? ", hit rate " + Math.round(pool.getHitRate() * 100) + "%" : "");
+		}
+	}
+
+	private static SizedPoolTest.Pixels acquire(SizedPool<SizedPoolTest.Pixels> pool, int width, int height) {
+		return (pool != null) ? pool.acquire(width, height, 0) : new SizedPoolTest.Pixels(width, height, 0);
+	}
+
+	private static void decode(SizedPoolTest.Pixels picture, int shot) {
+		int[] data = picture.data;
+		for (int i = 0; i < data.length; i++) {
+			data[i] = i * 31 + shot;
+		}
+	}
+
+	/**
+	 * 90 degrees clockwise.
+	 */
+	private static void rotate(SizedPoolTest.Pixels picture, SizedPoolTest.Pixels rotated) {
+		int width = picture.width;
+		int height = picture.height;
+		for (int y = 0; y < height; y++) {
+			int row = y * width;
+			for (int x = 0; x < width; x++) {
+				rotated.data[x * height + (height - 1 - y)] = picture.data[row + x];
+			}
+		}
+	}
+
+	private static int encode(SizedPoolTest.Pixels picture) {
+		int sum = 0;
+		for (int value : picture.data) {
+			sum += value;
+		}
+		return sum;
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long getGcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+}
@@ -0,0 +1,144 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SizedPoolTest {
+
+	/**
+	 * 4 bytes per pixel, like an ARGB_8888 bitmap. Remembers what has been discarded.
+	 */
+	static class Pixels {
+		final int width;
+		final int height;
+		final int format;
+		final int[] data;
+		boolean discarded = false;
+
+		Pixels(int width, int height, int format) {
+			this.width = width;
+			this.height = height;
+			this.format = format;
+			this.data = new int[width * height];
+		}
+	}
+
+	static class PixelsAllocator implements SizedPool.Allocator<Pixels> {
+		final List<Pixels> discarded = new ArrayList<Pixels>();
+
+		@Override
+		public Pixels allocate(int width, int height, int format) {
+			return new Pixels(width, height, format);
+		}
+
+		@Override
+		public int getWidth(Pixels buffer) {
+			return buffer.width;
+		}
+
+		@Override
+		public int getHeight(Pixels buffer) {
+			return buffer.height;
+		}
+
+		@Override
+		public int getFormat(Pixels buffer) {
+			return buffer.format;
+		}
+
+		@Override
+		public int sizeOf(Pixels buffer) {
+			return buffer.data.length * 4;
+		}
+
+		@Override
+		public boolean isReusable(Pixels buffer) {
+			return !buffer.discarded;
+		}
+
+		@Override
+		public void discard(Pixels buffer) {
+			buffer.discarded = true;
+			this.discarded.add(buffer);
+		}
+	}
+
+	private final PixelsAllocator allocator = new PixelsAllocator();
+
+	@Test
+	public void releasedBuffersAreReusedBySize() {
+		SizedPool<Pixels> pool = new SizedPool<Pixels>(this.allocator, 1000);
+		Pixels a = pool.acquire(10, 5, 0);
+		Pixels b = pool.acquire(5, 10, 0);
+		pool.release(a);
+		pool.release(b);
+
+		assertSame(b, pool.acquire(5, 10, 0));
+		assertNull(pool.poll(10, 5, 1));
+		assertSame(a, pool.acquire(10, 5, 0));
+		assertEquals(0, pool.getSize());
+
+		// 2 hits out of 5 requests
+		assertEquals(2, pool.getHitCount());
+		assertEquals(3, pool.getMissCount());
+		assertEquals(0.4, pool.getHitRate(), 1e-9);
+		assertEquals(400, pool.getAllocatedBytes());
+		assertEquals(400, pool.getReusedBytes());
+	}
+
+	@Test
+	public void theLeastRecentlyReleasedAreEvicted() {
+		SizedPool<Pixels> pool = new SizedPool<Pixels>(this.allocator, 1000);
+		Pixels[] buffers = new Pixels[4];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = pool.acquire(10, 10, i);
+		}
+		for (Pixels buffer : buffers) {
+			pool.release(buffer);
+		}
+
+		// 4 x 400 bytes in 1000: only the last two are kept
+		assertEquals(2, pool.getCount());
+		assertEquals(800, pool.getSize());
+		assertEquals(2, pool.getEvictionCount());
+		assertSame(buffers[0], this.allocator.discarded.get(0));
+		assertSame(buffers[1], this.allocator.discarded.get(1));
+		assertSame(buffers[3], pool.poll(10, 10, 3));
+	}
+
+	@Test
+	public void buffersThatCantBeReusedAreDiscarded() {
+		SizedPool<Pixels> pool = new SizedPool<Pixels>(this.allocator, 1000);
+		Pixels big = pool.acquire(20, 20, 0);
+		pool.release(big);
+		assertTrue(big.discarded);
+		assertEquals(0, pool.getCount());
+
+		Pixels gone = new Pixels(5, 5, 0);
+		gone.discarded = true;
+		pool.release(gone);
+		assertEquals(0, pool.getCount());
+		assertNotSame(gone, pool.acquire(5, 5, 0));
+
+		pool.release(null);
+	}
+
+	@Test
+	public void clearDiscardsEverything() {
+		SizedPool<Pixels> pool = new SizedPool<Pixels>(this.allocator, 1000);
+		pool.release(pool.acquire(5, 5, 0));
+		pool.release(pool.acquire(6, 6, 0));
+		pool.clear();
+		assertEquals(0, pool.getCount());
+		assertEquals(0, pool.getSize());
+		assertEquals(2, this.allocator.discarded.size());
+	}
+}
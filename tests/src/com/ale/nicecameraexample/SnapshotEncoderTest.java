@@ -0,0 +1,193 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SnapshotEncoderTest {
+
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+
+	/**
+	 * Writes the smallest picture {@link ExifOrientation} accepts, with the first byte of
+	 * the frame in it. It can be held closed, to keep the encoder busy, and it remembers
+	 * if its thread has been interrupted while encoding.
+	 */
+	static class FakeEncoder implements JpegEncoder {
+		final CountDownLatch gate;
+		volatile boolean interrupted = false;
+		volatile boolean failNext = false;
+
+		FakeEncoder(boolean open) {
+			this.gate = new CountDownLatch(open ? 0 : 1);
+		}
+
+		@Override
+		public void encode(byte[] nv21, int width, int height, int quality, OutputStream out) throws IOException {
+			boolean waited = false;
+			while (!waited) {
+				try {
+					this.gate.await();
+					waited = true;
+				}
+				catch (InterruptedException e) {
+					this.interrupted = true;
+				}
+			}
+			if (this.failNext) {
+				this.failNext = false;
+				throw new IOException("can't encode");
+			}
+			out.write(new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 0, 4, nv21[0], 0, (byte) 0xFF, (byte) 0xD9 });
+		}
+	}
+
+	/**
+	 * A copy of a snapshot, or the error that prevented it.
+	 */
+	static class Snapshot {
+		byte[] jpeg;
+		int rotationDegrees;
+		long frameNanos;
+		Exception error;
+	}
+
+	private final BlockingQueue<Snapshot> snapshots = new ArrayBlockingQueue<Snapshot>(16);
+	private final SnapshotEncoder.SnapshotListener listener = new SnapshotEncoder.SnapshotListener() {
+		@Override
+		public void onSnapshot(byte[] jpeg, int length, int rotationDegrees, long frameNanos) {
+			Snapshot snapshot = new Snapshot();
+			snapshot.jpeg = new byte[length];
+			System.arraycopy(jpeg, 0, snapshot.jpeg, 0, length);
+			snapshot.rotationDegrees = rotationDegrees;
+			snapshot.frameNanos = frameNanos;
+			snapshots.add(snapshot);
+		}
+
+		@Override
+		public void onSnapshotFailed(Exception e) {
+			Snapshot snapshot = new Snapshot();
+			snapshot.error = e;
+			snapshots.add(snapshot);
+		}
+	};
+	private SnapshotEncoder snapshotEncoder;
+
+	@After
+	public void shutdown() {
+		if (this.snapshotEncoder != null) {
+			this.snapshotEncoder.shutdown();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void theOrientationIsWrittenInThePicture() throws InterruptedException {
+		this.snapshotEncoder = new SnapshotEncoder(2, new FakeEncoder(true), this.listener);
+		int[] rotations = { 0, 90, 180, -90 };
+		for (int i = 0; i < rotations.length; i++) {
+			assertTrue(this.snapshotEncoder.submit(frame(i), WIDTH, HEIGHT, rotations[i], 1000 + i));
+			Snapshot snapshot = this.snapshots.take();
+
+			int expected = (rotations[i] + 360) % 360;
+			assertNull(snapshot.error);
+			assertEquals(expected, snapshot.rotationDegrees);
+			assertEquals(expected, ExifOrientation.getRotationDegrees(snapshot.jpeg));
+			assertEquals(1000 + i, snapshot.frameNanos);
+			assertEquals(i, snapshot.jpeg[snapshot.jpeg.length - 4]);
+		}
+		assertEquals(4, this.snapshotEncoder.getEncodedCount());
+	}
+
+	@Test(timeout = 10000)
+	public void framesAreRefusedWhenAllTheCopiesAreWaiting() throws InterruptedException {
+		FakeEncoder encoder = new FakeEncoder(false);
+		this.snapshotEncoder = new SnapshotEncoder(2, encoder, this.listener);
+		assertTrue(this.snapshotEncoder.submit(frame(0), WIDTH, HEIGHT, 0, 0));
+		assertTrue(this.snapshotEncoder.submit(frame(1), WIDTH, HEIGHT, 0, 0));
+		assertFalse(this.snapshotEncoder.submit(frame(2), WIDTH, HEIGHT, 0, 0));
+		assertEquals(1, this.snapshotEncoder.getBusyCount());
+
+		encoder.gate.countDown();
+		assertEquals(0, this.snapshots.take().jpeg[6]);
+		assertEquals(1, this.snapshots.take().jpeg[6]);
+	}
+
+	@Test(timeout = 10000)
+	public void framesAreThrottledByTheMinInterval() throws InterruptedException {
+		this.snapshotEncoder = new SnapshotEncoder(2, new FakeEncoder(true), this.listener);
+		this.snapshotEncoder.setMinInterval(60000);
+		assertTrue(this.snapshotEncoder.submit(frame(0), WIDTH, HEIGHT, 0, 0));
+		this.snapshots.take();
+		assertFalse(this.snapshotEncoder.submit(frame(1), WIDTH, HEIGHT, 0, 0));
+		assertEquals(1, this.snapshotEncoder.getThrottledCount());
+	}
+
+	@Test(timeout = 10000)
+	public void aFailureDoesntStopTheEncoder() throws InterruptedException {
+		FakeEncoder encoder = new FakeEncoder(true);
+		encoder.failNext = true;
+		this.snapshotEncoder = new SnapshotEncoder(2, encoder, this.listener);
+
+		assertTrue(this.snapshotEncoder.submit(frame(0), WIDTH, HEIGHT, 0, 0));
+		assertTrue(this.snapshots.take().error instanceof IOException);
+		// the encoder's thread is still there
+		assertTrue(this.snapshotEncoder.submit(frame(1), WIDTH, HEIGHT, 0, 0));
+		assertNull(this.snapshots.take().error);
+		assertEquals(1, this.snapshotEncoder.getEncodedCount());
+	}
+
+	@Test(timeout = 10000)
+	public void theCopiesAreAllocatedOnlyOnce() throws InterruptedException {
+		this.snapshotEncoder = new SnapshotEncoder(2, new FakeEncoder(true), this.listener);
+		for (int i = 0; i < 20; i++) {
+			assertTrue(this.snapshotEncoder.submit(frame(i), WIDTH, HEIGHT, 90, 0));
+			this.snapshots.take();
+		}
+		assertTrue(this.snapshotEncoder.getAllocationCount() <= 2);
+
+		// a smaller frame fits in the same copies
+		assertTrue(this.snapshotEncoder.submit(frame(0), WIDTH / 2, HEIGHT / 2, 90, 0));
+		this.snapshots.take();
+		assertTrue(this.snapshotEncoder.getAllocationCount() <= 2);
+	}
+
+	@Test(timeout = 10000)
+	public void shutdownLetsTheSubmittedFramesFinish() throws InterruptedException {
+		FakeEncoder encoder = new FakeEncoder(false);
+		this.snapshotEncoder = new SnapshotEncoder(2, encoder, this.listener);
+		assertTrue(this.snapshotEncoder.submit(frame(0), WIDTH, HEIGHT, 90, 0));
+		assertTrue(this.snapshotEncoder.submit(frame(1), WIDTH, HEIGHT, 90, 0));
+
+		// the first frame is being encoded, the second one is waiting
+		this.snapshotEncoder.shutdown();
+		assertFalse(this.snapshotEncoder.submit(frame(2), WIDTH, HEIGHT, 90, 0));
+		assertFalse(this.snapshotEncoder.awaitTermination(50));
+
+		encoder.gate.countDown();
+		assertTrue(this.snapshotEncoder.awaitTermination(5000));
+		assertFalse("the encoding has been interrupted", encoder.interrupted);
+		assertEquals(2, this.snapshots.size());
+		for (Snapshot snapshot : this.snapshots) {
+			assertNull(snapshot.error);
+		}
+		assertEquals(2, this.snapshotEncoder.getEncodedCount());
+	}
+
+	private static byte[] frame(int index) {
+		byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+		frame[0] = (byte) index;
+		return frame;
+	}
+}
@@ -0,0 +1,36 @@
+package com.ale.nicecameraexample;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Temporary files for the tests and the benchmarks.
+ */
+final class TestFiles {
+
+	private TestFiles() { }
+
+	/**
+	 * @return a new empty directory in java.io.tmpdir
+	 */
+	static File createTempDirectory(String name) throws IOException {
+		File directory = File.createTempFile(name, "");
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("can't create " + directory);
+		}
+		return directory;
+	}
+
+	/**
+	 * Deletes a file, or a directory with everything in it.
+	 */
+	static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,80 @@
+package com.ale.nicecameraexample;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Frames for the tests and the benchmarks.
+ */
+final class TestFrames {
+
+	private TestFrames() { }
+
+	/**
+	 * @return frame number 'index' of a little movie: a diagonal gradient that slowly
+	 * scrolls, with a bright square that moves 8 pixels per frame. It's always the same
+	 * for the same arguments
+	 */
+	static byte[] synthetic(int width, int height, long index) {
+		int frameSize = width * height;
+		byte[] frame = new byte[frameSize * 3 / 2];
+		int shift = (int) (index & 0xff);
+		int squareX = (int) ((index * 8) % Math.max(1, width - 32));
+		int squareY = (height - 32) / 2;
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				boolean square = x >= squareX && x < squareX + 32 && y >= squareY && y < squareY + 32;
+				frame[y * width + x] = (byte) (square ? 235 : 16 + (((x + y) / 2 + shift) & 0x7f));
+			}
+		}
+		for (int y = 0; y < height / 2; y++) {
+			for (int x = 0; x < width; x += 2) {
+				frame[frameSize + y * width + x] = (byte) (112 + ((y + shift) & 0x1f));
+				frame[frameSize + y * width + x + 1] = (byte) (112 + ((x / 2) & 0x1f));
+			}
+		}
+		return frame;
+	}
+
+	/**
+	 * @return a frame of random bytes: every luma and chroma value appears
+	 */
+	static byte[] random(int width, int height, long seed) {
+		byte[] frame = new byte[width * height * 3 / 2];
+		new Random(seed).nextBytes(frame);
+		return frame;
+	}
+
+	/**
+	 * @return a frame with the same luma and chroma everywhere
+	 */
+	static byte[] uniform(int width, int height, int luma, int v, int u) {
+		int frameSize = width * height;
+		byte[] frame = new byte[frameSize * 3 / 2];
+		Arrays.fill(frame, 0, frameSize, (byte) luma);
+		for (int i = frameSize; i < frame.length; i += 2) {
+			frame[i] = (byte) v;
+			frame[i + 1] = (byte) u;
+		}
+		return frame;
+	}
+
+	/**
+	 * @return a copy of the frame with up to +/- 'amount' of random noise on the luma, like the sensor's
+	 */
+	static byte[] noisy(byte[] frame, int width, int height, int amount, long seed) {
+		Random random = new Random(seed);
+		byte[] noisy = frame.clone();
+		for (int i = 0; i < width * height; i++) {
+			int value = (frame[i] & 0xff) + random.nextInt(2 * amount + 1) - amount;
+			noisy[i] = (byte) Math.max(0, Math.min(255, value));
+		}
+		return noisy;
+	}
+
+	/**
+	 * Prevents the JIT from throwing away the results of a benchmark.
+	 */
+	static volatile long sink;
+}
@@ -0,0 +1,221 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class TraceRecorderTest {
+
+	private static final Pattern EVENT = Pattern.compile(
+		"\\{\"ph\":\"([XiC])\",\"name\":\"([^\"]*)\",\"pid\":1,\"tid\":(\\d+),\"ts\":(-?\\d+\\.\\d{3})(.*)\\}");
+
+	@Test
+	public void theEventsAreWrittenInOrder() throws IOException {
+		TraceRecorder recorder = new TraceRecorder(8);
+		recorder.counter("a", 1);
+		recorder.instant("b");
+		recorder.counter("c", 3);
+
+		List<String> events = events(recorder, null, 3);
+		assertEquals("a", field(events.get(0), 2));
+		assertEquals("b", field(events.get(1), 2));
+		assertEquals("c", field(events.get(2), 2));
+		assertEquals(String.valueOf(Thread.currentThread().getId()), field(events.get(0), 3));
+		assertEquals(3, recorder.getEventCount());
+	}
+
+	@Test
+	public void theOldestEventsAreOverwritten() throws IOException {
+		TraceRecorder recorder = new TraceRecorder(4);
+		for (int i = 0; i < 10; i++) {
+			recorder.counter("n" + i, i);
+		}
+		assertEquals(10, recorder.getEventCount());
+		assertEquals(4, recorder.getCapacity());
+
+		// only the last 4, from the oldest
+		List<String> events = events(recorder, null, 4);
+		for (int i = 0; i < 4; i++) {
+			assertEquals("n" + (i + 6), field(events.get(i), 2));
+			assertEquals(",\"args\":{\"value\":" + (i + 6) + "}", field(events.get(i), 5));
+		}
+	}
+
+	@Test
+	public void everyTypeHasItsOwnFields() throws IOException {
+		TraceRecorder recorder = new TraceRecorder(8);
+		recorder.complete("complete", 1000, 1235678);
+		recorder.instant("instant");
+		recorder.counter("counter", -42);
+
+		List<String> events = events(recorder, null, 3);
+		assertEquals("X", field(events.get(0), 1));
+		assertEquals(",\"dur\":1234.678", field(events.get(0), 5));
+		assertEquals("i", field(events.get(1), 1));
+		assertEquals(",\"s\":\"t\"", field(events.get(1), 5));
+		assertEquals("C", field(events.get(2), 1));
+		assertEquals(",\"args\":{\"value\":-42}", field(events.get(2), 5));
+	}
+
+	@Test
+	public void microsecondsHaveThreeDecimals() throws IOException {
+		TraceRecorder recorder = new TraceRecorder(8);
+		recorder.complete("a", 0, 5);
+		recorder.complete("b", 0, 1050);
+		recorder.complete("c", 0, 2000);
+		recorder.complete("d", 1005, 0);
+
+		List<String> events = events(recorder, null, 4);
+		assertEquals(",\"dur\":0.005", field(events.get(0), 5));
+		assertEquals(",\"dur\":1.050", field(events.get(1), 5));
+		assertEquals(",\"dur\":2.000", field(events.get(2), 5));
+		assertEquals(",\"dur\":-1.005", field(events.get(3), 5));
+	}
+
+	@Test
+	public void eventsBeforeTheRecorderHaveNegativeTimestamps() throws IOException {
+		long before = System.nanoTime();
+		TraceRecorder recorder = new TraceRecorder(8);
+		recorder.complete("early", before - 5000000000L, before);
+
+		String ts = field(events(recorder, null, 1).get(0), 4);
+		double micros = Double.parseDouble(ts);
+		assertTrue(ts, micros <= -5000000 && micros > -6000000);
+	}
+
+	@Test
+	public void namesAreEscaped() throws IOException {
+		TraceRecorder recorder = new TraceRecorder(8);
+		recorder.instant("say \"cheese\" \\ now\n");
+		Map<Long, String> threads = new LinkedHashMap<Long, String>();
+		threads.put(7L, "main \"ui\"\t");
+
+		String json = write(recorder, threads);
+		assertTrue(json, json.contains("\"name\":\"say \\\"cheese\\\" \\\\ now \""));
+		assertTrue(json, json.contains("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":7,\"args\":{\"name\":\"main \\\"ui\\\" \"}}"));
+		// control characters never end up in the document
+		for (char c : json.substring(json.indexOf('[') + 1, json.lastIndexOf(']')).replace("\n", "").toCharArray()) {
+			assertFalse("control character " + (int) c, c < 0x20);
+		}
+	}
+
+	@Test
+	public void anEmptyRingIsAValidDocument() throws IOException {
+		assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n\n]}\n", write(new TraceRecorder(4), null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void capacityMustBeAPowerOfTwo() {
+		new TraceRecorder(12);
+	}
+
+	@Test(timeout = 20000)
+	public void exportingWhileRecordingNeverMixesTheEvents() throws Exception {
+		final TraceRecorder recorder = new TraceRecorder(256);
+		final int writerCount = 4;
+		final int eventsPerWriter = 50000;
+		final String[] names = new String[writerCount];
+		final long[] threadIds = new long[writerCount];
+		Thread[] writers = new Thread[writerCount];
+
+		for (int w = 0; w < writerCount; w++) {
+			names[w] = "writer" + w;
+			final int index = w;
+			writers[w] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < eventsPerWriter; i++) {
+						recorder.counter(names[index], getId() * 1000000 + i);
+					}
+				}
+			};
+			threadIds[w] = writers[w].getId();
+		}
+		for (Thread writer : writers) {
+			writer.start();
+		}
+
+		// every exported event must be one that a writer recorded, in one piece
+		int exports = 0;
+		boolean running = true;
+		while (running) {
+			running = false;
+			for (Thread writer : writers) {
+				running |= writer.isAlive();
+			}
+			for (String event : events(recorder, null, -1)) {
+				Matcher m = match(event);
+				int w = Integer.parseInt(m.group(2).substring("writer".length()));
+				long tid = Long.parseLong(m.group(3));
+				assertEquals(event, threadIds[w], tid);
+				String value = m.group(5);
+				long recorded = Long.parseLong(value.substring(",\"args\":{\"value\":".length(), value.length() - 1));
+				assertEquals(event, tid, recorded / 1000000);
+			}
+			exports++;
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+
+		assertTrue(exports > 0);
+		assertEquals(writerCount * eventsPerWriter, recorder.getEventCount());
+		// nobody is writing anymore: the ring is full, and nothing is skipped
+		assertEquals(256, events(recorder, null, 256).size());
+	}
+
+	private static String write(TraceRecorder recorder, Map<Long, String> threadNames) throws IOException {
+		StringWriter out = new StringWriter();
+		recorder.writeJson(out, threadNames);
+		return out.toString();
+	}
+
+	/**
+	 * @param expected how many events must be written, or -1 if it's not known
+	 * @return the events, one per line, without the metadata
+	 */
+	private static List<String> events(TraceRecorder recorder, Map<Long, String> threadNames, int expected) throws IOException {
+		StringWriter out = new StringWriter();
+		int count = recorder.writeJson(out, threadNames);
+		String[] lines = out.toString().split("\n");
+		assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[", lines[0]);
+		assertEquals("]}", lines[lines.length - 1]);
+
+		List<String> events = new ArrayList<String>();
+		for (int i = 1; i < lines.length - 1; i++) {
+			String line = lines[i];
+			if (line.endsWith(",")) {
+				line = line.substring(0, line.length() - 1);
+			}
+			if (line.length() > 0 && !line.startsWith("{\"ph\":\"M\"")) {
+				events.add(line);
+			}
+		}
+		assertEquals(count, events.size());
+		if (expected >= 0) {
+			assertEquals(expected, count);
+		}
+		return events;
+	}
+
+	private static Matcher match(String event) {
+		Matcher m = EVENT.matcher(event);
+		assertTrue(event, m.matches());
+		return m;
+	}
+
+	private static String field(String event, int group) {
+		return match(event).group(group);
+	}
+}
@@ -0,0 +1,58 @@
+package com.ale.nicecameraexample;
+
+/**
+ * How many pixels per second {@link YuvConverter} converts, at the preview sizes the app
+ * uses, with 1 thread and with all the cores.
+ */
+public class YuvConverterBenchmark {
+
+	private static final int WARMUP_FRAMES = 200;
+	private static final int MEASURED_FRAMES = 500;
+
+	public static void main(String[] args) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		int[][] sizes = { { 320, 240 }, { 640, 480 }, { 1280, 960 } };
+
+		for (int[] size : sizes) {
+			int width = size[0], height = size[1];
+			byte[] nv21 = TestFrames.synthetic(width, height, 0);
+			int[] argb = new int[width * height];
+			short[] rgb565 = new short[width * height];
+
+			for (int threads = 1; threads <= cores; threads = (threads == cores) ? threads + 1 : Math.min(cores, threads * 2)) {
+				YuvConverter converter = new YuvConverter(threads);
+				try {
+					for (int i = 0; i < WARMUP_FRAMES; i++) {
+						converter.toArgb8888(nv21, width, height, argb);
+						converter.toRgb565(nv21, width, height, rgb565);
+					}
+
+					long start = System.nanoTime();
+					for (int i = 0; i < MEASURED_FRAMES; i++) {
+						converter.toArgb8888(nv21, width, height, argb);
+					}
+					long argbNanos = System.nanoTime() - start;
+
+					start = System.nanoTime();
+					for (int i = 0; i < MEASURED_FRAMES; i++) {
+						converter.toRgb565(nv21, width, height, rgb565);
+					}
+					long rgb565Nanos = System.nanoTime() - start;
+					TestFrames.sink += argb[argb.length / 2] + rgb565[rgb565.length / 2];
+
+					System.out.printf("%dx%d, %d threads: ARGB8888 %.1f Mpixels/s (%.2f ms/frame), RGB565 %.1f Mpixels/s (%.2f ms/frame)%n",
+						width, height, threads,
+						megapixelsPerSecond(width, height, argbNanos), argbNanos / 1e6 / MEASURED_FRAMES,
+						megapixelsPerSecond(width, height, rgb565Nanos), rgb565Nanos / 1e6 / MEASURED_FRAMES);
+				}
+				finally {
+					converter.release();
+				}
+			}
+		}
+	}
+
+	private static double megapixelsPerSecond(int width, int height, long nanos) {
+		return (double) width * height * MEASURED_FRAMES / (nanos / 1e9) / 1e6;
+	}
+}
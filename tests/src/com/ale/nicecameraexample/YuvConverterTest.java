@@ -0,0 +1,210 @@
+package com.ale.nicecameraexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class YuvConverterTest {
+
+	/**
+	 * The fixed-point math rounds differently from the floating-point one: a channel
+	 * can be off by this much at most.
+	 */
+	private static final int MAX_CHANNEL_ERROR = 2;
+
+	@Test
+	public void argbMatchesReferenceOnRandomFrames() {
+		int width = 64, height = 48;
+		int[] out = new int[width * height];
+		YuvConverter converter = new YuvConverter();
+
+		for (long seed = 0; seed < 10; seed++) {
+			byte[] nv21 = TestFrames.random(width, height, seed);
+			converter.toArgb8888(nv21, width, height, out);
+			assertCloseToReference(nv21, width, height, out);
+		}
+	}
+
+	@Test
+	public void argbMatchesReferenceOnAllColors() {
+		// every combination of luma and chroma, 2x2 pixels each
+		int width = 256, height = 2 * 16 * 16;
+		byte[] nv21 = new byte[width * height * 3 / 2];
+		int frameSize = width * height;
+		for (int row = 0; row < height / 2; row++) {
+			int v = (row / 16) * 17;
+			int u = (row % 16) * 17;
+			for (int x = 0; x < width; x++) {
+				nv21[2 * row * width + x] = (byte) x;
+				nv21[(2 * row + 1) * width + x] = (byte) x;
+			}
+			for (int x = 0; x < width; x += 2) {
+				nv21[frameSize + row * width + x] = (byte) v;
+				nv21[frameSize + row * width + x + 1] = (byte) u;
+			}
+		}
+
+		int[] out = new int[frameSize];
+		new YuvConverter().toArgb8888(nv21, width, height, out);
+		assertCloseToReference(nv21, width, height, out);
+	}
+
+	@Test
+	public void grayIsGray() {
+		int width = 8, height = 8;
+		int[] out = new int[width * height];
+		new YuvConverter().toArgb8888(TestFrames.uniform(width, height, 16, 128, 128), width, height, out);
+		assertEquals(0xff000000, out[0]);
+
+		new YuvConverter().toArgb8888(TestFrames.uniform(width, height, 235, 128, 128), width, height, out);
+		int white = out[width * height - 1];
+		assertEquals((white >> 16) & 0xff, white & 0xff);
+		assertEquals((white >> 8) & 0xff, white & 0xff);
+		assertTrue("white is " + Integer.toHexString(white), (white & 0xff) >= 255 - MAX_CHANNEL_ERROR);
+	}
+
+	@Test
+	public void rgb565IsArgbTruncated() {
+		int width = 64, height = 48;
+		byte[] nv21 = TestFrames.random(width, height, 7);
+		int[] argb = new int[width * height];
+		short[] rgb565 = new short[width * height];
+
+		YuvConverter converter = new YuvConverter();
+		converter.toArgb8888(nv21, width, height, argb);
+		converter.toRgb565(nv21, width, height, rgb565);
+
+		for (int i = 0; i < argb.length; i++) {
+			int r = (argb[i] >> 16) & 0xff;
+			int g = (argb[i] >> 8) & 0xff;
+			int b = argb[i] & 0xff;
+			int expected = ((r >> 3) << 11) | ((g >> 2) << 5) | (b >> 3);
+			assertEquals("pixel " + i, expected, rgb565[i] & 0xffff);
+		}
+	}
+
+	@Test
+	public void parallelConversionIsTheSame() {
+		int width = 640, height = 482; // the stripes don't divide the rows evenly
+		byte[] nv21 = TestFrames.synthetic(width, height, 3);
+		int[] expected = new int[width * height];
+		new YuvConverter().toArgb8888(nv21, width, height, expected);
+
+		for (int threads = 2; threads <= 5; threads++) {
+			YuvConverter converter = new YuvConverter(threads);
+			try {
+				assertEquals(threads, converter.getThreadCount());
+				int[] out = new int[width * height];
+				for (int frame = 0; frame < 3; frame++) {
+					converter.toArgb8888(nv21, width, height, out);
+					assertArrayEquals(expected, out);
+				}
+			}
+			finally {
+				converter.release();
+			}
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void sharedThreadsSurviveAFailingTask() {
+		int width = 64, height = 48;
+		byte[] nv21 = TestFrames.synthetic(width, height, 1);
+		int[] expected = new int[width * height];
+		new YuvConverter().toArgb8888(nv21, width, height, expected);
+
+		ParallelStripes stripes = new ParallelStripes(3, "YuvConverterTest");
+		YuvConverter converter = new YuvConverter(stripes);
+		try {
+			try {
+				stripes.run(new ParallelStripes.Task() {
+					@Override
+					public void runStripe(int stripe, int stripeCount) {
+						if (stripe == stripeCount - 1) {
+							throw new IllegalStateException("stripe " + stripe);
+						}
+					}
+				});
+			}
+			catch (IllegalStateException e) {
+				// expected
+			}
+
+			// the worker that failed is still there: this would hang otherwise
+			int[] out = new int[width * height];
+			converter.toArgb8888(nv21, width, height, out);
+			assertArrayEquals(expected, out);
+
+			// the shared threads are not the converter's to stop
+			converter.release();
+			stripes.run(new ParallelStripes.Task() {
+				@Override
+				public void runStripe(int stripe, int stripeCount) { }
+			});
+		}
+		finally {
+			stripes.release();
+		}
+	}
+
+	@Test
+	public void biggerOutputIsFine() {
+		int width = 16, height = 16;
+		int[] out = new int[width * height + 10];
+		out[width * height] = 12345;
+		new YuvConverter().toArgb8888(TestFrames.random(width, height, 1), width, height, out);
+		assertEquals("nothing is written after the frame", 12345, out[width * height]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void oddSizeIsRefused() {
+		new YuvConverter().toArgb8888(new byte[15 * 16 * 3 / 2 + 1], 15, 16, new int[15 * 16]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void smallOutputIsRefused() {
+		new YuvConverter().toArgb8888(new byte[16 * 16 * 3 / 2], 16, 16, new int[16 * 16 - 1]);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void releasedConverterIsRefused() {
+		YuvConverter converter = new YuvConverter(2);
+		converter.release();
+		converter.toArgb8888(new byte[16 * 16 * 3 / 2], 16, 16, new int[16 * 16]);
+	}
+
+	/**
+	 * Checks every pixel against the floating-point ITU-R BT.601 formulas.
+	 */
+	private static void assertCloseToReference(byte[] nv21, int width, int height, int[] out) {
+		int frameSize = width * height;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int uv = frameSize + (y / 2) * width + (x & ~1);
+				int expected = referenceArgb(nv21[y * width + x] & 0xff, nv21[uv] & 0xff, nv21[uv + 1] & 0xff);
+				int actual = out[y * width + x];
+
+				assertEquals("alpha at " + x + "," + y, 0xff, actual >>> 24);
+				for (int shift = 0; shift <= 16; shift += 8) {
+					int error = Math.abs(((expected >> shift) & 0xff) - ((actual >> shift) & 0xff));
+					assertTrue("pixel " + x + "," + y + ": expected " + Integer.toHexString(expected)
+						+ " but was " + Integer.toHexString(actual), error <= MAX_CHANNEL_ERROR);
+				}
+			}
+		}
+	}
+
+	private static int referenceArgb(int y, int v, int u) {
+		double luma = 1.164 * Math.max(0, y - 16);
+		int r = clamp(luma + 1.596 * (v - 128));
+		int g = clamp(luma - 0.813 * (v - 128) - 0.391 * (u - 128));
+		int b = clamp(luma + 2.018 * (u - 128));
+		return 0xff000000 | (r << 16) | (g << 8) | b;
+	}
+
+	private static int clamp(double value) {
+		return (int) Math.max(0, Math.min(255, value));
+	}
+}